@@ -1,6 +1,8 @@
 package com.shc.silenceengine.collision;
 
+import com.shc.silenceengine.geom2d.Circle;
 import com.shc.silenceengine.geom2d.Polygon;
+import com.shc.silenceengine.geom2d.Rectangle;
 import com.shc.silenceengine.math.Vector2;
 
 import java.util.List;
@@ -10,6 +12,12 @@ import java.util.List;
  * Contains helper methods to check using SAT (Separating Axis Theorem)
  * This class also calculates the response, like how much the polygons
  * have overlapped, and in what direction they overlapped.
+ * <p>
+ * Circles and axis aligned rectangles are tested with closed form tests, which
+ * are picked from a dispatch table by the types of the shapes. SAT is only used
+ * for the pairs that involve other polygons. The minimum translation vector of
+ * a response points from the first shape to the second, so subtracting it from
+ * the position of the first shape resolves the collision.
  *
  * @author Sri Harsha CHilakapati
  */
@@ -19,56 +27,103 @@ public final class Collision2D
     {
     }
 
-    private static Response tmpResponse = new Response();
+    // The shape types used to index the dispatch table
+    private static final int POLYGON = 0;
+    private static final int AABB    = 1;
+    private static final int CIRCLE  = 2;
 
-    private static Vector2 flattenPoints(List<Vector2> vertices, Vector2 normal)
+    // The collision tests, indexed by the shape types of the first and the second shapes
+    private static final CollisionTest[][] DISPATCH_TABLE = {
+            // POLYGON
+            {Collision2D::testPolygonCollision, Collision2D::testPolygonCollision, Collision2D::testPolygonCircle},
+            // AABB
+            {Collision2D::testPolygonCollision, Collision2D::testAABBCollision, Collision2D::testAABBCircle},
+            // CIRCLE
+            {Collision2D::testCirclePolygon, Collision2D::testCircleAABB, Collision2D::testCircleCollision}
+    };
+
+    // Every thread gets its own response, so that collisions can be tested in parallel
+    private static ThreadLocal<Response> tmpResponse = ThreadLocal.withInitial(Response::new);
+
+    /**
+     * Tests whether an axis separates two polygons, and updates the response with the
+     * overlap along the axis if it doesn't.
+     *
+     * @param a        The first polygon
+     * @param b        The second polygon
+     * @param axis     The axis to test, need not be normalized
+     * @param response The response to update, or null to use the response of this thread
+     *
+     * @return True if the axis separates the polygons, else False.
+     */
+    public static boolean isSeparatingAxis(Polygon a, Polygon b, Vector2 axis, Response response)
     {
-        float min = Float.MAX_VALUE;
-        float max = -min;
+        if (response == null)
+            response = tmpResponse.get().clear();
 
-        for (Vector2 vertex : vertices)
-        {
-            float dot = vertex.dot(normal);
+        float length = axis.length();
 
-            if (dot < min) min = dot;
-            if (dot > max) max = dot;
-        }
+        float offsetX = b.getPosition().x - a.getPosition().x;
+        float offsetY = b.getPosition().y - a.getPosition().y;
 
-        return new Vector2(min, max);
+        return isSeparatingAxis(a, b, axis.x / length, axis.y / length, offsetX, offsetY, response);
     }
 
-    public static boolean isSeparatingAxis(Polygon a, Polygon b, Vector2 axis, Response response)
+    // Projects both polygons on the unit axis (nx, ny) without creating any objects
+    private static boolean isSeparatingAxis(Polygon a, Polygon b, float nx, float ny,
+                                            float offsetX, float offsetY, Response response)
     {
-        if (response == null)
-            response = tmpResponse.clear();
+        List<Vector2> verticesA = a.getVertices();
+        List<Vector2> verticesB = b.getVertices();
 
-        Vector2 offset = b.getPosition().subtract(a.getPosition());
+        float minA = Float.MAX_VALUE;
+        float maxA = -Float.MAX_VALUE;
 
-        float projectedOffset = offset.dot(axis);
+        for (int i = 0; i < verticesA.size(); i++)
+        {
+            Vector2 vertex = verticesA.get(i);
+            float dot = vertex.x * nx + vertex.y * ny;
 
-        Vector2 rangeA = flattenPoints(a.getVertices(), axis);
-        Vector2 rangeB = flattenPoints(b.getVertices(), axis);
+            if (dot < minA) minA = dot;
+            if (dot > maxA) maxA = dot;
+        }
+
+        // The vertices of b are offset by the distance between the polygons
+        float projectedOffset = offsetX * nx + offsetY * ny;
 
-        rangeB = rangeB.add(projectedOffset, projectedOffset);
+        float minB = Float.MAX_VALUE;
+        float maxB = -Float.MAX_VALUE;
 
-        if (rangeA.x > rangeB.y || rangeB.x > rangeA.y)
+        for (int i = 0; i < verticesB.size(); i++)
+        {
+            Vector2 vertex = verticesB.get(i);
+            float dot = vertex.x * nx + vertex.y * ny;
+
+            if (dot < minB) minB = dot;
+            if (dot > maxB) maxB = dot;
+        }
+
+        minB += projectedOffset;
+        maxB += projectedOffset;
+
+        if (minA > maxB || minB > maxA)
             return true;
 
-        float overlap = 0;
+        float overlap;
 
-        if (rangeA.x < rangeB.x)
+        if (minA < minB)
         {
             response.aInB = false;
 
-            if (rangeA.y < rangeB.y)
+            if (maxA < maxB)
             {
-                overlap = rangeA.y - rangeB.x;
+                overlap = maxA - minB;
                 response.bInA = false;
             }
             else
             {
-                float option1 = rangeA.y - rangeB.x;
-                float option2 = rangeB.y - rangeA.x;
+                float option1 = maxA - minB;
+                float option2 = maxB - minA;
                 overlap = option1 < option2 ? option1 : -option2;
             }
         }
@@ -76,15 +131,15 @@ public final class Collision2D
         {
             response.bInA = false;
 
-            if (rangeA.y > rangeB.y)
+            if (maxA > maxB)
             {
-                overlap = rangeA.y - rangeB.x;
+                overlap = maxA - minB;
                 response.aInB = false;
             }
             else
             {
-                float option1 = rangeA.y - rangeB.x;
-                float option2 = rangeB.y - rangeA.x;
+                float option1 = maxA - minB;
+                float option2 = maxB - minA;
                 overlap = option1 < option2 ? option1 : -option2;
             }
         }
@@ -94,55 +149,592 @@ public final class Collision2D
         if (overlap < response.overlap)
         {
             response.overlap = overlap;
-            response.overlapN.set(axis.normalize());
-
-            if (overlap < 0)
-                response.overlapN = response.overlapN.negate();
+            response.overlapN.set(nx, ny);
         }
 
         return false;
     }
 
+    /**
+     * Tests two polygons for collision using SAT. The edge normals are cached by
+     * the polygons, and no objects are created, so this method can be called from
+     * many threads at once, as long as every thread passes its own response.
+     *
+     * @param a        The first polygon
+     * @param b        The second polygon
+     * @param response The response to fill, owned by the caller. If null, the
+     *                 response of the calling thread is used.
+     *
+     * @return True if the polygons collide, else False.
+     */
     public static boolean testPolygonCollision(Polygon a, Polygon b, Response response)
     {
         if (response == null)
-            response = tmpResponse.clear();
+            response = tmpResponse.get().clear();
+
+        float offsetX = b.getPosition().x - a.getPosition().x;
+        float offsetY = b.getPosition().y - a.getPosition().y;
+
+        float[] normals = a.getNormals();
 
         for (int i = 0; i < a.vertexCount(); i++)
         {
-            Vector2 e1 = a.getVertex(i);
-            Vector2 e2 = a.getVertex((i + 1) % a.vertexCount());
+            float nx = normals[2 * i];
+            float ny = normals[2 * i + 1];
 
-            Vector2 edge = e2.subtract(e1);
-            Vector2 normal = edge.perpendicular().normalize();
+            // Skip degenerate edges
+            if (nx == 0 && ny == 0)
+                continue;
 
-            if (isSeparatingAxis(a, b, normal, response))
+            if (isSeparatingAxis(a, b, nx, ny, offsetX, offsetY, response))
                 return false;
         }
 
+        normals = b.getNormals();
+
         for (int i = 0; i < b.vertexCount(); i++)
         {
-            Vector2 e1 = b.getVertex(i);
-            Vector2 e2 = b.getVertex((i + 1) % b.vertexCount());
+            float nx = normals[2 * i];
+            float ny = normals[2 * i + 1];
 
-            Vector2 edge = e2.subtract(e1);
-            Vector2 normal = edge.perpendicular().normalize();
+            if (nx == 0 && ny == 0)
+                continue;
 
-            if (isSeparatingAxis(a, b, normal, response))
+            if (isSeparatingAxis(a, b, nx, ny, offsetX, offsetY, response))
                 return false;
         }
 
+        // The edge normals point either way, so make the normal point from a to b
+        Vector2 centerA = a.getCenter();
+        Vector2 centerB = b.getCenter();
+
+        if (response.overlapN.x * (centerB.x - centerA.x) + response.overlapN.y * (centerB.y - centerA.y) < 0)
+            response.overlapN.set(-response.overlapN.x, -response.overlapN.y);
+
         response.a = a;
         response.b = b;
-        response.overlapV = response.overlapN.scale(response.overlap);
+        response.overlapV.set(response.overlapN.x * response.overlap, response.overlapN.y * response.overlap);
         response.intersection = true;
 
         return true;
     }
 
+    /**
+     * Tests two shapes for collision, using the fastest test for the types of the
+     * shapes. Circles and rectangles that are not rotated are tested with closed
+     * form tests, all the other pairs are tested with SAT.
+     *
+     * @param a        The first shape
+     * @param b        The second shape
+     * @param response The response to fill, owned by the caller. If null, the
+     *                 response of the calling thread is used.
+     *
+     * @return True if the shapes collide, else False.
+     */
+    public static boolean testCollision(Polygon a, Polygon b, Response response)
+    {
+        if (response == null)
+            response = tmpResponse.get().clear();
+
+        return DISPATCH_TABLE[getShapeType(a)][getShapeType(b)].test(a, b, response);
+    }
+
+    private static int getShapeType(Polygon p)
+    {
+        if (p instanceof Circle)
+            return CIRCLE;
+
+        if (p instanceof Rectangle && p.getRotation() == 0)
+            return AABB;
+
+        return POLYGON;
+    }
+
+    private static boolean testCircleCollision(Polygon a, Polygon b, Response response)
+    {
+        Circle circleA = (Circle) a;
+        Circle circleB = (Circle) b;
+
+        float radiusA = circleA.getRadius();
+        float radiusB = circleB.getRadius();
+
+        float dx = circleB.getX() - circleA.getX();
+        float dy = circleB.getY() - circleA.getY();
+
+        float radii = radiusA + radiusB;
+        float distanceSquared = dx * dx + dy * dy;
+
+        if (distanceSquared >= radii * radii)
+            return false;
+
+        float distance = (float) Math.sqrt(distanceSquared);
+
+        // Concentric circles are pushed apart along the y-axis
+        float nx = distance == 0 ? 0 : dx / distance;
+        float ny = distance == 0 ? 1 : dy / distance;
+
+        boolean aInB = distance + radiusA <= radiusB;
+        boolean bInA = distance + radiusB <= radiusA;
+
+        return setResponse(response, a, b, nx, ny, radii - distance, aInB, bInA);
+    }
+
+    private static boolean testAABBCollision(Polygon a, Polygon b, Response response)
+    {
+        Rectangle rectA = (Rectangle) a;
+        Rectangle rectB = (Rectangle) b;
+
+        float minAX = rectA.getX();
+        float minAY = rectA.getY();
+        float maxAX = minAX + rectA.getWidth();
+        float maxAY = minAY + rectA.getHeight();
+
+        float minBX = rectB.getX();
+        float minBY = rectB.getY();
+        float maxBX = minBX + rectB.getWidth();
+        float maxBY = minBY + rectB.getHeight();
+
+        if (minAX >= maxBX || minBX >= maxAX || minAY >= maxBY || minBY >= maxAY)
+            return false;
+
+        // The distances a has to be moved back along each direction to separate
+        float right = maxAX - minBX;
+        float left = maxBX - minAX;
+        float down = maxAY - minBY;
+        float up = maxBY - minAY;
+
+        float overlapX = Math.min(right, left);
+        float overlapY = Math.min(down, up);
+
+        boolean aInB = minAX >= minBX && maxAX <= maxBX && minAY >= minBY && maxAY <= maxBY;
+        boolean bInA = minBX >= minAX && maxBX <= maxAX && minBY >= minAY && maxBY <= maxAY;
+
+        if (overlapX < overlapY)
+            return setResponse(response, a, b, right < left ? 1 : -1, 0, overlapX, aInB, bInA);
+        else
+            return setResponse(response, a, b, 0, down < up ? 1 : -1, overlapY, aInB, bInA);
+    }
+
+    private static boolean testAABBCircle(Polygon a, Polygon b, Response response)
+    {
+        Rectangle rect = (Rectangle) a;
+        Circle circle = (Circle) b;
+
+        float minX = rect.getX();
+        float minY = rect.getY();
+        float maxX = minX + rect.getWidth();
+        float maxY = minY + rect.getHeight();
+
+        float cx = circle.getX();
+        float cy = circle.getY();
+        float radius = circle.getRadius();
+
+        // The point of the rectangle that is closest to the center
+        float dx = cx - Math.max(minX, Math.min(cx, maxX));
+        float dy = cy - Math.max(minY, Math.min(cy, maxY));
+
+        float distanceSquared = dx * dx + dy * dy;
+
+        if (distanceSquared >= radius * radius)
+            return false;
+
+        // The rectangle is inside the circle if its farthest corner is
+        float farX = Math.max(cx - minX, maxX - cx);
+        float farY = Math.max(cy - minY, maxY - cy);
+
+        boolean aInB = farX * farX + farY * farY <= radius * radius;
+        boolean bInA = cx - radius >= minX && cx + radius <= maxX && cy - radius >= minY && cy + radius <= maxY;
+
+        if (distanceSquared > 0)
+        {
+            float distance = (float) Math.sqrt(distanceSquared);
+            return setResponse(response, a, b, dx / distance, dy / distance, radius - distance, aInB, bInA);
+        }
+
+        // The center is inside the rectangle, so push the circle out through the nearest side
+        float left = cx - minX;
+        float right = maxX - cx;
+        float up = cy - minY;
+        float down = maxY - cy;
+
+        float nearest = Math.min(Math.min(left, right), Math.min(up, down));
+
+        if (nearest == left)
+            return setResponse(response, a, b, -1, 0, left + radius, aInB, bInA);
+        else if (nearest == right)
+            return setResponse(response, a, b, 1, 0, right + radius, aInB, bInA);
+        else if (nearest == up)
+            return setResponse(response, a, b, 0, -1, up + radius, aInB, bInA);
+        else
+            return setResponse(response, a, b, 0, 1, down + radius, aInB, bInA);
+    }
+
+    // The normals point outwards for a positive winding, and inwards otherwise
+    private static float getWinding(List<Vector2> vertices)
+    {
+        int count = vertices.size();
+        float area = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            Vector2 v1 = vertices.get(i);
+            Vector2 v2 = vertices.get((i + 1) % count);
+
+            area += v1.x * v2.y - v2.x * v1.y;
+        }
+
+        return area < 0 ? -1 : 1;
+    }
+
+    private static boolean testPolygonCircle(Polygon a, Polygon b, Response response)
+    {
+        Circle circle = (Circle) b;
+
+        List<Vector2> vertices = a.getVertices();
+        float[] normals = a.getNormals();
+
+        int count = vertices.size();
+
+        // The center of the circle, relative to the position of the polygon
+        float cx = circle.getX() - a.getPosition().x;
+        float cy = circle.getY() - a.getPosition().y;
+        float radius = circle.getRadius();
+
+        float sign = getWinding(vertices);
+
+        // Find the edge with the maximum separation from the center
+        float separation = -Float.MAX_VALUE;
+        int edge = -1;
+
+        for (int i = 0; i < count; i++)
+        {
+            float nx = normals[2 * i] * sign;
+            float ny = normals[2 * i + 1] * sign;
+
+            if (nx == 0 && ny == 0)
+                continue;
+
+            Vector2 v = vertices.get(i);
+            float s = nx * (cx - v.x) + ny * (cy - v.y);
+
+            if (s >= radius)
+                return false;
+
+            if (s > separation)
+            {
+                separation = s;
+                edge = i;
+            }
+        }
+
+        if (edge == -1)
+            return false;
+
+        boolean aInB = true;
+
+        for (int i = 0; i < count && aInB; i++)
+        {
+            Vector2 v = vertices.get(i);
+            aInB = (cx - v.x) * (cx - v.x) + (cy - v.y) * (cy - v.y) <= radius * radius;
+        }
+
+        boolean bInA = separation <= -radius;
+
+        float faceX = normals[2 * edge] * sign;
+        float faceY = normals[2 * edge + 1] * sign;
+
+        // The center is inside the polygon
+        if (separation <= 0)
+            return setResponse(response, a, b, faceX, faceY, radius - separation, aInB, bInA);
+
+        Vector2 v1 = vertices.get(edge);
+        Vector2 v2 = vertices.get((edge + 1) % count);
+
+        // Find the closest feature of the edge, which can be one of its vertices
+        float u1 = (cx - v1.x) * (v2.x - v1.x) + (cy - v1.y) * (v2.y - v1.y);
+        float u2 = (cx - v2.x) * (v1.x - v2.x) + (cy - v2.y) * (v1.y - v2.y);
+
+        if (u1 > 0 && u2 > 0)
+            return setResponse(response, a, b, faceX, faceY, radius - separation, aInB, bInA);
+
+        Vector2 vertex = u1 <= 0 ? v1 : v2;
+
+        float dx = cx - vertex.x;
+        float dy = cy - vertex.y;
+
+        float distanceSquared = dx * dx + dy * dy;
+
+        if (distanceSquared >= radius * radius)
+            return false;
+
+        float distance = (float) Math.sqrt(distanceSquared);
+
+        if (distance == 0)
+            return setResponse(response, a, b, faceX, faceY, radius, aInB, bInA);
+
+        return setResponse(response, a, b, dx / distance, dy / distance, radius - distance, aInB, bInA);
+    }
+
+    private static boolean testCirclePolygon(Polygon a, Polygon b, Response response)
+    {
+        return testPolygonCircle(b, a, response) && flip(response);
+    }
+
+    private static boolean testCircleAABB(Polygon a, Polygon b, Response response)
+    {
+        return testAABBCircle(b, a, response) && flip(response);
+    }
+
+    // Swaps the shapes of a response, after a test was done with the shapes swapped
+    private static boolean flip(Response response)
+    {
+        Polygon a = response.a;
+        response.a = response.b;
+        response.b = a;
+
+        boolean aInB = response.aInB;
+        response.aInB = response.bInA;
+        response.bInA = aInB;
+
+        response.overlapN.set(-response.overlapN.x, -response.overlapN.y);
+        response.overlapV.set(-response.overlapV.x, -response.overlapV.y);
+
+        return true;
+    }
+
+    private static boolean setResponse(Response response, Polygon a, Polygon b, float nx, float ny,
+                                       float overlap, boolean aInB, boolean bInA)
+    {
+        response.a = a;
+        response.b = b;
+        response.aInB = aInB;
+        response.bInA = bInA;
+        response.overlap = overlap;
+        response.overlapN.set(nx, ny);
+        response.overlapV.set(nx * overlap, ny * overlap);
+        response.intersection = true;
+
+        return true;
+    }
+
+    /**
+     * Finds the distance along a ray at which it enters a shape. Circles are tested
+     * in closed form, and the other shapes by clipping the ray with their edges.
+     *
+     * @param p           The shape to test the ray against
+     * @param origin      The origin of the ray
+     * @param direction   The direction of the ray, which should be normalized
+     * @param maxDistance The length of the ray
+     *
+     * @return The distance from the origin at which the ray enters the shape, 0 if
+     *         the origin is inside it, or -1 if the ray doesn't hit the shape.
+     */
+    public static float testRay(Polygon p, Vector2 origin, Vector2 direction, float maxDistance)
+    {
+        float dx = direction.x;
+        float dy = direction.y;
+
+        if (p instanceof Circle)
+        {
+            Circle circle = (Circle) p;
+            float radius = circle.getRadius();
+
+            float mx = origin.x - circle.getX();
+            float my = origin.y - circle.getY();
+
+            float b = mx * dx + my * dy;
+            float c = mx * mx + my * my - radius * radius;
+
+            // The origin is outside the circle, and the ray points away from it
+            if (c > 0 && b > 0)
+                return -1;
+
+            float discriminant = b * b - c;
+
+            if (discriminant < 0)
+                return -1;
+
+            float distance = Math.max(-b - (float) Math.sqrt(discriminant), 0);
+
+            return distance <= maxDistance ? distance : -1;
+        }
+
+        List<Vector2> vertices = p.getVertices();
+        float[] normals = p.getNormals();
+        float sign = getWinding(vertices);
+
+        // The origin of the ray, relative to the position of the shape
+        float ox = origin.x - p.getPosition().x;
+        float oy = origin.y - p.getPosition().y;
+
+        float enter = 0;
+        float exit = maxDistance;
+
+        for (int i = 0; i < vertices.size(); i++)
+        {
+            float nx = normals[2 * i] * sign;
+            float ny = normals[2 * i + 1] * sign;
+
+            if (nx == 0 && ny == 0)
+                continue;
+
+            Vector2 v = vertices.get(i);
+
+            // The ray is inside the edge while nx * (x - v.x) + ny * (y - v.y) <= 0
+            float distance = nx * (ox - v.x) + ny * (oy - v.y);
+            float speed = nx * dx + ny * dy;
+
+            if (speed == 0)
+            {
+                if (distance > 0)
+                    return -1;
+
+                continue;
+            }
+
+            float t = -distance / speed;
+
+            if (speed < 0)
+                enter = Math.max(enter, t);
+            else
+                exit = Math.min(exit, t);
+
+            if (enter > exit)
+                return -1;
+        }
+
+        return enter;
+    }
+
+    /**
+     * Finds the time of impact of two shapes that moved along straight lines in the
+     * last step, so that fast shapes can't pass through thin ones unnoticed. The
+     * shapes are expected at their positions at the end of the step, and the motions
+     * are the distances they moved in it. Circles are swept in closed form, all the
+     * other shapes are swept with SAT on the normals of both the shapes. Rotations
+     * during the step are not taken into account.
+     *
+     * @param a       The first shape
+     * @param motionA The distance the first shape moved in the step
+     * @param b       The second shape
+     * @param motionB The distance the second shape moved in the step
+     *
+     * @return The fraction of the step at which the shapes first touch, in the range
+     *         [0, 1], or -1 if the shapes don't touch during the step.
+     */
+    public static float getTimeOfImpact(Polygon a, Vector2 motionA, Polygon b, Vector2 motionB)
+    {
+        // The motion of b relative to a
+        float vx = motionB.x - motionA.x;
+        float vy = motionB.y - motionA.y;
+
+        if (a instanceof Circle && b instanceof Circle)
+            return getCircleTimeOfImpact((Circle) a, (Circle) b, motionA, motionB, vx, vy);
+
+        // The offset of b from a at the start of the step
+        float offsetX = (b.getPosition().x - motionB.x) - (a.getPosition().x - motionA.x);
+        float offsetY = (b.getPosition().y - motionB.y) - (a.getPosition().y - motionA.y);
+
+        float enter = Float.NEGATIVE_INFINITY;
+        float exit = Float.POSITIVE_INFINITY;
+
+        float[] normalsA = a.getNormals();
+        float[] normalsB = b.getNormals();
+
+        int countA = a.vertexCount();
+        int countB = b.vertexCount();
+
+        for (int i = 0; i < countA + countB; i++)
+        {
+            float nx = i < countA ? normalsA[2 * i] : normalsB[2 * (i - countA)];
+            float ny = i < countA ? normalsA[2 * i + 1] : normalsB[2 * (i - countA) + 1];
+
+            // Skip degenerate edges
+            if (nx == 0 && ny == 0)
+                continue;
+
+            // The projections overlap while the projected offset is in the range [low, high]
+            float low = getMinProjection(a, nx, ny) - getMaxProjection(b, nx, ny);
+            float high = getMaxProjection(a, nx, ny) - getMinProjection(b, nx, ny);
+
+            float offset = offsetX * nx + offsetY * ny;
+            float speed = vx * nx + vy * ny;
+
+            if (speed == 0)
+            {
+                // The projections never move, so the axis separates the shapes for the whole step
+                if (offset < low || offset > high)
+                    return -1;
+
+                continue;
+            }
+
+            float t1 = (low - offset) / speed;
+            float t2 = (high - offset) / speed;
+
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+
+            if (enter > exit || enter > 1 || exit < 0)
+                return -1;
+        }
+
+        return Math.max(enter, 0);
+    }
+
+    private static float getCircleTimeOfImpact(Circle a, Circle b, Vector2 motionA, Vector2 motionB,
+                                               float vx, float vy)
+    {
+        float radii = a.getRadius() + b.getRadius();
+
+        // The offset of the center of b from the center of a at the start of the step
+        float offsetX = (b.getX() - motionB.x) - (a.getX() - motionA.x);
+        float offsetY = (b.getY() - motionB.y) - (a.getY() - motionA.y);
+
+        float c = offsetX * offsetX + offsetY * offsetY - radii * radii;
+
+        if (c <= 0)
+            return 0;
+
+        // Solve |offset + t * v| = radii for the first root
+        float qa = vx * vx + vy * vy;
+        float qb = 2 * (offsetX * vx + offsetY * vy);
+
+        float discriminant = qb * qb - 4 * qa * c;
+
+        if (qa == 0 || qb >= 0 || discriminant < 0)
+            return -1;
+
+        float t = (-qb - (float) Math.sqrt(discriminant)) / (2 * qa);
+
+        return t <= 1 ? t : -1;
+    }
+
+    private static float getMinProjection(Polygon p, float nx, float ny)
+    {
+        List<Vector2> vertices = p.getVertices();
+        float min = Float.MAX_VALUE;
+
+        for (int i = 0; i < vertices.size(); i++)
+            min = Math.min(min, vertices.get(i).x * nx + vertices.get(i).y * ny);
+
+        return min;
+    }
+
+    private static float getMaxProjection(Polygon p, float nx, float ny)
+    {
+        List<Vector2> vertices = p.getVertices();
+        float max = -Float.MAX_VALUE;
+
+        for (int i = 0; i < vertices.size(); i++)
+            max = Math.max(max, vertices.get(i).x * nx + vertices.get(i).y * ny);
+
+        return max;
+    }
+
     public static Response getResponse()
     {
-        return tmpResponse;
+        return tmpResponse.get();
     }
 
     /**
@@ -231,4 +823,10 @@ public final class Collision2D
                     '}';
         }
     }
+
+    // A closed form or SAT collision test between two shapes
+    private static interface CollisionTest
+    {
+        public boolean test(Polygon a, Polygon b, Response response);
+    }
 }
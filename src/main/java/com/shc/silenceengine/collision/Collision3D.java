@@ -1,147 +1,940 @@
 package com.shc.silenceengine.collision;
 
+import com.shc.silenceengine.geom3d.Cuboid;
 import com.shc.silenceengine.geom3d.Polyhedron;
-import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.geom3d.Sphere;
 import com.shc.silenceengine.math.Vector3;
 
 import java.util.List;
 
 /**
+ * Tests convex polyhedrons for collisions using the GJK algorithm, and finds the
+ * penetration with the EPA (Expanding Polytope Algorithm) when a response is
+ * requested. Both of them only query the shapes through their support functions,
+ * so a test is linear in the number of vertices. Cuboids that are not rotated
+ * and Spheres have their own constant time support functions.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class Collision3D
 {
-    private static Response tmpResponse = new Response();
+    private static final int   GJK_MAX_ITERATIONS  = 64;
+    private static final int   EPA_MAX_ITERATIONS  = 64;
+    private static final int   EPA_MAX_FACES       = 128;
+    private static final int   EPA_MAX_LOOSE_EDGES = 64;
+    private static final float EPA_TOLERANCE       = 0.0001f;
+    private static final int   TOI_MAX_STEPS       = 64;
+    private static final int   TOI_BISECTIONS      = 16;
+    private static final int   RAY_BISECTIONS      = 24;
+    private static final float RAY_TOLERANCE       = 0.00001f;
 
-    private static Vector2 flattenPoints(List<Vector3> vertices, Vector3 axis)
+    // The offsets of the points of the simplex, A being the one that was added last
+    private static final int A = 0;
+    private static final int B = 3;
+    private static final int C = 6;
+    private static final int D = 9;
+
+    // Every thread gets its own response, so that collisions can be tested in parallel
+    private static ThreadLocal<Response> tmpResponse = ThreadLocal.withInitial(Response::new);
+    private static ThreadLocal<Simplex>  tmpSimplex  = ThreadLocal.withInitial(Simplex::new);
+
+    /**
+     * Finds the point of a polyhedron that is the farthest in a direction, in the
+     * world space. The direction need not be normalized.
+     *
+     * @param p         The polyhedron
+     * @param direction The direction to search in
+     * @param dest      The vector to store the point in
+     *
+     * @return The dest vector, for chaining
+     */
+    public static Vector3 getSupportPoint(Polyhedron p, Vector3 direction, Vector3 dest)
+    {
+        Simplex s = tmpSimplex.get();
+        support(p, direction.x, direction.y, direction.z, s);
+
+        return dest.set(s.px, s.py, s.pz);
+    }
+
+    // Stores the support point of the polyhedron in the direction into px, py and pz of the simplex
+    private static void support(Polyhedron p, float dx, float dy, float dz, Simplex s)
+    {
+        Vector3 position = p.getPosition();
+
+        if (p instanceof Sphere)
+        {
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            float radius = ((Sphere) p).getRadius();
+
+            if (length == 0)
+                s.set(position.x + radius, position.y, position.z);
+            else
+                s.set(position.x + dx * radius / length,
+                        position.y + dy * radius / length,
+                        position.z + dz * radius / length);
+
+            return;
+        }
+
+        if (p instanceof Cuboid && p.getRotationX() == 0 && p.getRotationY() == 0 && p.getRotationZ() == 0)
+        {
+            // The fourth vertex is the corner with the positive half sizes, even after scaling
+            Vector3 corner = p.getVertex(3);
+
+            float hx = Math.abs(corner.x);
+            float hy = Math.abs(corner.y);
+            float hz = Math.abs(corner.z);
+
+            s.set(position.x + (dx < 0 ? -hx : hx),
+                    position.y + (dy < 0 ? -hy : hy),
+                    position.z + (dz < 0 ? -hz : hz));
+
+            return;
+        }
+
+        List<Vector3> vertices = p.getVertices();
+
+        Vector3 best = vertices.get(0);
+        float max = best.x * dx + best.y * dy + best.z * dz;
+
+        for (int i = 1; i < vertices.size(); i++)
+        {
+            Vector3 v = vertices.get(i);
+            float dot = v.x * dx + v.y * dy + v.z * dz;
+
+            if (dot > max)
+            {
+                max = dot;
+                best = v;
+            }
+        }
+
+        s.set(position.x + best.x, position.y + best.y, position.z + best.z);
+    }
+
+    // Stores the support point of the Minkowski difference (a - b) into px, py and pz. A null
+    // polyhedron a stands for the segment stored in the simplex, used for the containment and
+    // ray tests. The polyhedron a is translated by the offset of the simplex, used to sweep it
+    private static void supportDifference(Polyhedron a, Polyhedron b, float dx, float dy, float dz, Simplex s)
     {
-        float min = axis.dot(vertices.get(0));
-        float max = min;
+        float ax = s.pointX;
+        float ay = s.pointY;
+        float az = s.pointZ;
 
-        for (Vector3 v : vertices)
+        if (dx * s.segmentX + dy * s.segmentY + dz * s.segmentZ > 0)
         {
-            float dot = axis.dot(v);
+            ax += s.segmentX;
+            ay += s.segmentY;
+            az += s.segmentZ;
+        }
 
-            if (dot < min) min = dot;
-            if (dot > max) max = dot;
+        if (a != null)
+        {
+            support(a, dx, dy, dz, s);
+
+            ax = s.px + s.offsetX;
+            ay = s.py + s.offsetY;
+            az = s.pz + s.offsetZ;
         }
 
-        return new Vector2(min, max);
+        support(b, -dx, -dy, -dz, s);
+        s.set(ax - s.px, ay - s.py, az - s.pz);
     }
 
     public static boolean isSeparatingAxis(Polyhedron a, Polyhedron b, Vector3 axis, Response response)
     {
         if (response == null)
-            response = tmpResponse.clear();
+            response = tmpResponse.get().clear();
 
-        // FIXME: HACKISH WAY OF PREVENTING ZERO AXES
-        axis.x = (axis.x == -0f) ? -1 : axis.x;
-        axis.y = (axis.y == -0f) ? -1 : axis.y;
-        axis.z = (axis.z == -0f) ? -1 : axis.z;
+        float lengthSquared = axis.lengthSquared();
 
-        Vector3 offset = b.getPosition().subtract(a.getPosition());
-        float projectedOffset = offset.dot(axis);
+        // A zero axis can never separate the polyhedrons
+        if (lengthSquared == 0)
+            return false;
 
-        Vector2 rangeA = flattenPoints(a.getVertices(), axis);
-        Vector2 rangeB = flattenPoints(b.getVertices(), axis);
+        Simplex s = tmpSimplex.get();
 
-        rangeB = rangeB.add(projectedOffset, projectedOffset);
+        // The ranges of the polyhedrons when projected on the axis, taken from the support points
+        support(a, axis.x, axis.y, axis.z, s);
+        float maxA = axis.x * s.px + axis.y * s.py + axis.z * s.pz;
+        support(a, -axis.x, -axis.y, -axis.z, s);
+        float minA = axis.x * s.px + axis.y * s.py + axis.z * s.pz;
+        support(b, axis.x, axis.y, axis.z, s);
+        float maxB = axis.x * s.px + axis.y * s.py + axis.z * s.pz;
+        support(b, -axis.x, -axis.y, -axis.z, s);
+        float minB = axis.x * s.px + axis.y * s.py + axis.z * s.pz;
 
-        if (rangeA.x > rangeB.y || rangeB.x > rangeA.y)
+        if (minA > maxB || minB > maxA)
             return true;
 
-        float overlap;
+        if (minA < minB || maxA > maxB)
+            response.aInB = false;
+
+        if (minB < minA || maxB > maxA)
+            response.bInA = false;
+
+        float length = (float) Math.sqrt(lengthSquared);
 
-        if (rangeA.x < rangeB.x)
+        // The overlap is positive when b has to be pushed along the axis, and negative otherwise
+        float option1 = maxA - minB;
+        float option2 = maxB - minA;
+        float overlap = (option1 < option2 ? option1 : -option2) / length;
+
+        if (Math.abs(overlap) < response.overlap)
         {
-            response.aInB = false;
+            response.overlap = Math.abs(overlap);
+
+            float sign = overlap < 0 ? -1 : 1;
+            response.overlapN.set(sign * axis.x / length, sign * axis.y / length, sign * axis.z / length);
+        }
+
+        return false;
+    }
+
+    /**
+     * Tests whether two polyhedrons intersect, and fills the response with the
+     * penetration found by EPA and whether one of them is inside the other. The
+     * minimum translation vector points from a to b. If the response is null,
+     * the response returned by getResponse() is used.
+     */
+    public static boolean testPolyhedronCollision(Polyhedron a, Polyhedron b, Response response)
+    {
+        if (response == null)
+            response = tmpResponse.get().clear();
+
+        if (a instanceof Sphere && b instanceof Sphere)
+            return testSphereCollision((Sphere) a, (Sphere) b, response);
+
+        Simplex s = tmpSimplex.get();
+
+        if (!gjk(a, b, s))
+            return false;
+
+        response.a = a;
+        response.b = b;
+        response.intersection = true;
+
+        // Touching polyhedrons leave GJK without a tetrahedron, and don't penetrate
+        if (s.tetrahedron)
+            epa(a, b, s, response);
+        else
+            setPenetration(response, 0, 0, 0, 0);
+
+        response.overlapV.set(response.overlapN.x * response.overlap,
+                response.overlapN.y * response.overlap,
+                response.overlapN.z * response.overlap);
+
+        response.aInB = contains(b, a, s);
+        response.bInA = contains(a, b, s);
+
+        return true;
+    }
+
+    private static boolean testSphereCollision(Sphere a, Sphere b, Response response)
+    {
+        Vector3 positionA = a.getPosition();
+        Vector3 positionB = b.getPosition();
+
+        float dx = positionB.x - positionA.x;
+        float dy = positionB.y - positionA.y;
+        float dz = positionB.z - positionA.z;
+
+        float radiusA = a.getRadius();
+        float radiusB = b.getRadius();
+        float radii = radiusA + radiusB;
+
+        float distanceSquared = dx * dx + dy * dy + dz * dz;
+
+        if (distanceSquared > radii * radii)
+            return false;
+
+        float distance = (float) Math.sqrt(distanceSquared);
+
+        response.a = a;
+        response.b = b;
+        response.intersection = true;
+
+        // Concentric spheres are pushed apart along the X axis
+        if (distance == 0)
+            setPenetration(response, 1, 0, 0, radii);
+        else
+            setPenetration(response, dx / distance, dy / distance, dz / distance, radii - distance);
+
+        response.overlapV.set(response.overlapN.x * response.overlap,
+                response.overlapN.y * response.overlap,
+                response.overlapN.z * response.overlap);
+
+        response.aInB = distance + radiusA <= radiusB;
+        response.bInA = distance + radiusB <= radiusA;
+
+        return true;
+    }
+
+    /**
+     * Tests whether two polyhedrons intersect. Only GJK is run, and no response is
+     * filled, so this is the fastest way to know if two polyhedrons collide.
+     */
+    public static boolean testPolyhedronCollision(Polyhedron a, Polyhedron b)
+    {
+        return gjk(a, b, tmpSimplex.get());
+    }
 
-            if (rangeA.y < rangeB.y)
+    /**
+     * Finds the time of impact of two polyhedrons that moved along straight lines in
+     * the last step, so that fast polyhedrons can't pass through thin ones unnoticed.
+     * The polyhedrons are expected at their positions at the end of the step, and the
+     * motions are the distances they moved in it. The bounding boxes are swept first,
+     * and the range in which they overlap is then searched with GJK in steps shorter
+     * than the smallest polyhedron. Spheres are swept in closed form. Rotations during
+     * the step are not taken into account.
+     *
+     * @param a       The first polyhedron
+     * @param motionA The distance the first polyhedron moved in the step
+     * @param b       The second polyhedron
+     * @param motionB The distance the second polyhedron moved in the step
+     *
+     * @return The fraction of the step at which the polyhedrons first touch, in the
+     *         range [0, 1], or -1 if the polyhedrons don't touch during the step.
+     */
+    public static float getTimeOfImpact(Polyhedron a, Vector3 motionA, Polyhedron b, Vector3 motionB)
+    {
+        // The motion of b relative to a
+        float vx = motionB.x - motionA.x;
+        float vy = motionB.y - motionA.y;
+        float vz = motionB.z - motionA.z;
+
+        Vector3 positionA = a.getPosition();
+        Vector3 positionB = b.getPosition();
+
+        // The offset of b from a at the start of the step
+        float offsetX = (positionB.x - motionB.x) - (positionA.x - motionA.x);
+        float offsetY = (positionB.y - motionB.y) - (positionA.y - motionA.y);
+        float offsetZ = (positionB.z - motionB.z) - (positionA.z - motionA.z);
+
+        if (a instanceof Sphere && b instanceof Sphere)
+        {
+            float radii = ((Sphere) a).getRadius() + ((Sphere) b).getRadius();
+            float c = offsetX * offsetX + offsetY * offsetY + offsetZ * offsetZ - radii * radii;
+
+            if (c <= 0)
+                return 0;
+
+            // Solve |offset + t * v| = radii for the first root
+            float qa = vx * vx + vy * vy + vz * vz;
+            float qb = 2 * (offsetX * vx + offsetY * vy + offsetZ * vz);
+            float discriminant = qb * qb - 4 * qa * c;
+
+            if (qa == 0 || qb >= 0 || discriminant < 0)
+                return -1;
+
+            float t = (-qb - (float) Math.sqrt(discriminant)) / (2 * qa);
+
+            return t <= 1 ? t : -1;
+        }
+
+        // Sweep the bounding boxes, the positions of the polyhedrons are the centers of the boxes
+        float enter = 0;
+        float exit = 1;
+
+        for (int axis = 0; axis < 3; axis++)
+        {
+            float offset = axis == 0 ? offsetX : axis == 1 ? offsetY : offsetZ;
+            float speed = axis == 0 ? vx : axis == 1 ? vy : vz;
+
+            float extent = axis == 0 ? (a.getWidth() + b.getWidth()) / 2
+                                     : axis == 1 ? (a.getHeight() + b.getHeight()) / 2
+                                                 : (a.getThickness() + b.getThickness()) / 2;
+
+            if (speed == 0)
             {
-                overlap = rangeA.y - rangeB.x;
-                response.bInA = false;
+                if (Math.abs(offset) > extent)
+                    return -1;
+
+                continue;
             }
-            else
+
+            float t1 = (-extent - offset) / speed;
+            float t2 = (extent - offset) / speed;
+
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+
+            if (enter > exit)
+                return -1;
+        }
+
+        // Step through the range with GJK, never moving more than half the smallest size at once
+        float smallest = Math.min(Math.min(a.getWidth(), a.getHeight()), a.getThickness());
+        smallest = Math.min(smallest, Math.min(Math.min(b.getWidth(), b.getHeight()), b.getThickness()));
+
+        float distance = (float) Math.sqrt(vx * vx + vy * vy + vz * vz) * (exit - enter);
+        int steps = smallest <= 0 ? TOI_MAX_STEPS
+                                  : Math.min(TOI_MAX_STEPS, Math.max(1, (int) Math.ceil(2 * distance / smallest)));
+
+        Simplex s = tmpSimplex.get();
+
+        float free = enter;
+        float hit = -1;
+
+        for (int i = 0; i <= steps; i++)
+        {
+            float t = enter + (exit - enter) * i / steps;
+
+            if (sweptGJK(a, b, s, t, vx, vy, vz))
             {
-                float option1 = rangeA.y - rangeB.x;
-                float option2 = rangeB.y - rangeA.x;
-                overlap = option1 < option2 ? option1 : -option2;
+                hit = t;
+                break;
             }
+
+            free = t;
         }
-        else
+
+        // Narrow the time down between the last free position and the first hit
+        if (hit > enter)
         {
-            response.bInA = false;
+            for (int i = 0; i < TOI_BISECTIONS; i++)
+            {
+                float t = (free + hit) / 2;
+
+                if (sweptGJK(a, b, s, t, vx, vy, vz))
+                    hit = t;
+                else
+                    free = t;
+            }
+        }
+
+        s.offsetX = s.offsetY = s.offsetZ = 0;
+
+        return hit;
+    }
+
+    /**
+     * Finds the distance along a ray at which it enters a polyhedron. Spheres and
+     * Cuboids that are not rotated are tested in closed form. For other polyhedrons
+     * the ray is first clipped to the bounding box, and the entry point is then
+     * searched with GJK on growing segments of the ray.
+     *
+     * @param p           The polyhedron to test the ray against
+     * @param origin      The origin of the ray
+     * @param direction   The direction of the ray, which should be normalized
+     * @param maxDistance The length of the ray
+     *
+     * @return The distance from the origin at which the ray enters the polyhedron, 0
+     *         if the origin is inside it, or -1 if the ray doesn't hit the polyhedron.
+     */
+    public static float testRay(Polyhedron p, Vector3 origin, Vector3 direction, float maxDistance)
+    {
+        Vector3 position = p.getPosition();
 
-            if (rangeA.y > rangeB.y)
+        float dx = direction.x;
+        float dy = direction.y;
+        float dz = direction.z;
+
+        if (p instanceof Sphere)
+        {
+            float radius = ((Sphere) p).getRadius();
+
+            float mx = origin.x - position.x;
+            float my = origin.y - position.y;
+            float mz = origin.z - position.z;
+
+            float b = mx * dx + my * dy + mz * dz;
+            float c = mx * mx + my * my + mz * mz - radius * radius;
+
+            // The origin is outside the sphere, and the ray points away from it
+            if (c > 0 && b > 0)
+                return -1;
+
+            float discriminant = b * b - c;
+
+            if (discriminant < 0)
+                return -1;
+
+            float distance = Math.max(-b - (float) Math.sqrt(discriminant), 0);
+
+            return distance <= maxDistance ? distance : -1;
+        }
+
+        // Clip the ray with the bounding box, the position of the polyhedron is its center
+        float enter = 0;
+        float exit = maxDistance;
+
+        for (int axis = 0; axis < 3; axis++)
+        {
+            float offset = axis == 0 ? origin.x - position.x : axis == 1 ? origin.y - position.y : origin.z - position.z;
+            float speed = axis == 0 ? dx : axis == 1 ? dy : dz;
+            float extent = (axis == 0 ? p.getWidth() : axis == 1 ? p.getHeight() : p.getThickness()) / 2;
+
+            if (speed == 0)
             {
-                overlap = rangeA.y - rangeB.x;
-                response.aInB = false;
+                if (Math.abs(offset) > extent)
+                    return -1;
+
+                continue;
             }
-            else
+
+            float t1 = (-extent - offset) / speed;
+            float t2 = (extent - offset) / speed;
+
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+
+            if (enter > exit)
+                return -1;
+        }
+
+        // The bounds of an unrotated Cuboid are the Cuboid itself
+        if (p instanceof Cuboid && p.getRotationX() == 0 && p.getRotationY() == 0 && p.getRotationZ() == 0)
+            return enter;
+
+        Simplex s = tmpSimplex.get();
+
+        s.pointX = origin.x;
+        s.pointY = origin.y;
+        s.pointZ = origin.z;
+
+        float hit = -1;
+
+        // The segment from the origin hits the polyhedron only if it is longer than the distance to it
+        if (testSegment(p, s, enter, dx, dy, dz))
+            hit = enter;
+
+        else if (testSegment(p, s, exit, dx, dy, dz))
+        {
+            float free = enter;
+            hit = exit;
+
+            for (int i = 0; i < RAY_BISECTIONS && hit - free > RAY_TOLERANCE * Math.max(1, hit); i++)
             {
-                float option1 = rangeA.y - rangeB.x;
-                float option2 = rangeB.y - rangeA.x;
-                overlap = option1 < option2 ? option1 : -option2;
+                float t = (free + hit) / 2;
+
+                if (testSegment(p, s, t, dx, dy, dz))
+                    hit = t;
+                else
+                    free = t;
             }
         }
 
-        overlap = Math.abs(overlap);
+        s.segmentX = s.segmentY = s.segmentZ = 0;
+
+        return hit;
+    }
+
+    // Tests the segment of the given length from the point of the simplex along the direction
+    private static boolean testSegment(Polyhedron p, Simplex s, float length, float dx, float dy, float dz)
+    {
+        s.segmentX = dx * length;
+        s.segmentY = dy * length;
+        s.segmentZ = dz * length;
+
+        return gjk(null, p, s);
+    }
+
+    // Tests the polyhedrons at the time t of the step, by translating a back along the relative motion
+    private static boolean sweptGJK(Polyhedron a, Polyhedron b, Simplex s, float t, float vx, float vy, float vz)
+    {
+        s.offsetX = (1 - t) * vx;
+        s.offsetY = (1 - t) * vy;
+        s.offsetZ = (1 - t) * vz;
+
+        return gjk(a, b, s);
+    }
+
+    // Tests whether the Minkowski difference (a - b) contains the origin. The final tetrahedron
+    // is left in the simplex, so that EPA can be started from it
+    private static boolean gjk(Polyhedron a, Polyhedron b, Simplex s)
+    {
+        float[] p = s.points;
+        s.tetrahedron = false;
+
+        Vector3 positionB = b.getPosition();
 
-        if (overlap < response.overlap)
+        float dx = (a == null ? s.pointX : a.getPosition().x + s.offsetX) - positionB.x;
+        float dy = (a == null ? s.pointY : a.getPosition().y + s.offsetY) - positionB.y;
+        float dz = (a == null ? s.pointZ : a.getPosition().z + s.offsetZ) - positionB.z;
+
+        if (dx == 0 && dy == 0 && dz == 0)
+            dx = 1;
+
+        supportDifference(a, b, dx, dy, dz, s);
+        s.store(C);
+
+        // The first point lies on the origin, so the polyhedrons are touching
+        if (s.px == 0 && s.py == 0 && s.pz == 0)
+            return true;
+
+        dx = -s.px;
+        dy = -s.py;
+        dz = -s.pz;
+
+        supportDifference(a, b, dx, dy, dz, s);
+        s.store(B);
+
+        if (s.px * dx + s.py * dy + s.pz * dz < 0)
+            return false;
+
+        // Search perpendicular to the line BC, towards the origin
+        float bcx = p[C] - p[B];
+        float bcy = p[C + 1] - p[B + 1];
+        float bcz = p[C + 2] - p[B + 2];
+
+        s.tripleProduct(bcx, bcy, bcz, -p[B], -p[B + 1], -p[B + 2]);
+
+        int dimension = 2;
+
+        for (int i = 0; i < GJK_MAX_ITERATIONS; i++)
         {
-            response.overlap = overlap;
-            response.overlapN.set(axis.normalize());
+            if (s.isDirectionZero())
+            {
+                // A degenerate triangle can't be expanded any further
+                if (dimension != 2)
+                    return true;
+
+                // The origin is on the line BC, so search in any direction perpendicular to it
+                bcx = p[C] - p[B];
+                bcy = p[C + 1] - p[B + 1];
+                bcz = p[C + 2] - p[B + 2];
+
+                s.setDirection(0, bcz, -bcy);
+
+                if (s.isDirectionZero())
+                    s.setDirection(-bcz, 0, bcx);
+
+                if (s.isDirectionZero())
+                    return true;
+            }
+
+            dx = s.dx;
+            dy = s.dy;
+            dz = s.dz;
+
+            supportDifference(a, b, dx, dy, dz, s);
+            s.store(A);
+
+            if (s.px * dx + s.py * dy + s.pz * dz < 0)
+                return false;
 
-            if (overlap < 0)
-                response.overlapN = response.overlapN.negate();
+            dimension++;
+
+            if (dimension == 3)
+                dimension = updateTriangle(s);
+
+            else if (updateTetrahedron(s))
+            {
+                s.tetrahedron = true;
+                return true;
+            }
+
+            else
+                dimension = 3;
         }
 
         return false;
     }
 
-    public static boolean testPolyhedronCollision(Polyhedron a, Polyhedron b, Response response)
+    // Finds the feature of the triangle ABC closest to the origin, and the next search direction
+    private static int updateTriangle(Simplex s)
     {
-        if (response == null)
-            response = tmpResponse.clear();
+        float[] p = s.points;
+
+        float abx = p[B] - p[A], aby = p[B + 1] - p[A + 1], abz = p[B + 2] - p[A + 2];
+        float acx = p[C] - p[A], acy = p[C + 1] - p[A + 1], acz = p[C + 2] - p[A + 2];
+
+        // The normal of the triangle
+        float nx = aby * acz - abz * acy;
+        float ny = abz * acx - abx * acz;
+        float nz = abx * acy - aby * acx;
+
+        float aox = -p[A], aoy = -p[A + 1], aoz = -p[A + 2];
 
-        for (int i = 0; i < a.vertexCount(); i++)
+        // Closest to the edge AB
+        if (dot(aby * nz - abz * ny, abz * nx - abx * nz, abx * ny - aby * nx, aox, aoy, aoz) > 0)
         {
-            Vector3 e1 = a.getVertex(i);
-            Vector3 e2 = a.getVertex((i + 1) % a.vertexCount());
+            s.copy(A, C);
+            s.tripleProduct(abx, aby, abz, aox, aoy, aoz);
+            return 2;
+        }
 
-            Vector3 axis = e1.cross(e2).normalize();
+        // Closest to the edge AC
+        if (dot(ny * acz - nz * acy, nz * acx - nx * acz, nx * acy - ny * acx, aox, aoy, aoz) > 0)
+        {
+            s.copy(A, B);
+            s.tripleProduct(acx, acy, acz, aox, aoy, aoz);
+            return 2;
+        }
 
-            if (isSeparatingAxis(a, b, axis, response))
-                return false;
+        if (dot(nx, ny, nz, aox, aoy, aoz) > 0)
+        {
+            // Above the triangle
+            s.copy(C, D);
+            s.copy(B, C);
+            s.copy(A, B);
+            s.setDirection(nx, ny, nz);
         }
+        else
+        {
+            // Below the triangle
+            s.copy(B, D);
+            s.copy(A, B);
+            s.setDirection(-nx, -ny, -nz);
+        }
+
+        return 3;
+    }
 
-        for (int i = 0; i < b.vertexCount(); i++)
+    // Returns true if the tetrahedron ABCD contains the origin, or reduces it to the face closest to it
+    private static boolean updateTetrahedron(Simplex s)
+    {
+        float[] p = s.points;
+
+        float abx = p[B] - p[A], aby = p[B + 1] - p[A + 1], abz = p[B + 2] - p[A + 2];
+        float acx = p[C] - p[A], acy = p[C + 1] - p[A + 1], acz = p[C + 2] - p[A + 2];
+        float adx = p[D] - p[A], ady = p[D + 1] - p[A + 1], adz = p[D + 2] - p[A + 2];
+
+        float aox = -p[A], aoy = -p[A + 1], aoz = -p[A + 2];
+
+        // The normals of the faces ABC, ACD and ADB, all pointing out of the tetrahedron
+        float abcX = aby * acz - abz * acy, abcY = abz * acx - abx * acz, abcZ = abx * acy - aby * acx;
+        float acdX = acy * adz - acz * ady, acdY = acz * adx - acx * adz, acdZ = acx * ady - acy * adx;
+        float adbX = ady * abz - adz * aby, adbY = adz * abx - adx * abz, adbZ = adx * aby - ady * abx;
+
+        if (dot(abcX, abcY, abcZ, aox, aoy, aoz) > 0)
         {
-            Vector3 e1 = b.getVertex(i);
-            Vector3 e2 = b.getVertex((i + 1) % b.vertexCount());
+            s.copy(C, D);
+            s.copy(B, C);
+            s.copy(A, B);
+            s.setDirection(abcX, abcY, abcZ);
+            return false;
+        }
 
-            Vector3 axis = e1.cross(e2).normalize();
+        if (dot(acdX, acdY, acdZ, aox, aoy, aoz) > 0)
+        {
+            s.copy(A, B);
+            s.setDirection(acdX, acdY, acdZ);
+            return false;
+        }
 
-            if (isSeparatingAxis(a, b, axis, response))
-                return false;
+        if (dot(adbX, adbY, adbZ, aox, aoy, aoz) > 0)
+        {
+            s.copy(D, C);
+            s.copy(B, D);
+            s.copy(A, B);
+            s.setDirection(adbX, adbY, adbZ);
+            return false;
         }
 
-        response.a = a;
-        response.b = b;
-        response.intersection = true;
-        response.overlapV = response.overlapN.scale(response.overlap);
+        return true;
+    }
+
+    // Expands the tetrahedron left by GJK to find the face of the Minkowski difference that is
+    // closest to the origin. Its normal is the overlap axis, and its distance is the overlap
+    private static void epa(Polyhedron a, Polyhedron b, Simplex s, Response response)
+    {
+        float[] p = s.points;
+        float[] faces = s.faces;
+        float[] edges = s.edges;
+
+        // Wind the tetrahedron so that all the normals point outwards. The new faces keep the
+        // winding of the edges they are made from, so the polytope stays wound the same way
+        float abx = p[B] - p[A], aby = p[B + 1] - p[A + 1], abz = p[B + 2] - p[A + 2];
+        float acx = p[C] - p[A], acy = p[C + 1] - p[A + 1], acz = p[C + 2] - p[A + 2];
+
+        if (dot(aby * acz - abz * acy, abz * acx - abx * acz, abx * acy - aby * acx,
+                p[D] - p[A], p[D + 1] - p[A + 1], p[D + 2] - p[A + 2]) > 0)
+            s.swap(B, C);
+
+        // Every face has 12 floats, the three vertices and the normal
+        s.setFace(0, p, A, B, C);
+        s.setFace(1, p, A, C, D);
+        s.setFace(2, p, A, D, B);
+        s.setFace(3, p, B, D, C);
+
+        int numFaces = 4;
+
+        // The shortest translation found so far, used if EPA doesn't converge. The support distance
+        // along a face normal always separates the polyhedrons, unlike the distance of the face
+        float bestX = 0, bestY = 0, bestZ = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+
+        for (int iteration = 0; iteration < EPA_MAX_ITERATIONS; iteration++)
+        {
+            int closest = -1;
+            float closestDistance = Float.POSITIVE_INFINITY;
+
+            for (int i = 0; i < numFaces; i++)
+            {
+                int f = i * 12;
+
+                // Degenerate faces have no normal, and can't be the closest
+                if (faces[f + 9] == 0 && faces[f + 10] == 0 && faces[f + 11] == 0)
+                    continue;
+
+                float distance = dot(faces[f], faces[f + 1], faces[f + 2], faces[f + 9], faces[f + 10], faces[f + 11]);
+
+                if (distance < closestDistance)
+                {
+                    closestDistance = distance;
+                    closest = i;
+                }
+            }
+
+            if (closest == -1)
+                break;
+
+            int c = closest * 12;
+
+            float nx = faces[c + 9];
+            float ny = faces[c + 10];
+            float nz = faces[c + 11];
+
+            supportDifference(a, b, nx, ny, nz, s);
+
+            float px = s.px;
+            float py = s.py;
+            float pz = s.pz;
+
+            float distance = dot(px, py, pz, nx, ny, nz);
+
+            if (distance < bestDistance)
+            {
+                bestDistance = distance;
+                bestX = nx;
+                bestY = ny;
+                bestZ = nz;
+            }
+
+            // The polytope can't be expanded any further in the direction of the closest face
+            if (distance - closestDistance < EPA_TOLERANCE)
+            {
+                setPenetration(response, nx, ny, nz, distance);
+                return;
+            }
+
+            int numEdges = 0;
+
+            // Remove the faces that can see the new point, keeping the edges of the hole they leave
+            for (int i = 0; i < numFaces; i++)
+            {
+                int f = i * 12;
+
+                if (dot(faces[f + 9], faces[f + 10], faces[f + 11],
+                        px - faces[f], py - faces[f + 1], pz - faces[f + 2]) <= EPA_TOLERANCE)
+                    continue;
+
+                for (int j = 0; j < 3; j++)
+                {
+                    int e0 = f + j * 3;
+                    int e1 = f + ((j + 1) % 3) * 3;
+
+                    boolean found = false;
+
+                    // An edge shared by two removed faces is inside the hole, so it is dropped
+                    for (int k = 0; k < numEdges; k++)
+                    {
+                        int e = k * 6;
+
+                        if (edges[e + 3] == faces[e0] && edges[e + 4] == faces[e0 + 1] && edges[e + 5] == faces[e0 + 2] &&
+                            edges[e] == faces[e1] && edges[e + 1] == faces[e1 + 1] && edges[e + 2] == faces[e1 + 2])
+                        {
+                            System.arraycopy(edges, (numEdges - 1) * 6, edges, e, 6);
+                            numEdges--;
+                            found = true;
+                            break;
+                        }
+                    }
+
+                    if (!found)
+                    {
+                        // The hole can't be remembered, so stop with the shortest translation found so far
+                        if (numEdges >= EPA_MAX_LOOSE_EDGES)
+                        {
+                            setPenetration(response, bestX, bestY, bestZ, bestDistance);
+                            return;
+                        }
+
+                        int e = numEdges * 6;
+                        System.arraycopy(faces, e0, edges, e, 3);
+                        System.arraycopy(faces, e1, edges, e + 3, 3);
+                        numEdges++;
+                    }
+                }
+
+                System.arraycopy(faces, (numFaces - 1) * 12, faces, f, 12);
+                numFaces--;
+                i--;
+            }
+
+            // The hole can't be filled, so stop with the shortest translation found so far
+            if (numFaces + numEdges > EPA_MAX_FACES)
+                break;
+
+            // Fill the hole with the faces made from its edges and the new point
+            for (int i = 0; i < numEdges; i++)
+            {
+                int e = i * 6;
+                int f = numFaces * 12;
+
+                System.arraycopy(edges, e, faces, f, 6);
+                faces[f + 6] = px;
+                faces[f + 7] = py;
+                faces[f + 8] = pz;
+
+                s.updateNormal(f);
+
+                numFaces++;
+            }
+        }
+
+        // Did not converge, use the shortest translation found so far
+        if (bestDistance == Float.POSITIVE_INFINITY)
+            setPenetration(response, 0, 0, 0, 0);
+        else
+            setPenetration(response, bestX, bestY, bestZ, bestDistance);
+    }
+
+    private static void setPenetration(Response response, float nx, float ny, float nz, float distance)
+    {
+        response.overlapN.set(nx, ny, nz);
+        response.overlap = Math.max(distance, 0);
+    }
+
+    // Tests whether the polyhedron outer contains all the vertices of the polyhedron inner
+    private static boolean contains(Polyhedron outer, Polyhedron inner, Simplex s)
+    {
+        Vector3 outerPosition = outer.getPosition();
+        Vector3 innerPosition = inner.getPosition();
+
+        // The bounds of the inner polyhedron should be inside the bounds of the outer one
+        if (Math.abs(innerPosition.x - outerPosition.x) + inner.getWidth() / 2 > outer.getWidth() / 2 ||
+            Math.abs(innerPosition.y - outerPosition.y) + inner.getHeight() / 2 > outer.getHeight() / 2 ||
+            Math.abs(innerPosition.z - outerPosition.z) + inner.getThickness() / 2 > outer.getThickness() / 2)
+            return false;
+
+        List<Vector3> vertices = inner.getVertices();
+
+        for (int i = 0; i < vertices.size(); i++)
+        {
+            Vector3 v = vertices.get(i);
+
+            s.pointX = innerPosition.x + v.x;
+            s.pointY = innerPosition.y + v.y;
+            s.pointZ = innerPosition.z + v.z;
+
+            if (!gjk(null, outer, s))
+                return false;
+        }
 
         return true;
     }
 
-    public static boolean testPolyhedronCollision(Polyhedron a, Polyhedron b)
+    private static float dot(float x1, float y1, float z1, float x2, float y2, float z2)
     {
-        return testPolyhedronCollision(a, b, null);
+        return x1 * x2 + y1 * y2 + z1 * z2;
     }
 
     public static Response getResponse()
     {
-        return tmpResponse;
+        return tmpResponse.get();
     }
 
     public static class Response
@@ -226,4 +1019,120 @@ public class Collision3D
                     '}';
         }
     }
+
+    /**
+     * The scratch memory used by GJK and EPA. Each thread has its own, so that
+     * the collision tests never allocate.
+     */
+    private static class Simplex
+    {
+        // The points A, B, C and D of the simplex
+        private float[] points = new float[12];
+
+        // The polytope of EPA, and the edges of the hole made when expanding it
+        private float[] faces = new float[EPA_MAX_FACES * 12];
+        private float[] edges = new float[EPA_MAX_LOOSE_EDGES * 6];
+
+        // The last support point
+        private float px, py, pz;
+
+        // The search direction
+        private float dx, dy, dz;
+
+        // Whether GJK ended with a tetrahedron around the origin
+        private boolean tetrahedron;
+
+        // The translation of the polyhedron a, used when sweeping it
+        private float offsetX, offsetY, offsetZ;
+
+        // The segment that is tested for containment and rays, from the point to the point + segment
+        private float pointX, pointY, pointZ;
+        private float segmentX, segmentY, segmentZ;
+
+        private void set(float x, float y, float z)
+        {
+            px = x;
+            py = y;
+            pz = z;
+        }
+
+        private void store(int offset)
+        {
+            points[offset] = px;
+            points[offset + 1] = py;
+            points[offset + 2] = pz;
+        }
+
+        private void copy(int from, int to)
+        {
+            points[to] = points[from];
+            points[to + 1] = points[from + 1];
+            points[to + 2] = points[from + 2];
+        }
+
+        private void swap(int i, int j)
+        {
+            for (int k = 0; k < 3; k++)
+            {
+                float tmp = points[i + k];
+                points[i + k] = points[j + k];
+                points[j + k] = tmp;
+            }
+        }
+
+        private void setDirection(float x, float y, float z)
+        {
+            dx = x;
+            dy = y;
+            dz = z;
+        }
+
+        private boolean isDirectionZero()
+        {
+            return dx * dx + dy * dy + dz * dz == 0;
+        }
+
+        // Sets the direction to (u x v) x u, which is perpendicular to u and towards v
+        private void tripleProduct(float ux, float uy, float uz, float vx, float vy, float vz)
+        {
+            float cx = uy * vz - uz * vy;
+            float cy = uz * vx - ux * vz;
+            float cz = ux * vy - uy * vx;
+
+            setDirection(cy * uz - cz * uy, cz * ux - cx * uz, cx * uy - cy * ux);
+        }
+
+        private void setFace(int face, float[] p, int a, int b, int c)
+        {
+            int f = face * 12;
+
+            System.arraycopy(p, a, faces, f, 3);
+            System.arraycopy(p, b, faces, f + 3, 3);
+            System.arraycopy(p, c, faces, f + 6, 3);
+
+            updateNormal(f);
+        }
+
+        // Computes the unit normal of the face (b - a) x (c - a), or zero for a degenerate face
+        private void updateNormal(int f)
+        {
+            float abx = faces[f + 3] - faces[f], aby = faces[f + 4] - faces[f + 1], abz = faces[f + 5] - faces[f + 2];
+            float acx = faces[f + 6] - faces[f], acy = faces[f + 7] - faces[f + 1], acz = faces[f + 8] - faces[f + 2];
+
+            float nx = aby * acz - abz * acy;
+            float ny = abz * acx - abx * acz;
+            float nz = abx * acy - aby * acx;
+
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+            if (length == 0)
+                faces[f + 9] = faces[f + 10] = faces[f + 11] = 0;
+            else
+            {
+                faces[f + 9] = nx / length;
+                faces[f + 10] = ny / length;
+                faces[f + 11] = nz / length;
+            }
+        }
+    }
 }
@@ -1,200 +1,1008 @@
 package com.shc.silenceengine.collision.broadphase;
 
+import com.shc.silenceengine.collision.Collision3D;
 import com.shc.silenceengine.entity.Entity3D;
 import com.shc.silenceengine.geom3d.Polyhedron;
 import com.shc.silenceengine.math.Vector3;
-import com.shc.silenceengine.utils.MathUtils;
+import com.shc.silenceengine.utils.IntIntMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
+ * A dynamic AABB tree that resolves collisions between Entity3Ds. The nodes of
+ * the tree are stored in primitive arrays and are indexed by their node id. The
+ * freed nodes are kept in a free list and are reused, so that inserting, removing
+ * and querying the tree do not create any garbage once the arrays have grown.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class DynamicTree3D implements IBroadphaseResolver3D
 {
-    private Node root;
+    private static final int NULL_NODE = -1;
+
+    // Number of floats per node in the aabbs array: minX, minY, minZ, maxX, maxY, maxZ
+    private static final int AABB_STRIDE = 6;
+
+    // The number of bins of the surface area heuristic, and the floats per bin: the count and the bounds
+    private static final int BIN_COUNT  = 16;
+    private static final int BIN_STRIDE = 7;
+
+    // The depth below which the bulk build splits at the median, and the leaves below which it is serial
+    private static final int MAX_SAH_DEPTH         = 48;
+    private static final int PARALLEL_BUILD_LEAVES = 4096;
+
+    private int root;
+
+    // The node storage. The parents array also links the free nodes
+    private int[]      parents;
+    private int[]      lefts;
+    private int[]      rights;
+    private int[]      heights;
+    private float[]    aabbs;
+    private Entity3D[] entities;
+
+    private int capacity;
+    private int nodeCount;
+    private int freeList;
+
+    // The stack used to traverse the tree without recursion
+    private int[] stack;
+
+    // The binary min heap of the nodes, ordered by their distance, used by the nearest queries
+    private int[]   heapNodes;
+    private float[] heapDistances;
+    private int     heapSize;
+
     private List<Entity3D> retrieveList;
-    private Map<Integer, Node> nodeMap;
+
+    // The ray that is being cast, the direction is normalized
+    private float rayX, rayY, rayZ;
+    private float rayDirX, rayDirY, rayDirZ;
+
+    // Maps the ID of an entity to the leaf node holding it
+    private IntIntMap nodeMap;
+
+    // The fat AABB enlargement and the velocity prediction multiplier
+    private float margin;
+    private float velocityMultiplier;
+
+    // Number of times an entity escaped its fat AABB and had to be reinserted
+    private int reinsertCount;
 
     public DynamicTree3D()
     {
-        nodeMap = new HashMap<>();
+        this(0.1f, 2);
+    }
+
+    /**
+     * Constructs a DynamicTree3D that stores enlarged (fat) AABBs for the entities.
+     * An entity that moves inside its fat AABB need not be reinserted into the tree.
+     *
+     * @param margin             The amount by which the AABB of every entity is enlarged
+     * @param velocityMultiplier The AABB is also extended by the velocity of the entity
+     *                           multiplied by this amount, in the direction of motion.
+     */
+    public DynamicTree3D(float margin, float velocityMultiplier)
+    {
+        this.margin = margin;
+        this.velocityMultiplier = velocityMultiplier;
+
+        nodeMap = new IntIntMap();
         retrieveList = new ArrayList<>();
+        stack = new int[64];
+        heapNodes = new int[64];
+        heapDistances = new float[64];
+
+        allocateStorage(16);
+        clear();
+    }
+
+    private void allocateStorage(int newCapacity)
+    {
+        parents = new int[newCapacity];
+        lefts = new int[newCapacity];
+        rights = new int[newCapacity];
+        heights = new int[newCapacity];
+        aabbs = new float[newCapacity * AABB_STRIDE];
+        entities = new Entity3D[newCapacity];
+
+        capacity = newCapacity;
+    }
+
+    private void growStorage()
+    {
+        int oldCapacity = capacity;
+
+        int[] oldParents = parents;
+        int[] oldLefts = lefts;
+        int[] oldRights = rights;
+        int[] oldHeights = heights;
+        float[] oldAABBs = aabbs;
+        Entity3D[] oldEntities = entities;
+
+        allocateStorage(oldCapacity * 2);
+
+        System.arraycopy(oldParents, 0, parents, 0, oldCapacity);
+        System.arraycopy(oldLefts, 0, lefts, 0, oldCapacity);
+        System.arraycopy(oldRights, 0, rights, 0, oldCapacity);
+        System.arraycopy(oldHeights, 0, heights, 0, oldCapacity);
+        System.arraycopy(oldAABBs, 0, aabbs, 0, oldCapacity * AABB_STRIDE);
+        System.arraycopy(oldEntities, 0, entities, 0, oldCapacity);
+
+        linkFreeNodes(oldCapacity);
+    }
+
+    // Links all the nodes from the start index to the end of the storage into the free list
+    private void linkFreeNodes(int start)
+    {
+        for (int i = start; i < capacity - 1; i++)
+        {
+            parents[i] = i + 1;
+            heights[i] = -1;
+        }
+
+        parents[capacity - 1] = NULL_NODE;
+        heights[capacity - 1] = -1;
+
+        freeList = start;
+    }
+
+    private int allocateNode()
+    {
+        if (freeList == NULL_NODE)
+            growStorage();
+
+        int node = freeList;
+        freeList = parents[node];
+
+        parents[node] = NULL_NODE;
+        lefts[node] = NULL_NODE;
+        rights[node] = NULL_NODE;
+        heights[node] = 0;
+        entities[node] = null;
+
+        nodeCount++;
+
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        parents[node] = freeList;
+        heights[node] = -1;
+        entities[node] = null;
+
+        freeList = node;
+        nodeCount--;
     }
 
     @Override
     public void clear()
     {
         nodeMap.clear();
-        root = null;
+
+        for (int i = 0; i < capacity; i++)
+            entities[i] = null;
+
+        linkFreeNodes(0);
+
+        root = NULL_NODE;
+        nodeCount = 0;
     }
 
     @Override
     public void insert(Entity3D e)
     {
-        Node node = new Node();
-        node.entity = e;
-        node.aabb = AABB.create(e);
+        if (nodeMap.containsKey(e.getID()))
+            remove(e);
+
+        int node = allocateNode();
+        entities[node] = e;
+        setFatAABB(node, e);
 
         nodeMap.put(e.getID(), node);
 
-        insert(node);
+        insertLeaf(node);
     }
 
-    private void insert(Node item)
+    /**
+     * Updates the position of an entity in this tree. The entity is only reinserted
+     * if its bounds have escaped the fat AABB that is stored for it in the tree.
+     *
+     * @param e The entity that has been moved.
+     *
+     * @return True if the entity had to be reinserted, else false.
+     */
+    public boolean move(Entity3D e)
     {
-        if (root == null)
+        int node = nodeMap.get(e.getID(), NULL_NODE);
+
+        if (node == NULL_NODE)
         {
-            root = item;
+            insert(e);
+            return true;
+        }
+
+        Vector3 position = e.getPosition();
+
+        float halfWidth = e.getWidth() / 2;
+        float halfHeight = e.getHeight() / 2;
+        float halfThickness = e.getThickness() / 2;
+
+        int i = node * AABB_STRIDE;
+
+        if (aabbs[i] <= position.x - halfWidth &&
+            aabbs[i + 1] <= position.y - halfHeight &&
+            aabbs[i + 2] <= position.z - halfThickness &&
+            aabbs[i + 3] >= position.x + halfWidth &&
+            aabbs[i + 4] >= position.y + halfHeight &&
+            aabbs[i + 5] >= position.z + halfThickness)
+            return false;
+
+        removeLeaf(node);
+
+        setFatAABB(node, e);
+        insertLeaf(node);
+
+        reinsertCount++;
+
+        return true;
+    }
+
+    @Override
+    public void update(Entity3D e)
+    {
+        move(e);
+    }
+
+    /**
+     * Builds this tree from the entities all at once, replacing the entities in it. The
+     * tree is built from the top down, splitting the entities with the binned surface
+     * area heuristic, and large sub trees are built in parallel on the common
+     * ForkJoinPool. The shape of the tree doesn't depend on the order of the entities,
+     * and the entities can be updated, inserted and removed as usual afterwards.
+     *
+     * @param entities The entities to build this tree from
+     */
+    public void buildFrom(Collection<Entity3D> entities)
+    {
+        buildFrom(entities, true);
+    }
+
+    /**
+     * Builds this tree from the entities all at once, replacing the entities in it. The
+     * entities are split either with the binned surface area heuristic, or at the median
+     * of their centers, which is faster to build but gives a tree that is slower to query.
+     *
+     * @param entities The entities to build this tree from
+     * @param sah      True to split with the surface area heuristic, false to split at the median
+     */
+    public void buildFrom(Collection<Entity3D> entities, boolean sah)
+    {
+        clear();
+
+        // A tree of n leaves has n - 1 branches, so the storage is grown at most once
+        int minCapacity = 2 * entities.size();
+
+        if (capacity < minCapacity)
+        {
+            int newCapacity = capacity;
+
+            while (newCapacity < minCapacity)
+                newCapacity *= 2;
+
+            allocateStorage(newCapacity);
+            linkFreeNodes(0);
+        }
+
+        int[] leaves = new int[entities.size()];
+        int leafCount = 0;
+
+        for (Entity3D e : entities)
+        {
+            if (nodeMap.containsKey(e.getID()))
+                continue;
+
+            int node = allocateNode();
+            this.entities[node] = e;
+            setFatAABB(node, e);
+
+            nodeMap.put(e.getID(), node);
+            leaves[leafCount++] = node;
+        }
+
+        if (leafCount == 0)
             return;
+
+        // The branches are allocated up front, so that the sub trees can be built in parallel
+        int[] branches = new int[leafCount - 1];
+
+        for (int i = 0; i < branches.length; i++)
+            branches[i] = allocateNode();
+
+        if (leafCount < PARALLEL_BUILD_LEAVES)
+            root = build(leaves, branches, 0, leafCount, 0, 0, sah, new float[BIN_COUNT * (BIN_STRIDE + 1)]);
+        else
+        {
+            BuildTask task = new BuildTask(leaves, branches, 0, leafCount, 0, 0, sah);
+            ForkJoinPool.commonPool().invoke(task);
+
+            root = task.node;
         }
 
-        AABB itemAABB = item.aabb;
+        parents[root] = NULL_NODE;
+    }
+
+    // Builds the sub tree of the leaves in [start, end), whose branches are taken from the given
+    // index onwards, and returns its root. A sub tree of n leaves takes n - 1 branches
+    private int build(int[] leaves, int[] branches, int start, int end, int branch, int depth, boolean sah, float[] bins)
+    {
+        if (end - start == 1)
+            return leaves[start];
+
+        int middle = split(leaves, start, end, depth, sah, bins);
 
-        Node node = root;
+        int left = build(leaves, branches, start, middle, branch + 1, depth + 1, sah, bins);
+        int right = build(leaves, branches, middle, end, branch + middle - start, depth + 1, sah, bins);
 
-        while (!node.isLeaf())
+        return link(branches[branch], left, right);
+    }
+
+    private int link(int node, int left, int right)
+    {
+        lefts[node] = left;
+        rights[node] = right;
+        parents[left] = node;
+        parents[right] = node;
+
+        heights[node] = 1 + Math.max(heights[left], heights[right]);
+        setUnion(node, left, right);
+
+        return node;
+    }
+
+    // Partitions the leaves in [start, end) into two non empty halves, and returns the start of the second half
+    private int split(int[] leaves, int start, int end, int depth, boolean sah, float[] bins)
+    {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+        for (int n = start; n < end; n++)
         {
-            AABB aabb = node.aabb;
+            float x = getCenter(leaves[n], 0);
+            float y = getCenter(leaves[n], 1);
+            float z = getCenter(leaves[n], 2);
 
-            float perimeter = aabb.getPerimeter();
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
 
-            AABB union = AABB.union(aabb, itemAABB);
-            float unionPerimeter = union.getPerimeter();
+        // Split along the axis where the centers are spread the most
+        int axis = 0;
+        float min = minX;
+        float extent = maxX - minX;
 
-            float cost = 2 * unionPerimeter;
-            float descendCost = 2 * (unionPerimeter - perimeter);
+        if (maxY - minY > extent)
+        {
+            axis = 1;
+            min = minY;
+            extent = maxY - minY;
+        }
+
+        if (maxZ - minZ > extent)
+        {
+            axis = 2;
+            min = minZ;
+            extent = maxZ - minZ;
+        }
+
+        // All the centers are at the same point, so any split is as good
+        if (extent <= 0)
+            return (start + end) >>> 1;
+
+        // Deep sub trees are split at the median, so that the height of the tree stays bounded
+        if (sah && end - start > 2 && depth < MAX_SAH_DEPTH)
+        {
+            int middle = splitSAH(leaves, start, end, axis, min, extent, bins);
 
-            Node left = node.left;
-            Node right = node.right;
+            if (middle > start && middle < end)
+                return middle;
+        }
+
+        return splitMedian(leaves, start, end, axis);
+    }
 
-            float costLeft;
-            if (left.isLeaf())
+    // Splits the leaves between the bins of their centers, where the surface area of the halves weighed
+    // by their number of leaves is the least. Returns the start of the second half
+    private int splitSAH(int[] leaves, int start, int end, int axis, float min, float extent, float[] bins)
+    {
+        // Every bin holds the number of leaves in it and their bounds, followed by the costs of the right halves
+        for (int b = 0; b < BIN_COUNT * BIN_STRIDE; b += BIN_STRIDE)
+        {
+            bins[b] = 0;
+
+            for (int k = 1; k <= 3; k++)
             {
-                AABB u = AABB.union(left.aabb, itemAABB);
-                costLeft = u.getPerimeter() + descendCost;
+                bins[b + k] = Float.POSITIVE_INFINITY;
+                bins[b + k + 3] = Float.NEGATIVE_INFINITY;
             }
-            else
+        }
+
+        float scale = BIN_COUNT / extent;
+
+        for (int n = start; n < end; n++)
+        {
+            int b = getBin(leaves[n], axis, min, scale) * BIN_STRIDE;
+            int i = leaves[n] * AABB_STRIDE;
+
+            bins[b]++;
+
+            for (int k = 0; k < 3; k++)
             {
-                AABB u = AABB.union(left.aabb, itemAABB);
-                costLeft = u.getPerimeter() - left.aabb.getPerimeter() + descendCost;
+                bins[b + 1 + k] = Math.min(bins[b + 1 + k], aabbs[i + k]);
+                bins[b + 1 + 3 + k] = Math.max(bins[b + 1 + 3 + k], aabbs[i + 3 + k]);
             }
+        }
 
-            float costRight;
-            if (right.isLeaf())
+        int costs = BIN_COUNT * BIN_STRIDE;
+
+        // Sweep from the right, the cost of a split before the bin b is kept at costs + b.
+        // The running bounds are kept in the last bin, which is not read again
+        int last = (BIN_COUNT - 1) * BIN_STRIDE;
+        float count = bins[last];
+
+        for (int b = BIN_COUNT - 1; b > 0; b--)
+        {
+            int offset = b * BIN_STRIDE;
+
+            if (b < BIN_COUNT - 1)
             {
-                AABB u = AABB.union(right.aabb, itemAABB);
-                costRight = u.getPerimeter() + descendCost;
+                count += bins[offset];
+
+                for (int k = 0; k < 3; k++)
+                {
+                    bins[last + 1 + k] = Math.min(bins[last + 1 + k], bins[offset + 1 + k]);
+                    bins[last + 1 + 3 + k] = Math.max(bins[last + 1 + 3 + k], bins[offset + 1 + 3 + k]);
+                }
             }
-            else
+
+            bins[costs + b] = count == 0 ? 0 : count * getSurfaceArea(bins, last + 1);
+        }
+
+        // Sweep from the left, the running bounds are kept in the first bin
+        int bestBin = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+
+        count = 0;
+
+        for (int b = 1; b < BIN_COUNT; b++)
+        {
+            int offset = (b - 1) * BIN_STRIDE;
+
+            count += bins[offset];
+
+            if (b > 1)
             {
-                AABB u = AABB.union(right.aabb, itemAABB);
-                costRight = u.getPerimeter() - right.aabb.getPerimeter() + descendCost;
+                for (int k = 0; k < 3; k++)
+                {
+                    bins[1 + k] = Math.min(bins[1 + k], bins[offset + 1 + k]);
+                    bins[1 + 3 + k] = Math.max(bins[1 + 3 + k], bins[offset + 1 + 3 + k]);
+                }
             }
 
-            if (cost < costLeft && cost < costRight)
-                break;
+            if (count == 0 || count == end - start)
+                continue;
 
-            node = (costLeft < costRight) ? left : right;
+            float cost = count * getSurfaceArea(bins, 1) + bins[costs + b];
+
+            if (cost < bestCost)
+            {
+                bestCost = cost;
+                bestBin = b;
+            }
         }
 
-        Node parent = node.parent;
-        Node newParent = new Node();
-        newParent.parent = node.parent;
-        newParent.aabb = AABB.union(node.aabb, itemAABB);
+        if (bestBin == -1)
+            return start;
 
-        if (parent != null)
+        // Move the leaves in the bins before the best bin to the front
+        int i = start;
+        int j = end - 1;
+
+        while (i <= j)
         {
-            if (parent.left == node)
-                parent.left = newParent;
+            if (getBin(leaves[i], axis, min, scale) < bestBin)
+                i++;
             else
-                parent.right = newParent;
+                swap(leaves, i, j--);
+        }
+
+        return i;
+    }
+
+    // Selects the leaf at the median of the centers along the axis, with the smaller centers before it
+    private int splitMedian(int[] leaves, int start, int end, int axis)
+    {
+        int middle = (start + end) >>> 1;
+
+        int low = start;
+        int high = end - 1;
 
-            newParent.left = node;
-            newParent.right = item;
+        while (low < high)
+        {
+            float pivot = getCenter(leaves[(low + high) >>> 1], axis);
+
+            int i = low;
+            int j = high;
+
+            while (i <= j)
+            {
+                while (getCenter(leaves[i], axis) < pivot) i++;
+                while (getCenter(leaves[j], axis) > pivot) j--;
+
+                if (i <= j)
+                    swap(leaves, i++, j--);
+            }
 
-            node.parent = newParent;
-            item.parent = newParent;
+            if (middle <= j)
+                high = j;
+            else if (middle >= i)
+                low = i;
+            else
+                break;
         }
-        else
+
+        return middle;
+    }
+
+    // Returns twice the center of the AABB of the node along the axis, which orders the nodes the same
+    private float getCenter(int node, int axis)
+    {
+        int i = node * AABB_STRIDE + axis;
+        return aabbs[i] + aabbs[i + 3];
+    }
+
+    private int getBin(int node, int axis, float min, float scale)
+    {
+        return Math.min((int) ((getCenter(node, axis) - min) * scale), BIN_COUNT - 1);
+    }
+
+    // Returns the surface area of the bounds stored in the bins at the given offset
+    private static float getSurfaceArea(float[] bins, int b)
+    {
+        float width = bins[b + 3] - bins[b];
+        float height = bins[b + 4] - bins[b + 1];
+        float thickness = bins[b + 5] - bins[b + 2];
+
+        return 2 * (width * height + height * thickness + thickness * width);
+    }
+
+    private static void swap(int[] array, int i, int j)
+    {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        if (root == NULL_NODE)
+            return;
+
+        for (int leaf = 0; leaf < capacity; leaf++)
         {
-            newParent.left = node;
-            newParent.right = item;
+            if (entities[leaf] == null)
+                continue;
+
+            int i = leaf * AABB_STRIDE;
+
+            int top = 0;
+            stack[top++] = root;
+
+            while (top > 0)
+            {
+                int node = stack[--top];
+                int j = node * AABB_STRIDE;
 
-            node.parent = newParent;
-            item.parent = newParent;
+                if (aabbs[j] > aabbs[i + 3] || aabbs[j + 3] < aabbs[i] ||
+                    aabbs[j + 1] > aabbs[i + 4] || aabbs[j + 4] < aabbs[i + 1] ||
+                    aabbs[j + 2] > aabbs[i + 5] || aabbs[j + 5] < aabbs[i + 2])
+                    continue;
 
-            root = newParent;
+                if (isLeaf(node))
+                {
+                    // Only report the pair from the leaf with the smaller id
+                    if (node > leaf)
+                        callback.invoke(entities[leaf], entities[node]);
+                }
+                else
+                {
+                    if (top + 2 > stack.length)
+                        growStack();
+
+                    stack[top++] = lefts[node];
+                    stack[top++] = rights[node];
+                }
+            }
+        }
+    }
+
+    private void setFatAABB(int node, Entity3D e)
+    {
+        Vector3 position = e.getPosition();
+        Vector3 velocity = e.getVelocity();
+
+        // The position of an Entity3D is the center of its bounds
+        float halfWidth = e.getWidth() / 2 + margin;
+        float halfHeight = e.getHeight() / 2 + margin;
+        float halfThickness = e.getThickness() / 2 + margin;
+
+        float minX = position.x - halfWidth;
+        float minY = position.y - halfHeight;
+        float minZ = position.z - halfThickness;
+        float maxX = position.x + halfWidth;
+        float maxY = position.y + halfHeight;
+        float maxZ = position.z + halfThickness;
+
+        float dx = velocity.x * velocityMultiplier;
+        float dy = velocity.y * velocityMultiplier;
+        float dz = velocity.z * velocityMultiplier;
+
+        if (dx < 0) minX += dx; else maxX += dx;
+        if (dy < 0) minY += dy; else maxY += dy;
+        if (dz < 0) minZ += dz; else maxZ += dz;
+
+        int i = node * AABB_STRIDE;
+
+        aabbs[i] = minX;
+        aabbs[i + 1] = minY;
+        aabbs[i + 2] = minZ;
+        aabbs[i + 3] = maxX;
+        aabbs[i + 4] = maxY;
+        aabbs[i + 5] = maxZ;
+    }
+
+    private void insertLeaf(int leaf)
+    {
+        parents[leaf] = NULL_NODE;
+
+        if (root == NULL_NODE)
+        {
+            root = leaf;
+            return;
         }
 
-        node = item.parent;
+        int index = root;
 
-        while (node != null)
+        while (!isLeaf(index))
         {
-            Node left = node.left;
-            Node right = node.right;
+            float perimeter = getPerimeter(index);
+            float unionPerimeter = getUnionPerimeter(index, leaf);
 
-            node.aabb = AABB.union(left.aabb, right.aabb);
+            float cost = 2 * unionPerimeter;
+            float descendCost = 2 * (unionPerimeter - perimeter);
+
+            int left = lefts[index];
+            int right = rights[index];
+
+            float costLeft = getUnionPerimeter(left, leaf) + descendCost;
+            if (!isLeaf(left))
+                costLeft -= getPerimeter(left);
+
+            float costRight = getUnionPerimeter(right, leaf) + descendCost;
+            if (!isLeaf(right))
+                costRight -= getPerimeter(right);
+
+            if (cost < costLeft && cost < costRight)
+                break;
 
-            node = node.parent;
+            index = (costLeft < costRight) ? left : right;
         }
+
+        int sibling = index;
+        int oldParent = parents[sibling];
+
+        int newParent = allocateNode();
+        parents[newParent] = oldParent;
+        setUnion(newParent, sibling, leaf);
+        heights[newParent] = heights[sibling] + 1;
+
+        lefts[newParent] = sibling;
+        rights[newParent] = leaf;
+
+        parents[sibling] = newParent;
+        parents[leaf] = newParent;
+
+        replaceChild(oldParent, sibling, newParent);
+
+        refit(newParent);
     }
 
     @Override
     public void remove(Entity3D e)
     {
-        Node node = nodeMap.get(e.getID());
+        int node = nodeMap.remove(e.getID(), NULL_NODE);
 
-        if (node != null)
+        if (node != NULL_NODE)
         {
-            remove(node);
-            nodeMap.remove(e.getID());
+            removeLeaf(node);
+            freeNode(node);
         }
     }
 
-    private void remove(Node node)
+    private void removeLeaf(int leaf)
     {
-        if (root == null) return;
-
-        if (node == root)
+        if (leaf == root)
         {
-            root = null;
+            root = NULL_NODE;
             return;
         }
 
-        Node parent = node.parent;
-        Node grandParent = parent.parent;
+        int parent = parents[leaf];
+        int grandParent = parents[parent];
 
-        Node other = (parent.left == node) ? parent.right : parent.left;
+        int sibling = (lefts[parent] == leaf) ? rights[parent] : lefts[parent];
 
-        if (grandParent != null)
+        replaceChild(grandParent, parent, sibling);
+        parents[sibling] = grandParent;
+
+        freeNode(parent);
+
+        refit(grandParent);
+    }
+
+    // Walks up the tree from the given node, rebalancing and refitting the ancestors
+    private void refit(int node)
+    {
+        while (node != NULL_NODE)
         {
-            if (grandParent.left == parent)
-                grandParent.left = other;
+            node = balance(node);
+
+            int left = lefts[node];
+            int right = rights[node];
+
+            heights[node] = 1 + Math.max(heights[left], heights[right]);
+            setUnion(node, left, right);
+
+            node = parents[node];
+        }
+    }
+
+    // Performs a left or right rotation if the node a is imbalanced, and returns the new root of the sub tree
+    private int balance(int a)
+    {
+        if (isLeaf(a) || heights[a] < 2)
+            return a;
+
+        int b = lefts[a];
+        int c = rights[a];
+
+        int balance = heights[c] - heights[b];
+
+        // Rotate c up
+        if (balance > 1)
+        {
+            int f = lefts[c];
+            int g = rights[c];
+
+            lefts[c] = a;
+            parents[c] = parents[a];
+            parents[a] = c;
+
+            replaceChild(parents[c], a, c);
+
+            if (heights[f] > heights[g])
+            {
+                rights[c] = f;
+                rights[a] = g;
+                parents[g] = a;
+
+                setUnion(a, b, g);
+                setUnion(c, a, f);
+
+                heights[a] = 1 + Math.max(heights[b], heights[g]);
+                heights[c] = 1 + Math.max(heights[a], heights[f]);
+            }
             else
-                grandParent.right = other;
+            {
+                rights[c] = g;
+                rights[a] = f;
+                parents[f] = a;
+
+                setUnion(a, b, f);
+                setUnion(c, a, g);
+
+                heights[a] = 1 + Math.max(heights[b], heights[f]);
+                heights[c] = 1 + Math.max(heights[a], heights[g]);
+            }
 
-            other.parent = grandParent;
+            return c;
+        }
+
+        // Rotate b up
+        if (balance < -1)
+        {
+            int d = lefts[b];
+            int e = rights[b];
+
+            lefts[b] = a;
+            parents[b] = parents[a];
+            parents[a] = b;
 
-            Node n = grandParent;
-            while (n != null)
+            replaceChild(parents[b], a, b);
+
+            if (heights[d] > heights[e])
             {
-                Node left = n.left;
-                Node right = n.right;
+                rights[b] = d;
+                lefts[a] = e;
+                parents[e] = a;
 
-                n.aabb = AABB.union(left.aabb, right.aabb);
+                setUnion(a, c, e);
+                setUnion(b, a, d);
 
-                n = n.parent;
+                heights[a] = 1 + Math.max(heights[c], heights[e]);
+                heights[b] = 1 + Math.max(heights[a], heights[d]);
             }
+            else
+            {
+                rights[b] = e;
+                lefts[a] = d;
+                parents[d] = a;
+
+                setUnion(a, c, d);
+                setUnion(b, a, e);
+
+                heights[a] = 1 + Math.max(heights[c], heights[d]);
+                heights[b] = 1 + Math.max(heights[a], heights[e]);
+            }
+
+            return b;
         }
+
+        return a;
+    }
+
+    private void replaceChild(int parent, int oldChild, int newChild)
+    {
+        if (parent == NULL_NODE)
+            root = newChild;
+        else if (lefts[parent] == oldChild)
+            lefts[parent] = newChild;
         else
+            rights[parent] = newChild;
+    }
+
+    private boolean isLeaf(int node)
+    {
+        return lefts[node] == NULL_NODE;
+    }
+
+    private float getPerimeter(int node)
+    {
+        int i = node * AABB_STRIDE;
+        return 2 * (aabbs[i + 3] - aabbs[i] + aabbs[i + 4] - aabbs[i + 1] + aabbs[i + 5] - aabbs[i + 2]);
+    }
+
+    private float getUnionPerimeter(int node1, int node2)
+    {
+        int i = node1 * AABB_STRIDE;
+        int j = node2 * AABB_STRIDE;
+
+        float minX = Math.min(aabbs[i], aabbs[j]);
+        float minY = Math.min(aabbs[i + 1], aabbs[j + 1]);
+        float minZ = Math.min(aabbs[i + 2], aabbs[j + 2]);
+        float maxX = Math.max(aabbs[i + 3], aabbs[j + 3]);
+        float maxY = Math.max(aabbs[i + 4], aabbs[j + 4]);
+        float maxZ = Math.max(aabbs[i + 5], aabbs[j + 5]);
+
+        return 2 * (maxX - minX + maxY - minY + maxZ - minZ);
+    }
+
+    // Sets the AABB of the target node to the union of the AABBs of the other two nodes
+    private void setUnion(int target, int node1, int node2)
+    {
+        int t = target * AABB_STRIDE;
+        int i = node1 * AABB_STRIDE;
+        int j = node2 * AABB_STRIDE;
+
+        aabbs[t] = Math.min(aabbs[i], aabbs[j]);
+        aabbs[t + 1] = Math.min(aabbs[i + 1], aabbs[j + 1]);
+        aabbs[t + 2] = Math.min(aabbs[i + 2], aabbs[j + 2]);
+        aabbs[t + 3] = Math.max(aabbs[i + 3], aabbs[j + 3]);
+        aabbs[t + 4] = Math.max(aabbs[i + 4], aabbs[j + 4]);
+        aabbs[t + 5] = Math.max(aabbs[i + 5], aabbs[j + 5]);
+    }
+
+    /**
+     * @return The height of this tree, which is zero for a tree with a single entity
+     */
+    public int getHeight()
+    {
+        return root == NULL_NODE ? 0 : heights[root];
+    }
+
+    /**
+     * Computes the ratio of the sum of the perimeters of all the nodes to the
+     * perimeter of the root. Smaller values indicate a tree of better quality.
+     *
+     * @return The area ratio of this tree
+     */
+    public float getAreaRatio()
+    {
+        if (root == NULL_NODE)
+            return 0;
+
+        float rootPerimeter = getPerimeter(root);
+
+        if (rootPerimeter == 0)
+            return 0;
+
+        float totalPerimeter = 0;
+
+        for (int i = 0; i < capacity; i++)
         {
-            root = other;
-            other.parent = null;
+            if (heights[i] >= 0)
+                totalPerimeter += getPerimeter(i);
         }
+
+        return totalPerimeter / rootPerimeter;
+    }
+
+    /**
+     * @return The number of nodes (both leaves and branches) in use by this tree
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * @return The number of times an entity has escaped its fat AABB and was
+     *         reinserted since the last call to resetReinsertCount()
+     */
+    public int getReinsertCount()
+    {
+        return reinsertCount;
+    }
+
+    public void resetReinsertCount()
+    {
+        reinsertCount = 0;
+    }
+
+    public float getMargin()
+    {
+        return margin;
+    }
+
+    /**
+     * Sets the margin of the fat AABBs. Only affects the entities that are
+     * inserted or reinserted after this call.
+     *
+     * @param margin The amount by which the AABB of every entity is enlarged
+     */
+    public void setMargin(float margin)
+    {
+        this.margin = margin;
+    }
+
+    public float getVelocityMultiplier()
+    {
+        return velocityMultiplier;
+    }
+
+    public void setVelocityMultiplier(float velocityMultiplier)
+    {
+        this.velocityMultiplier = velocityMultiplier;
     }
 
     @Override
@@ -202,104 +1010,389 @@ public class DynamicTree3D implements IBroadphaseResolver3D
     {
         retrieveList.clear();
 
-        queryNode(new AABB(cube.getPosition(), cube.getWidth(), cube.getHeight(), cube.getThickness()), root);
+        // The position of a Polyhedron is the center of its bounds
+        Vector3 center = cube.getPosition();
+
+        float halfWidth = cube.getWidth() / 2;
+        float halfHeight = cube.getHeight() / 2;
+        float halfThickness = cube.getThickness() / 2;
+
+        query(center.x - halfWidth, center.y - halfHeight, center.z - halfThickness,
+              center.x + halfWidth, center.y + halfHeight, center.z + halfThickness);
 
         return retrieveList;
     }
 
-    private void queryNode(AABB aabb, Node node)
+    private void query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
     {
-        if (node == null)
+        if (root == NULL_NODE)
             return;
 
-        if (node.aabb.intersects(aabb))
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0)
         {
-            if (node.isLeaf())
-                retrieveList.add(node.entity);
+            int node = stack[--top];
+            int i = node * AABB_STRIDE;
+
+            if (aabbs[i] > maxX || aabbs[i + 3] < minX ||
+                aabbs[i + 1] > maxY || aabbs[i + 4] < minY ||
+                aabbs[i + 2] > maxZ || aabbs[i + 5] < minZ)
+                continue;
+
+            if (isLeaf(node))
+                retrieveList.add(entities[node]);
             else
             {
-                queryNode(aabb, node.left);
-                queryNode(aabb, node.right);
+                if (top + 2 > stack.length)
+                    growStack();
+
+                stack[top++] = lefts[node];
+                stack[top++] = rights[node];
             }
         }
     }
 
-    private static class AABB
+    /**
+     * Casts a ray into the tree. The nodes are traversed with a stack, visiting the
+     * child that is closer along the ray first, and the subtrees that lie beyond the
+     * distance returned by the callback are skipped. The shapes of the leaves are
+     * tested exactly, and the callback should not modify the tree.
+     */
+    @Override
+    public void raycast(Vector3 origin, Vector3 direction, float maxDistance, RayCallback callback)
     {
-        public Vector3 min;
-        public Vector3 max;
+        if (root == NULL_NODE)
+            return;
+
+        Vector3 dir = direction.normalize();
+
+        rayX = origin.x;
+        rayY = origin.y;
+        rayZ = origin.z;
+
+        rayDirX = dir.x;
+        rayDirY = dir.y;
+        rayDirZ = dir.z;
 
-        public AABB()
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0)
         {
-            min = new Vector3();
-            max = new Vector3();
+            int node = stack[--top];
+
+            if (getRayEntry(node, maxDistance) < 0)
+                continue;
+
+            if (isLeaf(node))
+            {
+                float distance = Collision3D.testRay(entities[node].getPolyhedron(), origin, dir, maxDistance);
+
+                if (distance >= 0)
+                {
+                    maxDistance = Math.min(maxDistance, callback.invoke(entities[node], distance));
+
+                    if (maxDistance <= 0)
+                        return;
+                }
+            }
+            else
+            {
+                if (top + 2 > stack.length)
+                    growStack();
+
+                int near = lefts[node];
+                int far = rights[node];
+
+                float nearEntry = getRayEntry(near, maxDistance);
+                float farEntry = getRayEntry(far, maxDistance);
+
+                if (nearEntry < 0 || (farEntry >= 0 && farEntry < nearEntry))
+                {
+                    int swap = near;
+                    near = far;
+                    far = swap;
+
+                    float swapEntry = nearEntry;
+                    nearEntry = farEntry;
+                    farEntry = swapEntry;
+                }
+
+                // The far child is pushed first, so that the near child is visited first
+                if (farEntry >= 0)
+                    stack[top++] = far;
+
+                if (nearEntry >= 0)
+                    stack[top++] = near;
+            }
         }
+    }
 
-        public AABB(Vector3 min, float width, float height, float thickness)
+    // Returns the distance at which the ray enters the fat AABB of the node, or -1 if it misses
+    private float getRayEntry(int node, float maxDistance)
+    {
+        int i = node * AABB_STRIDE;
+
+        float enter = 0;
+        float exit = maxDistance;
+
+        if (rayDirX == 0)
         {
-            this.min = min.copy();
-            this.max = min.add(width, height, thickness);
+            if (rayX < aabbs[i] || rayX > aabbs[i + 3])
+                return -1;
+        }
+        else
+        {
+            float t1 = (aabbs[i] - rayX) / rayDirX;
+            float t2 = (aabbs[i + 3] - rayX) / rayDirX;
+
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
         }
 
-        public AABB(AABB aabb)
+        if (rayDirY == 0)
         {
-            this.min = aabb.min.copy();
-            this.max = aabb.max.copy();
+            if (rayY < aabbs[i + 1] || rayY > aabbs[i + 4])
+                return -1;
         }
+        else
+        {
+            float t1 = (aabbs[i + 1] - rayY) / rayDirY;
+            float t2 = (aabbs[i + 4] - rayY) / rayDirY;
 
-        public void union(AABB aabb)
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+
+        if (rayDirZ == 0)
         {
-            min = MathUtils.min(min, aabb.min);
-            max = MathUtils.max(max, aabb.max);
+            if (rayZ < aabbs[i + 2] || rayZ > aabbs[i + 5])
+                return -1;
         }
+        else
+        {
+            float t1 = (aabbs[i + 2] - rayZ) / rayDirZ;
+            float t2 = (aabbs[i + 5] - rayZ) / rayDirZ;
+
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+
+        return enter <= exit ? enter : -1;
+    }
 
-        public boolean intersects(AABB aabb)
+    @Override
+    public void queryRadius(Vector3 center, float radius, QueryCallback callback)
+    {
+        if (root == NULL_NODE)
+            return;
+
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0)
         {
-            return !(min.x > aabb.max.x || max.x < aabb.min.x) &&
-                    !(min.y > aabb.max.y || max.y < aabb.min.y) &&
-                    !(min.z > aabb.max.z || max.z < aabb.min.z);
+            int node = stack[--top];
+
+            if (getDistance(node, center) > radius)
+                continue;
+
+            if (isLeaf(node))
+            {
+                float distance = NearestBuffer.getDistance(entities[node], center);
+
+                if (distance <= radius)
+                    callback.invoke(entities[node], distance);
+            }
+            else
+            {
+                if (top + 2 > stack.length)
+                    growStack();
+
+                stack[top++] = lefts[node];
+                stack[top++] = rights[node];
+            }
         }
+    }
+
+    /**
+     * Finds the k nearest entities with a best first search. The nodes are visited
+     * in the order of the distance to their fat AABBs, and the search stops once the
+     * nearest remaining node is farther than the k-th nearest entity found so far.
+     */
+    @Override
+    public int nearest(Vector3 center, int k, Entity3D[] out, float[] distances)
+    {
+        if (root == NULL_NODE || k <= 0)
+            return 0;
+
+        int count = 0;
 
-        public float getPerimeter()
+        heapSize = 0;
+        pushHeap(root, getDistance(root, center));
+
+        while (heapSize > 0)
         {
-            return 2 * (this.max.x - this.min.x + this.max.y - this.min.y + this.max.z - this.min.z);
+            float bound = NearestBuffer.getBound(distances, count, k);
+
+            if (heapDistances[0] >= bound)
+                break;
+
+            int node = popHeap();
+
+            if (isLeaf(node))
+            {
+                float distance = NearestBuffer.getDistance(entities[node], center);
+                count = NearestBuffer.insert(out, distances, count, k, entities[node], distance);
+            }
+            else
+            {
+                float leftDistance = getDistance(lefts[node], center);
+                float rightDistance = getDistance(rights[node], center);
+
+                if (leftDistance < bound)
+                    pushHeap(lefts[node], leftDistance);
+
+                if (rightDistance < bound)
+                    pushHeap(rights[node], rightDistance);
+            }
         }
 
-        public static AABB create(Entity3D entity)
+        return count;
+    }
+
+    // Returns the distance from the point to the fat AABB of the node
+    private float getDistance(int node, Vector3 center)
+    {
+        int i = node * AABB_STRIDE;
+
+        return NearestBuffer.getDistance(center.x, center.y, center.z, aabbs[i], aabbs[i + 1], aabbs[i + 2],
+                                        aabbs[i + 3], aabbs[i + 4], aabbs[i + 5]);
+    }
+
+    private void pushHeap(int node, float distance)
+    {
+        if (heapSize == heapNodes.length)
         {
-            AABB aabb = new AABB();
+            int[] newNodes = new int[heapSize * 2];
+            float[] newDistances = new float[heapSize * 2];
+
+            System.arraycopy(heapNodes, 0, newNodes, 0, heapSize);
+            System.arraycopy(heapDistances, 0, newDistances, 0, heapSize);
 
-            float x = entity.getWidth() / 2;
-            float y = entity.getHeight() / 2;
-            float z = entity.getThickness() / 2;
+            heapNodes = newNodes;
+            heapDistances = newDistances;
+        }
 
-            aabb.min = entity.getPosition().subtract(x, y, z);
-            aabb.max = entity.getPosition().add(x, y, z);
+        // Sift the new node up from the bottom of the heap
+        int i = heapSize++;
 
-            return aabb;
+        while (i > 0)
+        {
+            int parent = (i - 1) / 2;
+
+            if (heapDistances[parent] <= distance)
+                break;
+
+            heapNodes[i] = heapNodes[parent];
+            heapDistances[i] = heapDistances[parent];
+            i = parent;
         }
 
-        public static AABB union(AABB aabb1, AABB aabb2)
+        heapNodes[i] = node;
+        heapDistances[i] = distance;
+    }
+
+    private int popHeap()
+    {
+        int top = heapNodes[0];
+
+        int node = heapNodes[--heapSize];
+        float distance = heapDistances[heapSize];
+
+        // Sift the last node down from the top of the heap
+        int i = 0;
+
+        while (true)
         {
-            AABB aabb = new AABB(aabb1);
-            aabb.union(aabb2);
+            int child = 2 * i + 1;
+
+            if (child >= heapSize)
+                break;
+
+            if (child + 1 < heapSize && heapDistances[child + 1] < heapDistances[child])
+                child++;
 
-            return aabb;
+            if (heapDistances[child] >= distance)
+                break;
+
+            heapNodes[i] = heapNodes[child];
+            heapDistances[i] = heapDistances[child];
+            i = child;
         }
+
+        heapNodes[i] = node;
+        heapDistances[i] = distance;
+
+        return top;
+    }
+
+    private void growStack()
+    {
+        int[] newStack = new int[stack.length * 2];
+        System.arraycopy(stack, 0, newStack, 0, stack.length);
+
+        stack = newStack;
     }
 
-    private static class Node
+    // Builds a sub tree of a bulk build, and builds the sub trees of large sub trees in parallel
+    private class BuildTask extends RecursiveAction
     {
-        public Node parent;
-        public Node left;
-        public Node right;
+        private static final long serialVersionUID = 1L;
 
-        public Entity3D entity;
-        public AABB aabb;
+        private int[]   leaves;
+        private int[]   branches;
+        private int     start;
+        private int     end;
+        private int     branch;
+        private int     depth;
+        private boolean sah;
 
-        public boolean isLeaf()
+        // The root of the sub tree, once built
+        private int node;
+
+        BuildTask(int[] leaves, int[] branches, int start, int end, int branch, int depth, boolean sah)
         {
-            return left == null;
+            this.leaves = leaves;
+            this.branches = branches;
+            this.start = start;
+            this.end = end;
+            this.branch = branch;
+            this.depth = depth;
+            this.sah = sah;
+        }
+
+        @Override
+        protected void compute()
+        {
+            float[] bins = new float[BIN_COUNT * (BIN_STRIDE + 1)];
+
+            if (end - start < PARALLEL_BUILD_LEAVES)
+            {
+                node = build(leaves, branches, start, end, branch, depth, sah, bins);
+                return;
+            }
+
+            int middle = split(leaves, start, end, depth, sah, bins);
+
+            BuildTask left = new BuildTask(leaves, branches, start, middle, branch + 1, depth + 1, sah);
+            BuildTask right = new BuildTask(leaves, branches, middle, end, branch + middle - start, depth + 1, sah);
+
+            invokeAll(left, right);
+
+            node = link(branches[branch], left.node, right.node);
         }
     }
 }
@@ -1,7 +1,9 @@
 package com.shc.silenceengine.collision.broadphase;
 
+import com.shc.silenceengine.collision.Collision2D;
 import com.shc.silenceengine.entity.Entity2D;
 import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
 import com.shc.silenceengine.utils.*;
 
 import java.util.ArrayList;
@@ -17,8 +19,25 @@ import java.util.List;
  */
 public class Grid implements IBroadphaseResolver2D
 {
-    // A spatial partitioned structure to hold elements
-    private List<List<List<Entity2D>>> grid;
+    private static final int NULL_PROXY = -1;
+
+    // The cells, stored column by column. Every cell holds the proxies in it
+    private int[][] cellProxies;
+    private int[]   cellSizes;
+
+    // The proxies, one per entity. The cell range is remembered for exact removal
+    private Entity2D[] entities;
+    private int[]      ranges;
+    private int[]      stamps;
+    private int[]      nextFree;
+    private int        proxyCapacity;
+    private int        freeList;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // Stamp used to avoid retrieving an entity more than once
+    private int queryStamp;
 
     // Private stuff, self explanatory
     private int rows;
@@ -45,21 +64,44 @@ public class Grid implements IBroadphaseResolver2D
         rows = (mapHeight + cellHeight - 1) / cellHeight;
         cols = (mapWidth + cellWidth - 1) / cellWidth;
 
-        grid = new ArrayList<>();
+        cellProxies = new int[cols * rows][];
+        cellSizes = new int[cols * rows];
 
-        for (int i = 0; i < cols; i++)
-        {
-            grid.add(new ArrayList<>());
+        for (int i = 0; i < cellProxies.length; i++)
+            cellProxies[i] = new int[4];
 
-            for (int j = 0; j < rows; j++)
-            {
-                grid.get(i).add(new ArrayList<>());
-            }
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+
+        allocateProxies(16);
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity2D[] newEntities = new Entity2D[capacity];
+        int[] newRanges = new int[capacity * 4];
+        int[] newStamps = new int[capacity];
+        int[] newNextFree = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(ranges, 0, newRanges, 0, proxyCapacity * 4);
+            System.arraycopy(stamps, 0, newStamps, 0, proxyCapacity);
+            System.arraycopy(nextFree, 0, newNextFree, 0, proxyCapacity);
         }
 
-        retrieveList = new ArrayList<>();
+        for (int i = proxyCapacity; i < capacity - 1; i++)
+            newNextFree[i] = i + 1;
+
+        newNextFree[capacity - 1] = NULL_PROXY;
+        freeList = proxyCapacity;
 
-        clear();
+        entities = newEntities;
+        ranges = newRanges;
+        stamps = newStamps;
+        nextFree = newNextFree;
+        proxyCapacity = capacity;
     }
 
     /**
@@ -67,11 +109,19 @@ public class Grid implements IBroadphaseResolver2D
      */
     public void clear()
     {
-        for (int i = 0; i < cols; i++)
+        for (int i = 0; i < cellSizes.length; i++)
+            cellSizes[i] = 0;
+
+        for (int i = 0; i < proxyCapacity; i++)
         {
-            for (int j = 0; j < rows; j++)
-                grid.get(i).get(j).clear();
+            entities[i] = null;
+            nextFree[i] = i + 1;
         }
+
+        nextFree[proxyCapacity - 1] = NULL_PROXY;
+        freeList = 0;
+
+        proxyMap.clear();
     }
 
     /**
@@ -91,66 +141,399 @@ public class Grid implements IBroadphaseResolver2D
      */
     public void insert(Entity2D entity)
     {
+        if (proxyMap.containsKey(entity.getID()))
+            remove(entity);
+
+        if (freeList == NULL_PROXY)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeList;
+        freeList = nextFree[proxy];
+
+        entities[proxy] = entity;
+        proxyMap.put(entity.getID(), proxy);
+
         Rectangle bounds = entity.getPolygon().getBounds();
+        int r = proxy * 4;
 
-        int topLeftX = MathUtils.clamp((int) (bounds.getX()) / cellWidth, 0, cols - 1);
-        int topLeftY = MathUtils.clamp((int) (bounds.getY()) / cellHeight, 0, rows-1);
-        int bottomRightX = MathUtils.clamp((int) (bounds.getX() + bounds.getWidth() - 1) / cellWidth, 0, cols-1);
-        int bottomRightY = MathUtils.clamp((int) (bounds.getY() + bounds.getHeight() - 1) / cellHeight, 0, rows-1);
+        ranges[r] = getColumn(bounds.getX());
+        ranges[r + 1] = getRow(bounds.getY());
+        ranges[r + 2] = getColumn(bounds.getX() + bounds.getWidth() - 1);
+        ranges[r + 3] = getRow(bounds.getY() + bounds.getHeight() - 1);
 
-        for (int x = topLeftX; x <= bottomRightX; x++)
-        {
-            for (int y = topLeftY; y <= bottomRightY; y++)
-            {
-                grid.get(x).get(y).add(entity);
-            }
-        }
+        addToCells(proxy);
     }
 
     /**
-     * Removes an entity from the Grid
+     * Removes an entity from the Grid. The entity is removed from the cells it was
+     * inserted into, so it doesn't matter if it has moved since then.
      * @param entity The entity to be removed
      */
     public void remove(Entity2D entity)
     {
+        int proxy = proxyMap.remove(entity.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+            return;
+
+        removeFromCells(proxy);
+
+        entities[proxy] = null;
+        nextFree[proxy] = freeList;
+        freeList = proxy;
+    }
+
+    @Override
+    public void update(Entity2D entity)
+    {
+        int proxy = proxyMap.get(entity.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+        {
+            insert(entity);
+            return;
+        }
+
         Rectangle bounds = entity.getPolygon().getBounds();
 
-        int topLeftX = MathUtils.clamp((int) (bounds.getX()) / cellWidth, 0, cols - 1);
-        int topLeftY = MathUtils.clamp((int) (bounds.getY()) / cellHeight, 0, rows - 1);
-        int bottomRightX = MathUtils.clamp((int) (bounds.getX() + bounds.getWidth() - 1) / cellWidth, 0, cols - 1);
-        int bottomRightY = MathUtils.clamp((int) (bounds.getY() + bounds.getHeight() - 1) / cellHeight, 0, rows - 1);
+        int topLeftX = getColumn(bounds.getX());
+        int topLeftY = getRow(bounds.getY());
+        int bottomRightX = getColumn(bounds.getX() + bounds.getWidth() - 1);
+        int bottomRightY = getRow(bounds.getY() + bounds.getHeight() - 1);
 
-        for (int x = topLeftX; x <= bottomRightX; x++)
+        int r = proxy * 4;
+
+        // Only touch the cells if the entity moved into a different cell range
+        if (topLeftX == ranges[r] && topLeftY == ranges[r + 1] &&
+            bottomRightX == ranges[r + 2] && bottomRightY == ranges[r + 3])
+            return;
+
+        removeFromCells(proxy);
+
+        ranges[r] = topLeftX;
+        ranges[r + 1] = topLeftY;
+        ranges[r + 2] = bottomRightX;
+        ranges[r + 3] = bottomRightY;
+
+        addToCells(proxy);
+    }
+
+    private int getColumn(float x)
+    {
+        return MathUtils.clamp((int) x / cellWidth, 0, cols - 1);
+    }
+
+    private int getRow(float y)
+    {
+        return MathUtils.clamp((int) y / cellHeight, 0, rows - 1);
+    }
+
+    private void addToCells(int proxy)
+    {
+        int r = proxy * 4;
+
+        for (int x = ranges[r]; x <= ranges[r + 2]; x++)
         {
-            for (int y = topLeftY; y <= bottomRightY; y++)
+            for (int y = ranges[r + 1]; y <= ranges[r + 3]; y++)
+            {
+                int cell = x * rows + y;
+                int size = cellSizes[cell];
+
+                if (size == cellProxies[cell].length)
+                {
+                    int[] newProxies = new int[size * 2];
+                    System.arraycopy(cellProxies[cell], 0, newProxies, 0, size);
+                    cellProxies[cell] = newProxies;
+                }
+
+                cellProxies[cell][size] = proxy;
+                cellSizes[cell] = size + 1;
+            }
+        }
+    }
+
+    private void removeFromCells(int proxy)
+    {
+        int r = proxy * 4;
+
+        for (int x = ranges[r]; x <= ranges[r + 2]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 3]; y++)
             {
-                if (grid.get(x).get(y).contains(entity))
-                    grid.get(x).get(y).remove(entity);
+                int cell = x * rows + y;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                for (int i = 0; i < size; i++)
+                {
+                    if (proxies[i] == proxy)
+                    {
+                        // Fill the hole with the last proxy of the cell
+                        proxies[i] = proxies[size - 1];
+                        cellSizes[cell] = size - 1;
+                        break;
+                    }
+                }
             }
         }
     }
 
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        for (int x = 0; x < cols; x++)
+        {
+            for (int y = 0; y < rows; y++)
+            {
+                int cell = x * rows + y;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                for (int i = 0; i < size; i++)
+                {
+                    int a = proxies[i];
+
+                    for (int j = i + 1; j < size; j++)
+                    {
+                        int b = proxies[j];
+
+                        // A pair that shares many cells is only reported from the top-left shared cell
+                        if (isFirstSharedCell(a, b, x, y))
+                            callback.invoke(entities[a], entities[b]);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isFirstSharedCell(int a, int b, int x, int y)
+    {
+        int i = a * 4;
+        int j = b * 4;
+
+        return Math.max(ranges[i], ranges[j]) == x && Math.max(ranges[i + 1], ranges[j + 1]) == y;
+    }
+
     @Override
     public List<Entity2D> retrieve(Rectangle bounds)
     {
         retrieveList.clear();
+        queryStamp++;
 
-        int topLeftX = MathUtils.clamp((int) (bounds.getX()) / cellWidth, 0, cols - 1);
-        int topLeftY = MathUtils.clamp((int) (bounds.getY()) / cellHeight, 0, rows - 1);
-        int bottomRightX = MathUtils.clamp((int) (bounds.getX() + bounds.getWidth() - 1) / cellWidth, 0, cols - 1);
-        int bottomRightY = MathUtils.clamp((int) (bounds.getY() + bounds.getHeight() - 1) / cellHeight, 0, rows - 1);
+        int topLeftX = getColumn(bounds.getX());
+        int topLeftY = getRow(bounds.getY());
+        int bottomRightX = getColumn(bounds.getX() + bounds.getWidth() - 1);
+        int bottomRightY = getRow(bounds.getY() + bounds.getHeight() - 1);
 
         for (int x = topLeftX; x <= bottomRightX; x++)
         {
             for (int y = topLeftY; y <= bottomRightY; y++)
             {
-                List<Entity2D> cell = grid.get(x).get(y);
+                int cell = x * rows + y;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                // An entity spanning many cells is only retrieved once
+                for (int i = 0; i < size; i++)
+                {
+                    int proxy = proxies[i];
 
-                for (Entity2D retrieved : cell)
-                    retrieveList.add(retrieved);
+                    if (stamps[proxy] != queryStamp)
+                    {
+                        stamps[proxy] = queryStamp;
+                        retrieveList.add(entities[proxy]);
+                    }
+                }
             }
         }
 
         return retrieveList;
     }
+
+    /**
+     * Casts a ray into the grid. The cells are walked in the order in which the ray
+     * passes through them, and the walk stops once the ray enters a cell beyond the
+     * distance returned by the callback. The entities outside the map live in the
+     * border cells, so the walk goes on outside the map until the border cell that
+     * the ray maps to doesn't change anymore.
+     */
+    @Override
+    public void raycast(Vector2 origin, Vector2 direction, float maxDistance, RayCallback callback)
+    {
+        queryStamp++;
+
+        Vector2 dir = direction.normalize();
+
+        // The cell of the ray, which is not clamped to the map
+        int x = (int) Math.floor(origin.x / cellWidth);
+        int y = (int) Math.floor(origin.y / cellHeight);
+
+        int stepX = dir.x > 0 ? 1 : dir.x < 0 ? -1 : 0;
+        int stepY = dir.y > 0 ? 1 : dir.y < 0 ? -1 : 0;
+
+        // The distances along the ray to the next cell borders, and between the cell borders
+        float nextX = stepX == 0 ? Float.POSITIVE_INFINITY : ((x + Math.max(stepX, 0)) * cellWidth - origin.x) / dir.x;
+        float nextY = stepY == 0 ? Float.POSITIVE_INFINITY : ((y + Math.max(stepY, 0)) * cellHeight - origin.y) / dir.y;
+        float deltaX = stepX == 0 ? Float.POSITIVE_INFINITY : cellWidth / Math.abs(dir.x);
+        float deltaY = stepY == 0 ? Float.POSITIVE_INFINITY : cellHeight / Math.abs(dir.y);
+
+        float entry = 0;
+
+        while (entry <= maxDistance)
+        {
+            int cell = MathUtils.clamp(x, 0, cols - 1) * rows + MathUtils.clamp(y, 0, rows - 1);
+
+            int[] proxies = cellProxies[cell];
+            int size = cellSizes[cell];
+
+            for (int i = 0; i < size; i++)
+            {
+                int proxy = proxies[i];
+
+                if (stamps[proxy] == queryStamp)
+                    continue;
+
+                stamps[proxy] = queryStamp;
+
+                float distance = Collision2D.testRay(entities[proxy].getPolygon(), origin, dir, maxDistance);
+
+                if (distance >= 0)
+                {
+                    maxDistance = Math.min(maxDistance, callback.invoke(entities[proxy], distance));
+
+                    if (maxDistance <= 0)
+                        return;
+                }
+            }
+
+            boolean lastColumn = stepX == 0 || (stepX < 0 && x <= 0) || (stepX > 0 && x >= cols - 1);
+            boolean lastRow = stepY == 0 || (stepY < 0 && y <= 0) || (stepY > 0 && y >= rows - 1);
+
+            if (lastColumn && lastRow)
+                return;
+
+            if (nextX < nextY)
+            {
+                entry = nextX;
+                nextX += deltaX;
+                x += stepX;
+            }
+            else
+            {
+                entry = nextY;
+                nextY += deltaY;
+                y += stepY;
+            }
+        }
+    }
+
+    @Override
+    public void queryRadius(Vector2 center, float radius, QueryCallback callback)
+    {
+        queryStamp++;
+
+        int minX = getColumn(center.x - radius);
+        int minY = getRow(center.y - radius);
+        int maxX = getColumn(center.x + radius);
+        int maxY = getRow(center.y + radius);
+
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                int cell = x * rows + y;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                for (int i = 0; i < size; i++)
+                {
+                    int proxy = proxies[i];
+
+                    if (stamps[proxy] == queryStamp)
+                        continue;
+
+                    stamps[proxy] = queryStamp;
+
+                    float distance = NearestBuffer.getDistance(entities[proxy], center);
+
+                    if (distance <= radius)
+                        callback.invoke(entities[proxy], distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the k nearest entities by visiting the rings of cells around the cell of
+     * the center, one ring at a time. The search stops once the k-th nearest entity
+     * found so far is nearer than any entity in the cells outside the visited rings.
+     */
+    @Override
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances)
+    {
+        if (k <= 0)
+            return 0;
+
+        queryStamp++;
+
+        int centerX = getColumn(center.x);
+        int centerY = getRow(center.y);
+
+        int count = 0;
+
+        for (int ring = 0; ; ring++)
+        {
+            for (int x = Math.max(centerX - ring, 0); x <= Math.min(centerX + ring, cols - 1); x++)
+            {
+                // The columns on the sides of the ring are visited fully, the others only at the top and the bottom
+                int step = Math.abs(x - centerX) == ring ? 1 : 2 * ring;
+
+                for (int y = centerY - ring; y <= centerY + ring; y += step)
+                {
+                    if (y >= 0 && y < rows)
+                        count = addNearest(x * rows + y, center, k, out, distances, count);
+                }
+            }
+
+            // The entities outside the map live in the border cells, so the sides that reach them are done
+            float left = centerX - ring <= 0 ? Float.POSITIVE_INFINITY : center.x - (centerX - ring) * cellWidth;
+            float right = centerX + ring >= cols - 1 ? Float.POSITIVE_INFINITY : (centerX + ring + 1) * cellWidth - center.x;
+            float top = centerY - ring <= 0 ? Float.POSITIVE_INFINITY : center.y - (centerY - ring) * cellHeight;
+            float bottom = centerY + ring >= rows - 1 ? Float.POSITIVE_INFINITY : (centerY + ring + 1) * cellHeight - center.y;
+
+            float outside = Math.min(Math.min(left, right), Math.min(top, bottom));
+
+            if (outside == Float.POSITIVE_INFINITY)
+                return count;
+
+            // The cells of an entity are found from its bounds shrunk by a pixel, so it may stick out by that much
+            if (NearestBuffer.getBound(distances, count, k) <= outside - 1)
+                return count;
+        }
+    }
+
+    private int addNearest(int cell, Vector2 center, int k, Entity2D[] out, float[] distances, int count)
+    {
+        int[] proxies = cellProxies[cell];
+        int size = cellSizes[cell];
+
+        for (int i = 0; i < size; i++)
+        {
+            int proxy = proxies[i];
+
+            if (stamps[proxy] == queryStamp)
+                continue;
+
+            stamps[proxy] = queryStamp;
+
+            float distance = NearestBuffer.getDistance(entities[proxy], center);
+            count = NearestBuffer.insert(out, distances, count, k, entities[proxy], distance);
+        }
+
+        return count;
+    }
 }
@@ -0,0 +1,414 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom3d.Polyhedron;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.MathUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform 3D Grid based collision resolver. The cells are cubes of the same
+ * size that cover a box in the world, and every cell holds the entities whose
+ * bounds touch it. Entities outside the box are clamped into the border cells.
+ * The Grid3D is fast to build and query for levels that are dense with static
+ * geometry of similar sizes.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Grid3D implements IBroadphaseResolver3D
+{
+    private static final int NULL_PROXY = -1;
+
+    // The box covered by the grid
+    private Vector3 min;
+    private float   cellSize;
+
+    // The number of cells along each axis
+    private int cols;
+    private int rows;
+    private int layers;
+
+    // The cells, indexed by (x * rows + y) * layers + z. Every cell holds the proxies in it
+    private int[][] cellProxies;
+    private int[]   cellSizes;
+
+    // The proxies, one per entity. The cell range is remembered for exact removal
+    private Entity3D[] entities;
+    private float[]    bounds;
+    private int[]      ranges;
+    private int[]      stamps;
+    private int[]      nextFree;
+    private int        proxyCapacity;
+    private int        freeList;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // Stamp used to avoid retrieving an entity more than once
+    private int queryStamp;
+
+    private List<Entity3D> retrieveList;
+
+    /**
+     * Creates and initializes the Grid3D
+     *
+     * @param min      The minimum corner of the box covered by the grid
+     * @param max      The maximum corner of the box covered by the grid
+     * @param cellSize The size of each cubic cell
+     */
+    public Grid3D(Vector3 min, Vector3 max, float cellSize)
+    {
+        this.min = new Vector3(min);
+        this.cellSize = cellSize;
+
+        cols = Math.max(1, (int) Math.ceil((max.x - min.x) / cellSize));
+        rows = Math.max(1, (int) Math.ceil((max.y - min.y) / cellSize));
+        layers = Math.max(1, (int) Math.ceil((max.z - min.z) / cellSize));
+
+        cellProxies = new int[cols * rows * layers][];
+        cellSizes = new int[cols * rows * layers];
+
+        for (int i = 0; i < cellProxies.length; i++)
+            cellProxies[i] = new int[4];
+
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+
+        allocateProxies(16);
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity3D[] newEntities = new Entity3D[capacity];
+        float[] newBounds = new float[capacity * 6];
+        int[] newRanges = new int[capacity * 6];
+        int[] newStamps = new int[capacity];
+        int[] newNextFree = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(bounds, 0, newBounds, 0, proxyCapacity * 6);
+            System.arraycopy(ranges, 0, newRanges, 0, proxyCapacity * 6);
+            System.arraycopy(stamps, 0, newStamps, 0, proxyCapacity);
+            System.arraycopy(nextFree, 0, newNextFree, 0, proxyCapacity);
+        }
+
+        for (int i = proxyCapacity; i < capacity - 1; i++)
+            newNextFree[i] = i + 1;
+
+        newNextFree[capacity - 1] = NULL_PROXY;
+        freeList = proxyCapacity;
+
+        entities = newEntities;
+        bounds = newBounds;
+        ranges = newRanges;
+        stamps = newStamps;
+        nextFree = newNextFree;
+        proxyCapacity = capacity;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < cellSizes.length; i++)
+            cellSizes[i] = 0;
+
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            entities[i] = null;
+            nextFree[i] = i + 1;
+        }
+
+        nextFree[proxyCapacity - 1] = NULL_PROXY;
+        freeList = 0;
+
+        proxyMap.clear();
+    }
+
+    @Override
+    public void insert(Entity3D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeList == NULL_PROXY)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeList;
+        freeList = nextFree[proxy];
+
+        entities[proxy] = e;
+        proxyMap.put(e.getID(), proxy);
+
+        setBounds(proxy, e);
+        addToCells(proxy);
+    }
+
+    @Override
+    public void remove(Entity3D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+            return;
+
+        removeFromCells(proxy);
+
+        entities[proxy] = null;
+        nextFree[proxy] = freeList;
+        freeList = proxy;
+    }
+
+    @Override
+    public void update(Entity3D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+
+        int i = proxy * 6;
+
+        // Only touch the cells if the entity moved into a different cell range
+        if (getColumn(bounds[i]) == ranges[i] && getRow(bounds[i + 1]) == ranges[i + 1] &&
+            getLayer(bounds[i + 2]) == ranges[i + 2] && getColumn(bounds[i + 3]) == ranges[i + 3] &&
+            getRow(bounds[i + 4]) == ranges[i + 4] && getLayer(bounds[i + 5]) == ranges[i + 5])
+            return;
+
+        removeFromCells(proxy);
+        addToCells(proxy);
+    }
+
+    private void setBounds(int proxy, Entity3D e)
+    {
+        // The position of an Entity3D is the center of its bounds
+        Vector3 center = e.getPosition();
+
+        float halfWidth = e.getWidth() / 2;
+        float halfHeight = e.getHeight() / 2;
+        float halfThickness = e.getThickness() / 2;
+
+        int i = proxy * 6;
+
+        bounds[i] = center.x - halfWidth;
+        bounds[i + 1] = center.y - halfHeight;
+        bounds[i + 2] = center.z - halfThickness;
+        bounds[i + 3] = center.x + halfWidth;
+        bounds[i + 4] = center.y + halfHeight;
+        bounds[i + 5] = center.z + halfThickness;
+    }
+
+    private int getColumn(float x)
+    {
+        return MathUtils.clamp((int) Math.floor((x - min.x) / cellSize), 0, cols - 1);
+    }
+
+    private int getRow(float y)
+    {
+        return MathUtils.clamp((int) Math.floor((y - min.y) / cellSize), 0, rows - 1);
+    }
+
+    private int getLayer(float z)
+    {
+        return MathUtils.clamp((int) Math.floor((z - min.z) / cellSize), 0, layers - 1);
+    }
+
+    private int getCell(int x, int y, int z)
+    {
+        return (x * rows + y) * layers + z;
+    }
+
+    // Remembers the range of the cells covered by the bounds, and adds the proxy to them
+    private void addToCells(int proxy)
+    {
+        int r = proxy * 6;
+
+        ranges[r] = getColumn(bounds[r]);
+        ranges[r + 1] = getRow(bounds[r + 1]);
+        ranges[r + 2] = getLayer(bounds[r + 2]);
+        ranges[r + 3] = getColumn(bounds[r + 3]);
+        ranges[r + 4] = getRow(bounds[r + 4]);
+        ranges[r + 5] = getLayer(bounds[r + 5]);
+
+        for (int x = ranges[r]; x <= ranges[r + 3]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 4]; y++)
+            {
+                for (int z = ranges[r + 2]; z <= ranges[r + 5]; z++)
+                {
+                    int cell = getCell(x, y, z);
+                    int size = cellSizes[cell];
+
+                    if (size == cellProxies[cell].length)
+                    {
+                        int[] newProxies = new int[size * 2];
+                        System.arraycopy(cellProxies[cell], 0, newProxies, 0, size);
+                        cellProxies[cell] = newProxies;
+                    }
+
+                    cellProxies[cell][size] = proxy;
+                    cellSizes[cell] = size + 1;
+                }
+            }
+        }
+    }
+
+    private void removeFromCells(int proxy)
+    {
+        int r = proxy * 6;
+
+        for (int x = ranges[r]; x <= ranges[r + 3]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 4]; y++)
+            {
+                for (int z = ranges[r + 2]; z <= ranges[r + 5]; z++)
+                {
+                    int cell = getCell(x, y, z);
+
+                    int[] proxies = cellProxies[cell];
+                    int size = cellSizes[cell];
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        if (proxies[i] == proxy)
+                        {
+                            // Fill the hole with the last proxy of the cell
+                            proxies[i] = proxies[size - 1];
+                            cellSizes[cell] = size - 1;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        for (int x = 0; x < cols; x++)
+        {
+            for (int y = 0; y < rows; y++)
+            {
+                for (int z = 0; z < layers; z++)
+                {
+                    int cell = getCell(x, y, z);
+
+                    int[] proxies = cellProxies[cell];
+                    int size = cellSizes[cell];
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        int a = proxies[i];
+
+                        for (int j = i + 1; j < size; j++)
+                        {
+                            int b = proxies[j];
+
+                            // A pair that shares many cells is only reported from the first shared cell
+                            if (overlaps(a, b) && isFirstSharedCell(a, b, x, y, z))
+                                callback.invoke(entities[a], entities[b]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int a, int b)
+    {
+        int i = a * 6;
+        int j = b * 6;
+
+        return bounds[i] <= bounds[j + 3] && bounds[j] <= bounds[i + 3] &&
+               bounds[i + 1] <= bounds[j + 4] && bounds[j + 1] <= bounds[i + 4] &&
+               bounds[i + 2] <= bounds[j + 5] && bounds[j + 2] <= bounds[i + 5];
+    }
+
+    private boolean isFirstSharedCell(int a, int b, int x, int y, int z)
+    {
+        int i = a * 6;
+        int j = b * 6;
+
+        return Math.max(ranges[i], ranges[j]) == x &&
+               Math.max(ranges[i + 1], ranges[j + 1]) == y &&
+               Math.max(ranges[i + 2], ranges[j + 2]) == z;
+    }
+
+    @Override
+    public List<Entity3D> retrieve(Polyhedron polyhedron)
+    {
+        retrieveList.clear();
+        queryStamp++;
+
+        // The position of a Polyhedron is the center of its bounds
+        Vector3 center = polyhedron.getPosition();
+
+        float halfWidth = polyhedron.getWidth() / 2;
+        float halfHeight = polyhedron.getHeight() / 2;
+        float halfThickness = polyhedron.getThickness() / 2;
+
+        int minX = getColumn(center.x - halfWidth);
+        int minY = getRow(center.y - halfHeight);
+        int minZ = getLayer(center.z - halfThickness);
+        int maxX = getColumn(center.x + halfWidth);
+        int maxY = getRow(center.y + halfHeight);
+        int maxZ = getLayer(center.z + halfThickness);
+
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                for (int z = minZ; z <= maxZ; z++)
+                {
+                    int cell = getCell(x, y, z);
+
+                    int[] proxies = cellProxies[cell];
+                    int size = cellSizes[cell];
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        int proxy = proxies[i];
+
+                        if (stamps[proxy] != queryStamp)
+                        {
+                            stamps[proxy] = queryStamp;
+                            retrieveList.add(entities[proxy]);
+                        }
+                    }
+                }
+            }
+        }
+
+        return retrieveList;
+    }
+
+    public float getCellSize()
+    {
+        return cellSize;
+    }
+
+    @Override
+    public int nearest(Vector3 center, int k, Entity3D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
@@ -1,7 +1,9 @@
 package com.shc.silenceengine.collision.broadphase;
 
+import com.shc.silenceengine.collision.Collision2D;
 import com.shc.silenceengine.entity.Entity2D;
 import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
 
 import java.util.List;
 
@@ -10,16 +12,137 @@ import java.util.List;
  */
 public interface IBroadphaseResolver2D
 {
+    public static interface PairCallback
+    {
+        public void invoke(Entity2D a, Entity2D b);
+    }
+
+    /**
+     * A callback that is invoked for the entities hit by a ray. The returned value
+     * is the distance up to which the ray continues. Returning the distance of the
+     * hit looks only for closer hits, returning 0 stops the ray, and returning
+     * Float.POSITIVE_INFINITY keeps looking for all the hits.
+     */
+    public static interface RayCallback
+    {
+        public float invoke(Entity2D entity, float distance);
+    }
+
+    /**
+     * A callback that is invoked for the entities found by a radius query, with the
+     * distance from the center of the query to the bounds of the entity.
+     */
+    public static interface QueryCallback
+    {
+        public void invoke(Entity2D entity, float distance);
+    }
+
     public void clear();
 
     public void insert(Entity2D e);
 
     public void remove(Entity2D e);
 
+    /**
+     * Updates an entity that has moved since it was inserted. The default
+     * implementation simply removes and inserts the entity again.
+     *
+     * @param e The entity that has moved
+     */
+    public default void update(Entity2D e)
+    {
+        remove(e);
+        insert(e);
+    }
+
+    /**
+     * Invokes the callback once for every unordered pair of entities that are
+     * potentially colliding. Every pair is reported exactly once, either as
+     * (a, b) or as (b, a). The resolver must not be modified in the callback.
+     *
+     * @param callback The callback to invoke for every pair
+     */
+    public void forEachOverlappingPair(PairCallback callback);
+
     public List<Entity2D> retrieve(Rectangle rect);
 
     public default List<Entity2D> retrieve(Entity2D e)
     {
         return retrieve(e.getBounds());
     }
+
+    /**
+     * Casts a ray into the resolver, and invokes the callback for the entities whose
+     * shapes are hit by it. The default implementation retrieves the entities in the
+     * bounds of the ray, so the ray should have a finite length, and reports the hits
+     * in no particular order. The resolver must not be modified in the callback.
+     *
+     * @param origin      The origin of the ray
+     * @param direction   The direction of the ray, need not be normalized
+     * @param maxDistance The length of the ray
+     * @param callback    The callback to invoke for the entities that are hit
+     */
+    public default void raycast(Vector2 origin, Vector2 direction, float maxDistance, RayCallback callback)
+    {
+        Vector2 dir = direction.normalize();
+
+        float endX = origin.x + dir.x * maxDistance;
+        float endY = origin.y + dir.y * maxDistance;
+
+        float minX = Math.min(origin.x, endX);
+        float minY = Math.min(origin.y, endY);
+
+        Rectangle rect = new Rectangle(minX, minY, Math.max(origin.x, endX) - minX, Math.max(origin.y, endY) - minY);
+
+        for (Entity2D e : retrieve(rect))
+        {
+            float distance = Collision2D.testRay(e.getPolygon(), origin, dir, maxDistance);
+
+            if (distance >= 0)
+            {
+                maxDistance = Math.min(maxDistance, callback.invoke(e, distance));
+
+                if (maxDistance <= 0)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Invokes the callback for every entity whose bounds are within the radius of the
+     * center. The default implementation retrieves the entities in the square around
+     * the circle. The resolver must not be modified in the callback.
+     *
+     * @param center   The center of the query
+     * @param radius   The radius of the query
+     * @param callback The callback to invoke for the entities that are found
+     */
+    public default void queryRadius(Vector2 center, float radius, QueryCallback callback)
+    {
+        float size = 2 * radius;
+        Rectangle rect = new Rectangle(center.x - radius, center.y - radius, size, size);
+
+        for (Entity2D e : retrieve(rect))
+        {
+            float distance = NearestBuffer.getDistance(e, center);
+
+            if (distance <= radius)
+                callback.invoke(e, distance);
+        }
+    }
+
+    /**
+     * Finds the k entities whose bounds are nearest to the center, and stores them in
+     * the given buffers sorted by their distance, nearest first. The buffers are
+     * supplied by the caller, and should have room for at least k entities.
+     *
+     * @param center    The center of the query
+     * @param k         The number of entities to find
+     * @param out       The buffer to store the entities in
+     * @param distances The buffer to store the distances to the bounds of the entities in
+     *
+     * @return The number of entities that are found, which is less than k only if
+     *         there are less than k entities in the resolver.
+     */
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances);
 }
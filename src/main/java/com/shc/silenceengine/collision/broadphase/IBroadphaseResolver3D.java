@@ -1,7 +1,10 @@
 package com.shc.silenceengine.collision.broadphase;
 
+import com.shc.silenceengine.collision.Collision3D;
 import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom3d.Cuboid;
 import com.shc.silenceengine.geom3d.Polyhedron;
+import com.shc.silenceengine.math.Vector3;
 
 import java.util.List;
 
@@ -10,16 +13,135 @@ import java.util.List;
  */
 public interface IBroadphaseResolver3D
 {
+    public static interface PairCallback
+    {
+        public void invoke(Entity3D a, Entity3D b);
+    }
+
+    /**
+     * A callback that is invoked for the entities hit by a ray. The returned value
+     * is the distance up to which the ray continues. Returning the distance of the
+     * hit looks only for closer hits, returning 0 stops the ray, and returning
+     * Float.POSITIVE_INFINITY keeps looking for all the hits.
+     */
+    public static interface RayCallback
+    {
+        public float invoke(Entity3D entity, float distance);
+    }
+
+    /**
+     * A callback that is invoked for the entities found by a radius query, with the
+     * distance from the center of the query to the bounds of the entity.
+     */
+    public static interface QueryCallback
+    {
+        public void invoke(Entity3D entity, float distance);
+    }
+
     public void clear();
 
     public void insert(Entity3D e);
 
     public void remove(Entity3D e);
 
+    /**
+     * Updates an entity that has moved since it was inserted. The default
+     * implementation simply removes and inserts the entity again.
+     *
+     * @param e The entity that has moved
+     */
+    public default void update(Entity3D e)
+    {
+        remove(e);
+        insert(e);
+    }
+
+    /**
+     * Invokes the callback once for every unordered pair of entities that are
+     * potentially colliding. Every pair is reported exactly once, either as
+     * (a, b) or as (b, a). The resolver must not be modified in the callback.
+     *
+     * @param callback The callback to invoke for every pair
+     */
+    public void forEachOverlappingPair(PairCallback callback);
+
     public List<Entity3D> retrieve(Polyhedron rect);
 
     public default List<Entity3D> retrieve(Entity3D e)
     {
         return retrieve(e.getBounds());
     }
+
+    /**
+     * Casts a ray into the resolver, and invokes the callback for the entities whose
+     * shapes are hit by it. The default implementation retrieves the entities in the
+     * bounds of the ray, so the ray should have a finite length, and reports the hits
+     * in no particular order. The resolver must not be modified in the callback.
+     *
+     * @param origin      The origin of the ray
+     * @param direction   The direction of the ray, need not be normalized
+     * @param maxDistance The length of the ray
+     * @param callback    The callback to invoke for the entities that are hit
+     */
+    public default void raycast(Vector3 origin, Vector3 direction, float maxDistance, RayCallback callback)
+    {
+        Vector3 dir = direction.normalize();
+
+        Vector3 end = new Vector3(origin.x + dir.x * maxDistance, origin.y + dir.y * maxDistance,
+                                  origin.z + dir.z * maxDistance);
+
+        Cuboid cuboid = new Cuboid(new Vector3(Math.min(origin.x, end.x), Math.min(origin.y, end.y), Math.min(origin.z, end.z)),
+                                   new Vector3(Math.max(origin.x, end.x), Math.max(origin.y, end.y), Math.max(origin.z, end.z)));
+
+        for (Entity3D e : retrieve(cuboid))
+        {
+            float distance = Collision3D.testRay(e.getPolyhedron(), origin, dir, maxDistance);
+
+            if (distance >= 0)
+            {
+                maxDistance = Math.min(maxDistance, callback.invoke(e, distance));
+
+                if (maxDistance <= 0)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Invokes the callback for every entity whose bounds are within the radius of the
+     * center. The default implementation retrieves the entities in the cube around
+     * the sphere. The resolver must not be modified in the callback.
+     *
+     * @param center   The center of the query
+     * @param radius   The radius of the query
+     * @param callback The callback to invoke for the entities that are found
+     */
+    public default void queryRadius(Vector3 center, float radius, QueryCallback callback)
+    {
+        float size = 2 * radius;
+        Cuboid cuboid = new Cuboid(center, size, size, size);
+
+        for (Entity3D e : retrieve(cuboid))
+        {
+            float distance = NearestBuffer.getDistance(e, center);
+
+            if (distance <= radius)
+                callback.invoke(e, distance);
+        }
+    }
+
+    /**
+     * Finds the k entities whose bounds are nearest to the center, and stores them in
+     * the given buffers sorted by their distance, nearest first. The buffers are
+     * supplied by the caller, and should have room for at least k entities.
+     *
+     * @param center    The center of the query
+     * @param k         The number of entities to find
+     * @param out       The buffer to store the entities in
+     * @param distances The buffer to store the distances to the bounds of the entities in
+     *
+     * @return The number of entities that are found, which is less than k only if
+     *         there are less than k entities in the resolver.
+     */
+    public int nearest(Vector3 center, int k, Entity3D[] out, float[] distances);
 }
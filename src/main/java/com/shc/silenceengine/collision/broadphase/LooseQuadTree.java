@@ -0,0 +1,600 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.utils.IntIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A loose QuadTree that resolves collisions between Entity2Ds. The bounds of
+ * every node are loosened to twice the size of its cell, so an entity is stored
+ * in exactly one node, chosen by its size and center. An entity that moves but
+ * stays in the cell of its node needs no work from the tree at all.
+ * <p>
+ * The nodes and the entities are stored in primitive arrays and are indexed by
+ * their ids. Freed nodes are kept in a pool and are reused, so clearing and
+ * rebuilding the tree doesn't create any garbage once the arrays have grown.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class LooseQuadTree implements IBroadphaseResolver2D
+{
+    private static final int NULL_INDEX = -1;
+
+    // The default maximum depth of the tree
+    private static final int MAX_DEPTH = 8;
+
+    private static final int ROOT = 0;
+
+    // The size of the world, and of the cells at every depth
+    private float   worldWidth;
+    private float   worldHeight;
+    private float[] cellWidths;
+    private float[] cellHeights;
+    private int     maxDepth;
+
+    // The node storage. The parents array also links the free nodes
+    private int[]   parents;
+    private int[]   children;
+    private int[]   depths;
+    private int[]   firstProxies;
+    private int[]   subtreeCounts;
+    private float[] cellXs;
+    private float[] cellYs;
+    private int     nodeCapacity;
+    private int     nodeCount;
+    private int     freeNodes;
+
+    // The proxies, one per entity. The proxies of a node form a doubly linked list
+    private Entity2D[] entities;
+    private float[]    bounds;
+    private int[]      proxyNodes;
+    private int[]      prevProxies;
+    private int[]      nextProxies;
+    private int        proxyCapacity;
+    private int        freeProxies;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // The stack used to traverse the tree without recursion
+    private int[] stack;
+
+    private List<Entity2D> retrieveList;
+
+    /**
+     * Constructs a LooseQuadTree that covers a rectangle [0, 0, mapWidth, mapHeight]
+     *
+     * @param mapWidth  The width of the map (in pixels)
+     * @param mapHeight The height of the map (in pixels)
+     */
+    public LooseQuadTree(int mapWidth, int mapHeight)
+    {
+        this(mapWidth, mapHeight, MAX_DEPTH);
+    }
+
+    /**
+     * Constructs a LooseQuadTree that covers a rectangle [0, 0, mapWidth, mapHeight].
+     * Entities outside the map are still resolved, but they are kept in the root.
+     *
+     * @param mapWidth  The width of the map (in pixels)
+     * @param mapHeight The height of the map (in pixels)
+     * @param maxDepth  The maximum depth of the tree. The root is at depth 0
+     */
+    public LooseQuadTree(int mapWidth, int mapHeight, int maxDepth)
+    {
+        this.worldWidth = mapWidth;
+        this.worldHeight = mapHeight;
+        this.maxDepth = maxDepth;
+
+        cellWidths = new float[maxDepth + 1];
+        cellHeights = new float[maxDepth + 1];
+
+        cellWidths[0] = worldWidth;
+        cellHeights[0] = worldHeight;
+
+        for (int i = 1; i <= maxDepth; i++)
+        {
+            cellWidths[i] = cellWidths[i - 1] / 2;
+            cellHeights[i] = cellHeights[i - 1] / 2;
+        }
+
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+        stack = new int[64];
+
+        allocateNodes(16);
+        allocateProxies(16);
+
+        clear();
+    }
+
+    private void allocateNodes(int capacity)
+    {
+        int[] newParents = new int[capacity];
+        int[] newChildren = new int[capacity * 4];
+        int[] newDepths = new int[capacity];
+        int[] newFirstProxies = new int[capacity];
+        int[] newSubtreeCounts = new int[capacity];
+        float[] newCellXs = new float[capacity];
+        float[] newCellYs = new float[capacity];
+
+        if (parents != null)
+        {
+            System.arraycopy(parents, 0, newParents, 0, nodeCapacity);
+            System.arraycopy(children, 0, newChildren, 0, nodeCapacity * 4);
+            System.arraycopy(depths, 0, newDepths, 0, nodeCapacity);
+            System.arraycopy(firstProxies, 0, newFirstProxies, 0, nodeCapacity);
+            System.arraycopy(subtreeCounts, 0, newSubtreeCounts, 0, nodeCapacity);
+            System.arraycopy(cellXs, 0, newCellXs, 0, nodeCapacity);
+            System.arraycopy(cellYs, 0, newCellYs, 0, nodeCapacity);
+        }
+
+        parents = newParents;
+        children = newChildren;
+        depths = newDepths;
+        firstProxies = newFirstProxies;
+        subtreeCounts = newSubtreeCounts;
+        cellXs = newCellXs;
+        cellYs = newCellYs;
+
+        linkFreeNodes(nodeCapacity, capacity);
+        nodeCapacity = capacity;
+    }
+
+    // Links the nodes from start to end into the free list
+    private void linkFreeNodes(int start, int end)
+    {
+        for (int i = start; i < end - 1; i++)
+            parents[i] = i + 1;
+
+        parents[end - 1] = NULL_INDEX;
+        freeNodes = start;
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity2D[] newEntities = new Entity2D[capacity];
+        float[] newBounds = new float[capacity * 4];
+        int[] newProxyNodes = new int[capacity];
+        int[] newPrevProxies = new int[capacity];
+        int[] newNextProxies = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(bounds, 0, newBounds, 0, proxyCapacity * 4);
+            System.arraycopy(proxyNodes, 0, newProxyNodes, 0, proxyCapacity);
+            System.arraycopy(prevProxies, 0, newPrevProxies, 0, proxyCapacity);
+            System.arraycopy(nextProxies, 0, newNextProxies, 0, proxyCapacity);
+        }
+
+        entities = newEntities;
+        bounds = newBounds;
+        proxyNodes = newProxyNodes;
+        prevProxies = newPrevProxies;
+        nextProxies = newNextProxies;
+
+        linkFreeProxies(proxyCapacity, capacity);
+        proxyCapacity = capacity;
+    }
+
+    // Links the proxies from start to end into the free list
+    private void linkFreeProxies(int start, int end)
+    {
+        for (int i = start; i < end - 1; i++)
+            nextProxies[i] = i + 1;
+
+        nextProxies[end - 1] = NULL_INDEX;
+        freeProxies = start;
+    }
+
+    private int allocateNode(int parent, int depth, float cellX, float cellY)
+    {
+        if (freeNodes == NULL_INDEX)
+            allocateNodes(nodeCapacity * 2);
+
+        int node = freeNodes;
+        freeNodes = parents[node];
+
+        parents[node] = parent;
+        depths[node] = depth;
+        firstProxies[node] = NULL_INDEX;
+        subtreeCounts[node] = 0;
+        cellXs[node] = cellX;
+        cellYs[node] = cellY;
+
+        for (int i = 0; i < 4; i++)
+            children[node * 4 + i] = NULL_INDEX;
+
+        nodeCount++;
+
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        int parent = parents[node];
+
+        for (int i = 0; i < 4; i++)
+        {
+            if (children[parent * 4 + i] == node)
+                children[parent * 4 + i] = NULL_INDEX;
+        }
+
+        parents[node] = freeNodes;
+        freeNodes = node;
+        nodeCount--;
+    }
+
+    /**
+     * Clears the tree. The nodes and the proxies are returned to their pools.
+     */
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < proxyCapacity; i++)
+            entities[i] = null;
+
+        linkFreeProxies(0, proxyCapacity);
+        linkFreeNodes(0, nodeCapacity);
+
+        nodeCount = 0;
+        proxyMap.clear();
+
+        allocateNode(NULL_INDEX, 0, 0, 0);
+    }
+
+    /**
+     * Insert an ArrayList of objects into this tree
+     */
+    public void insertAll(List<Entity2D> list)
+    {
+        for (Entity2D e : list)
+            insert(e);
+    }
+
+    @Override
+    public void insert(Entity2D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeProxies == NULL_INDEX)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeProxies;
+        freeProxies = nextProxies[proxy];
+
+        entities[proxy] = e;
+        proxyMap.put(e.getID(), proxy);
+
+        setBounds(proxy, e);
+        addToNode(proxy, findNode(proxy));
+    }
+
+    @Override
+    public void remove(Entity2D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_INDEX);
+
+        if (proxy == NULL_INDEX)
+            return;
+
+        removeFromNode(proxy);
+
+        entities[proxy] = null;
+        nextProxies[proxy] = freeProxies;
+        freeProxies = proxy;
+    }
+
+    /**
+     * Updates the bounds of an entity. The entity is only moved to another node if
+     * it has left the cell of its node, or if its size needs a different depth.
+     *
+     * @param e The entity that has moved
+     */
+    @Override
+    public void update(Entity2D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_INDEX);
+
+        if (proxy == NULL_INDEX)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+
+        if (fitsNode(proxy, proxyNodes[proxy]))
+            return;
+
+        removeFromNode(proxy);
+        addToNode(proxy, findNode(proxy));
+    }
+
+    private void setBounds(int proxy, Entity2D e)
+    {
+        Rectangle rect = e.getPolygon().getBounds();
+
+        int i = proxy * 4;
+
+        bounds[i] = rect.getX();
+        bounds[i + 1] = rect.getY();
+        bounds[i + 2] = rect.getX() + rect.getWidth();
+        bounds[i + 3] = rect.getY() + rect.getHeight();
+    }
+
+    // Finds the deepest depth whose cells are not smaller than the proxy
+    private int getDepth(int proxy)
+    {
+        int i = proxy * 4;
+
+        float width = bounds[i + 2] - bounds[i];
+        float height = bounds[i + 3] - bounds[i + 1];
+
+        float centerX = (bounds[i] + bounds[i + 2]) / 2;
+        float centerY = (bounds[i + 1] + bounds[i + 3]) / 2;
+
+        // Entities outside the map can't be bound by any loose cell, so keep them in the root
+        if (centerX < 0 || centerY < 0 || centerX >= worldWidth || centerY >= worldHeight)
+            return 0;
+
+        int depth = 0;
+
+        while (depth < maxDepth && cellWidths[depth + 1] >= width && cellHeights[depth + 1] >= height)
+            depth++;
+
+        return depth;
+    }
+
+    private boolean fitsNode(int proxy, int node)
+    {
+        int depth = getDepth(proxy);
+
+        if (depth != depths[node])
+            return false;
+
+        if (depth == 0)
+            return true;
+
+        int i = proxy * 4;
+
+        float centerX = (bounds[i] + bounds[i + 2]) / 2;
+        float centerY = (bounds[i + 1] + bounds[i + 3]) / 2;
+
+        return centerX >= cellXs[node] && centerX < cellXs[node] + cellWidths[depth] &&
+               centerY >= cellYs[node] && centerY < cellYs[node] + cellHeights[depth];
+    }
+
+    // Finds the node of the proxy by its center, creating the missing nodes on the way
+    private int findNode(int proxy)
+    {
+        int depth = getDepth(proxy);
+        int i = proxy * 4;
+
+        float centerX = (bounds[i] + bounds[i + 2]) / 2;
+        float centerY = (bounds[i + 1] + bounds[i + 3]) / 2;
+
+        int node = ROOT;
+
+        for (int d = 1; d <= depth; d++)
+        {
+            float halfWidth = cellWidths[d];
+            float halfHeight = cellHeights[d];
+
+            int quadrant = 0;
+            float cellX = cellXs[node];
+            float cellY = cellYs[node];
+
+            if (centerX >= cellX + halfWidth)
+            {
+                quadrant |= 1;
+                cellX += halfWidth;
+            }
+
+            if (centerY >= cellY + halfHeight)
+            {
+                quadrant |= 2;
+                cellY += halfHeight;
+            }
+
+            int child = children[node * 4 + quadrant];
+
+            if (child == NULL_INDEX)
+            {
+                child = allocateNode(node, d, cellX, cellY);
+                children[node * 4 + quadrant] = child;
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    private void addToNode(int proxy, int node)
+    {
+        int first = firstProxies[node];
+
+        prevProxies[proxy] = NULL_INDEX;
+        nextProxies[proxy] = first;
+
+        if (first != NULL_INDEX)
+            prevProxies[first] = proxy;
+
+        firstProxies[node] = proxy;
+        proxyNodes[proxy] = node;
+
+        for (int n = node; n != NULL_INDEX; n = parents[n])
+            subtreeCounts[n]++;
+    }
+
+    private void removeFromNode(int proxy)
+    {
+        int node = proxyNodes[proxy];
+        int prev = prevProxies[proxy];
+        int next = nextProxies[proxy];
+
+        if (prev != NULL_INDEX)
+            nextProxies[prev] = next;
+        else
+            firstProxies[node] = next;
+
+        if (next != NULL_INDEX)
+            prevProxies[next] = prev;
+
+        // Return the nodes that became empty to the pool, the root is always kept
+        while (node != NULL_INDEX)
+        {
+            int parent = parents[node];
+
+            if (--subtreeCounts[node] == 0 && node != ROOT)
+                freeNode(node);
+
+            node = parent;
+        }
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        // The loose bounds of sibling nodes overlap, so every proxy queries the whole tree
+        for (int proxy = 0; proxy < proxyCapacity; proxy++)
+        {
+            if (entities[proxy] == null)
+                continue;
+
+            int i = proxy * 4;
+
+            int top = 0;
+            stack[top++] = ROOT;
+
+            while (top > 0)
+            {
+                int node = stack[--top];
+
+                if (!overlapsNode(node, bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3]))
+                    continue;
+
+                for (int other = firstProxies[node]; other != NULL_INDEX; other = nextProxies[other])
+                {
+                    // Only report the pair from the proxy with the smaller id
+                    if (other > proxy && overlaps(proxy, other))
+                        callback.invoke(entities[proxy], entities[other]);
+                }
+
+                top = pushChildren(node, top);
+            }
+        }
+    }
+
+    private boolean overlaps(int a, int b)
+    {
+        int i = a * 4;
+        int j = b * 4;
+
+        return bounds[i] <= bounds[j + 2] && bounds[j] <= bounds[i + 2] &&
+               bounds[i + 1] <= bounds[j + 3] && bounds[j + 1] <= bounds[i + 3];
+    }
+
+    // Tests the loose bounds of a node, which extend half a cell beyond the cell on every side
+    private boolean overlapsNode(int node, float minX, float minY, float maxX, float maxY)
+    {
+        if (subtreeCounts[node] == 0)
+            return false;
+
+        int depth = depths[node];
+
+        if (depth == 0)
+            return true;
+
+        float halfWidth = cellWidths[depth] / 2;
+        float halfHeight = cellHeights[depth] / 2;
+
+        return cellXs[node] - halfWidth <= maxX && minX <= cellXs[node] + cellWidths[depth] + halfWidth &&
+               cellYs[node] - halfHeight <= maxY && minY <= cellYs[node] + cellHeights[depth] + halfHeight;
+    }
+
+    private int pushChildren(int node, int top)
+    {
+        if (top + 4 > stack.length)
+        {
+            int[] newStack = new int[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, stack.length);
+
+            stack = newStack;
+        }
+
+        for (int i = 0; i < 4; i++)
+        {
+            int child = children[node * 4 + i];
+
+            if (child != NULL_INDEX)
+                stack[top++] = child;
+        }
+
+        return top;
+    }
+
+    @Override
+    public List<Entity2D> retrieve(Rectangle rect)
+    {
+        retrieveList.clear();
+
+        float minX = rect.getX();
+        float minY = rect.getY();
+        float maxX = minX + rect.getWidth();
+        float maxY = minY + rect.getHeight();
+
+        int top = 0;
+        stack[top++] = ROOT;
+
+        while (top > 0)
+        {
+            int node = stack[--top];
+
+            if (!overlapsNode(node, minX, minY, maxX, maxY))
+                continue;
+
+            for (int proxy = firstProxies[node]; proxy != NULL_INDEX; proxy = nextProxies[proxy])
+            {
+                int i = proxy * 4;
+
+                if (bounds[i] <= maxX && minX <= bounds[i + 2] && bounds[i + 1] <= maxY && minY <= bounds[i + 3])
+                    retrieveList.add(entities[proxy]);
+            }
+
+            top = pushChildren(node, top);
+        }
+
+        return retrieveList;
+    }
+
+    /**
+     * @return The number of nodes in use, including the root
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    @Override
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
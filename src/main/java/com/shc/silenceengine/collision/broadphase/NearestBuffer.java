@@ -0,0 +1,112 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.math.Vector3;
+
+/**
+ * Helpers for the radius and nearest neighbour queries of the resolvers. The
+ * nearest entities are kept sorted by their distance in the buffers supplied
+ * by the caller, so that the queries don't create any garbage.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+final class NearestBuffer
+{
+    private NearestBuffer()
+    {
+    }
+
+    /**
+     * Inserts an entity into the sorted buffers, dropping the farthest entity if
+     * the buffers already hold k entities.
+     *
+     * @return The new number of entities in the buffers
+     */
+    static <T> int insert(T[] out, float[] distances, int count, int k, T entity, float distance)
+    {
+        if (count == k)
+        {
+            if (k == 0 || distance >= distances[k - 1])
+                return count;
+
+            count--;
+        }
+
+        int i = count;
+
+        while (i > 0 && distances[i - 1] > distance)
+        {
+            out[i] = out[i - 1];
+            distances[i] = distances[i - 1];
+            i--;
+        }
+
+        out[i] = entity;
+        distances[i] = distance;
+
+        return count + 1;
+    }
+
+    /**
+     * @return The distance beyond which the entities can't get into the buffers
+     */
+    static float getBound(float[] distances, int count, int k)
+    {
+        return count == k && k > 0 ? distances[k - 1] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return The distance from the point to the bounds of the entity, zero if the point is inside
+     */
+    static float getDistance(Entity2D e, Vector2 point)
+    {
+        Rectangle bounds = e.getBounds();
+
+        float minX = bounds.getX();
+        float minY = bounds.getY();
+
+        return getDistance(point.x, point.y, minX, minY, minX + bounds.getWidth(), minY + bounds.getHeight());
+    }
+
+    /**
+     * @return The distance from the point to the bounds of the entity, zero if the point is inside
+     */
+    static float getDistance(Entity3D e, Vector3 point)
+    {
+        // The position of an Entity3D is the center of its bounds
+        Vector3 center = e.getPosition();
+
+        float dx = Math.max(Math.abs(point.x - center.x) - e.getWidth() / 2, 0);
+        float dy = Math.max(Math.abs(point.y - center.y) - e.getHeight() / 2, 0);
+        float dz = Math.max(Math.abs(point.z - center.z) - e.getThickness() / 2, 0);
+
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * @return The distance from the point to the box, zero if the point is inside
+     */
+    static float getDistance(float x, float y, float minX, float minY, float maxX, float maxY)
+    {
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return The distance from the point to the box, zero if the point is inside
+     */
+    static float getDistance(float x, float y, float z, float minX, float minY, float minZ,
+                             float maxX, float maxY, float maxZ)
+    {
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+        float dz = Math.max(Math.max(minZ - z, z - maxZ), 0);
+
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,625 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom3d.Polyhedron;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A linear loose Octree that resolves collisions between Entity3Ds. Every node
+ * is identified by the Morton code of its cell, prefixed with a sentinel bit
+ * that encodes the depth, and the nodes are found through a hash table of these
+ * codes. The node of an entity is computed directly from its size and center,
+ * without descending the tree from the root.
+ * <p>
+ * The bounds of every node are loosened to twice the size of its cell, so an
+ * entity is stored in exactly one node. The nodes and the entities are stored
+ * in primitive arrays with free lists, so no garbage is created once the arrays
+ * have grown.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Octree implements IBroadphaseResolver3D
+{
+    private static final int NULL_INDEX = -1;
+
+    // The default maximum depth of the tree
+    private static final int MAX_DEPTH = 8;
+
+    private static final int  ROOT     = 0;
+    private static final long ROOT_KEY = 1;
+
+    // The box covered by the tree, and the size of the cells at every depth
+    private Vector3 min;
+    private Vector3 size;
+    private float[] cellWidths;
+    private float[] cellHeights;
+    private float[] cellThicknesses;
+    private int     maxDepth;
+
+    // Maps the Morton code of a node to the node index
+    private LongIntMap nodeMap;
+
+    // The node storage. The parents array also links the free nodes
+    private long[]  keys;
+    private int[]   parents;
+    private int[]   children;
+    private int[]   depths;
+    private int[]   firstProxies;
+    private int[]   subtreeCounts;
+    private float[] cellMins;
+    private int     nodeCapacity;
+    private int     nodeCount;
+    private int     freeNodes;
+
+    // The proxies, one per entity. The proxies of a node form a doubly linked list
+    private Entity3D[] entities;
+    private float[]    bounds;
+    private int[]      proxyNodes;
+    private int[]      prevProxies;
+    private int[]      nextProxies;
+    private int        proxyCapacity;
+    private int        freeProxies;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // The stack used to traverse the tree without recursion
+    private int[] stack;
+
+    // The bounds of the current query
+    private float[] queryBox;
+
+    private List<Entity3D> retrieveList;
+
+    /**
+     * Constructs an Octree that covers the box between the given corners.
+     *
+     * @param min The minimum corner of the box covered by the tree
+     * @param max The maximum corner of the box covered by the tree
+     */
+    public Octree(Vector3 min, Vector3 max)
+    {
+        this(min, max, MAX_DEPTH);
+    }
+
+    /**
+     * Constructs an Octree that covers the box between the given corners. Entities
+     * outside the box are still resolved, but they are kept in the root.
+     *
+     * @param min      The minimum corner of the box covered by the tree
+     * @param max      The maximum corner of the box covered by the tree
+     * @param maxDepth The maximum depth of the tree, at most 20. The root is at depth 0
+     */
+    public Octree(Vector3 min, Vector3 max, int maxDepth)
+    {
+        if (maxDepth < 0 || maxDepth > 20)
+            throw new IllegalArgumentException("The maximum depth of an Octree should be between 0 and 20");
+
+        this.min = new Vector3(min);
+        this.size = max.subtract(min);
+        this.maxDepth = maxDepth;
+
+        cellWidths = new float[maxDepth + 1];
+        cellHeights = new float[maxDepth + 1];
+        cellThicknesses = new float[maxDepth + 1];
+
+        cellWidths[0] = size.x;
+        cellHeights[0] = size.y;
+        cellThicknesses[0] = size.z;
+
+        for (int i = 1; i <= maxDepth; i++)
+        {
+            cellWidths[i] = cellWidths[i - 1] / 2;
+            cellHeights[i] = cellHeights[i - 1] / 2;
+            cellThicknesses[i] = cellThicknesses[i - 1] / 2;
+        }
+
+        nodeMap = new LongIntMap();
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+        stack = new int[64];
+        queryBox = new float[6];
+
+        allocateNodes(16);
+        allocateProxies(16);
+
+        clear();
+    }
+
+    private void allocateNodes(int capacity)
+    {
+        long[] newKeys = new long[capacity];
+        int[] newParents = new int[capacity];
+        int[] newChildren = new int[capacity * 8];
+        int[] newDepths = new int[capacity];
+        int[] newFirstProxies = new int[capacity];
+        int[] newSubtreeCounts = new int[capacity];
+        float[] newCellMins = new float[capacity * 3];
+
+        if (parents != null)
+        {
+            System.arraycopy(keys, 0, newKeys, 0, nodeCapacity);
+            System.arraycopy(parents, 0, newParents, 0, nodeCapacity);
+            System.arraycopy(children, 0, newChildren, 0, nodeCapacity * 8);
+            System.arraycopy(depths, 0, newDepths, 0, nodeCapacity);
+            System.arraycopy(firstProxies, 0, newFirstProxies, 0, nodeCapacity);
+            System.arraycopy(subtreeCounts, 0, newSubtreeCounts, 0, nodeCapacity);
+            System.arraycopy(cellMins, 0, newCellMins, 0, nodeCapacity * 3);
+        }
+
+        keys = newKeys;
+        parents = newParents;
+        children = newChildren;
+        depths = newDepths;
+        firstProxies = newFirstProxies;
+        subtreeCounts = newSubtreeCounts;
+        cellMins = newCellMins;
+
+        linkFreeNodes(nodeCapacity, capacity);
+        nodeCapacity = capacity;
+    }
+
+    // Links the nodes from start to end into the free list
+    private void linkFreeNodes(int start, int end)
+    {
+        for (int i = start; i < end - 1; i++)
+            parents[i] = i + 1;
+
+        parents[end - 1] = NULL_INDEX;
+        freeNodes = start;
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity3D[] newEntities = new Entity3D[capacity];
+        float[] newBounds = new float[capacity * 6];
+        int[] newProxyNodes = new int[capacity];
+        int[] newPrevProxies = new int[capacity];
+        int[] newNextProxies = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(bounds, 0, newBounds, 0, proxyCapacity * 6);
+            System.arraycopy(proxyNodes, 0, newProxyNodes, 0, proxyCapacity);
+            System.arraycopy(prevProxies, 0, newPrevProxies, 0, proxyCapacity);
+            System.arraycopy(nextProxies, 0, newNextProxies, 0, proxyCapacity);
+        }
+
+        entities = newEntities;
+        bounds = newBounds;
+        proxyNodes = newProxyNodes;
+        prevProxies = newPrevProxies;
+        nextProxies = newNextProxies;
+
+        linkFreeProxies(proxyCapacity, capacity);
+        proxyCapacity = capacity;
+    }
+
+    // Links the proxies from start to end into the free list
+    private void linkFreeProxies(int start, int end)
+    {
+        for (int i = start; i < end - 1; i++)
+            nextProxies[i] = i + 1;
+
+        nextProxies[end - 1] = NULL_INDEX;
+        freeProxies = start;
+    }
+
+    private int allocateNode(long key, int parent, int depth, int cellX, int cellY, int cellZ)
+    {
+        if (freeNodes == NULL_INDEX)
+            allocateNodes(nodeCapacity * 2);
+
+        int node = freeNodes;
+        freeNodes = parents[node];
+
+        keys[node] = key;
+        parents[node] = parent;
+        depths[node] = depth;
+        firstProxies[node] = NULL_INDEX;
+        subtreeCounts[node] = 0;
+
+        cellMins[node * 3] = min.x + cellX * cellWidths[depth];
+        cellMins[node * 3 + 1] = min.y + cellY * cellHeights[depth];
+        cellMins[node * 3 + 2] = min.z + cellZ * cellThicknesses[depth];
+
+        for (int i = 0; i < 8; i++)
+            children[node * 8 + i] = NULL_INDEX;
+
+        nodeMap.put(key, node);
+        nodeCount++;
+
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        // The last three bits of the key are the octant of the node in its parent
+        children[parents[node] * 8 + (int) (keys[node] & 7)] = NULL_INDEX;
+        nodeMap.remove(keys[node], NULL_INDEX);
+
+        parents[node] = freeNodes;
+        freeNodes = node;
+        nodeCount--;
+    }
+
+    /**
+     * Clears the tree. The nodes and the proxies are returned to their pools.
+     */
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < proxyCapacity; i++)
+            entities[i] = null;
+
+        linkFreeProxies(0, proxyCapacity);
+        linkFreeNodes(0, nodeCapacity);
+
+        nodeCount = 0;
+        nodeMap.clear();
+        proxyMap.clear();
+
+        allocateNode(ROOT_KEY, NULL_INDEX, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void insert(Entity3D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeProxies == NULL_INDEX)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeProxies;
+        freeProxies = nextProxies[proxy];
+
+        entities[proxy] = e;
+        proxyMap.put(e.getID(), proxy);
+
+        setBounds(proxy, e);
+        addToNode(proxy, findNode(getKey(proxy)));
+    }
+
+    @Override
+    public void remove(Entity3D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_INDEX);
+
+        if (proxy == NULL_INDEX)
+            return;
+
+        removeFromNode(proxy);
+
+        entities[proxy] = null;
+        nextProxies[proxy] = freeProxies;
+        freeProxies = proxy;
+    }
+
+    /**
+     * Updates the bounds of an entity. The entity is only moved to another node if
+     * it has left the cell of its node, or if its size needs a different depth.
+     *
+     * @param e The entity that has moved
+     */
+    @Override
+    public void update(Entity3D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_INDEX);
+
+        if (proxy == NULL_INDEX)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+
+        long key = getKey(proxy);
+
+        if (key == keys[proxyNodes[proxy]])
+            return;
+
+        removeFromNode(proxy);
+        addToNode(proxy, findNode(key));
+    }
+
+    private void setBounds(int proxy, Entity3D e)
+    {
+        // The position of an Entity3D is the center of its bounds
+        Vector3 center = e.getPosition();
+
+        float halfWidth = e.getWidth() / 2;
+        float halfHeight = e.getHeight() / 2;
+        float halfThickness = e.getThickness() / 2;
+
+        int i = proxy * 6;
+
+        bounds[i] = center.x - halfWidth;
+        bounds[i + 1] = center.y - halfHeight;
+        bounds[i + 2] = center.z - halfThickness;
+        bounds[i + 3] = center.x + halfWidth;
+        bounds[i + 4] = center.y + halfHeight;
+        bounds[i + 5] = center.z + halfThickness;
+    }
+
+    // Computes the Morton code of the node that should hold the proxy
+    private long getKey(int proxy)
+    {
+        int i = proxy * 6;
+
+        float width = bounds[i + 3] - bounds[i];
+        float height = bounds[i + 4] - bounds[i + 1];
+        float thickness = bounds[i + 5] - bounds[i + 2];
+
+        float x = (bounds[i] + bounds[i + 3]) / 2 - min.x;
+        float y = (bounds[i + 1] + bounds[i + 4]) / 2 - min.y;
+        float z = (bounds[i + 2] + bounds[i + 5]) / 2 - min.z;
+
+        // Entities outside the box can't be bound by any loose cell, so keep them in the root
+        if (x < 0 || y < 0 || z < 0 || x >= size.x || y >= size.y || z >= size.z)
+            return ROOT_KEY;
+
+        // The deepest depth whose cells are not smaller than the proxy
+        int depth = 0;
+
+        while (depth < maxDepth && cellWidths[depth + 1] >= width &&
+               cellHeights[depth + 1] >= height && cellThicknesses[depth + 1] >= thickness)
+            depth++;
+
+        int maxCell = (1 << depth) - 1;
+
+        int cellX = Math.min((int) (x / cellWidths[depth]), maxCell);
+        int cellY = Math.min((int) (y / cellHeights[depth]), maxCell);
+        int cellZ = Math.min((int) (z / cellThicknesses[depth]), maxCell);
+
+        return (ROOT_KEY << (3 * depth)) | interleave(cellX) | (interleave(cellY) << 1) | (interleave(cellZ) << 2);
+    }
+
+    // Spreads the lower 21 bits of the value, leaving two zero bits between each of them
+    private static long interleave(int value)
+    {
+        long x = value & 0x1FFFFFL;
+
+        x = (x | (x << 32)) & 0x1F00000000FFFFL;
+        x = (x | (x << 16)) & 0x1F0000FF0000FFL;
+        x = (x | (x << 8)) & 0x100F00F00F00F00FL;
+        x = (x | (x << 4)) & 0x10C30C30C30C30C3L;
+        x = (x | (x << 2)) & 0x1249249249249249L;
+
+        return x;
+    }
+
+    // Inverse of interleave
+    private static int compact(long x)
+    {
+        x &= 0x1249249249249249L;
+
+        x = (x | (x >>> 2)) & 0x10C30C30C30C30C3L;
+        x = (x | (x >>> 4)) & 0x100F00F00F00F00FL;
+        x = (x | (x >>> 8)) & 0x1F0000FF0000FFL;
+        x = (x | (x >>> 16)) & 0x1F00000000FFFFL;
+        x = (x | (x >>> 32)) & 0x1FFFFFL;
+
+        return (int) x;
+    }
+
+    // Finds the node with the key, creating it and its missing ancestors
+    private int findNode(long key)
+    {
+        int node = nodeMap.get(key, NULL_INDEX);
+
+        if (node != NULL_INDEX)
+            return node;
+
+        int parent = findNode(key >>> 3);
+        int depth = depths[parent] + 1;
+
+        long morton = key ^ (ROOT_KEY << (3 * depth));
+        node = allocateNode(key, parent, depth, compact(morton), compact(morton >>> 1), compact(morton >>> 2));
+
+        children[parent * 8 + (int) (key & 7)] = node;
+
+        return node;
+    }
+
+    private void addToNode(int proxy, int node)
+    {
+        int first = firstProxies[node];
+
+        prevProxies[proxy] = NULL_INDEX;
+        nextProxies[proxy] = first;
+
+        if (first != NULL_INDEX)
+            prevProxies[first] = proxy;
+
+        firstProxies[node] = proxy;
+        proxyNodes[proxy] = node;
+
+        for (int n = node; n != NULL_INDEX; n = parents[n])
+            subtreeCounts[n]++;
+    }
+
+    private void removeFromNode(int proxy)
+    {
+        int node = proxyNodes[proxy];
+        int prev = prevProxies[proxy];
+        int next = nextProxies[proxy];
+
+        if (prev != NULL_INDEX)
+            nextProxies[prev] = next;
+        else
+            firstProxies[node] = next;
+
+        if (next != NULL_INDEX)
+            prevProxies[next] = prev;
+
+        // Return the nodes that became empty to the pool, the root is always kept
+        while (node != NULL_INDEX)
+        {
+            int parent = parents[node];
+
+            if (--subtreeCounts[node] == 0 && node != ROOT)
+                freeNode(node);
+
+            node = parent;
+        }
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        // The loose bounds of sibling nodes overlap, so every proxy queries the whole tree
+        for (int proxy = 0; proxy < proxyCapacity; proxy++)
+        {
+            if (entities[proxy] == null)
+                continue;
+
+            int i = proxy * 6;
+
+            int top = 0;
+            stack[top++] = ROOT;
+
+            while (top > 0)
+            {
+                int node = stack[--top];
+
+                if (!overlapsNode(node, bounds, i))
+                    continue;
+
+                for (int other = firstProxies[node]; other != NULL_INDEX; other = nextProxies[other])
+                {
+                    // Only report the pair from the proxy with the smaller id
+                    if (other > proxy && overlaps(bounds, i, other * 6))
+                        callback.invoke(entities[proxy], entities[other]);
+                }
+
+                top = pushChildren(node, top);
+            }
+        }
+    }
+
+    private boolean overlaps(float[] box, int i, int j)
+    {
+        return box[i] <= bounds[j + 3] && bounds[j] <= box[i + 3] &&
+               box[i + 1] <= bounds[j + 4] && bounds[j + 1] <= box[i + 4] &&
+               box[i + 2] <= bounds[j + 5] && bounds[j + 2] <= box[i + 5];
+    }
+
+    // Tests the loose bounds of a node, which extend half a cell beyond the cell on every side
+    private boolean overlapsNode(int node, float[] box, int i)
+    {
+        if (subtreeCounts[node] == 0)
+            return false;
+
+        int depth = depths[node];
+
+        if (depth == 0)
+            return true;
+
+        float width = cellWidths[depth];
+        float height = cellHeights[depth];
+        float thickness = cellThicknesses[depth];
+
+        float minX = cellMins[node * 3] - width / 2;
+        float minY = cellMins[node * 3 + 1] - height / 2;
+        float minZ = cellMins[node * 3 + 2] - thickness / 2;
+
+        return minX <= box[i + 3] && box[i] <= minX + width * 2 &&
+               minY <= box[i + 4] && box[i + 1] <= minY + height * 2 &&
+               minZ <= box[i + 5] && box[i + 2] <= minZ + thickness * 2;
+    }
+
+    private int pushChildren(int node, int top)
+    {
+        if (top + 8 > stack.length)
+        {
+            int[] newStack = new int[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, stack.length);
+
+            stack = newStack;
+        }
+
+        for (int i = 0; i < 8; i++)
+        {
+            int child = children[node * 8 + i];
+
+            if (child != NULL_INDEX)
+                stack[top++] = child;
+        }
+
+        return top;
+    }
+
+    @Override
+    public List<Entity3D> retrieve(Polyhedron polyhedron)
+    {
+        retrieveList.clear();
+
+        // The position of a Polyhedron is the center of its bounds
+        Vector3 center = polyhedron.getPosition();
+
+        float halfWidth = polyhedron.getWidth() / 2;
+        float halfHeight = polyhedron.getHeight() / 2;
+        float halfThickness = polyhedron.getThickness() / 2;
+
+        float[] box = queryBox;
+
+        box[0] = center.x - halfWidth;
+        box[1] = center.y - halfHeight;
+        box[2] = center.z - halfThickness;
+        box[3] = center.x + halfWidth;
+        box[4] = center.y + halfHeight;
+        box[5] = center.z + halfThickness;
+
+        int top = 0;
+        stack[top++] = ROOT;
+
+        while (top > 0)
+        {
+            int node = stack[--top];
+
+            if (!overlapsNode(node, box, 0))
+                continue;
+
+            for (int proxy = firstProxies[node]; proxy != NULL_INDEX; proxy = nextProxies[proxy])
+            {
+                if (overlaps(box, 0, proxy * 6))
+                    retrieveList.add(entities[proxy]);
+            }
+
+            top = pushChildren(node, top);
+        }
+
+        return retrieveList;
+    }
+
+    /**
+     * @return The number of nodes in use, including the root
+     */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    @Override
+    public int nearest(Vector3 center, int k, Entity3D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
@@ -1,14 +1,19 @@
 package com.shc.silenceengine.collision.broadphase;
 
+import com.shc.silenceengine.collision.Collision2D;
 import com.shc.silenceengine.entity.Entity2D;
 import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.utils.IntIntMap;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A QuadTree implementation to reduce collision checks. Every level contains
- * a maximum of 10 objects and the tree sub divides on exceeding this limit.
+ * a maximum of 10 objects and the tree sub divides on exceeding this limit,
+ * until the maximum level is reached. The tree remembers the node that holds
+ * every entity, so an entity that has moved is still removed from the right node.
  *
  * @author Sri Harsha Chilakapati
  */
@@ -16,8 +21,18 @@ public class QuadTree implements IBroadphaseResolver2D
 {
     // The MAX_OBJECTS and LEVEL constants
     private static final int MAX_OBJECTS = 10;
+    private static final int MAX_LEVELS  = 8;
+    private static final int NULL_NODE   = -1;
     private int level;
 
+    // The index of this node in the node list
+    private int nodeIndex;
+
+    // Maps the ID of an entity to the index of the node that holds it. Shared by all the nodes
+    private IntIntMap ownerMap;
+    // The nodes of the whole tree, indexed by the values of the owner map. Shared by all the nodes
+    private List<QuadTree> nodeList;
+
     // The objects list
     private List<Entity2D> objects;
     // The retrieve list
@@ -41,16 +56,30 @@ public class QuadTree implements IBroadphaseResolver2D
     }
 
     /**
-     * Construct a QuadTree with custom values. Used to create sub trees or branches
+     * Construct a QuadTree with custom values. The tree creates its own sub trees,
+     * which share the bookkeeping of the tree, so a tree made with this constructor
+     * is always a separate tree.
      *
      * @param l The level of this tree
      * @param b The bounds of this tree
      */
     public QuadTree(int l, Rectangle b)
+    {
+        this(l, b, new IntIntMap(), new ArrayList<>());
+    }
+
+    // Constructs a node that shares the owner map and the node list of the tree
+    private QuadTree(int l, Rectangle b, IntIntMap ownerMap, List<QuadTree> nodeList)
     {
         level  = l;
         bounds = b;
 
+        this.ownerMap = ownerMap;
+        this.nodeList = nodeList;
+
+        nodeIndex = nodeList.size();
+        nodeList.add(this);
+
         objects      = new ArrayList<>();
         retrieveList = new ArrayList<>();
 
@@ -79,13 +108,12 @@ public class QuadTree implements IBroadphaseResolver2D
     {
         objects.clear();
         for (int i = 0; i < nodes.length; i++)
-        {
-            if (nodes[i] != null)
-            {
-                nodes[i].clear();
-                nodes[i] = null;
-            }
-        }
+            nodes[i] = null;
+
+        // The sub trees are dropped, so only this node is left in the list
+        ownerMap.clear();
+        nodeList.clear();
+        nodeList.add(this);
     }
 
     // Split the tree into 4 quadrants
@@ -97,10 +125,10 @@ public class QuadTree implements IBroadphaseResolver2D
         int x = (int) bounds.getX();
         int y = (int) bounds.getY();
 
-        nodes[0] = new QuadTree(level + 1, new Rectangle(x + subWidth, y, subWidth, subHeight));
-        nodes[1] = new QuadTree(level + 1, new Rectangle(x, y, subWidth, subHeight));
-        nodes[2] = new QuadTree(level + 1, new Rectangle(x, y + subHeight, subWidth, subHeight));
-        nodes[3] = new QuadTree(level + 1, new Rectangle(x + subWidth, y + subHeight, subWidth, subHeight));
+        nodes[0] = new QuadTree(level + 1, new Rectangle(x + subWidth, y, subWidth, subHeight), ownerMap, nodeList);
+        nodes[1] = new QuadTree(level + 1, new Rectangle(x, y, subWidth, subHeight), ownerMap, nodeList);
+        nodes[2] = new QuadTree(level + 1, new Rectangle(x, y + subHeight, subWidth, subHeight), ownerMap, nodeList);
+        nodes[3] = new QuadTree(level + 1, new Rectangle(x + subWidth, y + subHeight, subWidth, subHeight), ownerMap, nodeList);
     }
 
     // Get the index of an object
@@ -149,18 +177,30 @@ public class QuadTree implements IBroadphaseResolver2D
      * Insert an object into this tree
      */
     public void insert(Entity2D r)
+    {
+        if (ownerMap.containsKey(r.getID()))
+            remove(r);
+
+        add(r);
+    }
+
+    // Adds an object to the node that can hold it, and remembers that node
+    private void add(Entity2D r)
     {
         if (nodes[0] != null)
         {
             int index = getIndex(r);
             if (index != -1)
             {
-                nodes[index].insert(r);
+                nodes[index].add(r);
                 return;
             }
         }
         objects.add(r);
-        if (objects.size() > MAX_OBJECTS)
+        ownerMap.put(r.getID(), nodeIndex);
+
+        // The objects that crowd a point would split the tree forever, so the depth is limited
+        if (objects.size() > MAX_OBJECTS && level < MAX_LEVELS)
         {
             if (nodes[0] == null)
             {
@@ -171,7 +211,8 @@ public class QuadTree implements IBroadphaseResolver2D
                 int index = getIndex(objects.get(i));
                 if (index != -1)
                 {
-                    nodes[index].insert(objects.remove(i));
+                    // The next object shifts into this slot, so visit it again
+                    nodes[index].add(objects.remove(i--));
                 }
             }
         }
@@ -185,6 +226,56 @@ public class QuadTree implements IBroadphaseResolver2D
         o.forEach(this::insert);
     }
 
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        // Every object lives in a single node, so it can only overlap the objects
+        // in the same node, or in the sub trees of that node.
+        for (int i = 0; i < objects.size(); i++)
+        {
+            Entity2D a = objects.get(i);
+
+            for (int j = i + 1; j < objects.size(); j++)
+                callback.invoke(a, objects.get(j));
+
+            if (nodes[0] != null)
+            {
+                Rectangle bounds = a.getPolygon().getBounds();
+
+                for (QuadTree node : nodes)
+                    node.forEachOverlappingObject(a, bounds, callback);
+            }
+        }
+
+        if (nodes[0] != null)
+        {
+            for (QuadTree node : nodes)
+                node.forEachOverlappingPair(callback);
+        }
+    }
+
+    // Reports the pairs of an entity from a parent node with all the objects in this sub tree
+    private void forEachOverlappingObject(Entity2D entity, Rectangle entityBounds, PairCallback callback)
+    {
+        if (!intersects(bounds, entityBounds))
+            return;
+
+        for (Entity2D object : objects)
+            callback.invoke(entity, object);
+
+        if (nodes[0] != null)
+        {
+            for (QuadTree node : nodes)
+                node.forEachOverlappingObject(entity, entityBounds, callback);
+        }
+    }
+
+    private static boolean intersects(Rectangle r1, Rectangle r2)
+    {
+        return r1.getX() <= r2.getX() + r2.getWidth() && r2.getX() <= r1.getX() + r1.getWidth() &&
+               r1.getY() <= r2.getY() + r2.getHeight() && r2.getY() <= r1.getY() + r1.getHeight();
+    }
+
     /**
      * Returns the collidable objects with the given rectangle
      */
@@ -202,18 +293,168 @@ public class QuadTree implements IBroadphaseResolver2D
         return retrieveList;
     }
 
-    public void remove(Entity2D e)
+    /**
+     * Casts a ray into this tree. The quadrants are visited in the order in which
+     * the ray passes through them, and the quadrants that the ray misses, or enters
+     * beyond the distance returned by the callback, are skipped.
+     */
+    @Override
+    public void raycast(Vector2 origin, Vector2 direction, float maxDistance, RayCallback callback)
+    {
+        castRay(origin, direction.normalize(), maxDistance, callback);
+    }
+
+    // Returns the remaining length of the ray, which is zero when the ray is stopped
+    private float castRay(Vector2 origin, Vector2 dir, float maxDistance, RayCallback callback)
+    {
+        for (Entity2D object : objects)
+        {
+            float distance = Collision2D.testRay(object.getPolygon(), origin, dir, maxDistance);
+
+            if (distance >= 0)
+            {
+                maxDistance = Math.min(maxDistance, callback.invoke(object, distance));
+
+                if (maxDistance <= 0)
+                    return 0;
+            }
+        }
+
+        if (nodes[0] == null)
+            return maxDistance;
+
+        // The quadrant on the side that the ray comes from is always passed first
+        boolean right = dir.x < 0;
+        boolean bottom = dir.y < 0;
+
+        maxDistance = castRay(right, bottom, origin, dir, maxDistance, callback);
+        maxDistance = castRay(!right, bottom, origin, dir, maxDistance, callback);
+        maxDistance = castRay(right, !bottom, origin, dir, maxDistance, callback);
+
+        return castRay(!right, !bottom, origin, dir, maxDistance, callback);
+    }
+
+    // Casts the ray into a quadrant. The objects of a quadrant lie on its side of the midpoints,
+    // but not always in its bounds, since objects outside the tree are also sent into the quadrants
+    private float castRay(boolean right, boolean bottom, Vector2 origin, Vector2 dir, float maxDistance, RayCallback callback)
+    {
+        if (maxDistance <= 0)
+            return maxDistance;
+
+        float verticalMidpoint = bounds.getX() + (bounds.getWidth() / 2);
+        float horizontalMidpoint = bounds.getY() + (bounds.getHeight() / 2);
+
+        float enter = 0;
+        float exit = maxDistance;
+
+        float sideX = right ? 1 : -1;
+        float offsetX = sideX * (origin.x - verticalMidpoint);
+        float speedX = sideX * dir.x;
+
+        if (speedX == 0 && offsetX < 0)
+            return maxDistance;
+        else if (speedX > 0)
+            enter = Math.max(enter, -offsetX / speedX);
+        else if (speedX < 0)
+            exit = Math.min(exit, -offsetX / speedX);
+
+        float sideY = bottom ? 1 : -1;
+        float offsetY = sideY * (origin.y - horizontalMidpoint);
+        float speedY = sideY * dir.y;
+
+        if (speedY == 0 && offsetY < 0)
+            return maxDistance;
+        else if (speedY > 0)
+            enter = Math.max(enter, -offsetY / speedY);
+        else if (speedY < 0)
+            exit = Math.min(exit, -offsetY / speedY);
+
+        if (enter > exit)
+            return maxDistance;
+
+        QuadTree node = bottom ? (right ? nodes[3] : nodes[2]) : (right ? nodes[0] : nodes[1]);
+
+        return node.castRay(origin, dir, maxDistance, callback);
+    }
+
+    @Override
+    public void queryRadius(Vector2 center, float radius, QueryCallback callback)
+    {
+        for (Entity2D object : objects)
+        {
+            float distance = NearestBuffer.getDistance(object, center);
+
+            if (distance <= radius)
+                callback.invoke(object, distance);
+        }
+
+        if (nodes[0] == null)
+            return;
+
+        float verticalMidpoint = bounds.getX() + (bounds.getWidth() / 2);
+        float horizontalMidpoint = bounds.getY() + (bounds.getHeight() / 2);
+
+        // The objects of a quadrant lie on its side of the midpoints
+        boolean left = center.x - radius < verticalMidpoint;
+        boolean right = center.x + radius > verticalMidpoint;
+        boolean top = center.y - radius < horizontalMidpoint;
+        boolean bottom = center.y + radius > horizontalMidpoint;
+
+        if (right && top)
+            nodes[0].queryRadius(center, radius, callback);
+
+        if (left && top)
+            nodes[1].queryRadius(center, radius, callback);
+
+        if (left && bottom)
+            nodes[2].queryRadius(center, radius, callback);
+
+        if (right && bottom)
+            nodes[3].queryRadius(center, radius, callback);
+    }
+
+    @Override
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances)
+    {
+        return nearest(center, k, out, distances, 0);
+    }
+
+    // Visits the objects of this tree and its sub trees, with the count of the entities found so far
+    private int nearest(Vector2 center, int k, Entity2D[] out, float[] distances, int count)
     {
+        for (Entity2D object : objects)
+            count = NearestBuffer.insert(out, distances, count, k, object, NearestBuffer.getDistance(object, center));
+
         if (nodes[0] != null)
         {
-            int index = getIndex(e);
-            if (index != -1)
+            for (QuadTree node : nodes)
+                count = node.nearest(center, k, out, distances, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Removes an object from this tree. The object is removed from the node that it
+     * was added to, even if it has moved out of that node since.
+     */
+    public void remove(Entity2D e)
+    {
+        int node = ownerMap.remove(e.getID(), NULL_NODE);
+
+        if (node == NULL_NODE)
+            return;
+
+        List<Entity2D> list = nodeList.get(node).objects;
+
+        // The entities are compared by their values, so look for this very entity
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == e)
             {
-                nodes[index].remove(e);
+                list.remove(i);
                 return;
             }
         }
-
-        objects.remove(e);
     }
 }
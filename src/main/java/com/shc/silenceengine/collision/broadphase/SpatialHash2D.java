@@ -0,0 +1,430 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A spatial hash collision resolver for unbounded worlds. Unlike the Grid, the
+ * spatial hash doesn't need the size of the map. The integer coordinates of a
+ * cell are packed into a long, which is used as the key into an open addressing
+ * hash table of cells. The cells are only created when an entity is inserted in
+ * them, and their arrays are reused after the resolver is cleared.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SpatialHash2D implements IBroadphaseResolver2D
+{
+    private static final int NULL_PROXY = -1;
+
+    private float cellSize;
+
+    // Maps the packed coordinates of a cell to the cell index
+    private LongIntMap cellMap;
+
+    // The cells, indexed by the cell index. Every cell holds the proxies in it
+    private int[][] cellProxies;
+    private int[]   cellSizes;
+    private int[]   cellXs;
+    private int[]   cellYs;
+    private int     cellCount;
+
+    // The proxies, one per entity. The cell range is remembered for exact removal
+    private Entity2D[] entities;
+    private float[]    bounds;
+    private int[]      ranges;
+    private int[]      stamps;
+    private int[]      nextFree;
+    private int        proxyCapacity;
+    private int        freeList;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // Stamp used to avoid retrieving an entity more than once
+    private int queryStamp;
+
+    private List<Entity2D> retrieveList;
+
+    /**
+     * Constructs a SpatialHash2D with the given cell size.
+     *
+     * @param cellSize The size of each square cell (in pixels)
+     */
+    public SpatialHash2D(float cellSize)
+    {
+        this.cellSize = cellSize;
+
+        cellMap = new LongIntMap();
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+
+        cellProxies = new int[16][];
+        cellSizes = new int[16];
+        cellXs = new int[16];
+        cellYs = new int[16];
+
+        allocateProxies(16);
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity2D[] newEntities = new Entity2D[capacity];
+        float[] newBounds = new float[capacity * 4];
+        int[] newRanges = new int[capacity * 4];
+        int[] newStamps = new int[capacity];
+        int[] newNextFree = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(bounds, 0, newBounds, 0, proxyCapacity * 4);
+            System.arraycopy(ranges, 0, newRanges, 0, proxyCapacity * 4);
+            System.arraycopy(stamps, 0, newStamps, 0, proxyCapacity);
+            System.arraycopy(nextFree, 0, newNextFree, 0, proxyCapacity);
+        }
+
+        for (int i = proxyCapacity; i < capacity - 1; i++)
+            newNextFree[i] = i + 1;
+
+        newNextFree[capacity - 1] = NULL_PROXY;
+        freeList = proxyCapacity;
+
+        entities = newEntities;
+        bounds = newBounds;
+        ranges = newRanges;
+        stamps = newStamps;
+        nextFree = newNextFree;
+        proxyCapacity = capacity;
+    }
+
+    /**
+     * Removes all the entities. The cells are kept, so that their arrays can be
+     * reused by the entities inserted next. Use trim() to drop the cells.
+     */
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < cellCount; i++)
+            cellSizes[i] = 0;
+
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            entities[i] = null;
+            nextFree[i] = i + 1;
+        }
+
+        nextFree[proxyCapacity - 1] = NULL_PROXY;
+        freeList = 0;
+
+        proxyMap.clear();
+    }
+
+    /**
+     * Removes all the entities and drops all the cells. Useful after the entities
+     * have moved to a different part of an open world.
+     */
+    public void trim()
+    {
+        clear();
+
+        cellMap.clear();
+        cellCount = 0;
+    }
+
+    @Override
+    public void insert(Entity2D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeList == NULL_PROXY)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeList;
+        freeList = nextFree[proxy];
+
+        entities[proxy] = e;
+        proxyMap.put(e.getID(), proxy);
+
+        setBounds(proxy, e);
+        addToCells(proxy);
+    }
+
+    @Override
+    public void remove(Entity2D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+            return;
+
+        removeFromCells(proxy);
+
+        entities[proxy] = null;
+        nextFree[proxy] = freeList;
+        freeList = proxy;
+    }
+
+    @Override
+    public void update(Entity2D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+
+        int i = proxy * 4;
+
+        // Only touch the cells if the entity moved into a different cell range
+        if (toCell(bounds[i]) == ranges[i] && toCell(bounds[i + 1]) == ranges[i + 1] &&
+            toCell(bounds[i + 2]) == ranges[i + 2] && toCell(bounds[i + 3]) == ranges[i + 3])
+            return;
+
+        removeFromCells(proxy);
+        addToCells(proxy);
+    }
+
+    private void setBounds(int proxy, Entity2D e)
+    {
+        Rectangle rect = e.getPolygon().getBounds();
+
+        int i = proxy * 4;
+
+        bounds[i] = rect.getX();
+        bounds[i + 1] = rect.getY();
+        bounds[i + 2] = rect.getX() + rect.getWidth();
+        bounds[i + 3] = rect.getY() + rect.getHeight();
+    }
+
+    private int toCell(float coordinate)
+    {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long getKey(int x, int y)
+    {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    // Remembers the range of the cells covered by the bounds, and adds the proxy to them
+    private void addToCells(int proxy)
+    {
+        int r = proxy * 4;
+
+        ranges[r] = toCell(bounds[r]);
+        ranges[r + 1] = toCell(bounds[r + 1]);
+        ranges[r + 2] = toCell(bounds[r + 2]);
+        ranges[r + 3] = toCell(bounds[r + 3]);
+
+        for (int x = ranges[r]; x <= ranges[r + 2]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 3]; y++)
+            {
+                int cell = getOrCreateCell(x, y);
+                int size = cellSizes[cell];
+
+                if (size == cellProxies[cell].length)
+                {
+                    int[] newProxies = new int[size * 2];
+                    System.arraycopy(cellProxies[cell], 0, newProxies, 0, size);
+                    cellProxies[cell] = newProxies;
+                }
+
+                cellProxies[cell][size] = proxy;
+                cellSizes[cell] = size + 1;
+            }
+        }
+    }
+
+    private void removeFromCells(int proxy)
+    {
+        int r = proxy * 4;
+
+        for (int x = ranges[r]; x <= ranges[r + 2]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 3]; y++)
+            {
+                int cell = cellMap.get(getKey(x, y), -1);
+
+                if (cell == -1)
+                    continue;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                for (int i = 0; i < size; i++)
+                {
+                    if (proxies[i] == proxy)
+                    {
+                        // Fill the hole with the last proxy of the cell
+                        proxies[i] = proxies[size - 1];
+                        cellSizes[cell] = size - 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private int getOrCreateCell(int x, int y)
+    {
+        long key = getKey(x, y);
+        int cell = cellMap.get(key, -1);
+
+        if (cell != -1)
+            return cell;
+
+        if (cellCount == cellSizes.length)
+        {
+            int capacity = cellCount * 2;
+
+            int[][] newProxies = new int[capacity][];
+            int[] newSizes = new int[capacity];
+            int[] newXs = new int[capacity];
+            int[] newYs = new int[capacity];
+
+            System.arraycopy(cellProxies, 0, newProxies, 0, cellCount);
+            System.arraycopy(cellSizes, 0, newSizes, 0, cellCount);
+            System.arraycopy(cellXs, 0, newXs, 0, cellCount);
+            System.arraycopy(cellYs, 0, newYs, 0, cellCount);
+
+            cellProxies = newProxies;
+            cellSizes = newSizes;
+            cellXs = newXs;
+            cellYs = newYs;
+        }
+
+        cell = cellCount++;
+
+        if (cellProxies[cell] == null)
+            cellProxies[cell] = new int[8];
+
+        cellSizes[cell] = 0;
+        cellXs[cell] = x;
+        cellYs[cell] = y;
+
+        cellMap.put(key, cell);
+
+        return cell;
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        for (int cell = 0; cell < cellCount; cell++)
+        {
+            int[] proxies = cellProxies[cell];
+            int size = cellSizes[cell];
+
+            for (int i = 0; i < size; i++)
+            {
+                int a = proxies[i];
+
+                for (int j = i + 1; j < size; j++)
+                {
+                    int b = proxies[j];
+
+                    // A pair that shares many cells is only reported from the first shared cell
+                    if (overlaps(a, b) && isFirstSharedCell(a, b, cell))
+                        callback.invoke(entities[a], entities[b]);
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int a, int b)
+    {
+        int i = a * 4;
+        int j = b * 4;
+
+        return bounds[i] <= bounds[j + 2] && bounds[j] <= bounds[i + 2] &&
+               bounds[i + 1] <= bounds[j + 3] && bounds[j + 1] <= bounds[i + 3];
+    }
+
+    private boolean isFirstSharedCell(int a, int b, int cell)
+    {
+        int i = a * 4;
+        int j = b * 4;
+
+        return Math.max(ranges[i], ranges[j]) == cellXs[cell] &&
+               Math.max(ranges[i + 1], ranges[j + 1]) == cellYs[cell];
+    }
+
+    @Override
+    public List<Entity2D> retrieve(Rectangle rect)
+    {
+        retrieveList.clear();
+        queryStamp++;
+
+        int minX = toCell(rect.getX());
+        int minY = toCell(rect.getY());
+        int maxX = toCell(rect.getX() + rect.getWidth());
+        int maxY = toCell(rect.getY() + rect.getHeight());
+
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                int cell = cellMap.get(getKey(x, y), -1);
+
+                if (cell == -1)
+                    continue;
+
+                int[] proxies = cellProxies[cell];
+                int size = cellSizes[cell];
+
+                for (int i = 0; i < size; i++)
+                {
+                    int proxy = proxies[i];
+
+                    if (stamps[proxy] != queryStamp)
+                    {
+                        stamps[proxy] = queryStamp;
+                        retrieveList.add(entities[proxy]);
+                    }
+                }
+            }
+        }
+
+        return retrieveList;
+    }
+
+    public float getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**
+     * @return The number of cells that have been created in the hash table
+     */
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    @Override
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
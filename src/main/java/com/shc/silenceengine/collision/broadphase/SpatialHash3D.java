@@ -0,0 +1,464 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom3d.Polyhedron;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A spatial hash collision resolver for unbounded worlds. Unlike the Grid, the
+ * spatial hash doesn't need the size of the map. The integer coordinates of a
+ * cell are packed into a long, which is used as the key into an open addressing
+ * hash table of cells. The cells are only created when an entity is inserted in
+ * them, and their arrays are reused after the resolver is cleared. Each cell
+ * coordinate is packed into 21 bits, so the world can span over two million
+ * cells along every axis.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SpatialHash3D implements IBroadphaseResolver3D
+{
+    private static final int NULL_PROXY = -1;
+
+    private float cellSize;
+
+    // Maps the packed coordinates of a cell to the cell index
+    private LongIntMap cellMap;
+
+    // The cells, indexed by the cell index. Every cell holds the proxies in it
+    private int[][] cellProxies;
+    private int[]   cellSizes;
+    private int[]   cellXs;
+    private int[]   cellYs;
+    private int[]   cellZs;
+    private int     cellCount;
+
+    // The proxies, one per entity. The cell range is remembered for exact removal
+    private Entity3D[] entities;
+    private float[]    bounds;
+    private int[]      ranges;
+    private int[]      stamps;
+    private int[]      nextFree;
+    private int        proxyCapacity;
+    private int        freeList;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // Stamp used to avoid retrieving an entity more than once
+    private int queryStamp;
+
+    private List<Entity3D> retrieveList;
+
+    /**
+     * Constructs a SpatialHash3D with the given cell size.
+     *
+     * @param cellSize The size of each cubic cell
+     */
+    public SpatialHash3D(float cellSize)
+    {
+        this.cellSize = cellSize;
+
+        cellMap = new LongIntMap();
+        proxyMap = new IntIntMap();
+        retrieveList = new ArrayList<>();
+
+        cellProxies = new int[16][];
+        cellSizes = new int[16];
+        cellXs = new int[16];
+        cellYs = new int[16];
+        cellZs = new int[16];
+
+        allocateProxies(16);
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity3D[] newEntities = new Entity3D[capacity];
+        float[] newBounds = new float[capacity * 6];
+        int[] newRanges = new int[capacity * 6];
+        int[] newStamps = new int[capacity];
+        int[] newNextFree = new int[capacity];
+
+        if (entities != null)
+        {
+            System.arraycopy(entities, 0, newEntities, 0, proxyCapacity);
+            System.arraycopy(bounds, 0, newBounds, 0, proxyCapacity * 6);
+            System.arraycopy(ranges, 0, newRanges, 0, proxyCapacity * 6);
+            System.arraycopy(stamps, 0, newStamps, 0, proxyCapacity);
+            System.arraycopy(nextFree, 0, newNextFree, 0, proxyCapacity);
+        }
+
+        for (int i = proxyCapacity; i < capacity - 1; i++)
+            newNextFree[i] = i + 1;
+
+        newNextFree[capacity - 1] = NULL_PROXY;
+        freeList = proxyCapacity;
+
+        entities = newEntities;
+        bounds = newBounds;
+        ranges = newRanges;
+        stamps = newStamps;
+        nextFree = newNextFree;
+        proxyCapacity = capacity;
+    }
+
+    /**
+     * Removes all the entities. The cells are kept, so that their arrays can be
+     * reused by the entities inserted next. Use trim() to drop the cells.
+     */
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < cellCount; i++)
+            cellSizes[i] = 0;
+
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            entities[i] = null;
+            nextFree[i] = i + 1;
+        }
+
+        nextFree[proxyCapacity - 1] = NULL_PROXY;
+        freeList = 0;
+
+        proxyMap.clear();
+    }
+
+    /**
+     * Removes all the entities and drops all the cells. Useful after the entities
+     * have moved to a different part of an open world.
+     */
+    public void trim()
+    {
+        clear();
+
+        cellMap.clear();
+        cellCount = 0;
+    }
+
+    @Override
+    public void insert(Entity3D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeList == NULL_PROXY)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeList;
+        freeList = nextFree[proxy];
+
+        entities[proxy] = e;
+        proxyMap.put(e.getID(), proxy);
+
+        setBounds(proxy, e);
+        addToCells(proxy);
+    }
+
+    @Override
+    public void remove(Entity3D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+            return;
+
+        removeFromCells(proxy);
+
+        entities[proxy] = null;
+        nextFree[proxy] = freeList;
+        freeList = proxy;
+    }
+
+    @Override
+    public void update(Entity3D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+
+        int i = proxy * 6;
+
+        // Only touch the cells if the entity moved into a different cell range
+        if (toCell(bounds[i]) == ranges[i] && toCell(bounds[i + 1]) == ranges[i + 1] &&
+            toCell(bounds[i + 2]) == ranges[i + 2] && toCell(bounds[i + 3]) == ranges[i + 3] &&
+            toCell(bounds[i + 4]) == ranges[i + 4] && toCell(bounds[i + 5]) == ranges[i + 5])
+            return;
+
+        removeFromCells(proxy);
+        addToCells(proxy);
+    }
+
+    private void setBounds(int proxy, Entity3D e)
+    {
+        // The position of an Entity3D is the center of its bounds
+        Vector3 center = e.getPosition();
+
+        float halfWidth = e.getWidth() / 2;
+        float halfHeight = e.getHeight() / 2;
+        float halfThickness = e.getThickness() / 2;
+
+        int i = proxy * 6;
+
+        bounds[i] = center.x - halfWidth;
+        bounds[i + 1] = center.y - halfHeight;
+        bounds[i + 2] = center.z - halfThickness;
+        bounds[i + 3] = center.x + halfWidth;
+        bounds[i + 4] = center.y + halfHeight;
+        bounds[i + 5] = center.z + halfThickness;
+    }
+
+    private int toCell(float coordinate)
+    {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long getKey(int x, int y, int z)
+    {
+        return ((x & 0x1FFFFFL) << 42) | ((y & 0x1FFFFFL) << 21) | (z & 0x1FFFFFL);
+    }
+
+    // Remembers the range of the cells covered by the bounds, and adds the proxy to them
+    private void addToCells(int proxy)
+    {
+        int r = proxy * 6;
+
+        for (int i = 0; i < 6; i++)
+            ranges[r + i] = toCell(bounds[r + i]);
+
+        for (int x = ranges[r]; x <= ranges[r + 3]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 4]; y++)
+            {
+                for (int z = ranges[r + 2]; z <= ranges[r + 5]; z++)
+                {
+                    int cell = getOrCreateCell(x, y, z);
+                    int size = cellSizes[cell];
+
+                    if (size == cellProxies[cell].length)
+                    {
+                        int[] newProxies = new int[size * 2];
+                        System.arraycopy(cellProxies[cell], 0, newProxies, 0, size);
+                        cellProxies[cell] = newProxies;
+                    }
+
+                    cellProxies[cell][size] = proxy;
+                    cellSizes[cell] = size + 1;
+                }
+            }
+        }
+    }
+
+    private void removeFromCells(int proxy)
+    {
+        int r = proxy * 6;
+
+        for (int x = ranges[r]; x <= ranges[r + 3]; x++)
+        {
+            for (int y = ranges[r + 1]; y <= ranges[r + 4]; y++)
+            {
+                for (int z = ranges[r + 2]; z <= ranges[r + 5]; z++)
+                {
+                    int cell = cellMap.get(getKey(x, y, z), -1);
+
+                    if (cell == -1)
+                        continue;
+
+                    int[] proxies = cellProxies[cell];
+                    int size = cellSizes[cell];
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        if (proxies[i] == proxy)
+                        {
+                            // Fill the hole with the last proxy of the cell
+                            proxies[i] = proxies[size - 1];
+                            cellSizes[cell] = size - 1;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int getOrCreateCell(int x, int y, int z)
+    {
+        long key = getKey(x, y, z);
+        int cell = cellMap.get(key, -1);
+
+        if (cell != -1)
+            return cell;
+
+        if (cellCount == cellSizes.length)
+        {
+            int capacity = cellCount * 2;
+
+            int[][] newProxies = new int[capacity][];
+            int[] newSizes = new int[capacity];
+            int[] newXs = new int[capacity];
+            int[] newYs = new int[capacity];
+            int[] newZs = new int[capacity];
+
+            System.arraycopy(cellProxies, 0, newProxies, 0, cellCount);
+            System.arraycopy(cellSizes, 0, newSizes, 0, cellCount);
+            System.arraycopy(cellXs, 0, newXs, 0, cellCount);
+            System.arraycopy(cellYs, 0, newYs, 0, cellCount);
+            System.arraycopy(cellZs, 0, newZs, 0, cellCount);
+
+            cellProxies = newProxies;
+            cellSizes = newSizes;
+            cellXs = newXs;
+            cellYs = newYs;
+            cellZs = newZs;
+        }
+
+        cell = cellCount++;
+
+        if (cellProxies[cell] == null)
+            cellProxies[cell] = new int[8];
+
+        cellSizes[cell] = 0;
+        cellXs[cell] = x;
+        cellYs[cell] = y;
+        cellZs[cell] = z;
+
+        cellMap.put(key, cell);
+
+        return cell;
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        for (int cell = 0; cell < cellCount; cell++)
+        {
+            int[] proxies = cellProxies[cell];
+            int size = cellSizes[cell];
+
+            for (int i = 0; i < size; i++)
+            {
+                int a = proxies[i];
+
+                for (int j = i + 1; j < size; j++)
+                {
+                    int b = proxies[j];
+
+                    // A pair that shares many cells is only reported from the first shared cell
+                    if (overlaps(a, b) && isFirstSharedCell(a, b, cell))
+                        callback.invoke(entities[a], entities[b]);
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int a, int b)
+    {
+        int i = a * 6;
+        int j = b * 6;
+
+        return bounds[i] <= bounds[j + 3] && bounds[j] <= bounds[i + 3] &&
+               bounds[i + 1] <= bounds[j + 4] && bounds[j + 1] <= bounds[i + 4] &&
+               bounds[i + 2] <= bounds[j + 5] && bounds[j + 2] <= bounds[i + 5];
+    }
+
+    private boolean isFirstSharedCell(int a, int b, int cell)
+    {
+        int i = a * 6;
+        int j = b * 6;
+
+        return Math.max(ranges[i], ranges[j]) == cellXs[cell] &&
+               Math.max(ranges[i + 1], ranges[j + 1]) == cellYs[cell] &&
+               Math.max(ranges[i + 2], ranges[j + 2]) == cellZs[cell];
+    }
+
+    @Override
+    public List<Entity3D> retrieve(Polyhedron polyhedron)
+    {
+        retrieveList.clear();
+        queryStamp++;
+
+        // The position of a Polyhedron is the center of its bounds
+        Vector3 center = polyhedron.getPosition();
+
+        float halfWidth = polyhedron.getWidth() / 2;
+        float halfHeight = polyhedron.getHeight() / 2;
+        float halfThickness = polyhedron.getThickness() / 2;
+
+        int minX = toCell(center.x - halfWidth);
+        int minY = toCell(center.y - halfHeight);
+        int minZ = toCell(center.z - halfThickness);
+        int maxX = toCell(center.x + halfWidth);
+        int maxY = toCell(center.y + halfHeight);
+        int maxZ = toCell(center.z + halfThickness);
+
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                for (int z = minZ; z <= maxZ; z++)
+                {
+                    int cell = cellMap.get(getKey(x, y, z), -1);
+
+                    if (cell == -1)
+                        continue;
+
+                    int[] proxies = cellProxies[cell];
+                    int size = cellSizes[cell];
+
+                    for (int i = 0; i < size; i++)
+                    {
+                        int proxy = proxies[i];
+
+                        if (stamps[proxy] != queryStamp)
+                        {
+                            stamps[proxy] = queryStamp;
+                            retrieveList.add(entities[proxy]);
+                        }
+                    }
+                }
+            }
+        }
+
+        return retrieveList;
+    }
+
+    public float getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**
+     * @return The number of cells that have been created in the hash table
+     */
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    @Override
+    public int nearest(Vector3 center, int k, Entity3D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,483 @@
+package com.shc.silenceengine.collision.broadphase;
+
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Sweep and Prune (SAP) collision resolver. The end points of the bounds of
+ * every entity are kept sorted on both the x and the y axes. Between frames,
+ * the end points are re-sorted with an insertion sort, which is nearly linear
+ * when the entities move only a little every frame. Every swap of two end points
+ * starts or ends an overlap, so the set of overlapping pairs is maintained
+ * incrementally instead of being recomputed.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SweepAndPrune2D implements IBroadphaseResolver2D
+{
+    private static final int NULL_PROXY = -1;
+
+    // Number of floats per proxy in the bounds array: minX, minY, maxX, maxY
+    private static final int BOUNDS_STRIDE = 4;
+
+    // The proxies, indexed by the proxy id. The free proxies are linked by nextFree
+    private Entity2D[] entities;
+    private float[]    bounds;
+    private int[]      pairCounts;
+    private int[]      nextFree;
+
+    private int proxyCapacity;
+    private int freeList;
+
+    // Maps the ID of an entity to its proxy
+    private IntIntMap proxyMap;
+
+    // The end points on each axis. An end point is (proxy << 1) | (1 if max else 0)
+    private float[][] values;
+    private int[][]   endPoints;
+    private int       endPointCount;
+
+    // The removed proxies, whose end points are dropped on the next sort
+    private int[] removedProxies;
+    private int   removedCount;
+
+    // The overlapping pairs, packed densely and indexed by the pair key
+    private int[]      pairsA;
+    private int[]      pairsB;
+    private int        pairCount;
+    private LongIntMap pairMap;
+
+    private boolean dirty;
+
+    private List<Entity2D> retrieveList;
+
+    public SweepAndPrune2D()
+    {
+        proxyMap = new IntIntMap();
+        pairMap = new LongIntMap();
+        retrieveList = new ArrayList<>();
+
+        allocateProxies(16);
+
+        values = new float[2][32];
+        endPoints = new int[2][32];
+
+        removedProxies = new int[16];
+
+        pairsA = new int[16];
+        pairsB = new int[16];
+
+        clear();
+    }
+
+    private void allocateProxies(int capacity)
+    {
+        Entity2D[] oldEntities = entities;
+        float[] oldBounds = bounds;
+        int[] oldPairCounts = pairCounts;
+        int[] oldNextFree = nextFree;
+
+        entities = new Entity2D[capacity];
+        bounds = new float[capacity * BOUNDS_STRIDE];
+        pairCounts = new int[capacity];
+        nextFree = new int[capacity];
+
+        int oldCapacity = 0;
+
+        if (oldEntities != null)
+        {
+            oldCapacity = proxyCapacity;
+
+            System.arraycopy(oldEntities, 0, entities, 0, oldCapacity);
+            System.arraycopy(oldBounds, 0, bounds, 0, oldCapacity * BOUNDS_STRIDE);
+            System.arraycopy(oldPairCounts, 0, pairCounts, 0, oldCapacity);
+            System.arraycopy(oldNextFree, 0, nextFree, 0, oldCapacity);
+        }
+
+        proxyCapacity = capacity;
+
+        for (int i = oldCapacity; i < capacity - 1; i++)
+            nextFree[i] = i + 1;
+
+        nextFree[capacity - 1] = NULL_PROXY;
+        freeList = oldCapacity;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            entities[i] = null;
+            pairCounts[i] = 0;
+            nextFree[i] = i + 1;
+        }
+
+        nextFree[proxyCapacity - 1] = NULL_PROXY;
+        freeList = 0;
+
+        proxyMap.clear();
+        pairMap.clear();
+
+        endPointCount = 0;
+        removedCount = 0;
+        pairCount = 0;
+
+        dirty = false;
+    }
+
+    @Override
+    public void insert(Entity2D e)
+    {
+        if (proxyMap.containsKey(e.getID()))
+            remove(e);
+
+        if (freeList == NULL_PROXY)
+            allocateProxies(proxyCapacity * 2);
+
+        int proxy = freeList;
+        freeList = nextFree[proxy];
+
+        entities[proxy] = e;
+        pairCounts[proxy] = 0;
+        setBounds(proxy, e);
+
+        proxyMap.put(e.getID(), proxy);
+
+        if (endPointCount + 2 > values[0].length)
+            growEndPoints();
+
+        // The new end points are appended, the next sort moves them into place
+        for (int axis = 0; axis < 2; axis++)
+        {
+            endPoints[axis][endPointCount] = proxy << 1;
+            endPoints[axis][endPointCount + 1] = (proxy << 1) | 1;
+        }
+
+        endPointCount += 2;
+        dirty = true;
+    }
+
+    @Override
+    public void remove(Entity2D e)
+    {
+        int proxy = proxyMap.remove(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+            return;
+
+        // Move the proxy to the end of the axes, the next sort removes its pairs
+        entities[proxy] = null;
+
+        int i = proxy * BOUNDS_STRIDE;
+
+        bounds[i] = bounds[i + 1] = bounds[i + 2] = bounds[i + 3] = Float.MAX_VALUE;
+
+        if (removedCount == removedProxies.length)
+        {
+            int[] newRemoved = new int[removedCount * 2];
+            System.arraycopy(removedProxies, 0, newRemoved, 0, removedCount);
+            removedProxies = newRemoved;
+        }
+
+        removedProxies[removedCount++] = proxy;
+        dirty = true;
+    }
+
+    @Override
+    public void update(Entity2D e)
+    {
+        int proxy = proxyMap.get(e.getID(), NULL_PROXY);
+
+        if (proxy == NULL_PROXY)
+        {
+            insert(e);
+            return;
+        }
+
+        setBounds(proxy, e);
+        dirty = true;
+    }
+
+    private void setBounds(int proxy, Entity2D e)
+    {
+        Rectangle rect = e.getPolygon().getBounds();
+
+        int i = proxy * BOUNDS_STRIDE;
+
+        bounds[i] = rect.getX();
+        bounds[i + 1] = rect.getY();
+        bounds[i + 2] = rect.getX() + rect.getWidth();
+        bounds[i + 3] = rect.getY() + rect.getHeight();
+    }
+
+    private void growEndPoints()
+    {
+        for (int axis = 0; axis < 2; axis++)
+        {
+            float[] newValues = new float[values[axis].length * 2];
+            int[] newEndPoints = new int[endPoints[axis].length * 2];
+
+            System.arraycopy(values[axis], 0, newValues, 0, endPointCount);
+            System.arraycopy(endPoints[axis], 0, newEndPoints, 0, endPointCount);
+
+            values[axis] = newValues;
+            endPoints[axis] = newEndPoints;
+        }
+    }
+
+    /**
+     * Sorts the end points on both the axes and updates the overlapping pairs.
+     * This is done automatically before the pairs or the entities are queried.
+     */
+    public void sort()
+    {
+        if (!dirty)
+            return;
+
+        sortAxis(0);
+        sortAxis(1);
+
+        if (removedCount > 0)
+            dropRemovedProxies();
+
+        dirty = false;
+    }
+
+    private void sortAxis(int axis)
+    {
+        float[] axisValues = values[axis];
+        int[] axisEndPoints = endPoints[axis];
+
+        // Refresh the values from the bounds of the proxies
+        for (int i = 0; i < endPointCount; i++)
+            axisValues[i] = getValue(axisEndPoints[i], axis);
+
+        for (int i = 1; i < endPointCount; i++)
+        {
+            float value = axisValues[i];
+            int endPoint = axisEndPoints[i];
+
+            int j = i - 1;
+
+            while (j >= 0 && isLess(value, endPoint, axisValues[j], axisEndPoints[j]))
+            {
+                swapped(endPoint, axisEndPoints[j]);
+
+                axisValues[j + 1] = axisValues[j];
+                axisEndPoints[j + 1] = axisEndPoints[j];
+                j--;
+            }
+
+            axisValues[j + 1] = value;
+            axisEndPoints[j + 1] = endPoint;
+        }
+    }
+
+    private float getValue(int endPoint, int axis)
+    {
+        int i = (endPoint >> 1) * BOUNDS_STRIDE + axis;
+
+        return isMax(endPoint) ? bounds[i + 2] : bounds[i];
+    }
+
+    // When the values are equal, the min end points come first, so touching bounds overlap
+    private static boolean isLess(float value1, int endPoint1, float value2, int endPoint2)
+    {
+        return value1 < value2 || (value1 == value2 && !isMax(endPoint1) && isMax(endPoint2));
+    }
+
+    private static boolean isMax(int endPoint)
+    {
+        return (endPoint & 1) == 1;
+    }
+
+    // Called when the moving end point passes the other end point, moving left
+    private void swapped(int moving, int other)
+    {
+        int proxyA = moving >> 1;
+        int proxyB = other >> 1;
+
+        if (proxyA == proxyB)
+            return;
+
+        if (!isMax(moving) && isMax(other))
+        {
+            // A min passed a max, the proxies may have started overlapping
+            if (entities[proxyA] != null && entities[proxyB] != null && overlaps(proxyA, proxyB))
+                addPair(proxyA, proxyB);
+        }
+        else if (isMax(moving) && !isMax(other))
+        {
+            // A max passed a min, the proxies are separated on this axis
+            removePair(proxyA, proxyB);
+        }
+    }
+
+    private boolean overlaps(int proxyA, int proxyB)
+    {
+        int i = proxyA * BOUNDS_STRIDE;
+        int j = proxyB * BOUNDS_STRIDE;
+
+        return bounds[i] <= bounds[j + 2] && bounds[j] <= bounds[i + 2] &&
+               bounds[i + 1] <= bounds[j + 3] && bounds[j + 1] <= bounds[i + 3];
+    }
+
+    private static long getPairKey(int proxyA, int proxyB)
+    {
+        int min = Math.min(proxyA, proxyB);
+        int max = Math.max(proxyA, proxyB);
+
+        return ((long) min << 32) | max;
+    }
+
+    private void addPair(int proxyA, int proxyB)
+    {
+        long key = getPairKey(proxyA, proxyB);
+
+        if (pairMap.containsKey(key))
+            return;
+
+        if (pairCount == pairsA.length)
+        {
+            int[] newPairsA = new int[pairCount * 2];
+            int[] newPairsB = new int[pairCount * 2];
+
+            System.arraycopy(pairsA, 0, newPairsA, 0, pairCount);
+            System.arraycopy(pairsB, 0, newPairsB, 0, pairCount);
+
+            pairsA = newPairsA;
+            pairsB = newPairsB;
+        }
+
+        pairsA[pairCount] = proxyA;
+        pairsB[pairCount] = proxyB;
+        pairMap.put(key, pairCount);
+        pairCount++;
+
+        pairCounts[proxyA]++;
+        pairCounts[proxyB]++;
+    }
+
+    private void removePair(int proxyA, int proxyB)
+    {
+        int index = pairMap.remove(getPairKey(proxyA, proxyB), -1);
+
+        if (index == -1)
+            return;
+
+        pairCount--;
+
+        // Fill the hole with the last pair
+        if (index != pairCount)
+        {
+            pairsA[index] = pairsA[pairCount];
+            pairsB[index] = pairsB[pairCount];
+            pairMap.put(getPairKey(pairsA[index], pairsB[index]), index);
+        }
+
+        pairCounts[proxyA]--;
+        pairCounts[proxyB]--;
+    }
+
+    private void dropRemovedProxies()
+    {
+        // The end points of the removed proxies have been sorted to the end of the axes
+        endPointCount -= 2 * removedCount;
+
+        for (int i = 0; i < removedCount; i++)
+        {
+            int proxy = removedProxies[i];
+
+            // Two removed proxies touch at infinity, and are never separated by a swap
+            if (pairCounts[proxy] > 0)
+                removeAllPairs(proxy);
+
+            nextFree[proxy] = freeList;
+            freeList = proxy;
+        }
+
+        removedCount = 0;
+    }
+
+    private void removeAllPairs(int proxy)
+    {
+        for (int i = pairCount - 1; i >= 0; i--)
+        {
+            if (pairsA[i] == proxy || pairsB[i] == proxy)
+                removePair(pairsA[i], pairsB[i]);
+        }
+    }
+
+    /**
+     * @return The number of overlapping pairs after the last sort
+     */
+    public int getPairCount()
+    {
+        sort();
+        return pairCount;
+    }
+
+    @Override
+    public void forEachOverlappingPair(PairCallback callback)
+    {
+        sort();
+
+        for (int i = 0; i < pairCount; i++)
+            callback.invoke(entities[pairsA[i]], entities[pairsB[i]]);
+    }
+
+    @Override
+    public List<Entity2D> retrieve(Rectangle rect)
+    {
+        sort();
+
+        retrieveList.clear();
+
+        float minX = rect.getX();
+        float minY = rect.getY();
+        float maxX = minX + rect.getWidth();
+        float maxY = minY + rect.getHeight();
+
+        float[] xValues = values[0];
+        int[] xEndPoints = endPoints[0];
+
+        // Every proxy starting after the rectangle ends on the x-axis can't overlap it
+        for (int i = 0; i < endPointCount && xValues[i] <= maxX; i++)
+        {
+            int endPoint = xEndPoints[i];
+
+            if (isMax(endPoint))
+                continue;
+
+            int proxy = endPoint >> 1;
+            int j = proxy * BOUNDS_STRIDE;
+
+            if (bounds[j + 2] >= minX && bounds[j + 1] <= maxY && bounds[j + 3] >= minY)
+                retrieveList.add(entities[proxy]);
+        }
+
+        return retrieveList;
+    }
+
+    @Override
+    public int nearest(Vector2 center, int k, Entity2D[] out, float[] distances)
+    {
+        int count = 0;
+
+        // The proxies are not ordered in space, so all of them are visited
+        for (int i = 0; i < proxyCapacity; i++)
+        {
+            if (entities[i] != null)
+                count = NearestBuffer.insert(out, distances, count, k, entities[i], NearestBuffer.getDistance(entities[i], center));
+        }
+
+        return count;
+    }
+}
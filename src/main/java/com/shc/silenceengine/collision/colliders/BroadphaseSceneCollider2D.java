@@ -0,0 +1,988 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.Collision2D;
+import com.shc.silenceengine.collision.broadphase.IBroadphaseResolver2D;
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.scene.Scene;
+import com.shc.silenceengine.scene.SceneNode;
+import com.shc.silenceengine.utils.IntIntMap;
+import com.shc.silenceengine.utils.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The base class of the SceneCollider2Ds that use an IBroadphaseResolver2D to
+ * find the potentially colliding pairs of entities. Every pair reported by the
+ * resolver is tested only once in the narrow phase, and the collision is then
+ * notified to the entities that registered for it.
+ * <p>
+ * The narrow phase can optionally be run in parallel on a ForkJoinPool. The
+ * collision callbacks are still invoked on the game thread, in the order in
+ * which the pairs were reported by the resolver.
+ * <p>
+ * The entities that enabled continuous collision detection are swept after
+ * the pairs are tested. The entities found along the motion of such an entity
+ * that don't overlap it at the end of the frame are notified with the time of
+ * impact. The other entities are looked up at their positions at the end of
+ * the frame, so two fast entities that cross each other far away from both of
+ * their final positions can be missed.
+ * <p>
+ * The collider keeps a contact for every pair reported by the resolver, so
+ * that the entities are notified when they start touching, keep touching
+ * and stop touching each other. A pair whose entities have neither moved
+ * nor rotated since the last frame is not tested again, and the result of
+ * the last frame is reused.
+ * <p>
+ * The static entities and the entities at rest are kept in a separate static
+ * resolver, and are never tested against each other. An entity that has not
+ * moved for a number of frames is put to sleep, and is moved to the static
+ * resolver until it moves again or a moving entity touches it. Only the
+ * entities that are awake are visited in every frame, so the cost of a
+ * frame grows with the number of moving entities. The sleeping entities are
+ * not notified of the contacts they keep while sleeping.
+ * <p>
+ * The collider listens to the changes in the scene, and the entities that
+ * are added to or removed from the scene, at any depth, are inserted into
+ * or removed from the resolvers before the next check. The contacts of a
+ * removed entity end with an exit event.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public abstract class BroadphaseSceneCollider2D implements SceneCollider2D
+{
+    // The flags of a collected pair, and of a contact
+    private static final byte A_COLLIDES_B = 1;
+    private static final byte B_COLLIDES_A = 2;
+    private static final byte INTERSECTS   = 4;
+    private static final byte CACHED       = 8;
+
+    // The frame of a contact that was never tested
+    private static final int NEVER = Integer.MIN_VALUE;
+
+    // The number of pairs below which a task is not split any further
+    private static final int PAIRS_PER_TASK = 64;
+
+    // The Scene, the resolver of the moving entities, and the resolver of the static and sleeping entities
+    private Scene                 scene;
+    private IBroadphaseResolver2D resolver;
+    private IBroadphaseResolver2D staticResolver;
+
+    // The entities that are awake, and the entities that woke up since the last check
+    private List<Entity2D> awakeEntities;
+    private List<Entity2D> wokenEntities;
+
+    // The number of frames that an entity has to be at rest to be put to sleep
+    private int sleepFrames;
+
+    // The entities added to and removed from the scene since the last check, in order
+    private List<Entity2D> changedEntities;
+
+    // The callbacks that listen to the changes in the scene
+    private SceneNode.IChildAddedCallback   childAddedCallback;
+    private SceneNode.IChildRemovedCallback childRemovedCallback;
+
+    // The list of entities
+    private List<Entity2D> entities;
+
+    // The filter table, the registered types are compiled into a layer bit for every type
+    // that is collided with, and a mask for every type that collides with other types
+    private Map<Class<? extends Entity2D>, Integer> typeLayers;
+    private Map<Class<? extends Entity2D>, Integer> typeMasks;
+    private int                                    nextTypeLayer;
+    private boolean                                filtersDirty;
+
+    // The layers and masks of the entities, resolved when they are added. Indexed like the entities
+    private IntIntMap filterIndices;
+    private int[]     entityLayers;
+    private int[]     entityMasks;
+
+    // The positions and rotations of the entities in the last frame, and whether they changed
+    private float[]   lastPositions;
+    private float[]   lastRotations;
+    private boolean[] moved;
+    private int[]     restFrames;
+    private boolean[] awake;
+
+    // The contacts of the pairs reported by the resolver, stored densely. The map is keyed by
+    // the IDs of both the entities, and holds the index of the contact of every pair
+    private LongIntMap contactMap;
+    private long[]     contactKeys;
+    private Entity2D[] contactsA;
+    private Entity2D[] contactsB;
+    private int[]      contactFrames;
+    private byte[]     contactFlags;
+    private int        contactCount;
+
+    // The current frame, the contacts that are not reported in a frame are removed
+    private int frame;
+
+    // The callback that tests the pairs reported by the resolver
+    private IBroadphaseResolver2D.PairCallback pairCallback;
+
+    // The pool used for the parallel narrow phase, null when running serially
+    private ForkJoinPool pool;
+
+    // The pairs collected for the parallel narrow phase, and their flags
+    private Entity2D[] pairsA;
+    private Entity2D[] pairsB;
+    private byte[]     pairFlags;
+    private int[]      pairContacts;
+    private int        pairCount;
+
+    // The callback that collects the pairs reported by the resolver
+    private IBroadphaseResolver2D.PairCallback collectCallback;
+
+    // The pairs swept in this frame, keyed by the IDs of both the entities
+    private LongIntMap sweptPairs;
+
+    // The motions of the entities of a swept pair in this frame
+    private Vector2 motionA;
+    private Vector2 motionB;
+
+    // The bounds that cover a swept entity at both the ends of its motion
+    private Rectangle sweptBounds;
+
+    /**
+     * Constructs a BroadphaseSceneCollider2D that uses two resolvers to find the pairs
+     *
+     * @param resolver       The broadphase resolver of the moving entities
+     * @param staticResolver The broadphase resolver of the static and the sleeping entities
+     */
+    protected BroadphaseSceneCollider2D(IBroadphaseResolver2D resolver, IBroadphaseResolver2D staticResolver)
+    {
+        this.resolver = resolver;
+        this.staticResolver = staticResolver;
+
+        entities = new ArrayList<>();
+        awakeEntities = new ArrayList<>();
+        wokenEntities = new ArrayList<>();
+        sleepFrames = 60;
+
+        changedEntities = new ArrayList<>();
+        childAddedCallback = this::onSceneChanged;
+        childRemovedCallback = this::onSceneChanged;
+
+        typeLayers = new HashMap<>();
+        typeMasks = new HashMap<>();
+        nextTypeLayer = 31;
+
+        filterIndices = new IntIntMap();
+        entityLayers = new int[64];
+        entityMasks = new int[64];
+
+        lastPositions = new float[64 * 2];
+        lastRotations = new float[64 * 1];
+        moved = new boolean[64];
+        restFrames = new int[64];
+        awake = new boolean[64];
+
+        contactMap = new LongIntMap();
+        contactKeys = new long[64];
+        contactsA = new Entity2D[64];
+        contactsB = new Entity2D[64];
+        contactFrames = new int[64];
+        contactFlags = new byte[64];
+
+        pairCallback = this::checkPair;
+        collectCallback = this::collectPair;
+
+        pairsA = new Entity2D[64];
+        pairsB = new Entity2D[64];
+        pairFlags = new byte[64];
+        pairContacts = new int[64];
+
+        sweptPairs = new LongIntMap();
+        motionA = new Vector2();
+        motionB = new Vector2();
+        sweptBounds = new Rectangle(0, 0, 0, 0);
+    }
+
+    @Override
+    public void setScene(Scene scene)
+    {
+        if (this.scene != null)
+        {
+            this.scene.removeChildAddedCallback(childAddedCallback);
+            this.scene.removeChildRemovedCallback(childRemovedCallback);
+
+            // Remove the entities of the old scene, so that their contacts end
+            for (int i = entities.size() - 1; i >= 0; i--)
+                removeEntity(entities.get(i));
+        }
+
+        this.scene = scene;
+        changedEntities.clear();
+
+        if (scene != null)
+        {
+            scene.addChildAddedCallback(childAddedCallback);
+            scene.addChildRemovedCallback(childRemovedCallback);
+
+            addEntities(scene);
+        }
+    }
+
+    // Adds the entities in the tree below a node
+    private void addEntities(SceneNode node)
+    {
+        for (SceneNode child : node.getChildren())
+        {
+            if (child instanceof Entity2D)
+                changedEntities.add((Entity2D) child);
+
+            addEntities(child);
+        }
+    }
+
+    // The scene notifies the entities that are added and removed, and they are processed in the next check
+    private void onSceneChanged(SceneNode child)
+    {
+        if (child instanceof Entity2D)
+            changedEntities.add((Entity2D) child);
+    }
+
+    @Override
+    public Scene getScene()
+    {
+        return scene;
+    }
+
+    /**
+     * Registers collisions between two types. The types are compiled into the filter
+     * table of this collider, where every type that is collided with gets a layer bit,
+     * starting from the highest bit, and the types that collide with it get that bit
+     * in their mask. The bits are combined with the collision layers and masks of the
+     * entities, so the lower bits are best left to the layers set on the entities.
+     *
+     * @param type1 The type of the entities that are notified of the collisions
+     * @param type2 The type of the entities that they collide with
+     */
+    @Override
+    public void register(Class<? extends Entity2D> type1, Class<? extends Entity2D> type2)
+    {
+        Integer layer = typeLayers.get(type2);
+
+        if (layer == null)
+        {
+            if (nextTypeLayer < 0)
+                throw new SilenceException("Cannot register more than 32 types to collide with!");
+
+            layer = 1 << nextTypeLayer--;
+            typeLayers.put(type2, layer);
+        }
+
+        typeMasks.put(type1, typeMasks.getOrDefault(type1, 0) | layer);
+        filtersDirty = true;
+    }
+
+    @Override
+    public void checkCollisions()
+    {
+        frame++;
+
+        // Insert the entities added to the scene, and remove the entities that left it
+        for (int i = 0; i < changedEntities.size(); i++)
+        {
+            Entity2D entity = changedEntities.get(i);
+
+            boolean inScene = isInScene(entity);
+            boolean added = filterIndices.containsKey(entity.getID());
+
+            if (inScene && !added)
+                addEntity(entity);
+            else if (!inScene && added)
+                removeEntity(entity);
+        }
+
+        changedEntities.clear();
+
+        // Resolve the filters of all the entities again if types were registered since they were added
+        if (filtersDirty)
+        {
+            for (int i = 0; i < entities.size(); i++)
+                resolveFilter(entities.get(i), i);
+
+            filtersDirty = false;
+        }
+
+        // Move the entities that woke up back to the resolver of the moving entities
+        for (int i = 0; i < wokenEntities.size(); i++)
+        {
+            Entity2D entity = wokenEntities.get(i);
+            int filter = filterIndices.get(entity.getID(), -1);
+
+            if (filter == -1 || awake[filter] || entity.isSleeping())
+                continue;
+
+            staticResolver.remove(entity);
+            resolver.insert(entity);
+            awakeEntities.add(entity);
+
+            restFrames[filter] = 0;
+            awake[filter] = true;
+        }
+
+        wokenEntities.clear();
+
+        // Find the entities that moved, and update them in the resolver
+        for (int i = 0; i < awakeEntities.size(); i++)
+        {
+            Entity2D entity = awakeEntities.get(i);
+            int filter = filterIndices.get(entity.getID(), 0);
+
+            updateMoved(entity, filter);
+
+            // Moved entities are updated in the resolver, even if they were repositioned without a velocity
+            if (moved[filter])
+                resolver.update(entity);
+
+            if (moved[filter] || entity.isStatic())
+                restFrames[filter] = 0;
+
+            // Put the entity to sleep once it has been at rest for long enough
+            else if (sleepFrames > 0 && ++restFrames[filter] >= sleepFrames)
+            {
+                resolver.remove(entity);
+                staticResolver.insert(entity);
+                entity.sleep(this);
+                awake[filter] = false;
+
+                // Fill the hole with the last awake entity, and visit it next
+                int last = awakeEntities.size() - 1;
+                awakeEntities.set(i, awakeEntities.get(last));
+                awakeEntities.remove(last);
+                i--;
+            }
+        }
+
+        // Test every potentially colliding pair once
+        if (pool == null)
+            forEachPair(pairCallback);
+        else
+            checkPairsInParallel();
+
+        removeStaleContacts();
+
+        // Sweep the entities that can move too fast to be caught by the tests above
+        sweptPairs.clear();
+
+        for (int i = 0; i < awakeEntities.size(); i++)
+        {
+            Entity2D entity = awakeEntities.get(i);
+
+            if (entity.isContinuousCollision())
+                sweep(entity);
+        }
+    }
+
+    // Returns true if the entity is in the tree below the scene, and is not destroyed
+    private boolean isInScene(Entity2D entity)
+    {
+        if (entity.isDestroyed())
+            return false;
+
+        SceneNode node = entity.getParent();
+
+        while (node != null && node != scene)
+            node = node.getParent();
+
+        return node != null;
+    }
+
+    private void addEntity(Entity2D entity)
+    {
+        addFilter(entity);
+        entities.add(entity);
+
+        if (entity.isStatic() || entity.isSleeping())
+            staticResolver.insert(entity);
+        else
+        {
+            resolver.insert(entity);
+            awakeEntities.add(entity);
+            awake[filterIndices.get(entity.getID(), 0)] = true;
+        }
+    }
+
+    // Removes an entity and its filter. Its contacts are removed with the stale contacts
+    private void removeEntity(Entity2D entity)
+    {
+        int index = filterIndices.get(entity.getID(), 0);
+
+        if (awake[index])
+        {
+            resolver.remove(entity);
+
+            int i = awakeEntities.lastIndexOf(entity);
+            int last = awakeEntities.size() - 1;
+
+            awakeEntities.set(i, awakeEntities.get(last));
+            awakeEntities.remove(last);
+        }
+        else
+            staticResolver.remove(entity);
+
+        removeFilter(entity);
+
+        // A sleeping entity is woken up, since it is no longer watched by this collider
+        entity.wake();
+    }
+
+    @Override
+    public void wake(Entity2D entity)
+    {
+        wokenEntities.add(entity);
+    }
+
+    // Reports the pairs of the moving entities, and the pairs of the moving entities with the others
+    private void forEachPair(IBroadphaseResolver2D.PairCallback callback)
+    {
+        resolver.forEachOverlappingPair(callback);
+
+        for (int i = 0; i < awakeEntities.size(); i++)
+        {
+            Entity2D entity = awakeEntities.get(i);
+            List<Entity2D> candidates = staticResolver.retrieve(entity);
+
+            for (int j = 0; j < candidates.size(); j++)
+                callback.invoke(entity, candidates.get(j));
+        }
+    }
+
+    private void checkPairsInParallel()
+    {
+        pairCount = 0;
+        forEachPair(collectCallback);
+
+        if (pairCount > 0)
+            pool.invoke(new NarrowPhaseTask(0, pairCount));
+
+        // Deliver the collisions on this thread, in the order of the pairs
+        for (int i = 0; i < pairCount; i++)
+        {
+            updateContact(pairContacts[i], (pairFlags[i] & INTERSECTS) != 0);
+
+            pairsA[i] = null;
+            pairsB[i] = null;
+        }
+    }
+
+    private void sweep(Entity2D entity)
+    {
+        Vector2 position = entity.getPosition();
+        Vector2 previous = entity.getPreviousPosition();
+
+        motionA.set(position.x - previous.x, position.y - previous.y);
+
+        if (motionA.x == 0 && motionA.y == 0)
+            return;
+
+        // The bounds that cover the entity at both the ends of its motion
+        Rectangle current = entity.getBounds();
+
+        sweptBounds.set(current.getX() - Math.max(motionA.x, 0),
+                current.getY() - Math.max(motionA.y, 0),
+                current.getWidth() + Math.abs(motionA.x),
+                current.getHeight() + Math.abs(motionA.y));
+
+        int entityFilter = filterIndices.get(entity.getID(), 0);
+
+        sweep(entity, entityFilter, resolver.retrieve(sweptBounds));
+        sweep(entity, entityFilter, staticResolver.retrieve(sweptBounds));
+    }
+
+    private void sweep(Entity2D entity, int entityFilter, List<Entity2D> candidates)
+    {
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            Entity2D other = candidates.get(i);
+
+            if (other == entity)
+                continue;
+
+            int filter = filterIndices.get(other.getID(), 0);
+
+            boolean aCollidesB = (entityMasks[entityFilter] & entityLayers[filter]) != 0;
+            boolean bCollidesA = (entityMasks[filter] & entityLayers[entityFilter]) != 0;
+
+            if (!aCollidesB && !bCollidesA)
+                continue;
+
+            // Sweep a pair only once, even if both the entities are swept
+            int minID = Math.min(entity.getID(), other.getID());
+            int maxID = Math.max(entity.getID(), other.getID());
+            long key = ((long) minID << 32) | (maxID & 0xFFFFFFFFL);
+
+            if (sweptPairs.containsKey(key))
+                continue;
+
+            sweptPairs.put(key, 1);
+
+            // Overlapping entities were already tested with the pairs of the resolver
+            if (entity.getPolygon().intersects(other.getPolygon()))
+                continue;
+
+            Vector2 position = other.getPosition();
+            Vector2 previous = other.getPreviousPosition();
+
+            motionB.set(position.x - previous.x, position.y - previous.y);
+
+            float timeOfImpact = Collision2D.getTimeOfImpact(entity.getPolygon(), motionA, other.getPolygon(), motionB);
+
+            if (timeOfImpact < 0)
+                continue;
+
+            if (aCollidesB)
+                entity.collision(other, timeOfImpact);
+
+            if (bCollidesA)
+                other.collision(entity, timeOfImpact);
+        }
+    }
+
+    private void checkPair(Entity2D a, Entity2D b)
+    {
+        int i = filterIndices.get(a.getID(), 0);
+        int j = filterIndices.get(b.getID(), 0);
+
+        if ((entityMasks[i] & entityLayers[j]) == 0 && (entityMasks[j] & entityLayers[i]) == 0)
+            return;
+
+        int contact = getContact(a, b);
+
+        // Reuse the result of the last frame if the entities are where they were
+        boolean intersects = isCached(contact, i, j) ? (contactFlags[contact] & INTERSECTS) != 0
+                                                     : a.getPolygon().intersects(b.getPolygon());
+
+        updateContact(contact, intersects);
+    }
+
+    private void collectPair(Entity2D a, Entity2D b)
+    {
+        int i = filterIndices.get(a.getID(), 0);
+        int j = filterIndices.get(b.getID(), 0);
+
+        if ((entityMasks[i] & entityLayers[j]) == 0 && (entityMasks[j] & entityLayers[i]) == 0)
+            return;
+
+        int contact = getContact(a, b);
+        int flags = 0;
+
+        // The narrow phase skips the pairs whose result of the last frame can be reused
+        if (isCached(contact, i, j))
+            flags = CACHED | (contactFlags[contact] & INTERSECTS);
+
+        if (pairCount == pairFlags.length)
+        {
+            int capacity = pairCount * 2;
+
+            Entity2D[] newPairsA = new Entity2D[capacity];
+            Entity2D[] newPairsB = new Entity2D[capacity];
+            byte[] newPairFlags = new byte[capacity];
+            int[] newPairContacts = new int[capacity];
+
+            System.arraycopy(pairsA, 0, newPairsA, 0, pairCount);
+            System.arraycopy(pairsB, 0, newPairsB, 0, pairCount);
+            System.arraycopy(pairFlags, 0, newPairFlags, 0, pairCount);
+            System.arraycopy(pairContacts, 0, newPairContacts, 0, pairCount);
+
+            pairsA = newPairsA;
+            pairsB = newPairsB;
+            pairFlags = newPairFlags;
+            pairContacts = newPairContacts;
+        }
+
+        pairsA[pairCount] = a;
+        pairsB[pairCount] = b;
+        pairFlags[pairCount] = (byte) flags;
+        pairContacts[pairCount] = contact;
+
+        pairCount++;
+    }
+
+    // Returns the contact of a pair, creating it if the pair is new
+    private int getContact(Entity2D a, Entity2D b)
+    {
+        // The resolver reports the entities in any order, the contact keeps them in the order of their IDs
+        if (a.getID() > b.getID())
+        {
+            Entity2D swap = a;
+            a = b;
+            b = swap;
+        }
+
+        long key = ((long) a.getID() << 32) | (b.getID() & 0xFFFFFFFFL);
+        int contact = contactMap.get(key, -1);
+
+        if (contact != -1)
+            return contact;
+
+        if (contactCount == contactKeys.length)
+        {
+            int capacity = contactCount * 2;
+
+            long[] newKeys = new long[capacity];
+            Entity2D[] newContactsA = new Entity2D[capacity];
+            Entity2D[] newContactsB = new Entity2D[capacity];
+            int[] newFrames = new int[capacity];
+            byte[] newFlags = new byte[capacity];
+
+            System.arraycopy(contactKeys, 0, newKeys, 0, contactCount);
+            System.arraycopy(contactsA, 0, newContactsA, 0, contactCount);
+            System.arraycopy(contactsB, 0, newContactsB, 0, contactCount);
+            System.arraycopy(contactFrames, 0, newFrames, 0, contactCount);
+            System.arraycopy(contactFlags, 0, newFlags, 0, contactCount);
+
+            contactKeys = newKeys;
+            contactsA = newContactsA;
+            contactsB = newContactsB;
+            contactFrames = newFrames;
+            contactFlags = newFlags;
+        }
+
+        contact = contactCount++;
+
+        contactKeys[contact] = key;
+        contactsA[contact] = a;
+        contactsB[contact] = b;
+        contactFrames[contact] = NEVER;
+        contactFlags[contact] = 0;
+
+        contactMap.put(key, contact);
+
+        return contact;
+    }
+
+    // Checks whether the pair was tested in the last frame, and none of the entities moved since then
+    private boolean isCached(int contact, int filterA, int filterB)
+    {
+        return contactFrames[contact] == frame - 1 && !moved[filterA] && !moved[filterB];
+    }
+
+    // Stores the result of the narrow phase in the contact, and notifies the entities
+    private void updateContact(int contact, boolean intersects)
+    {
+        Entity2D a = contactsA[contact];
+        Entity2D b = contactsB[contact];
+
+        int i = filterIndices.get(a.getID(), 0);
+        int j = filterIndices.get(b.getID(), 0);
+
+        int flags = 0;
+
+        if ((entityMasks[i] & entityLayers[j]) != 0) flags |= A_COLLIDES_B;
+        if ((entityMasks[j] & entityLayers[i]) != 0) flags |= B_COLLIDES_A;
+
+        boolean touching = (contactFlags[contact] & INTERSECTS) != 0;
+
+        contactFrames[contact] = frame;
+
+        if (intersects)
+        {
+            contactFlags[contact] = (byte) (flags | INTERSECTS);
+
+            // A sleeping entity is woken up when a moving entity touches it
+            if (a.isSleeping() && moved[j]) a.wake();
+            if (b.isSleeping() && moved[i]) b.wake();
+
+            if ((flags & A_COLLIDES_B) != 0)
+            {
+                if (touching)
+                    a.onCollisionStay(b);
+                else
+                    a.onCollisionEnter(b);
+
+                a.collision(b);
+            }
+
+            if ((flags & B_COLLIDES_A) != 0)
+            {
+                if (touching)
+                    b.onCollisionStay(a);
+                else
+                    b.onCollisionEnter(a);
+
+                b.collision(a);
+            }
+        }
+        else
+        {
+            contactFlags[contact] = (byte) flags;
+
+            if (touching)
+                notifyExit(contact, flags);
+        }
+    }
+
+    private void notifyExit(int contact, int flags)
+    {
+        if ((flags & A_COLLIDES_B) != 0)
+            contactsA[contact].onCollisionExit(contactsB[contact]);
+
+        if ((flags & B_COLLIDES_A) != 0)
+            contactsB[contact].onCollisionExit(contactsA[contact]);
+    }
+
+    // Removes the contacts of the pairs that were not reported in this frame, the entities are apart now
+    private void removeStaleContacts()
+    {
+        for (int contact = contactCount - 1; contact >= 0; contact--)
+        {
+            if (contactFrames[contact] == frame)
+                continue;
+
+            // The pairs of the entities in the static resolver are not tested, so their contacts are kept
+            if (isInactive(contactsA[contact]) && isInactive(contactsB[contact]))
+                continue;
+
+            byte flags = contactFlags[contact];
+
+            if ((flags & INTERSECTS) != 0)
+                notifyExit(contact, flags);
+
+            contactMap.remove(contactKeys[contact], -1);
+
+            // Fill the hole with the last contact
+            int last = --contactCount;
+
+            if (contact != last)
+            {
+                contactKeys[contact] = contactKeys[last];
+                contactsA[contact] = contactsA[last];
+                contactsB[contact] = contactsB[last];
+                contactFrames[contact] = contactFrames[last];
+                contactFlags[contact] = contactFlags[last];
+
+                contactMap.put(contactKeys[contact], contact);
+            }
+
+            contactsA[last] = null;
+            contactsB[last] = null;
+        }
+    }
+
+    // Remembers the position and rotation of an entity, and whether they changed since the last frame
+    private void updateMoved(Entity2D entity, int index)
+    {
+        Vector2 position = entity.getPosition();
+        float rotation = entity.getRotation();
+
+        int p = index * 2;
+
+        moved[index] = lastPositions[p] != position.x || lastPositions[p + 1] != position.y ||
+                       lastRotations[index] != rotation;
+
+        lastPositions[p] = position.x;
+        lastPositions[p + 1] = position.y;
+        lastRotations[index] = rotation;
+    }
+
+    // Returns true if the entity is still in the scene, and is kept in the static resolver
+    private boolean isInactive(Entity2D entity)
+    {
+        int filter = filterIndices.get(entity.getID(), -1);
+        return filter != -1 && !awake[filter];
+    }
+
+    // Adds the filter of an entity that is added to the end of the entities
+    private void addFilter(Entity2D entity)
+    {
+        int index = entities.size();
+
+        if (index == entityLayers.length)
+        {
+            int[] newLayers = new int[index * 2];
+            int[] newMasks = new int[index * 2];
+
+            System.arraycopy(entityLayers, 0, newLayers, 0, index);
+            System.arraycopy(entityMasks, 0, newMasks, 0, index);
+
+            entityLayers = newLayers;
+            entityMasks = newMasks;
+
+            float[] newPositions = new float[index * 2 * 2];
+            float[] newRotations = new float[index * 2 * 1];
+            boolean[] newMoved = new boolean[index * 2];
+
+            System.arraycopy(lastPositions, 0, newPositions, 0, index * 2);
+            System.arraycopy(lastRotations, 0, newRotations, 0, index * 1);
+            System.arraycopy(moved, 0, newMoved, 0, index);
+
+            lastPositions = newPositions;
+            lastRotations = newRotations;
+            moved = newMoved;
+
+            int[] newRestFrames = new int[index * 2];
+            System.arraycopy(restFrames, 0, newRestFrames, 0, index);
+            restFrames = newRestFrames;
+
+            boolean[] newAwake = new boolean[index * 2];
+            System.arraycopy(awake, 0, newAwake, 0, index);
+            awake = newAwake;
+        }
+
+        filterIndices.put(entity.getID(), index);
+        resolveFilter(entity, index);
+
+        restFrames[index] = 0;
+        awake[index] = false;
+
+        // The entity has no last transform at this index yet, so it is treated as moved. The
+        // index can be reused from a removed entity, so nothing of that entity is kept
+        moved[index] = true;
+        lastRotations[index] = Float.NaN;
+
+        for (int i = index * 2; i < (index + 1) * 2; i++)
+            lastPositions[i] = Float.NaN;
+    }
+
+    // Removes the filter of an entity, and fills the hole with the filter of the last entity
+    private void removeFilter(Entity2D entity)
+    {
+        int index = filterIndices.remove(entity.getID(), 0);
+        int last = entities.size() - 1;
+
+        if (index != last)
+        {
+            Entity2D lastEntity = entities.get(last);
+
+            entities.set(index, lastEntity);
+            filterIndices.put(lastEntity.getID(), index);
+
+            entityLayers[index] = entityLayers[last];
+            entityMasks[index] = entityMasks[last];
+            moved[index] = moved[last];
+            restFrames[index] = restFrames[last];
+            awake[index] = awake[last];
+
+            System.arraycopy(lastPositions, last * 2, lastPositions, index * 2, 2);
+            System.arraycopy(lastRotations, last * 1, lastRotations, index * 1, 1);
+        }
+
+        entities.remove(last);
+    }
+
+    // Combines the layers and mask of the entity with the bits of the registered types it belongs to
+    private void resolveFilter(Entity2D entity, int index)
+    {
+        int layers = entity.getCollisionLayers();
+        int mask = entity.getCollisionMask();
+
+        for (Map.Entry<Class<? extends Entity2D>, Integer> entry : typeLayers.entrySet())
+        {
+            if (entry.getKey().isInstance(entity))
+                layers |= entry.getValue();
+        }
+
+        for (Map.Entry<Class<? extends Entity2D>, Integer> entry : typeMasks.entrySet())
+        {
+            if (entry.getKey().isInstance(entity))
+                mask |= entry.getValue();
+        }
+
+        entityLayers[index] = layers;
+        entityMasks[index] = mask;
+    }
+
+    /**
+     * Enables or disables the parallel narrow phase on the common ForkJoinPool.
+     *
+     * @param parallel True to test the pairs in parallel, false to test them on the game thread
+     */
+    public void setParallel(boolean parallel)
+    {
+        setPool(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Sets the pool used to test the pairs in parallel.
+     *
+     * @param pool The ForkJoinPool to use, or null to test the pairs on the game thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    public boolean isParallel()
+    {
+        return pool != null;
+    }
+
+    /**
+     * @return The broadphase resolver of the moving entities
+     */
+    public IBroadphaseResolver2D getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @return The broadphase resolver of the static and the sleeping entities
+     */
+    public IBroadphaseResolver2D getStaticResolver()
+    {
+        return staticResolver;
+    }
+
+    /**
+     * Sets the number of frames that an entity has to be at rest before it is put
+     * to sleep. A value of zero or less disables sleeping.
+     *
+     * @param sleepFrames The number of frames at rest before sleeping
+     */
+    public void setSleepFrames(int sleepFrames)
+    {
+        this.sleepFrames = sleepFrames;
+    }
+
+    public int getSleepFrames()
+    {
+        return sleepFrames;
+    }
+
+    // Tests a range of the collected pairs. Every task only writes the flags of its own range
+    private class NarrowPhaseTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int start;
+        private int end;
+
+        NarrowPhaseTask(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start > PAIRS_PER_TASK)
+            {
+                int middle = (start + end) >>> 1;
+                invokeAll(new NarrowPhaseTask(start, middle), new NarrowPhaseTask(middle, end));
+                return;
+            }
+
+            for (int i = start; i < end; i++)
+            {
+                if ((pairFlags[i] & CACHED) == 0 && pairsA[i].getPolygon().intersects(pairsB[i].getPolygon()))
+                    pairFlags[i] |= INTERSECTS;
+            }
+        }
+    }
+}
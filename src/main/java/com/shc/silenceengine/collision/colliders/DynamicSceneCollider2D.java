@@ -1,13 +1,6 @@
 package com.shc.silenceengine.collision.colliders;
 
 import com.shc.silenceengine.collision.broadphase.DynamicTree2D;
-import com.shc.silenceengine.entity.Entity2D;
-import com.shc.silenceengine.math.Vector2;
-import com.shc.silenceengine.scene.Scene;
-import com.shc.silenceengine.scene.SceneNode;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * An implementation of the SceneCollider2D that resolves collisions
@@ -16,84 +9,36 @@ import java.util.List;
  *
  * @author Sri Harsha Chilakapati
  */
-public class DynamicSceneCollider2D implements SceneCollider2D
+public class DynamicSceneCollider2D extends BroadphaseSceneCollider2D
 {
-    // The Scene and the tree
-    private Scene scene;
+    // The tree, moved entities are only reinserted if they escape their fat AABBs
     private DynamicTree2D tree;
 
-    // Number of children in the scene
-    private int childrenInScene;
-
-    // The list of entities
-    private List<Entity2D> entities;
-
     /**
      *
      */
     public DynamicSceneCollider2D()
     {
-        tree = new DynamicTree2D();
-        entities = new ArrayList<>();
+        this(new DynamicTree2D());
     }
 
-    @Override
-    public void setScene(Scene scene)
-    {
-        this.scene = scene;
-    }
-
-    @Override
-    public Scene getScene()
+    /**
+     * Constructs a DynamicSceneCollider2D that uses a custom tree. Use this
+     * to tune the fat AABB margin of the tree for your scene.
+     *
+     * @param tree The DynamicTree2D to use for broad phase
+     */
+    public DynamicSceneCollider2D(DynamicTree2D tree)
     {
-        return scene;
+        super(tree, new DynamicTree2D());
+        this.tree = tree;
     }
 
-    @Override
-    public void checkCollisions()
+    /**
+     * @return The DynamicTree2D used by this collider. Can be used to read the reinsert count.
+     */
+    public DynamicTree2D getTree()
     {
-        if (scene.getChildren().size() != childrenInScene)
-        {
-            entities.clear();
-            tree.clear();
-            childrenInScene = 0;
-
-            for (SceneNode child : scene.getChildren())
-            {
-                if (child instanceof Entity2D)
-                {
-                    Entity2D entity = (Entity2D) child;
-
-                    tree.insert(entity);
-                    entities.add(entity);
-                }
-
-                childrenInScene++;
-            }
-        }
-
-        // Update the grid for repositioned entities
-        for (Entity2D entity : entities)
-        {
-            if (entity.getVelocity() != Vector2.ZERO)
-            {
-                tree.remove(entity);
-                tree.insert(entity);
-            }
-        }
-
-        // Iterate and check collisions
-        for (Class<? extends Entity2D> class1 : collisionMap.keySet())
-            for (Entity2D entity : entities)
-                if (class1.isInstance(entity))
-                {
-                    List<Entity2D> collidables = tree.retrieve(entity);
-
-                    for (Entity2D entity2 : collidables)
-                        if (collisionMap.get(class1).isInstance(entity2) && entity != entity2)
-                            // Check collision
-                            if (entity.getPolygon().intersects(entity2.getPolygon()))
-                                entity.collision(entity2);
-                }
+        return tree;
     }
 }
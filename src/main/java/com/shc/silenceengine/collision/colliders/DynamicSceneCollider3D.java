@@ -1,13 +1,6 @@
 package com.shc.silenceengine.collision.colliders;
 
 import com.shc.silenceengine.collision.broadphase.DynamicTree3D;
-import com.shc.silenceengine.entity.Entity3D;
-import com.shc.silenceengine.math.Vector3;
-import com.shc.silenceengine.scene.Scene;
-import com.shc.silenceengine.scene.SceneNode;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * An implementation of the SceneCollider3D that resolves collisions
@@ -16,84 +9,36 @@ import java.util.List;
  *
  * @author Sri Harsha Chilakapati
  */
-public class DynamicSceneCollider3D implements SceneCollider3D
+public class DynamicSceneCollider3D extends BroadphaseSceneCollider3D
 {
-    // The Scene and the tree
-    private Scene scene;
+    // The tree, moved entities are only reinserted if they escape their fat AABBs
     private DynamicTree3D tree;
 
-    // Number of children in the scene
-    private int childrenInScene;
-
-    // The list of entities
-    private List<Entity3D> entities;
-
     /**
      *
      */
     public DynamicSceneCollider3D()
     {
-        tree = new DynamicTree3D();
-        entities = new ArrayList<>();
+        this(new DynamicTree3D());
     }
 
-    @Override
-    public void setScene(Scene scene)
-    {
-        this.scene = scene;
-    }
-
-    @Override
-    public Scene getScene()
+    /**
+     * Constructs a DynamicSceneCollider3D that uses a custom tree. Use this
+     * to tune the fat AABB margin of the tree for your scene.
+     *
+     * @param tree The DynamicTree3D to use for broad phase
+     */
+    public DynamicSceneCollider3D(DynamicTree3D tree)
     {
-        return scene;
+        super(tree, new DynamicTree3D());
+        this.tree = tree;
     }
 
-    @Override
-    public void checkCollisions()
+    /**
+     * @return The DynamicTree3D used by this collider. Can be used to read the reinsert count.
+     */
+    public DynamicTree3D getTree()
     {
-        if (scene.getChildren().size() != childrenInScene)
-        {
-            entities.clear();
-            tree.clear();
-            childrenInScene = 0;
-
-            for (SceneNode child : scene.getChildren())
-            {
-                if (child instanceof Entity3D)
-                {
-                    Entity3D entity = (Entity3D) child;
-
-                    tree.insert(entity);
-                    entities.add(entity);
-                }
-
-                childrenInScene++;
-            }
-        }
-
-        // Update the grid for repositioned entities
-        for (Entity3D entity : entities)
-        {
-            if (entity.getVelocity() != Vector3.ZERO)
-            {
-                tree.remove(entity);
-                tree.insert(entity);
-            }
-        }
-
-        // Iterate and check collisions
-        for (Class<? extends Entity3D> class1 : collisionMap.keySet())
-            for (Entity3D entity : entities)
-                if (class1.isInstance(entity))
-                {
-                    List<Entity3D> collidables = tree.retrieve(entity);
-
-                    for (Entity3D entity2 : collidables)
-                        if (collisionMap.get(class1).isInstance(entity2) && entity != entity2)
-                            // Check collision
-                            if (entity.getPolyhedron().intersects(entity2.getPolyhedron()))
-                                entity.collision(entity2);
-                }
+        return tree;
     }
 }
@@ -1,13 +1,6 @@
 package com.shc.silenceengine.collision.colliders;
 
 import com.shc.silenceengine.collision.broadphase.Grid;
-import com.shc.silenceengine.entity.Entity2D;
-import com.shc.silenceengine.math.Vector2;
-import com.shc.silenceengine.scene.Scene;
-import com.shc.silenceengine.scene.SceneNode;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * An implementation of the SceneCollider2D that resolves collisions
@@ -16,18 +9,8 @@ import java.util.List;
  *
  * @author Sri Harsha Chilakapati
  */
-public class GridSceneCollider implements SceneCollider2D
+public class GridSceneCollider extends BroadphaseSceneCollider2D
 {
-    // The Scene and the grid
-    private Scene scene;
-    private Grid grid;
-
-    // Number of children in the scene
-    private int childrenInScene;
-
-    // The list of entities
-    private List<Entity2D> entities;
-
     /**
      * Creates a GridSceneCollider with the required properties to create
      * the grid that this collider should use to resolve collisions.
@@ -39,67 +22,7 @@ public class GridSceneCollider implements SceneCollider2D
      */
     public GridSceneCollider(int mapWidth, int mapHeight, int cellWidth, int cellHeight)
     {
-        grid = new Grid(mapWidth, mapHeight, cellWidth, cellHeight);
-        entities = new ArrayList<>();
-    }
-
-    @Override
-    public void setScene(Scene scene)
-    {
-        this.scene = scene;
-    }
-
-    @Override
-    public Scene getScene()
-    {
-        return scene;
-    }
-
-    @Override
-    public void checkCollisions()
-    {
-        if (scene.getChildren().size() != childrenInScene)
-        {
-            entities.clear();
-            grid.clear();
-            childrenInScene = 0;
-
-            for (SceneNode child : scene.getChildren())
-            {
-                if (child instanceof Entity2D)
-                {
-                    Entity2D entity = (Entity2D) child;
-
-                    grid.insert(entity);
-                    entities.add(entity);
-                }
-
-                childrenInScene++;
-            }
-        }
-
-        // Update the grid for repositioned entities
-        for (Entity2D entity : entities)
-        {
-            if (entity.getVelocity() != Vector2.ZERO)
-            {
-                grid.remove(entity);
-                grid.insert(entity);
-            }
-        }
-
-        // Iterate and check collisions
-        for (Class<? extends Entity2D> class1 : collisionMap.keySet())
-            for (Entity2D entity : entities)
-                if (class1.isInstance(entity))
-                {
-                    List<Entity2D> collidables = grid.retrieve(entity);
-
-                    for (Entity2D entity2 : collidables)
-                        if (collisionMap.get(class1).isInstance(entity2) && entity != entity2)
-                            // Check collision
-                                if (entity.getPolygon().intersects(entity2.getPolygon()))
-                                    entity.collision(entity2);
-                }
+        super(new Grid(mapWidth, mapHeight, cellWidth, cellHeight),
+                new Grid(mapWidth, mapHeight, cellWidth, cellHeight));
     }
 }
@@ -0,0 +1,26 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.broadphase.Grid3D;
+import com.shc.silenceengine.math.Vector3;
+
+/**
+ * An implementation of the SceneCollider3D that resolves collisions using
+ * a uniform 3D Grid. The GridSceneCollider3D is efficient for levels that
+ * are dense with static geometry of similar sizes, like voxel levels.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class GridSceneCollider3D extends BroadphaseSceneCollider3D
+{
+    /**
+     * Creates a GridSceneCollider3D with the box covering the level
+     *
+     * @param min      The minimum corner of the level
+     * @param max      The maximum corner of the level
+     * @param cellSize The size of each cubic cell of the grid
+     */
+    public GridSceneCollider3D(Vector3 min, Vector3 max, float cellSize)
+    {
+        super(new Grid3D(min, max, cellSize), new Grid3D(min, max, cellSize));
+    }
+}
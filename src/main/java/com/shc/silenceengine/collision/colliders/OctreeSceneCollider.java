@@ -0,0 +1,25 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.broadphase.Octree;
+import com.shc.silenceengine.math.Vector3;
+
+/**
+ * An implementation of the SceneCollider3D that resolves collisions using
+ * a linear loose Octree. The OctreeSceneCollider is efficient for levels
+ * that are dense with static geometry of many different sizes.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class OctreeSceneCollider extends BroadphaseSceneCollider3D
+{
+    /**
+     * Constructs an OctreeSceneCollider with the box covering the level
+     *
+     * @param min The minimum corner of the level
+     * @param max The maximum corner of the level
+     */
+    public OctreeSceneCollider(Vector3 min, Vector3 max)
+    {
+        super(new Octree(min, max), new Octree(min, max));
+    }
+}
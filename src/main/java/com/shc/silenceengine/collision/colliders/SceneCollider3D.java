@@ -3,8 +3,6 @@ package com.shc.silenceengine.collision.colliders;
 import com.shc.silenceengine.entity.Entity3D;
 import com.shc.silenceengine.scene.Scene;
 
-import java.util.HashMap;
-
 /**
  * Interface that specifies how a 2D Scene collider should behave.
  * In SilenceEngine, a SceneCollider is an object that manages
@@ -24,14 +22,18 @@ import java.util.HashMap;
  * <p>
  * In the above example, collisions are checked between Player-Enemy
  * and Player-EnemyBullet, and others are just ignored.
+ * <p>
+ * The entities can also be filtered with collision layers. An entity is
+ * notified of a collision with another entity if its collision mask shares
+ * a bit with the collision layers of the other entity. The registered types
+ * are compiled into layers and masks by every collider, so the filter of a
+ * pair is a single bitwise AND of the bits resolved when the entities were
+ * added to the collider.
  *
  * @author Sri Harsha Chilakapati
  */
 public interface SceneCollider3D
 {
-    // The collision map, used to store registered classes
-    HashMap<Class<? extends Entity3D>, Class<? extends Entity3D>> collisionMap = new HashMap<>();
-
     /**
      * Sets the scene that this SceneCollider2D should use to get
      * the entities and check for collisions.
@@ -57,9 +59,18 @@ public interface SceneCollider3D
      * @param type1 The first type of the Entity3D
      * @param type2 The second type of the Entity3D
      */
-    public default void register(Class<? extends Entity3D> type1, Class<? extends Entity3D> type2)
+    public void register(Class<? extends Entity3D> type1, Class<? extends Entity3D> type2);
+
+    /**
+     * Wakes up an entity that was put to sleep by this collider. Called by the entity
+     * when it wakes up, the entity is moved back among the moving entities before
+     * the collisions are checked again. The default implementation does nothing,
+     * for the colliders that don't put the entities to sleep.
+     *
+     * @param entity The entity that woke up
+     */
+    public default void wake(Entity3D entity)
     {
-        collisionMap.put(type1, type2);
     }
 
     /**
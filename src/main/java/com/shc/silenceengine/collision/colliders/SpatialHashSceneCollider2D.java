@@ -0,0 +1,23 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.broadphase.SpatialHash2D;
+
+/**
+ * An implementation of the SceneCollider2D that resolves collisions using a
+ * spatial hash. It doesn't need the size of the map, so it is suited for
+ * open world maps, where the entities are spread out without any bounds.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SpatialHashSceneCollider2D extends BroadphaseSceneCollider2D
+{
+    /**
+     * Constructs a SpatialHashSceneCollider2D with the given cell size.
+     *
+     * @param cellSize The size of each cell. Works best when a little larger than the entities.
+     */
+    public SpatialHashSceneCollider2D(float cellSize)
+    {
+        super(new SpatialHash2D(cellSize), new SpatialHash2D(cellSize));
+    }
+}
@@ -0,0 +1,23 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.broadphase.SpatialHash3D;
+
+/**
+ * An implementation of the SceneCollider3D that resolves collisions using a
+ * spatial hash. It doesn't need the size of the map, so it is suited for
+ * voxel style levels, where the entities are spread out without any bounds.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SpatialHashSceneCollider3D extends BroadphaseSceneCollider3D
+{
+    /**
+     * Constructs a SpatialHashSceneCollider3D with the given cell size.
+     *
+     * @param cellSize The size of each cell. Works best when a little larger than the entities.
+     */
+    public SpatialHashSceneCollider3D(float cellSize)
+    {
+        super(new SpatialHash3D(cellSize), new SpatialHash3D(cellSize));
+    }
+}
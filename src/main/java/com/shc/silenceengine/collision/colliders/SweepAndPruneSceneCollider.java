@@ -0,0 +1,25 @@
+package com.shc.silenceengine.collision.colliders;
+
+import com.shc.silenceengine.collision.broadphase.DynamicTree2D;
+import com.shc.silenceengine.collision.broadphase.SweepAndPrune2D;
+
+/**
+ * An implementation of the SceneCollider2D that resolves collisions using
+ * Sweep and Prune. The SweepAndPruneSceneCollider is efficient for scenes
+ * where the entities move only a little every frame, like side scrollers.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SweepAndPruneSceneCollider extends BroadphaseSceneCollider2D
+{
+    /**
+     * Constructs a SweepAndPruneSceneCollider. Unlike the Grid and the QuadTree,
+     * Sweep and Prune doesn't need to know the size of the map. The static and
+     * the sleeping entities are kept in a DynamicTree2D, since they are only
+     * queried and a query of Sweep and Prune visits every entity.
+     */
+    public SweepAndPruneSceneCollider()
+    {
+        super(new SweepAndPrune2D(), new DynamicTree2D());
+    }
+}
@@ -1,6 +1,7 @@
 package com.shc.silenceengine.entity;
 
 import com.shc.silenceengine.collision.Collision2D;
+import com.shc.silenceengine.collision.colliders.SceneCollider2D;
 import com.shc.silenceengine.geom2d.Polygon;
 import com.shc.silenceengine.geom2d.Rectangle;
 import com.shc.silenceengine.graphics.Batcher;
@@ -40,7 +41,8 @@ import com.shc.silenceengine.scene.SceneNode;
  * </pre>
  * <p>
  * Note that the collisions will only be notified if you are using a
- * SceneCollider2D and registered a collision check.
+ * SceneCollider2D and registered a collision check, or set the collision
+ * layers and mask of the entity.
  *
  * @author Sri Harsha Chilakapati
  */
@@ -55,6 +57,25 @@ public class Entity2D extends SceneNode
     // The higher the depth, the first the object is rendered.
     private int depth;
 
+    // The position before the velocity was applied in this frame, used to sweep the
+    // motion of the entity when continuous collision detection is enabled. Setting
+    // the position moves the entity without sweeping
+    private Vector2 previousPosition;
+    private boolean continuousCollision;
+
+    // The offset of the position from the center, reused by the local transform
+    private Vector2 tmpOffset;
+
+    // The collision layers that this entity is in, and the layers that it collides with
+    private int collisionLayers;
+    private int collisionMask;
+
+    // Static entities never move. An entity at rest is put to sleep by a collider, which
+    // is notified when the entity wakes up
+    private boolean staticEntity;
+    private boolean sleeping;
+    private SceneCollider2D sleepCollider;
+
     /**
      * The default constructor.
      */
@@ -62,6 +83,8 @@ public class Entity2D extends SceneNode
     {
         position = new Vector2();
         velocity = new Vector2();
+        previousPosition = new Vector2();
+        tmpOffset = new Vector2();
         depth = 0;
     }
 
@@ -90,17 +113,28 @@ public class Entity2D extends SceneNode
 
         update(delta);
 
+        // A sleeping entity wakes up when it is given a velocity
+        if (sleeping && (velocity.x != 0 || velocity.y != 0))
+            wake();
+
+        previousPosition.set(position);
+
         if (velocity == Vector2.ZERO)
             return;
 
-        // Calculate the new position
-        position = position.add(velocity);
+        // Calculate the new position, in place so that moving doesn't create garbage
+        position.addSelf(velocity);
         polygon.setPosition(position);
 
-        // Setup the local transform
-        getLocalTransform().reset().translate(getPosition().subtract(getCenter()))
-                                   .rotate(Vector3.AXIS_Z, polygon.getRotation())
-                                   .translate(getCenter());
+        updateLocalTransform();
+    }
+
+    // Sets up the local transform to rotate the entity around its center
+    private void updateLocalTransform()
+    {
+        getLocalTransform().reset().translate(position.subtract(getCenter(), tmpOffset))
+                           .rotate(Vector3.AXIS_Z, polygon.getRotation())
+                           .translate(getCenter());
     }
 
     /**
@@ -128,6 +162,52 @@ public class Entity2D extends SceneNode
     {
     }
 
+    /**
+     * Called by the SceneCollider2D instance to notify that a collision was
+     * found by sweeping the motion of an entity that has continuous collision
+     * detection enabled, and that the entities don't overlap at the end of
+     * the frame. The default implementation calls collision(other).
+     *
+     * @param other         The other entity that collided with this entity.
+     * @param timeOfImpact  The fraction of the motion in this frame at which the
+     *                      entities first touched, in the range [0, 1].
+     */
+    public void collision(Entity2D other, float timeOfImpact)
+    {
+        collision(other);
+    }
+
+    /**
+     * Called by the SceneCollider2D instance when this entity starts touching
+     * another entity. It is called before collision(other) in that frame.
+     *
+     * @param other The other entity that started touching this entity.
+     */
+    public void onCollisionEnter(Entity2D other)
+    {
+    }
+
+    /**
+     * Called by the SceneCollider2D instance in every frame after the first one
+     * in which this entity keeps touching another entity. It is called before
+     * collision(other) in that frame.
+     *
+     * @param other The other entity that is still touching this entity.
+     */
+    public void onCollisionStay(Entity2D other)
+    {
+    }
+
+    /**
+     * Called by the SceneCollider2D instance in the first frame in which this
+     * entity no longer touches an entity that it was touching.
+     *
+     * @param other The other entity that stopped touching this entity.
+     */
+    public void onCollisionExit(Entity2D other)
+    {
+    }
+
     /**
      * Moves this object to a specified point with a specific speed. Note that
      * the velocity used is independent of vertical or horizontal velocities of
@@ -237,9 +317,8 @@ public class Entity2D extends SceneNode
     {
         polygon.rotate(angle);
 
-        getLocalTransform().reset().translate(getPosition().subtract(getCenter()))
-                           .rotate(Vector3.AXIS_Z, polygon.getRotation())
-                           .translate(getCenter());
+        updateLocalTransform();
+        wake();
     }
 
     public int getDepth()
@@ -270,9 +349,8 @@ public class Entity2D extends SceneNode
     {
         polygon.setRotation(rotation);
 
-        getLocalTransform().reset().translate(getPosition().subtract(getCenter()))
-                           .rotate(Vector3.AXIS_Z, polygon.getRotation())
-                           .translate(getCenter());
+        updateLocalTransform();
+        wake();
     }
 
     /**
@@ -284,11 +362,12 @@ public class Entity2D extends SceneNode
     public void setCenter(Vector2 center)
     {
         polygon.setCenter(center);
-        position = polygon.getPosition();
+        position.set(polygon.getPosition());
+        previousPosition.set(position);
+        polygon.setPosition(position);
 
-        getLocalTransform().reset().translate(getPosition().subtract(getCenter()))
-                           .rotate(Vector3.AXIS_Z, polygon.getRotation())
-                           .translate(getCenter());
+        updateLocalTransform();
+        wake();
     }
 
     /**
@@ -323,6 +402,7 @@ public class Entity2D extends SceneNode
     {
         position.setX(x);
         polygon.setPosition(position);
+        wake();
     }
 
     /**
@@ -333,6 +413,7 @@ public class Entity2D extends SceneNode
     {
         position.setY(y);
         polygon.setPosition(position);
+        wake();
     }
 
     /**
@@ -380,18 +461,19 @@ public class Entity2D extends SceneNode
     }
 
     /**
-     * Sets the position of this entity
+     * Sets the position of this entity. The coordinates are copied, so
+     * the given vector is not changed when the entity moves.
      *
      * @param position The new position as a Vector2
      */
     public void setPosition(Vector2 position)
     {
-        this.position = position;
-        polygon.setPosition(position);
+        this.position.set(position);
+        previousPosition.set(position);
+        polygon.setPosition(this.position);
 
-        getLocalTransform().reset().translate(getPosition().subtract(getCenter()))
-                           .rotate(Vector3.AXIS_Z, polygon.getRotation())
-                           .translate(getCenter());
+        updateLocalTransform();
+        wake();
     }
 
     /**
@@ -412,6 +494,131 @@ public class Entity2D extends SceneNode
         this.velocity = velocity;
     }
 
+    /**
+     * @return The position of this entity before its velocity was applied in this frame
+     */
+    public Vector2 getPreviousPosition()
+    {
+        return previousPosition;
+    }
+
+    /**
+     * @return True if the motion of this entity is swept to find collisions
+     */
+    public boolean isContinuousCollision()
+    {
+        return continuousCollision;
+    }
+
+    /**
+     * Enables or disables continuous collision detection for this entity. When
+     * enabled, the motion of the entity in every frame is swept against the
+     * other entities, so that fast entities can't pass through thin ones
+     * between two frames. Only enable this for fast entities, like bullets.
+     *
+     * @param continuousCollision True to sweep the motion of this entity
+     */
+    public void setContinuousCollision(boolean continuousCollision)
+    {
+        this.continuousCollision = continuousCollision;
+    }
+
+    /**
+     * @return The bits of the collision layers that this entity is in
+     */
+    public int getCollisionLayers()
+    {
+        return collisionLayers;
+    }
+
+    /**
+     * Sets the collision layers that this entity is in, as a bit mask. An entity
+     * is notified of the collisions with the entities whose layers share a bit
+     * with its collision mask. The layers are read by the SceneCollider2D when the
+     * entity is added to it, so set them before adding the entity to the scene.
+     *
+     * @param collisionLayers The bits of the layers of this entity
+     */
+    public void setCollisionLayers(int collisionLayers)
+    {
+        this.collisionLayers = collisionLayers;
+    }
+
+    /**
+     * @return The bits of the collision layers that this entity collides with
+     */
+    public int getCollisionMask()
+    {
+        return collisionMask;
+    }
+
+    /**
+     * Sets the collision layers that this entity collides with, as a bit mask.
+     *
+     * @param collisionMask The bits of the layers that this entity collides with
+     */
+    public void setCollisionMask(int collisionMask)
+    {
+        this.collisionMask = collisionMask;
+    }
+
+    /**
+     * @return True if this entity is static, and never moves
+     */
+    public boolean isStatic()
+    {
+        return staticEntity;
+    }
+
+    /**
+     * Marks this entity as static. The colliders keep the static entities apart from
+     * the moving ones, and never test two static entities against each other. Mark
+     * the walls and the tiles of a level as static, before adding them to the scene.
+     *
+     * @param staticEntity True if this entity never moves
+     */
+    public void setStatic(boolean staticEntity)
+    {
+        this.staticEntity = staticEntity;
+    }
+
+    /**
+     * @return True if this entity was put to sleep by a collider
+     */
+    public boolean isSleeping()
+    {
+        return sleeping;
+    }
+
+    /**
+     * Puts this entity to sleep. Called by the SceneCollider2D that found this entity
+     * at rest, and that is notified when the entity wakes up again.
+     *
+     * @param collider The collider that put this entity to sleep
+     */
+    public void sleep(SceneCollider2D collider)
+    {
+        sleeping = true;
+        sleepCollider = collider;
+    }
+
+    /**
+     * Wakes this entity up, if it is sleeping. A sleeping entity also wakes up when
+     * it is given a velocity, moved, or rotated, and when a moving entity touches it.
+     */
+    public void wake()
+    {
+        if (!sleeping)
+            return;
+
+        SceneCollider2D collider = sleepCollider;
+
+        sleeping = false;
+        sleepCollider = null;
+
+        collider.wake(this);
+    }
+
     /**
      * @return The collision polygon of this entity
      */
@@ -428,6 +635,7 @@ public class Entity2D extends SceneNode
     public void setPolygon(Polygon polygon)
     {
         this.polygon = polygon;
+        wake();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.shc.silenceengine.entity;
 
 import com.shc.silenceengine.collision.Collision3D;
+import com.shc.silenceengine.collision.colliders.SceneCollider3D;
 import com.shc.silenceengine.geom3d.Cuboid;
 import com.shc.silenceengine.geom3d.Polyhedron;
 import com.shc.silenceengine.graphics.Batcher;
@@ -39,7 +40,8 @@ import com.shc.silenceengine.scene.SceneNode;
  * </pre>
  * <p>
  * Note that the collisions will only be notified if you are using a
- * SceneCollider3D and registered a collision check.
+ * SceneCollider3D and registered a collision check, or set the collision
+ * layers and mask of the entity.
  *
  * @author Sri Harsha Chilakapati
  */
@@ -50,6 +52,22 @@ public class Entity3D extends SceneNode
     private Vector3 velocity;
     private Polyhedron polyhedron;
 
+    // The position before the velocity was applied in this frame, used to sweep the
+    // motion of the entity when continuous collision detection is enabled. Setting
+    // the position moves the entity without sweeping
+    private Vector3 previousPosition;
+    private boolean continuousCollision;
+
+    // The collision layers that this entity is in, and the layers that it collides with
+    private int collisionLayers;
+    private int collisionMask;
+
+    // Static entities never move. An entity at rest is put to sleep by a collider, which
+    // is notified when the entity wakes up
+    private boolean staticEntity;
+    private boolean sleeping;
+    private SceneCollider3D sleepCollider;
+
     /**
      * The default constructor.
      */
@@ -57,6 +75,7 @@ public class Entity3D extends SceneNode
     {
         position = new Vector3();
         velocity = new Vector3();
+        previousPosition = new Vector3();
     }
 
     /**
@@ -84,15 +103,20 @@ public class Entity3D extends SceneNode
 
         update(delta);
 
+        // A sleeping entity wakes up when it is given a velocity
+        if (sleeping && (velocity.x != 0 || velocity.y != 0 || velocity.z != 0))
+            wake();
+
+        previousPosition.set(position);
+
         if (velocity == Vector3.ZERO)
             return;
 
-        // Calculate the new position
-        position = position.add(velocity);
+        // Calculate the new position, in place so that moving doesn't create garbage
+        position.addSelf(velocity);
         polyhedron.setPosition(position);
 
         // Setup the local transform
-
         getLocalTransform().reset().translate(getPosition())
                 .rotate(Vector3.AXIS_X, polyhedron.getRotationX())
                 .rotate(Vector3.AXIS_Y, polyhedron.getRotationY())
@@ -124,6 +148,52 @@ public class Entity3D extends SceneNode
     {
     }
 
+    /**
+     * Called by the SceneCollider3D instance to notify that a collision was
+     * found by sweeping the motion of an entity that has continuous collision
+     * detection enabled, and that the entities don't overlap at the end of
+     * the frame. The default implementation calls collision(other).
+     *
+     * @param other         The other entity that collided with this entity.
+     * @param timeOfImpact  The fraction of the motion in this frame at which the
+     *                      entities first touched, in the range [0, 1].
+     */
+    public void collision(Entity3D other, float timeOfImpact)
+    {
+        collision(other);
+    }
+
+    /**
+     * Called by the SceneCollider3D instance when this entity starts touching
+     * another entity. It is called before collision(other) in that frame.
+     *
+     * @param other The other entity that started touching this entity.
+     */
+    public void onCollisionEnter(Entity3D other)
+    {
+    }
+
+    /**
+     * Called by the SceneCollider3D instance in every frame after the first one
+     * in which this entity keeps touching another entity. It is called before
+     * collision(other) in that frame.
+     *
+     * @param other The other entity that is still touching this entity.
+     */
+    public void onCollisionStay(Entity3D other)
+    {
+    }
+
+    /**
+     * Called by the SceneCollider3D instance in the first frame in which this
+     * entity no longer touches an entity that it was touching.
+     *
+     * @param other The other entity that stopped touching this entity.
+     */
+    public void onCollisionExit(Entity3D other)
+    {
+    }
+
     /**
      * Moves this object to a specified point with a specific speed. Note that
      * the velocity used is independent of vertical or horizontal velocities of
@@ -225,6 +295,7 @@ public class Entity3D extends SceneNode
                 .rotate(Vector3.AXIS_Y, polyhedron.getRotationY())
                 .rotate(Vector3.AXIS_Z, polyhedron.getRotationZ())
                 .translate(getPosition());
+        wake();
     }
 
     /**
@@ -268,6 +339,7 @@ public class Entity3D extends SceneNode
     {
         position.setX(x);
         polyhedron.setPosition(position);
+        wake();
     }
 
     /**
@@ -279,6 +351,7 @@ public class Entity3D extends SceneNode
     {
         position.setY(y);
         polyhedron.setPosition(position);
+        wake();
     }
 
     /**
@@ -290,6 +363,7 @@ public class Entity3D extends SceneNode
     {
         position.setZ(z);
         polyhedron.setPosition(position);
+        wake();
     }
 
     /**
@@ -337,19 +411,22 @@ public class Entity3D extends SceneNode
     }
 
     /**
-     * Sets the position of this entity
+     * Sets the position of this entity. The coordinates are copied, so
+     * the given vector is not changed when the entity moves.
      *
      * @param position The new position as a Vector3
      */
     public void setPosition(Vector3 position)
     {
-        this.position = position;
-        polyhedron.setPosition(position);
+        this.position.set(position);
+        previousPosition.set(position);
+        polyhedron.setPosition(this.position);
 
         getLocalTransform().reset().translate(getPosition())
                 .rotate(Vector3.AXIS_X, polyhedron.getRotationX())
                 .rotate(Vector3.AXIS_Y, polyhedron.getRotationY())
                 .rotate(Vector3.AXIS_Z, polyhedron.getRotationZ());
+        wake();
     }
 
     /**
@@ -370,6 +447,131 @@ public class Entity3D extends SceneNode
         this.velocity = velocity;
     }
 
+    /**
+     * @return The position of this entity before its velocity was applied in this frame
+     */
+    public Vector3 getPreviousPosition()
+    {
+        return previousPosition;
+    }
+
+    /**
+     * @return True if the motion of this entity is swept to find collisions
+     */
+    public boolean isContinuousCollision()
+    {
+        return continuousCollision;
+    }
+
+    /**
+     * Enables or disables continuous collision detection for this entity. When
+     * enabled, the motion of the entity in every frame is swept against the
+     * other entities, so that fast entities can't pass through thin ones
+     * between two frames. Only enable this for fast entities, like bullets.
+     *
+     * @param continuousCollision True to sweep the motion of this entity
+     */
+    public void setContinuousCollision(boolean continuousCollision)
+    {
+        this.continuousCollision = continuousCollision;
+    }
+
+    /**
+     * @return The bits of the collision layers that this entity is in
+     */
+    public int getCollisionLayers()
+    {
+        return collisionLayers;
+    }
+
+    /**
+     * Sets the collision layers that this entity is in, as a bit mask. An entity
+     * is notified of the collisions with the entities whose layers share a bit
+     * with its collision mask. The layers are read by the SceneCollider3D when the
+     * entity is added to it, so set them before adding the entity to the scene.
+     *
+     * @param collisionLayers The bits of the layers of this entity
+     */
+    public void setCollisionLayers(int collisionLayers)
+    {
+        this.collisionLayers = collisionLayers;
+    }
+
+    /**
+     * @return The bits of the collision layers that this entity collides with
+     */
+    public int getCollisionMask()
+    {
+        return collisionMask;
+    }
+
+    /**
+     * Sets the collision layers that this entity collides with, as a bit mask.
+     *
+     * @param collisionMask The bits of the layers that this entity collides with
+     */
+    public void setCollisionMask(int collisionMask)
+    {
+        this.collisionMask = collisionMask;
+    }
+
+    /**
+     * @return True if this entity is static, and never moves
+     */
+    public boolean isStatic()
+    {
+        return staticEntity;
+    }
+
+    /**
+     * Marks this entity as static. The colliders keep the static entities apart from
+     * the moving ones, and never test two static entities against each other. Mark
+     * the walls and the tiles of a level as static, before adding them to the scene.
+     *
+     * @param staticEntity True if this entity never moves
+     */
+    public void setStatic(boolean staticEntity)
+    {
+        this.staticEntity = staticEntity;
+    }
+
+    /**
+     * @return True if this entity was put to sleep by a collider
+     */
+    public boolean isSleeping()
+    {
+        return sleeping;
+    }
+
+    /**
+     * Puts this entity to sleep. Called by the SceneCollider3D that found this entity
+     * at rest, and that is notified when the entity wakes up again.
+     *
+     * @param collider The collider that put this entity to sleep
+     */
+    public void sleep(SceneCollider3D collider)
+    {
+        sleeping = true;
+        sleepCollider = collider;
+    }
+
+    /**
+     * Wakes this entity up, if it is sleeping. A sleeping entity also wakes up when
+     * it is given a velocity, moved, or rotated, and when a moving entity touches it.
+     */
+    public void wake()
+    {
+        if (!sleeping)
+            return;
+
+        SceneCollider3D collider = sleepCollider;
+
+        sleeping = false;
+        sleepCollider = null;
+
+        collider.wake(this);
+    }
+
     /**
      * @return The collision polyhedron of this entity
      */
@@ -386,6 +588,7 @@ public class Entity3D extends SceneNode
     public void setPolyhedron(Polyhedron polyhedron)
     {
         this.polyhedron = polyhedron;
+        wake();
     }
 
     @Override
@@ -60,30 +60,6 @@ public class Circle extends Polygon
         }
     }
 
-    /**
-     * Checks for intersection between this circle and another polygon.
-     *
-     * @param p The other Polygon to test for intersection.
-     * @return True if intersects, else False.
-     */
-    public boolean intersects(Polygon p)
-    {
-        if (p instanceof Circle)
-        {
-            Circle c = (Circle) p;
-
-            float x = getX();
-            float y = getY();
-
-            float cx = c.getX();
-            float cy = c.getY();
-
-            return (((x - cx) * (x - cx)) + ((y - cy) * (y - cy))) < (radius + c.radius) * (radius + c.radius);
-        }
-        else
-            return super.intersects(p);
-    }
-
     /**
      * Checks if a point exists inside this circle.
      * @param p The point to check
@@ -23,6 +23,10 @@ public class Polygon
 
     private Rectangle bounds;
 
+    // The cached unit normals of the edges, as x and y pairs
+    private float[]          normals;
+    private volatile boolean normalsDirty;
+
     public Polygon()
     {
         this.vertices = new ArrayList<>();
@@ -35,6 +39,7 @@ public class Polygon
     protected void clearVertices()
     {
         vertices.clear();
+        normalsDirty = true;
 
         minX = minY = Float.POSITIVE_INFINITY;
         maxX = maxY = Float.NEGATIVE_INFINITY;
@@ -43,6 +48,7 @@ public class Polygon
     protected void addVertex(Vector2 v)
     {
         vertices.add(v);
+        normalsDirty = true;
 
         minX = Math.min(v.x, minX);
         minY = Math.min(v.y, minY);
@@ -51,6 +57,37 @@ public class Polygon
         maxY = Math.max(v.y, maxY);
     }
 
+    /**
+     * Recomputes the extents of the vertices, after they are changed in place.
+     */
+    protected void updateExtents()
+    {
+        minX = minY = Float.POSITIVE_INFINITY;
+        maxX = maxY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < vertices.size(); i++)
+        {
+            Vector2 v = vertices.get(i);
+
+            minX = Math.min(minX, v.x);
+            minY = Math.min(minY, v.y);
+            maxX = Math.max(maxX, v.x);
+            maxY = Math.max(maxY, v.y);
+        }
+
+        normalsDirty = true;
+        updateBounds();
+    }
+
+    // Moves the center and the bounds to the position and the extents of the vertices
+    private void updateBounds()
+    {
+        center.set(position.x + (minX + maxX) / 2, position.y + (minY + maxY) / 2);
+
+        if (bounds != null)
+            bounds.set(position.x + minX, position.y + minY, maxX - minX, maxY - minY);
+    }
+
     public void rotate(float angle)
     {
         angle = (float) Math.toRadians(angle);
@@ -61,36 +98,22 @@ public class Polygon
         float s = (float) Math.sin(angle);
         float c = (float) Math.cos(angle);
 
-        float width = maxX - minX;
-        float height = maxY - minY;
-
-        float originX = width / 2;
-        float originY = height / 2;
-
-        float minX, maxX, minY, maxY;
+        // The vertices are rotated around the center of their extents
+        float originX = (minX + maxX) / 2;
+        float originY = (minY + maxY) / 2;
 
-        minX = minY = Float.POSITIVE_INFINITY;
-        maxX = maxY = Float.NEGATIVE_INFINITY;
-
-        for (Vector2 vertex : vertices)
+        for (int i = 0; i < vertices.size(); i++)
         {
-            Vector2 v = vertex.subtract(originX, originY);
-
-            float xNew = v.getX() * c - v.getY() * s;
-            float yNew = v.getX() * s + v.getY() * c;
+            Vector2 vertex = vertices.get(i);
 
-            vertex.setX(xNew + originX);
-            vertex.setY(yNew + originY);
+            float x = vertex.x - originX;
+            float y = vertex.y - originY;
 
-            minX = Math.min(xNew + originX, minX);
-            minY = Math.min(yNew + originY, minY);
-
-            maxX = Math.max(xNew + originX, maxX);
-            maxY = Math.max(yNew + originY, maxY);
+            vertex.set(x * c - y * s + originX, x * s + y * c + originY);
         }
 
         rotation += Math.toDegrees(angle);
-        bounds = new Rectangle(position.getX() + minX, position.getY() + minY, maxX - minX, maxY - minY);
+        updateExtents();
     }
 
     public void scale(float s)
@@ -100,25 +123,15 @@ public class Polygon
 
     public void scale(float sx, float sy)
     {
-        minX = minY = Float.POSITIVE_INFINITY;
-        maxX = maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertices.size(); i++)
+            vertices.get(i).scaleSelf(sx, sy);
 
-        for (Vector2 v : vertices)
-        {
-            v.set(v.scale(sx, sy));
-
-            minX = Math.min(minX, v.x);
-            minY = Math.min(minY, v.y);
-            maxX = Math.max(maxX, v.x);
-            maxY = Math.max(maxY, v.y);
-        }
-
-        bounds = new Rectangle(position.getX() + minX, position.getY() + minY, maxX - minX, maxY - minY);
+        updateExtents();
     }
 
     public boolean intersects(Polygon other)
     {
-        return Collision2D.testPolygonCollision(this, other, null);
+        return Collision2D.testCollision(this, other, null);
     }
 
     public boolean contains(Vector2 p)
@@ -144,7 +157,8 @@ public class Polygon
     {
         Polygon p = new Polygon();
         p.setPosition(getPosition());
-        vertices.forEach(p::addVertex);
+        // Copy the vertices, so that transforming the copy doesn't change this polygon
+        vertices.forEach(v -> p.addVertex(new Vector2(v)));
 
         return p;
     }
@@ -164,6 +178,57 @@ public class Polygon
         return vertices.get(index);
     }
 
+    /**
+     * Returns the unit normals of the edges of this polygon, as x and y pairs. The
+     * normal of the edge from vertex i to vertex i + 1 is at index 2 * i. The normals
+     * are cached, and are only computed again after the polygon is rotated or scaled,
+     * so the returned array must not be modified. Degenerate edges have a zero normal.
+     *
+     * @return The cached array of the edge normals
+     */
+    public float[] getNormals()
+    {
+        if (normalsDirty)
+            updateNormals();
+
+        return normals;
+    }
+
+    // Synchronized, since the normals can be requested by many threads in a parallel narrow phase
+    private synchronized void updateNormals()
+    {
+        if (!normalsDirty)
+            return;
+
+        int count = vertices.size();
+
+        if (normals == null || normals.length < count * 2)
+            normals = new float[count * 2];
+
+        for (int i = 0; i < count; i++)
+        {
+            Vector2 v1 = vertices.get(i);
+            Vector2 v2 = vertices.get((i + 1) % count);
+
+            // The perpendicular of the edge, (y, -x)
+            float nx = v2.y - v1.y;
+            float ny = v1.x - v2.x;
+
+            float length = (float) Math.sqrt(nx * nx + ny * ny);
+
+            if (length == 0)
+            {
+                normals[2 * i] = normals[2 * i + 1] = 0;
+                continue;
+            }
+
+            normals[2 * i] = nx / length;
+            normals[2 * i + 1] = ny / length;
+        }
+
+        normalsDirty = false;
+    }
+
     public Vector2 getPosition()
     {
         return position;
@@ -176,13 +241,13 @@ public class Polygon
 
     public void setCenter(Vector2 center)
     {
-        setPosition(center.subtract(new Vector2((maxX - minX)/2, (maxY - minY)/2)));
+        setPosition(new Vector2(center.x - (minX + maxX) / 2, center.y - (minY + maxY) / 2));
     }
 
     public Rectangle getBounds()
     {
         if (bounds == null)
-            bounds = new Rectangle(position.getX(), position.getY(), maxX - minX, maxY - minY);
+            bounds = new Rectangle(position.x + minX, position.y + minY, maxX - minX, maxY - minY);
 
         return bounds;
     }
@@ -190,10 +255,7 @@ public class Polygon
     public void setPosition(Vector2 v)
     {
         this.position = v;
-        this.center   = position.add(new Vector2((maxX - minX)/2, (maxY - minY)/2));
-
-        if (bounds != null)
-            bounds.setPosition(v);
+        updateBounds();
     }
 
     public float getRotation()
@@ -25,6 +25,18 @@ public class Rectangle extends Polygon
 
     private void updateVertices()
     {
+        if (vertexCount() == 4)
+        {
+            // Reuse the vertices, so that resizing doesn't create garbage
+            getVertex(0).set(0, 0);
+            getVertex(1).set(width, 0);
+            getVertex(2).set(width, height);
+            getVertex(3).set(0, height);
+
+            updateExtents();
+            return;
+        }
+
         clearVertices();
 
         addVertex(new Vector2(0, 0));
@@ -33,22 +45,24 @@ public class Rectangle extends Polygon
         addVertex(new Vector2(0, height));
     }
 
-    public boolean intersects(Polygon p)
+    /**
+     * Moves and resizes this rectangle, without creating any objects.
+     *
+     * @param x      The new x-coordinate
+     * @param y      The new y-coordinate
+     * @param width  The new width
+     * @param height The new height
+     */
+    public void set(float x, float y, float width, float height)
     {
-        if (p instanceof Rectangle && p.getRotation() == 0 && getRotation() == 0)
-        {
-            Rectangle r = (Rectangle) p;
-
-            float x = getPosition().getX();
-            float y = getPosition().getY();
+        this.width  = width;
+        this.height = height;
 
-            float rx = r.getX();
-            float ry = r.getY();
+        updateVertices();
 
-            return (x < rx + r.width) && (rx < x + width) && (y < ry + r.height) && (ry < y + height);
-        }
-        else
-            return super.intersects(p);
+        Vector2 position = getPosition();
+        position.set(x, y);
+        setPosition(position);
     }
 
     public float getX()
@@ -123,7 +123,7 @@ public class FPSCamera extends BaseCamera
     public void apply()
     {
         mView.initIdentity()
-             .multiply(TransformUtils.createTranslation(position.negate()))
+             .translate(-position.x, -position.y, -position.z)
              .multiply(TransformUtils.createRotation(rotation));
 
         BaseCamera.projection = mProj;
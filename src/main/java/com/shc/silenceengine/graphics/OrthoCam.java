@@ -39,40 +39,38 @@ public class OrthoCam extends BaseCamera
 
     public OrthoCam translate(float x, float y)
     {
-        mView.multiply(TransformUtils.createTranslation(new Vector3(x, y, 0)));
+        mView.translate(x, y, 0);
         return this;
     }
 
     public OrthoCam translate(Vector2 v)
     {
-        mView.multiply(TransformUtils.createTranslation(new Vector3(v, 0)));
+        mView.translate(v.x, v.y, 0);
         return this;
     }
 
     public OrthoCam translateTo(float x, float y)
     {
-        mView.initIdentity().multiply(TransformUtils.createTranslation(new Vector3(x, y, 0)));
+        mView.initIdentity().translate(x, y, 0);
         return this;
     }
 
     public OrthoCam translateTo(Vector2 v)
     {
-        mView.initIdentity().multiply(TransformUtils.createTranslation(new Vector3(v, 0)));
+        mView.initIdentity().translate(v.x, v.y, 0);
         return this;
     }
 
     public OrthoCam center(float x, float y)
     {
-        return center(new Vector2(x, y));
+        mView.initIdentity();
+
+        return translate((width/2) - x, (height/2) - y);
     }
 
     public OrthoCam center(Vector2 v)
     {
-        mView.initIdentity();
-        float x = (width/2) - v.getX();
-        float y = (height/2) - v.getY();
-
-        return translate(x, y);
+        return center(v.getX(), v.getY());
     }
 
     public OrthoCam rotate(Vector3 axis, float angle)
@@ -148,7 +148,7 @@ public class PerspCam extends BaseCamera
     public void apply()
     {
         mView.initIdentity()
-             .multiply(TransformUtils.createTranslation(position.negate()))
+             .translate(-position.x, -position.y, -position.z)
              .multiply(TransformUtils.createRotation(rotation));
 
         BaseCamera.projection = mProj;
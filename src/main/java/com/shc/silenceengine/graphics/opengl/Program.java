@@ -25,6 +25,9 @@ public class Program
     public static Program CURRENT;
     public static Program DEFAULT;
 
+    // The buffer used to upload the matrices, shared since OpenGL is only used from one thread
+    private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+
     public Program()
     {
         id = glCreateProgram();
@@ -194,19 +197,10 @@ public class Program
     {
         use();
 
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(9);
-
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                buffer.put(value.get(i, j));
-            }
-        }
-
-        buffer.flip();
+        matrixBuffer.clear();
+        value.store(matrixBuffer).flip();
 
-        glUniformMatrix3(location, transpose, buffer);
+        glUniformMatrix3(location, transpose, matrixBuffer);
         GLError.check();
     }
 
@@ -214,19 +208,10 @@ public class Program
     {
         use();
 
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(16);
-
-        for (int i=0; i<4; i++)
-        {
-            for (int j=0; j<4; j++)
-            {
-                buffer.put(value.get(i, j));
-            }
-        }
-
-        buffer.flip();
+        matrixBuffer.clear();
+        value.store(matrixBuffer).flip();
 
-        glUniformMatrix4(location, transpose, buffer);
+        glUniformMatrix4(location, transpose, matrixBuffer);
         GLError.check();
     }
 
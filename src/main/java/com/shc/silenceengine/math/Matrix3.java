@@ -1,126 +1,221 @@
 package com.shc.silenceengine.math;
 
+import com.shc.silenceengine.core.SilenceException;
+
+import java.nio.FloatBuffer;
+
 /**
+ * A 3x3 matrix of floats. The elements are kept in a flat array, in the order
+ * of get(0, 0), get(0, 1) ... get(2, 2), which is the order in which OpenGL
+ * reads them. Every operation works in place or into a destination matrix, so
+ * that the matrix math done in a frame doesn't create any garbage.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class Matrix3
 {
-    private float[][] m;
+    private float[] m;
 
     public Matrix3()
     {
-        m = new float[3][3];
+        m = new float[9];
         initIdentity();
     }
 
     public Matrix3(Matrix3 m)
     {
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                this.m[i][j] = m.get(i, j);
-            }
-        }
+        this.m = new float[9];
+        set(m);
     }
 
     public Matrix3 initIdentity()
     {
-        for (int i=0; i<3; i++)
-        {
-            for (int j = 0; j < 3; j++)
-            {
-                if (i == j)
-                    m[i][j] = 1;
-                else
-                    m[i][j] = 0;
-            }
-        }
+        m[0] = 1; m[1] = 0; m[2] = 0;
+        m[3] = 0; m[4] = 1; m[5] = 0;
+        m[6] = 0; m[7] = 0; m[8] = 1;
 
         return this;
     }
 
     public Matrix3 initZero()
     {
-        for (int i=0; i<3; i++)
-        {
-            for (int j = 0; j < 3; j++)
-            {
-                m[i][j] = 0;
-            }
-        }
+        for (int i=0; i<9; i++)
+            m[i] = 0;
 
         return this;
     }
 
     public Matrix3 add(Matrix3 m)
     {
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                this.m[i][j] += m.get(i, j);
-            }
-        }
+        for (int i=0; i<9; i++)
+            this.m[i] += m.m[i];
 
         return this;
     }
 
     public Matrix3 subtract(Matrix3 m)
     {
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                this.m[i][j] -= m.get(i, j);
-            }
-        }
+        for (int i=0; i<9; i++)
+            this.m[i] -= m.m[i];
 
         return this;
     }
 
     public Matrix3 multiply(Matrix3 m)
     {
-        float[][] temp = new float[3][3];
+        return multiply(m, this);
+    }
 
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                for (int k=0; k<3; k++)
-                {
-                    temp[i][j] += this.m[i][k] * m.get(k, j);
-                }
-            }
-        }
+    /**
+     * Multiplies this matrix with another one, and stores the product in dest.
+     *
+     * @param m    The matrix to multiply this matrix with
+     * @param dest The matrix to store the product in, which can be any of the two
+     *
+     * @return The dest matrix
+     */
+    public Matrix3 multiply(Matrix3 m, Matrix3 dest)
+    {
+        float[] a = this.m;
+        float[] b = m.m;
 
-        this.m = temp;
+        float a00 = a[0], a01 = a[1], a02 = a[2];
+        float a10 = a[3], a11 = a[4], a12 = a[5];
+        float a20 = a[6], a21 = a[7], a22 = a[8];
 
-        return this;
+        float b00 = b[0], b01 = b[1], b02 = b[2];
+        float b10 = b[3], b11 = b[4], b12 = b[5];
+        float b20 = b[6], b21 = b[7], b22 = b[8];
+
+        float[] d = dest.m;
+
+        d[0] = a00 * b00 + a01 * b10 + a02 * b20;
+        d[1] = a00 * b01 + a01 * b11 + a02 * b21;
+        d[2] = a00 * b02 + a01 * b12 + a02 * b22;
+
+        d[3] = a10 * b00 + a11 * b10 + a12 * b20;
+        d[4] = a10 * b01 + a11 * b11 + a12 * b21;
+        d[5] = a10 * b02 + a11 * b12 + a12 * b22;
+
+        d[6] = a20 * b00 + a21 * b10 + a22 * b20;
+        d[7] = a20 * b01 + a21 * b11 + a22 * b21;
+        d[8] = a20 * b02 + a21 * b12 + a22 * b22;
+
+        return dest;
     }
 
     public Matrix3 transpose()
     {
-        float[][] temp = new float[3][3];
+        return transpose(this);
+    }
 
-        for (int i=0; i<3; i++)
-        {
-            for (int j=0; j<3; j++)
-            {
-                temp[i][j] = m[j][i];
-            }
-        }
+    public Matrix3 transpose(Matrix3 dest)
+    {
+        float[] a = m;
+        float[] d = dest.m;
 
-        m = temp;
+        float t;
 
-        return this;
+        // Swap the elements across the diagonal, which also works when dest is this matrix
+        t = a[1]; d[1] = a[3]; d[3] = t;
+        t = a[2]; d[2] = a[6]; d[6] = t;
+        t = a[5]; d[5] = a[7]; d[7] = t;
+
+        d[0] = a[0];
+        d[4] = a[4];
+        d[8] = a[8];
+
+        return dest;
+    }
+
+    public float determinant()
+    {
+        return m[0] * (m[4] * m[8] - m[5] * m[7]) -
+               m[1] * (m[3] * m[8] - m[5] * m[6]) +
+               m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+
+    public Matrix3 invert()
+    {
+        return invert(this);
+    }
+
+    /**
+     * Inverts this matrix, and stores the inverse in dest.
+     *
+     * @param dest The matrix to store the inverse in, which can be this matrix
+     *
+     * @return The dest matrix
+     *
+     * @throws SilenceException If this matrix is singular
+     */
+    public Matrix3 invert(Matrix3 dest)
+    {
+        float[] a = m;
+
+        float a00 = a[0], a01 = a[1], a02 = a[2];
+        float a10 = a[3], a11 = a[4], a12 = a[5];
+        float a20 = a[6], a21 = a[7], a22 = a[8];
+
+        // The cofactors of the first row
+        float c00 = a11 * a22 - a12 * a21;
+        float c01 = a12 * a20 - a10 * a22;
+        float c02 = a10 * a21 - a11 * a20;
+
+        float det = a00 * c00 + a01 * c01 + a02 * c02;
+
+        if (det == 0)
+            throw new SilenceException("Cannot invert a singular matrix");
+
+        float invDet = 1 / det;
+
+        float[] d = dest.m;
+
+        d[0] = c00 * invDet;
+        d[1] = (a02 * a21 - a01 * a22) * invDet;
+        d[2] = (a01 * a12 - a02 * a11) * invDet;
+
+        d[3] = c01 * invDet;
+        d[4] = (a00 * a22 - a02 * a20) * invDet;
+        d[5] = (a02 * a10 - a00 * a12) * invDet;
+
+        d[6] = c02 * invDet;
+        d[7] = (a01 * a20 - a00 * a21) * invDet;
+        d[8] = (a00 * a11 - a01 * a10) * invDet;
+
+        return dest;
     }
 
     public Vector3 multiply(Vector3 v)
     {
-        return new Vector3().setX(m[0][0] * v.getX())
-                            .setY(m[0][1] * v.getY())
-                            .setZ(m[0][2] * v.getZ());
+        return multiply(v, new Vector3());
+    }
+
+    public Vector3 multiply(Vector3 v, Vector3 dest)
+    {
+        float x = v.x;
+        float y = v.y;
+        float z = v.z;
+
+        // The elements are in the order OpenGL reads them, so the vector is
+        // multiplied with the transpose of get(i, j), like in the Matrix4
+        return dest.set(m[0] * x + m[3] * y + m[6] * z,
+                        m[1] * x + m[4] * y + m[7] * z,
+                        m[2] * x + m[5] * y + m[8] * z);
+    }
+
+    /**
+     * Stores the elements of this matrix into a buffer, in the order that OpenGL
+     * expects them. The elements are put at the current position of the buffer,
+     * which is advanced by 9.
+     *
+     * @param buffer The buffer to store the elements in
+     *
+     * @return The buffer
+     */
+    public FloatBuffer store(FloatBuffer buffer)
+    {
+        return buffer.put(m);
     }
 
     public Matrix3 copy()
@@ -130,12 +225,19 @@ public class Matrix3
 
     public float get(int x, int y)
     {
-        return m[x][y];
+        return m[x * 3 + y];
     }
 
     public Matrix3 set(int x, int j, float val)
     {
-        m[x][j] = val;
+        m[x * 3 + j] = val;
+
+        return this;
+    }
+
+    public Matrix3 set(Matrix3 m)
+    {
+        System.arraycopy(m.m, 0, this.m, 0, 9);
 
         return this;
     }
@@ -149,7 +251,7 @@ public class Matrix3
         {
             for (int j=0; j<3; j++)
             {
-                s.append(m[i][j]).append(' ');
+                s.append(m[i * 3 + j]).append(' ');
             }
             s.append('\n');
         }
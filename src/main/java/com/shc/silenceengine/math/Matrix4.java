@@ -1,15 +1,32 @@
 package com.shc.silenceengine.math;
 
+import com.shc.silenceengine.core.SilenceException;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+
 /**
+ * A 4x4 matrix of floats. The elements are kept in a flat array, in the order
+ * of get(0, 0), get(0, 1) ... get(3, 3), which is the order in which OpenGL
+ * reads them, so the matrix can be stored into a buffer in bulk. Every operation
+ * works in place or into a destination matrix, so that the matrix math done in a
+ * frame doesn't create any garbage.
+ * <p>
+ * The translation is kept in get(3, 0), get(3, 1) and get(3, 2), and vectors
+ * are transformed like the shaders transform them. A matrix is
+ * affine when get(0, 3), get(1, 3) and get(2, 3) are zero and get(3, 3) is one,
+ * which is true for every translation, rotation and scaling. The products and
+ * inverses of affine matrices take faster paths.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class Matrix4
 {
-    private float[][] m;
+    private float[] m;
 
     public Matrix4()
     {
-        m = new float[4][4];
+        m = new float[16];
         initIdentity();
     }
 
@@ -21,162 +38,575 @@ public class Matrix4
         {
             for (int j=0; j<3; j++)
             {
-                this.m[i][j] = m.get(i, j);
+                this.m[i * 4 + j] = m.get(i, j);
             }
         }
     }
 
     public Matrix4(Matrix4 m)
     {
-        this();
-
-        for (int i=0; i<4; i++)
-        {
-            for (int j=0; j<4; j++)
-            {
-                this.m[i][j] = m.get(i, j);
-            }
-        }
+        this.m = new float[16];
+        set(m);
     }
 
     public Matrix4 initIdentity()
     {
-        for (int i=0; i<4; i++)
-        {
-            for (int j = 0; j < 4; j++)
-            {
-                if (i == j)
-                    m[i][j] = 1;
-                else
-                    m[i][j] = 0;
-            }
-        }
+        m[0]  = 1; m[1]  = 0; m[2]  = 0; m[3]  = 0;
+        m[4]  = 0; m[5]  = 1; m[6]  = 0; m[7]  = 0;
+        m[8]  = 0; m[9]  = 0; m[10] = 1; m[11] = 0;
+        m[12] = 0; m[13] = 0; m[14] = 0; m[15] = 1;
 
         return this;
     }
 
     public Matrix4 initZero()
     {
-        for (int i=0; i<4; i++)
-        {
-            for (int j = 0; j < 4; j++)
-            {
-                m[i][j] = 0;
-            }
-        }
+        for (int i=0; i<16; i++)
+            m[i] = 0;
 
         return this;
     }
 
     public Matrix4 add(Matrix4 m)
     {
-        for (int i=0; i<4; i++)
-        {
-            for (int j=0; j<4; j++)
-            {
-                this.m[i][j] += m.get(i, j);
-            }
-        }
+        for (int i=0; i<16; i++)
+            this.m[i] += m.m[i];
 
         return this;
     }
 
     public Matrix4 subtract(Matrix4 m)
     {
-        for (int i=0; i<4; i++)
-        {
-            for (int j=0; j<4; j++)
-            {
-                this.m[i][j] -= m.get(i, j);
-            }
-        }
+        for (int i=0; i<16; i++)
+            this.m[i] -= m.m[i];
 
         return this;
     }
 
+    /**
+     * @return True if this matrix is affine, that is, if it doesn't project.
+     */
+    public boolean isAffine()
+    {
+        return m[3] == 0 && m[7] == 0 && m[11] == 0 && m[15] == 1;
+    }
+
     public Matrix4 multiply(Matrix4 m)
     {
-        float[][] temp = new float[4][4];
+        return multiply(m, this);
+    }
+
+    /**
+     * Multiplies this matrix with another one, and stores the product in dest.
+     *
+     * @param m    The matrix to multiply this matrix with
+     * @param dest The matrix to store the product in, which can be any of the two
+     *
+     * @return The dest matrix
+     */
+    public Matrix4 multiply(Matrix4 m, Matrix4 dest)
+    {
+        if (isAffine() && m.isAffine())
+            return multiplyAffine(m, dest);
+
+        float[] a = this.m;
+        float[] b = m.m;
+
+        float a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3];
+        float a10 = a[4], a11 = a[5], a12 = a[6], a13 = a[7];
+        float a20 = a[8], a21 = a[9], a22 = a[10], a23 = a[11];
+        float a30 = a[12], a31 = a[13], a32 = a[14], a33 = a[15];
+
+        float b00 = b[0], b01 = b[1], b02 = b[2], b03 = b[3];
+        float b10 = b[4], b11 = b[5], b12 = b[6], b13 = b[7];
+        float b20 = b[8], b21 = b[9], b22 = b[10], b23 = b[11];
+        float b30 = b[12], b31 = b[13], b32 = b[14], b33 = b[15];
+
+        float[] d = dest.m;
+
+        d[0] = a00 * b00 + a01 * b10 + a02 * b20 + a03 * b30;
+        d[1] = a00 * b01 + a01 * b11 + a02 * b21 + a03 * b31;
+        d[2] = a00 * b02 + a01 * b12 + a02 * b22 + a03 * b32;
+        d[3] = a00 * b03 + a01 * b13 + a02 * b23 + a03 * b33;
+
+        d[4] = a10 * b00 + a11 * b10 + a12 * b20 + a13 * b30;
+        d[5] = a10 * b01 + a11 * b11 + a12 * b21 + a13 * b31;
+        d[6] = a10 * b02 + a11 * b12 + a12 * b22 + a13 * b32;
+        d[7] = a10 * b03 + a11 * b13 + a12 * b23 + a13 * b33;
+
+        d[8] = a20 * b00 + a21 * b10 + a22 * b20 + a23 * b30;
+        d[9] = a20 * b01 + a21 * b11 + a22 * b21 + a23 * b31;
+        d[10] = a20 * b02 + a21 * b12 + a22 * b22 + a23 * b32;
+        d[11] = a20 * b03 + a21 * b13 + a22 * b23 + a23 * b33;
+
+        d[12] = a30 * b00 + a31 * b10 + a32 * b20 + a33 * b30;
+        d[13] = a30 * b01 + a31 * b11 + a32 * b21 + a33 * b31;
+        d[14] = a30 * b02 + a31 * b12 + a32 * b22 + a33 * b32;
+        d[15] = a30 * b03 + a31 * b13 + a32 * b23 + a33 * b33;
+
+        return dest;
+    }
+
+    // The product of two affine matrices, without the terms that are known to be zero
+    private Matrix4 multiplyAffine(Matrix4 m, Matrix4 dest)
+    {
+        float[] a = this.m;
+        float[] b = m.m;
+
+        float a00 = a[0], a01 = a[1], a02 = a[2];
+        float a10 = a[4], a11 = a[5], a12 = a[6];
+        float a20 = a[8], a21 = a[9], a22 = a[10];
+        float a30 = a[12], a31 = a[13], a32 = a[14];
+
+        float b00 = b[0], b01 = b[1], b02 = b[2];
+        float b10 = b[4], b11 = b[5], b12 = b[6];
+        float b20 = b[8], b21 = b[9], b22 = b[10];
+        float b30 = b[12], b31 = b[13], b32 = b[14];
+
+        float[] d = dest.m;
+
+        d[0] = a00 * b00 + a01 * b10 + a02 * b20;
+        d[1] = a00 * b01 + a01 * b11 + a02 * b21;
+        d[2] = a00 * b02 + a01 * b12 + a02 * b22;
+        d[3] = 0;
+
+        d[4] = a10 * b00 + a11 * b10 + a12 * b20;
+        d[5] = a10 * b01 + a11 * b11 + a12 * b21;
+        d[6] = a10 * b02 + a11 * b12 + a12 * b22;
+        d[7] = 0;
+
+        d[8] = a20 * b00 + a21 * b10 + a22 * b20;
+        d[9] = a20 * b01 + a21 * b11 + a22 * b21;
+        d[10] = a20 * b02 + a21 * b12 + a22 * b22;
+        d[11] = 0;
+
+        d[12] = a30 * b00 + a31 * b10 + a32 * b20 + b30;
+        d[13] = a30 * b01 + a31 * b11 + a32 * b21 + b31;
+        d[14] = a30 * b02 + a31 * b12 + a32 * b22 + b32;
+        d[15] = 1;
+
+        return dest;
+    }
 
-        for (int i=0; i<4; i++)
+    /**
+     * Multiplies this matrix with a translation, without building the translation
+     * matrix. This is the same as multiply(TransformUtils.createTranslation(v)).
+     *
+     * @return This matrix
+     */
+    public Matrix4 translate(float x, float y, float z)
+    {
+        // Only the first three columns change, by the last column times the translation
+        for (int i = 0; i < 16; i += 4)
         {
-            for (int j=0; j<4; j++)
-            {
-                for (int k=0; k<4; k++)
-                {
-                    temp[i][j] += this.m[i][k] * m.get(k, j);
-                }
-            }
+            float w = m[i + 3];
+
+            m[i]     += w * x;
+            m[i + 1] += w * y;
+            m[i + 2] += w * z;
         }
 
-        this.m = temp;
+        return this;
+    }
+
+    /**
+     * Multiplies this matrix with a scaling, without building the scaling matrix.
+     * This is the same as multiply(TransformUtils.createScaling(v)).
+     *
+     * @return This matrix
+     */
+    public Matrix4 scale(float x, float y, float z)
+    {
+        for (int i = 0; i < 16; i += 4)
+        {
+            m[i]     *= x;
+            m[i + 1] *= y;
+            m[i + 2] *= z;
+        }
 
         return this;
     }
 
     public Vector3 multiply(Vector3 v)
+    {
+        return multiply(v, new Vector3());
+    }
+
+    /**
+     * Transforms a point with this matrix, like the shaders do, and stores the
+     * result in dest. The translation of the matrix is applied to the point.
+     *
+     * @param v    The point to transform
+     * @param dest The vector to store the result in, which can be v
+     *
+     * @return The dest vector
+     */
+    public Vector3 multiply(Vector3 v, Vector3 dest)
     {
         float X = v.x;
         float Y = v.y;
         float Z = v.z;
         float W = 1;
 
-        float A = m[0][0], B = m[0][1], C = m[0][2], D = m[0][3];
-        float E = m[1][0], F = m[1][1], G = m[1][2], H = m[1][3];
-        float I = m[2][0], J = m[2][1], K = m[2][2], L = m[2][3];
+        float A = m[0], B = m[1], C = m[2];
+        float E = m[4], F = m[5], G = m[6];
+        float I = m[8], J = m[9], K = m[10];
+        float M = m[12], N = m[13], O = m[14];
 
+        // The elements are in the order OpenGL reads them, so the matrix that
+        // the vectors are multiplied with is the transpose of get(i, j)
         // /        \  /   \     /                       \
-        // | a b c d | | x |     | a.x + b.y + c.z + d.w |
-        // | e f g h | | y |     | e.x + f.y + g.z + h.w |
-        // | i j k l | | z |  =  | i.x + j.y + k.z + l.w |
-        // | m n o p | | w |     | m.x + n.y + o.z + p.w |  // IGNORE FOR Vector3
+        // | a e i m | | x |     | a.x + e.y + i.z + m.w |
+        // | b f j n | | y |     | b.x + f.y + j.z + n.w |
+        // | c g k o | | z |  =  | c.x + g.y + k.z + o.w |
+        // | d h l p | | w |     | d.x + h.y + l.z + p.w |  // IGNORE FOR Vector3
         // \        /  \   /     \                      /
 
-        return new Vector3(A * X + B * Y + C * Z + D * W,
-                E * X + F * Y + G * Z + H * W,
-                I * X + J * Y + K * Z + L * W);
+        return dest.set(A * X + E * Y + I * Z + M * W,
+                B * X + F * Y + J * Z + N * W,
+                C * X + G * Y + K * Z + O * W);
     }
 
     public Vector4 multiply(Vector4 v)
+    {
+        return multiply(v, new Vector4());
+    }
+
+    public Vector4 multiply(Vector4 v, Vector4 dest)
     {
         float X = v.x;
         float Y = v.y;
         float Z = v.z;
-        float W = 1;
+        float W = v.w;
 
-        float A = m[0][0], B = m[0][1], C = m[0][2], D = m[0][3];
-        float E = m[1][0], F = m[1][1], G = m[1][2], H = m[1][3];
-        float I = m[2][0], J = m[2][1], K = m[2][2], L = m[2][3];
-        float M = m[3][0], N = m[3][1], O = m[3][2], P = m[3][3];
+        float A = m[0],  B = m[1],  C = m[2],  D = m[3];
+        float E = m[4],  F = m[5],  G = m[6],  H = m[7];
+        float I = m[8],  J = m[9],  K = m[10], L = m[11];
+        float M = m[12], N = m[13], O = m[14], P = m[15];
 
         // /        \  /   \     /                       \
-        // | a b c d | | x |     | a.x + b.y + c.z + d.w |
-        // | e f g h | | y |     | e.x + f.y + g.z + h.w |
-        // | i j k l | | z |  =  | i.x + j.y + k.z + l.w |
-        // | m n o p | | w |     | m.x + n.y + o.z + p.w |
+        // | a e i m | | x |     | a.x + e.y + i.z + m.w |
+        // | b f j n | | y |     | b.x + f.y + j.z + n.w |
+        // | c g k o | | z |  =  | c.x + g.y + k.z + o.w |
+        // | d h l p | | w |     | d.x + h.y + l.z + p.w |
         // \        /  \   /     \                      /
 
-        return new Vector4(A * X + B * Y + C * Z + D * W,
-                E * X + F * Y + G * Z + H * W,
-                I * X + J * Y + K * Z + L * W,
-                M * X + N * Y + O * Z + P * W);
+        return dest.set(A * X + E * Y + I * Z + M * W,
+                B * X + F * Y + J * Z + N * W,
+                C * X + G * Y + K * Z + O * W,
+                D * X + H * Y + L * Z + P * W);
     }
 
-    public Matrix4 transpose()
+    /**
+     * Transforms points in bulk, like the shaders transform them. The points are
+     * packed as x, y and z triples, and the translation is applied to them.
+     * The source and the destination can be the same array at the same offset,
+     * but must not overlap otherwise.
+     *
+     * @param src        The array to read the points from
+     * @param srcOffset  The index of the first point in the source array
+     * @param dest       The array to write the transformed points into
+     * @param destOffset The index of the first point in the destination array
+     * @param count      The number of points to transform
+     */
+    public void transformPoints(float[] src, int srcOffset, float[] dest, int destOffset, int count)
     {
-        float[][] temp = new float[4][4];
+        transform(src, srcOffset, dest, destOffset, count, 1);
+    }
 
-        for (int i=0; i<4; i++)
+    public void transformPoints(float[] src, float[] dest)
+    {
+        transform(src, 0, dest, 0, src.length / 3, 1);
+    }
+
+    /**
+     * Transforms directions in bulk, like the shaders transform them. They are packed
+     * as x, y and z triples, the translation is not applied, and they are not normalized.
+     * The source and the destination can be the same array at the same offset,
+     * but must not overlap otherwise.
+     *
+     * @param src        The array to read the directions from
+     * @param srcOffset  The index of the first direction in the source array
+     * @param dest       The array to write the transformed directions into
+     * @param destOffset The index of the first direction in the destination array
+     * @param count      The number of directions to transform
+     */
+    public void transformDirections(float[] src, int srcOffset, float[] dest, int destOffset, int count)
+    {
+        transform(src, srcOffset, dest, destOffset, count, 0);
+    }
+
+    public void transformDirections(float[] src, float[] dest)
+    {
+        transform(src, 0, dest, 0, src.length / 3, 0);
+    }
+
+    // The translation is scaled by w, which is 1 for the points and 0 for the directions
+    private void transform(float[] src, int srcOffset, float[] dest, int destOffset, int count, float w)
+    {
+        float A = m[0], B = m[1], C = m[2];
+        float E = m[4], F = m[5], G = m[6];
+        float I = m[8], J = m[9], K = m[10];
+        float M = m[12] * w, N = m[13] * w, O = m[14] * w;
+
+        int s = srcOffset * 3;
+        int d = destOffset * 3;
+        int end = s + count * 3;
+
+        for (; s < end; s += 3, d += 3)
         {
-            for (int j=0; j<4; j++)
-            {
-                temp[i][j] = m[j][i];
-            }
+            float x = src[s];
+            float y = src[s + 1];
+            float z = src[s + 2];
+
+            dest[d]     = A * x + E * y + I * z + M;
+            dest[d + 1] = B * x + F * y + J * z + N;
+            dest[d + 2] = C * x + G * y + K * z + O;
         }
+    }
 
-        m = temp;
+    /**
+     * Transforms the points that remain in the source buffer, like the array
+     * version does, and puts them into the destination buffer. The positions
+     * of both the buffers are advanced by the floats read and written.
+     *
+     * @param src  The buffer to read the points from
+     * @param dest The buffer to put the transformed points into
+     */
+    public void transformPoints(FloatBuffer src, FloatBuffer dest)
+    {
+        transform(src, dest, 1);
+    }
 
-        return this;
+    /**
+     * Transforms the directions that remain in the source buffer, like the array
+     * version does, and puts them into the destination buffer. The positions
+     * of both the buffers are advanced by the floats read and written.
+     *
+     * @param src  The buffer to read the directions from
+     * @param dest The buffer to put the transformed directions into
+     */
+    public void transformDirections(FloatBuffer src, FloatBuffer dest)
+    {
+        transform(src, dest, 0);
+    }
+
+    private void transform(FloatBuffer src, FloatBuffer dest, float w)
+    {
+        float A = m[0], B = m[1], C = m[2];
+        float E = m[4], F = m[5], G = m[6];
+        float I = m[8], J = m[9], K = m[10];
+        float M = m[12] * w, N = m[13] * w, O = m[14] * w;
+
+        int s = src.position();
+        int d = dest.position();
+        int count = src.remaining() / 3;
+
+        if (dest.remaining() < count * 3)
+            throw new BufferOverflowException();
+
+        // Absolute gets and puts, so that the positions are only moved once
+        for (int i = 0; i < count; i++, s += 3, d += 3)
+        {
+            float x = src.get(s);
+            float y = src.get(s + 1);
+            float z = src.get(s + 2);
+
+            dest.put(d, A * x + E * y + I * z + M);
+            dest.put(d + 1, B * x + F * y + J * z + N);
+            dest.put(d + 2, C * x + G * y + K * z + O);
+        }
+
+        src.position(s);
+        dest.position(d);
+    }
+
+    public Matrix4 transpose()
+    {
+        return transpose(this);
+    }
+
+    public Matrix4 transpose(Matrix4 dest)
+    {
+        float[] a = m;
+        float[] d = dest.m;
+
+        float t;
+
+        // Swap the elements across the diagonal, which also works when dest is this matrix
+        t = a[1];  d[1]  = a[4];  d[4]  = t;
+        t = a[2];  d[2]  = a[8];  d[8]  = t;
+        t = a[3];  d[3]  = a[12]; d[12] = t;
+        t = a[6];  d[6]  = a[9];  d[9]  = t;
+        t = a[7];  d[7]  = a[13]; d[13] = t;
+        t = a[11]; d[11] = a[14]; d[14] = t;
+
+        d[0]  = a[0];
+        d[5]  = a[5];
+        d[10] = a[10];
+        d[15] = a[15];
+
+        return dest;
+    }
+
+    public float determinant()
+    {
+        if (isAffine())
+            return m[0] * (m[5] * m[10] - m[6] * m[9]) -
+                   m[1] * (m[4] * m[10] - m[6] * m[8]) +
+                   m[2] * (m[4] * m[9]  - m[5] * m[8]);
+
+        float s0 = m[0] * m[5] - m[4] * m[1];
+        float s1 = m[0] * m[6] - m[4] * m[2];
+        float s2 = m[0] * m[7] - m[4] * m[3];
+        float s3 = m[1] * m[6] - m[5] * m[2];
+        float s4 = m[1] * m[7] - m[5] * m[3];
+        float s5 = m[2] * m[7] - m[6] * m[3];
+
+        float c5 = m[10] * m[15] - m[14] * m[11];
+        float c4 = m[9]  * m[15] - m[13] * m[11];
+        float c3 = m[9]  * m[14] - m[13] * m[10];
+        float c2 = m[8]  * m[15] - m[12] * m[11];
+        float c1 = m[8]  * m[14] - m[12] * m[10];
+        float c0 = m[8]  * m[13] - m[12] * m[9];
+
+        return s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+    }
+
+    public Matrix4 invert()
+    {
+        return invert(this);
+    }
+
+    /**
+     * Inverts this matrix, and stores the inverse in dest. Affine matrices are
+     * inverted by inverting the rotation and scaling part, and applying it to
+     * the negated translation.
+     *
+     * @param dest The matrix to store the inverse in, which can be this matrix
+     *
+     * @return The dest matrix
+     *
+     * @throws SilenceException If this matrix is singular
+     */
+    public Matrix4 invert(Matrix4 dest)
+    {
+        if (isAffine())
+            return invertAffine(dest);
+
+        float[] a = m;
+
+        float a00 = a[0],  a01 = a[1],  a02 = a[2],  a03 = a[3];
+        float a10 = a[4],  a11 = a[5],  a12 = a[6],  a13 = a[7];
+        float a20 = a[8],  a21 = a[9],  a22 = a[10], a23 = a[11];
+        float a30 = a[12], a31 = a[13], a32 = a[14], a33 = a[15];
+
+        // The 2x2 determinants of the first two and the last two rows
+        float s0 = a00 * a11 - a10 * a01;
+        float s1 = a00 * a12 - a10 * a02;
+        float s2 = a00 * a13 - a10 * a03;
+        float s3 = a01 * a12 - a11 * a02;
+        float s4 = a01 * a13 - a11 * a03;
+        float s5 = a02 * a13 - a12 * a03;
+
+        float c5 = a22 * a33 - a32 * a23;
+        float c4 = a21 * a33 - a31 * a23;
+        float c3 = a21 * a32 - a31 * a22;
+        float c2 = a20 * a33 - a30 * a23;
+        float c1 = a20 * a32 - a30 * a22;
+        float c0 = a20 * a31 - a30 * a21;
+
+        float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+
+        if (det == 0)
+            throw new SilenceException("Cannot invert a singular matrix");
+
+        float invDet = 1 / det;
+
+        float[] d = dest.m;
+
+        d[0]  = ( a11 * c5 - a12 * c4 + a13 * c3) * invDet;
+        d[1]  = (-a01 * c5 + a02 * c4 - a03 * c3) * invDet;
+        d[2]  = ( a31 * s5 - a32 * s4 + a33 * s3) * invDet;
+        d[3]  = (-a21 * s5 + a22 * s4 - a23 * s3) * invDet;
+
+        d[4]  = (-a10 * c5 + a12 * c2 - a13 * c1) * invDet;
+        d[5]  = ( a00 * c5 - a02 * c2 + a03 * c1) * invDet;
+        d[6]  = (-a30 * s5 + a32 * s2 - a33 * s1) * invDet;
+        d[7]  = ( a20 * s5 - a22 * s2 + a23 * s1) * invDet;
+
+        d[8]  = ( a10 * c4 - a11 * c2 + a13 * c0) * invDet;
+        d[9]  = (-a00 * c4 + a01 * c2 - a03 * c0) * invDet;
+        d[10] = ( a30 * s4 - a31 * s2 + a33 * s0) * invDet;
+        d[11] = (-a20 * s4 + a21 * s2 - a23 * s0) * invDet;
+
+        d[12] = (-a10 * c3 + a11 * c1 - a12 * c0) * invDet;
+        d[13] = ( a00 * c3 - a01 * c1 + a02 * c0) * invDet;
+        d[14] = (-a30 * s3 + a31 * s1 - a32 * s0) * invDet;
+        d[15] = ( a20 * s3 - a21 * s1 + a22 * s0) * invDet;
+
+        return dest;
+    }
+
+    private Matrix4 invertAffine(Matrix4 dest)
+    {
+        float[] a = m;
+
+        float a00 = a[0],  a01 = a[1],  a02 = a[2];
+        float a10 = a[4],  a11 = a[5],  a12 = a[6];
+        float a20 = a[8],  a21 = a[9],  a22 = a[10];
+        float a30 = a[12], a31 = a[13], a32 = a[14];
+
+        // The cofactors of the first row
+        float c00 = a11 * a22 - a12 * a21;
+        float c01 = a12 * a20 - a10 * a22;
+        float c02 = a10 * a21 - a11 * a20;
+
+        float det = a00 * c00 + a01 * c01 + a02 * c02;
+
+        if (det == 0)
+            throw new SilenceException("Cannot invert a singular matrix");
+
+        float invDet = 1 / det;
+
+        // The inverse of the rotation and scaling part
+        float b00 = c00 * invDet;
+        float b01 = (a02 * a21 - a01 * a22) * invDet;
+        float b02 = (a01 * a12 - a02 * a11) * invDet;
+        float b10 = c01 * invDet;
+        float b11 = (a00 * a22 - a02 * a20) * invDet;
+        float b12 = (a02 * a10 - a00 * a12) * invDet;
+        float b20 = c02 * invDet;
+        float b21 = (a01 * a20 - a00 * a21) * invDet;
+        float b22 = (a00 * a11 - a01 * a10) * invDet;
+
+        float[] d = dest.m;
+
+        d[0]  = b00; d[1]  = b01; d[2]  = b02; d[3]  = 0;
+        d[4]  = b10; d[5]  = b11; d[6]  = b12; d[7]  = 0;
+        d[8]  = b20; d[9]  = b21; d[10] = b22; d[11] = 0;
+
+        // The translation is undone, in the space of the inverted matrix
+        d[12] = -(a30 * b00 + a31 * b10 + a32 * b20);
+        d[13] = -(a30 * b01 + a31 * b11 + a32 * b21);
+        d[14] = -(a30 * b02 + a31 * b12 + a32 * b22);
+        d[15] = 1;
+
+        return dest;
+    }
+
+    /**
+     * Stores the elements of this matrix into a buffer, in the order that OpenGL
+     * expects them. The elements are put at the current position of the buffer,
+     * which is advanced by 16.
+     *
+     * @param buffer The buffer to store the elements in
+     *
+     * @return The buffer
+     */
+    public FloatBuffer store(FloatBuffer buffer)
+    {
+        return buffer.put(m);
     }
 
     public Matrix4 copy()
@@ -186,12 +616,19 @@ public class Matrix4
 
     public float get(int x, int y)
     {
-        return m[x][y];
+        return m[x * 4 + y];
     }
 
     public Matrix4 set(int x, int j, float val)
     {
-        m[x][j] = val;
+        m[x * 4 + j] = val;
+
+        return this;
+    }
+
+    public Matrix4 set(Matrix4 m)
+    {
+        System.arraycopy(m.m, 0, this.m, 0, 16);
 
         return this;
     }
@@ -205,7 +642,7 @@ public class Matrix4
         {
             for (int j=0; j<4; j++)
             {
-                s.append(m[i][j]).append(' ');
+                s.append(m[i * 4 + j]).append(' ');
             }
             s.append('\n');
         }
@@ -17,16 +17,7 @@ public class Quaternion
 
     public Quaternion(Vector3 axis, float angle)
     {
-        angle = (float) Math.toRadians(angle) * 0.5f;
-        axis = axis.normalize();
-
-        float sinAngle = (float) Math.sin(angle);
-        float cosAngle = (float) Math.cos(angle);
-
-        x = axis.x * sinAngle;
-        y = axis.y * sinAngle;
-        z = axis.z * sinAngle;
-        w = cosAngle;
+        set(axis, angle);
     }
 
     public Quaternion(float pitch, float yaw, float roll)
@@ -76,14 +67,34 @@ public class Quaternion
         return subtract(q.x, q.y, q.z, q.w);
     }
 
+    public Quaternion addSelf(Quaternion q)
+    {
+        return set(x + q.x, y + q.y, z + q.z, w + q.w);
+    }
+
+    public Quaternion subtractSelf(Quaternion q)
+    {
+        return set(x - q.x, y - q.y, z - q.z, w - q.w);
+    }
+
     public Quaternion normalize()
+    {
+        return normalize(new Quaternion());
+    }
+
+    public Quaternion normalize(Quaternion dest)
     {
         float length = length();
 
         if (length == 0 || length == 1)
-            return copy();
+            return dest.set(this);
 
-        return new Quaternion(x/length, y/length, z/length, w/length);
+        return dest.set(x/length, y/length, z/length, w/length);
+    }
+
+    public Quaternion normalizeSelf()
+    {
+        return normalize(this);
     }
 
     public Quaternion conjugate()
@@ -91,27 +102,96 @@ public class Quaternion
         return new Quaternion(-x, -y, -z, w);
     }
 
+    public Quaternion conjugateSelf()
+    {
+        return set(-x, -y, -z, w);
+    }
+
     public Quaternion multiply(Quaternion q)
+    {
+        return multiply(q, new Quaternion());
+    }
+
+    public Quaternion multiply(Quaternion q, Quaternion dest)
     {
         float nx = w * q.x + x * q.w + y * q.z - z * q.y;
         float ny = w * q.y + y * q.w + z * q.x - x * q.z;
         float nz = w * q.z + z * q.w + x * q.y - y * q.x;
         float nw = w * q.w - x * q.x - y * q.y - z * q.z;
 
-        return new Quaternion(nx, ny, nz, nw).normalize();
+        return dest.set(nx, ny, nz, nw).normalizeSelf();
+    }
+
+    public Quaternion multiplySelf(Quaternion q)
+    {
+        return multiply(q, this);
     }
 
     public Vector3 multiply(Vector3 v)
     {
-        Vector3 vn = v.normalize();
+        return multiply(v, new Vector3());
+    }
+
+    /**
+     * Rotates a vector by this quaternion, and stores the result in dest. The
+     * product q * v * q' is expanded with v as a pure quaternion, so that no
+     * intermediate quaternions are created.
+     *
+     * @param v    The vector to rotate
+     * @param dest The vector to store the result in, which can be v
+     *
+     * @return The dest vector
+     */
+    public Vector3 multiply(Vector3 v, Vector3 dest)
+    {
+        float length = length();
+
+        if (length == 0)
+            return dest.set(v);
+
+        float qx = x / length;
+        float qy = y / length;
+        float qz = z / length;
+        float qw = w / length;
+
+        // t = 2 * (q x v), and v' = v + w * t + q x t
+        float tx = 2 * (qy * v.z - qz * v.y);
+        float ty = 2 * (qz * v.x - qx * v.z);
+        float tz = 2 * (qx * v.y - qy * v.x);
 
-        Quaternion q1 = conjugate();
-        Quaternion qv = new Quaternion(vn.x, vn.y, vn.z, 1);
+        float nx = v.x + qw * tx + (qy * tz - qz * ty);
+        float ny = v.y + qw * ty + (qz * tx - qx * tz);
+        float nz = v.z + qw * tz + (qx * ty - qy * tx);
 
-        qv = this.multiply(qv);
-        qv = qv.multiply(q1);
+        return dest.set(nx, ny, nz);
+    }
+
+    public Quaternion set(float x, float y, float z, float w)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+
+        return this;
+    }
+
+    public Quaternion set(Quaternion q)
+    {
+        return set(q.x, q.y, q.z, q.w);
+    }
+
+    public Quaternion set(Vector3 axis, float angle)
+    {
+        angle = (float) Math.toRadians(angle) * 0.5f;
+
+        // The axis is normalized by dividing the sine with its length
+        float length = axis.length();
+
+        float sinAngle = length == 0 ? 0 : (float) Math.sin(angle) / length;
+        float cosAngle = (float) Math.cos(angle);
 
-        return new Vector3(qv.x, qv.y, qv.z).normalize().scale(v.length());
+        return set(axis.x * sinAngle, axis.y * sinAngle, axis.z * sinAngle, cosAngle);
     }
 
     public Quaternion copy()
@@ -3,6 +3,10 @@ package com.shc.silenceengine.math;
 import com.shc.silenceengine.utils.TransformUtils;
 
 /**
+ * A transformation, kept as a Matrix4. Translations and scalings are applied
+ * to the matrix directly, and rotations through the temporary matrix of the
+ * TransformUtils, so transforming doesn't create any garbage.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class Transform
@@ -17,12 +21,13 @@ public class Transform
 
     public Transform translate(Vector2 v)
     {
-        return translate(new Vector3(v, 0));
+        tMatrix.translate(v.x, v.y, 0);
+        return this;
     }
 
     public Transform translate(Vector3 v)
     {
-        tMatrix.multiply(TransformUtils.createTranslation(v));
+        tMatrix.translate(v.x, v.y, v.z);
         return this;
     }
 
@@ -34,12 +39,13 @@ public class Transform
 
     public Transform scale(Vector2 scale)
     {
-        return scale(new Vector3(scale, 0));
+        tMatrix.scale(scale.x, scale.y, 0);
+        return this;
     }
 
     public Transform scale(Vector3 scale)
     {
-        tMatrix.multiply(TransformUtils.createScaling(scale));
+        tMatrix.scale(scale.x, scale.y, scale.z);
         return this;
     }
 
@@ -56,7 +62,13 @@ public class Transform
 
     public Transform copy()
     {
-        return new Transform().apply(tMatrix);
+        return new Transform().set(this);
+    }
+
+    public Transform set(Transform transform)
+    {
+        tMatrix.set(transform.getMatrix());
+        return this;
     }
 
     public Transform reset()
@@ -67,6 +67,24 @@ public class Vector2
         return add(v.x, v.y);
     }
 
+    public Vector2 add(Vector2 v, Vector2 dest)
+    {
+        return dest.set(x + v.x, y + v.y);
+    }
+
+    public Vector2 addSelf(float x, float y)
+    {
+        this.x += x;
+        this.y += y;
+
+        return this;
+    }
+
+    public Vector2 addSelf(Vector2 v)
+    {
+        return addSelf(v.x, v.y);
+    }
+
     public Vector2 subtract(float x, float y)
     {
         return add(-x, -y);
@@ -77,6 +95,21 @@ public class Vector2
         return add(-v.x, -v.y);
     }
 
+    public Vector2 subtract(Vector2 v, Vector2 dest)
+    {
+        return dest.set(x - v.x, y - v.y);
+    }
+
+    public Vector2 subtractSelf(float x, float y)
+    {
+        return addSelf(-x, -y);
+    }
+
+    public Vector2 subtractSelf(Vector2 v)
+    {
+        return addSelf(-v.x, -v.y);
+    }
+
     public Vector2 scale(float s)
     {
         return scale(s, s);
@@ -87,6 +120,24 @@ public class Vector2
         return new Vector2(x * sx, y * sy);
     }
 
+    public Vector2 scale(float s, Vector2 dest)
+    {
+        return dest.set(x * s, y * s);
+    }
+
+    public Vector2 scaleSelf(float s)
+    {
+        return scaleSelf(s, s);
+    }
+
+    public Vector2 scaleSelf(float sx, float sy)
+    {
+        x *= sx;
+        y *= sy;
+
+        return this;
+    }
+
     public float dot(Vector2 v)
     {
         return dot(v.x, v.y);
@@ -98,23 +149,51 @@ public class Vector2
     }
 
     public Vector2 normalize()
+    {
+        return normalize(new Vector2());
+    }
+
+    public Vector2 normalize(Vector2 dest)
     {
         float l = length();
 
-        return new Vector2(x/l, y/l);
+        return dest.set(x/l, y/l);
+    }
+
+    public Vector2 normalizeSelf()
+    {
+        return normalize(this);
     }
 
     public Vector2 rotate(float angle)
+    {
+        return rotate(angle, new Vector2());
+    }
+
+    public Vector2 rotate(float angle, Vector2 dest)
     {
         angle = (float) Math.toRadians(angle);
-        return new Vector2(x * (float) Math.cos(angle) - y * (float) Math.sin(angle),
-                           x * (float) Math.sin(angle) + y * (float) Math.cos(angle));
+
+        float s = (float) Math.sin(angle);
+        float c = (float) Math.cos(angle);
+
+        return dest.set(x * c - y * s, x * s + y * c);
+    }
+
+    public Vector2 rotateSelf(float angle)
+    {
+        return rotate(angle, this);
     }
 
     public Vector2 negate()
     {
         return new Vector2(-x, -y);
     }
+
+    public Vector2 negateSelf()
+    {
+        return set(-x, -y);
+    }
     
     public float angle()
     {
@@ -146,6 +225,13 @@ public class Vector2
         return new Vector2(x, y);
     }
 
+    public Vector2 lerpSelf(Vector2 target, float alpha)
+    {
+        final float oneMinusAlpha = 1f - alpha;
+
+        return set((x * oneMinusAlpha) + (target.x * alpha), (y * oneMinusAlpha) + (target.y * alpha));
+    }
+
     public Vector2 perpendicular()
     {
         return new Vector2(y, -x);
@@ -181,16 +267,17 @@ public class Vector2
         this.y = y;
     }
 
-    public void set(float x, float y)
+    public Vector2 set(float x, float y)
     {
         this.x = x;
         this.y = y;
+
+        return this;
     }
 
-    public void set(Vector2 v)
+    public Vector2 set(Vector2 v)
     {
-        this.x = v.x;
-        this.y = v.y;
+        return set(v.x, v.y);
     }
 
     @Override
@@ -68,6 +68,25 @@ public class Vector3
         return add(x, v.x, v.y);
     }
 
+    public Vector3 add(Vector3 v, Vector3 dest)
+    {
+        return dest.set(x + v.x, y + v.y, z + v.z);
+    }
+
+    public Vector3 addSelf(float x, float y, float z)
+    {
+        this.x += x;
+        this.y += y;
+        this.z += z;
+
+        return this;
+    }
+
+    public Vector3 addSelf(Vector3 v)
+    {
+        return addSelf(v.x, v.y, v.z);
+    }
+
     public Vector3 subtract(float x, float y, float z)
     {
         return add(-x, -y, -z);
@@ -88,6 +107,21 @@ public class Vector3
         return subtract(x, v.x, v.y);
     }
 
+    public Vector3 subtract(Vector3 v, Vector3 dest)
+    {
+        return dest.set(x - v.x, y - v.y, z - v.z);
+    }
+
+    public Vector3 subtractSelf(float x, float y, float z)
+    {
+        return addSelf(-x, -y, -z);
+    }
+
+    public Vector3 subtractSelf(Vector3 v)
+    {
+        return addSelf(-v.x, -v.y, -v.z);
+    }
+
     public Vector3 scale(float sx, float sy, float sz)
     {
         return new Vector3(x * sx, y * sy, z * sz);
@@ -98,6 +132,25 @@ public class Vector3
         return scale(s, s, s);
     }
 
+    public Vector3 scale(float s, Vector3 dest)
+    {
+        return dest.set(x * s, y * s, z * s);
+    }
+
+    public Vector3 scaleSelf(float s)
+    {
+        return scaleSelf(s, s, s);
+    }
+
+    public Vector3 scaleSelf(float sx, float sy, float sz)
+    {
+        x *= sx;
+        y *= sy;
+        z *= sz;
+
+        return this;
+    }
+
     public Vector3 cross(Vector3 v)
     {
         return cross(v.x, v.y, v.z);
@@ -105,21 +158,46 @@ public class Vector3
 
     public Vector3 cross(float vx, float vy, float vz)
     {
-        float x = this.x * vz - this.z * vy;
+        return cross(vx, vy, vz, new Vector3());
+    }
+
+    public Vector3 cross(Vector3 v, Vector3 dest)
+    {
+        return cross(v.x, v.y, v.z, dest);
+    }
+
+    public Vector3 cross(float vx, float vy, float vz, Vector3 dest)
+    {
+        float x = this.y * vz - this.z * vy;
         float y = this.z * vx - this.x * vz;
         float z = this.x * vy - this.y * vx;
 
-        return new Vector3(x, y, z);
+        return dest.set(x, y, z);
+    }
+
+    public Vector3 crossSelf(Vector3 v)
+    {
+        return cross(v.x, v.y, v.z, this);
     }
 
     public Vector3 normalize()
+    {
+        return normalize(new Vector3());
+    }
+
+    public Vector3 normalize(Vector3 dest)
     {
         float l = length();
-        
+
         if (l == 0 || l == 1)
-            return copy();
+            return dest.set(this);
 
-        return new Vector3(x/l, y/l, z/l);
+        return dest.set(x/l, y/l, z/l);
+    }
+
+    public Vector3 normalizeSelf()
+    {
+        return normalize(this);
     }
 
     public Vector3 negate()
@@ -127,6 +205,11 @@ public class Vector3
         return new Vector3(-x, -y, -z);
     }
 
+    public Vector3 negateSelf()
+    {
+        return set(-x, -y, -z);
+    }
+
     public float dot(Vector3 v)
     {
         return x*v.x + y*v.y + z*v.z;
@@ -172,34 +255,88 @@ public class Vector3
     
     public Vector3 rotate(Vector3 axis, float angle)
     {
-        return new Quaternion(axis, angle).multiply(this);
+        return rotate(axis, angle, new Vector3());
+    }
+
+    /**
+     * Rotates this vector around an axis, and stores the result in dest. This is the
+     * same rotation as the one done by a Quaternion, but is done with Rodrigues'
+     * formula so that no Quaternion is created.
+     *
+     * @param axis  The axis to rotate around, need not be normalized
+     * @param angle The angle to rotate by (in degrees)
+     * @param dest  The vector to store the result in, which can be this vector
+     *
+     * @return The dest vector
+     */
+    public Vector3 rotate(Vector3 axis, float angle, Vector3 dest)
+    {
+        float l = axis.length();
+
+        if (l == 0)
+            return dest.set(this);
+
+        float kx = axis.x / l;
+        float ky = axis.y / l;
+        float kz = axis.z / l;
+
+        angle = (float) Math.toRadians(angle);
+
+        float s = (float) Math.sin(angle);
+        float c = (float) Math.cos(angle);
+
+        // v * cos + (k x v) * sin + k * (k . v) * (1 - cos)
+        float d = (kx * x + ky * y + kz * z) * (1 - c);
+
+        float nx = x * c + (ky * z - kz * y) * s + kx * d;
+        float ny = y * c + (kz * x - kx * z) * s + ky * d;
+        float nz = z * c + (kx * y - ky * x) * s + kz * d;
+
+        return dest.set(nx, ny, nz);
+    }
+
+    public Vector3 rotateSelf(Vector3 axis, float angle)
+    {
+        return rotate(axis, angle, this);
     }
     
     public Vector3 lerp(Vector3 target, float alpha)
     {
-        return scale(1f - alpha).add(target.scale(alpha));
+        return lerp(target, alpha, new Vector3());
     }
 
-    public Vector3 multiply(Matrix3 m)
+    public Vector3 lerp(Vector3 target, float alpha, Vector3 dest)
     {
-        Vector3 result = new Vector3();
+        final float oneMinusAlpha = 1f - alpha;
 
-        result.x = x * m.get(0, 0) + y * m.get(0, 1) + z * m.get(0, 2);
-        result.y = x * m.get(1, 0) + y * m.get(1, 1) + z * m.get(1, 2);
-        result.z = x * m.get(2, 0) + y * m.get(2, 1) + z * m.get(2, 2);
+        return dest.set((x * oneMinusAlpha) + (target.x * alpha),
+                        (y * oneMinusAlpha) + (target.y * alpha),
+                        (z * oneMinusAlpha) + (target.z * alpha));
+    }
 
-        return result;
+    public Vector3 lerpSelf(Vector3 target, float alpha)
+    {
+        return lerp(target, alpha, this);
     }
 
-    public Vector3 multiply(Matrix4 m)
+    public Vector3 multiply(Matrix3 m)
     {
-        Vector3 result = new Vector3();
+        return multiply(m, new Vector3());
+    }
 
-        result.x = x * m.get(0, 0) + y * m.get(0, 1) + z * m.get(0, 2) + 1 * m.get(0, 3);
-        result.y = x * m.get(1, 0) + y * m.get(1, 1) + z * m.get(1, 2) + 1 * m.get(1, 3);
-        result.z = x * m.get(2, 0) + y * m.get(2, 1) + z * m.get(2, 2) + 1 * m.get(2, 3);
+    public Vector3 multiply(Matrix3 m, Vector3 dest)
+    {
+        return m.multiply(this, dest);
+    }
 
-        return result;
+    public Vector3 multiply(Matrix4 m)
+    {
+        return multiply(m, new Vector3());
+    }
+
+    public Vector3 multiply(Matrix4 m, Vector3 dest)
+    {
+        return m.multiply(this, dest);
     }
 
     public Vector3 copy()
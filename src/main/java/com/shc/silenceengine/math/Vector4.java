@@ -87,6 +87,26 @@ public class Vector4
         return add(x, y, v.x, v.y);
     }
 
+    public Vector4 add(Vector4 v, Vector4 dest)
+    {
+        return dest.set(x + v.x, y + v.y, z + v.z, w + v.w);
+    }
+
+    public Vector4 addSelf(float x, float y, float z, float w)
+    {
+        this.x += x;
+        this.y += y;
+        this.z += z;
+        this.w += w;
+
+        return this;
+    }
+
+    public Vector4 addSelf(Vector4 v)
+    {
+        return addSelf(v.x, v.y, v.z, v.w);
+    }
+
     public Vector4 subtract(float x, float y, float z, float w)
     {
         return add(-x, -y, -z, -w);
@@ -122,6 +142,21 @@ public class Vector4
         return subtract(x, y, v.x, v.y);
     }
 
+    public Vector4 subtract(Vector4 v, Vector4 dest)
+    {
+        return dest.set(x - v.x, y - v.y, z - v.z, w - v.w);
+    }
+
+    public Vector4 subtractSelf(float x, float y, float z, float w)
+    {
+        return addSelf(-x, -y, -z, -w);
+    }
+
+    public Vector4 subtractSelf(Vector4 v)
+    {
+        return addSelf(-v.x, -v.y, -v.z, -v.w);
+    }
+
     public Vector4 scale(float s)
     {
         return scale(s, s, s, s);
@@ -132,6 +167,26 @@ public class Vector4
         return new Vector4(x * sx, y * sy, z * sz, w * sw);
     }
 
+    public Vector4 scale(float s, Vector4 dest)
+    {
+        return dest.set(x * s, y * s, z * s, w * s);
+    }
+
+    public Vector4 scaleSelf(float s)
+    {
+        return scaleSelf(s, s, s, s);
+    }
+
+    public Vector4 scaleSelf(float sx, float sy, float sz, float sw)
+    {
+        x *= sx;
+        y *= sy;
+        z *= sz;
+        w *= sw;
+
+        return this;
+    }
+
     public float dot(Vector4 v)
     {
         return x*v.x + y*v.y + z*v.z + w*v.w;
@@ -148,13 +203,23 @@ public class Vector4
     }
 
     public Vector4 normalize()
+    {
+        return normalize(new Vector4());
+    }
+
+    public Vector4 normalize(Vector4 dest)
     {
         float l = length();
 
         if (l == 0 || l == 1)
-            return copy();
+            return dest.set(this);
+
+        return dest.set(x/l, y/l, z/l, w/l);
+    }
 
-        return new Vector4(x/l, y/l, z/l, w/l);
+    public Vector4 normalizeSelf()
+    {
+        return normalize(this);
     }
 
     public Vector4 negate()
@@ -162,11 +227,36 @@ public class Vector4
         return new Vector4(-x, -y, -z, -w);
     }
 
+    public Vector4 negateSelf()
+    {
+        return set(-x, -y, -z, -w);
+    }
+
     public Vector4 multiply(Vector4 v)
     {
         return scale(v.x, v.y, v.z, v.w);
     }
 
+    public Vector4 multiplySelf(Vector4 v)
+    {
+        return scaleSelf(v.x, v.y, v.z, v.w);
+    }
+
+    public Vector4 set(float x, float y, float z, float w)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+
+        return this;
+    }
+
+    public Vector4 set(Vector4 v)
+    {
+        return set(v.x, v.y, v.z, v.w);
+    }
+
     public Vector4 copy()
     {
         return new Vector4(this);
@@ -12,6 +12,10 @@ import java.util.Collections;
 import java.util.List;
 
 /**
+ * A node in the scene graph. Every node can have children, and the callbacks
+ * added to a node are notified when a node is added to or removed from the
+ * tree below it, including the children of its children.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class SceneNode
@@ -22,6 +26,13 @@ public class SceneNode
     private Transform       transform;
     private boolean         destroyed;
 
+    // The transform combined with the transforms of the parents, created when needed
+    private Transform worldTransform;
+
+    // The callbacks notified of the changes in the tree below this node, created when needed
+    private List<IChildAddedCallback>   childAddedCallbacks;
+    private List<IChildRemovedCallback> childRemovedCallbacks;
+
     private static int idGenerator = 0;
     private int id;
 
@@ -60,6 +71,8 @@ public class SceneNode
         child.setParent(this);
         child.init();
 
+        notifyChildAdded(child);
+
         if (child instanceof Entity2D)
         {
             // Sort the Entity2D's in children based on their depth
@@ -179,6 +192,8 @@ public class SceneNode
 
         child.destroy();
         children.remove(child);
+
+        notifyChildRemoved(child);
         child.setParent(null);
     }
 
@@ -200,7 +215,12 @@ public class SceneNode
 
     public void destroyChildren()
     {
-        children.forEach(SceneNode::destroy);
+        for (SceneNode child : children)
+        {
+            child.destroy();
+            notifyChildRemoved(child);
+        }
+
         children.clear();
     }
 
@@ -210,6 +230,78 @@ public class SceneNode
         components.clear();
     }
 
+    /**
+     * Adds a callback that is notified when a node is added to the tree below this
+     * node. When a node with children is added, the callback is notified of the
+     * node first, and then of every node below it.
+     *
+     * @param callback The callback to notify
+     */
+    public void addChildAddedCallback(IChildAddedCallback callback)
+    {
+        if (childAddedCallbacks == null)
+            childAddedCallbacks = new ArrayList<>();
+
+        childAddedCallbacks.add(callback);
+    }
+
+    public void removeChildAddedCallback(IChildAddedCallback callback)
+    {
+        if (childAddedCallbacks != null)
+            childAddedCallbacks.remove(callback);
+    }
+
+    /**
+     * Adds a callback that is notified when a node is removed from the tree below
+     * this node. When a node with children is removed, the callback is notified of
+     * every node below it first, and then of the node itself.
+     *
+     * @param callback The callback to notify
+     */
+    public void addChildRemovedCallback(IChildRemovedCallback callback)
+    {
+        if (childRemovedCallbacks == null)
+            childRemovedCallbacks = new ArrayList<>();
+
+        childRemovedCallbacks.add(callback);
+    }
+
+    public void removeChildRemovedCallback(IChildRemovedCallback callback)
+    {
+        if (childRemovedCallbacks != null)
+            childRemovedCallbacks.remove(callback);
+    }
+
+    // Notifies this node and all its parents of an added node, and of the nodes below it
+    private void notifyChildAdded(SceneNode child)
+    {
+        for (SceneNode node = this; node != null; node = node.getParent())
+        {
+            if (node.childAddedCallbacks != null)
+            {
+                for (int i = 0; i < node.childAddedCallbacks.size(); i++)
+                    node.childAddedCallbacks.get(i).invoke(child);
+            }
+        }
+
+        for (int i = 0; i < child.children.size(); i++)
+            notifyChildAdded(child.children.get(i));
+    }
+
+    // Notifies this node and all its parents of a removed node. The nodes below it are
+    // notified when they are destroyed along with it
+    private void notifyChildRemoved(SceneNode child)
+    {
+        for (SceneNode node = this; node != null; node = node.getParent())
+        {
+            if (node.childRemovedCallbacks != null)
+            {
+                for (int i = 0; i < node.childRemovedCallbacks.size(); i++)
+                    node.childRemovedCallbacks.get(i).invoke(child);
+            }
+        }
+    }
+
     public List<SceneNode> getChildren()
     {
         return children;
@@ -230,12 +322,39 @@ public class SceneNode
         this.parent = parent;
     }
 
+    /**
+     * Returns the transform of this node combined with the transforms of all its
+     * parents. A new transform is returned for a node that has a parent, so it can
+     * be kept, and changing it doesn't change this node. Use getWorldTransform()
+     * to avoid creating a transform when it is used right away.
+     *
+     * @return The transform of this node in the scene
+     */
     public Transform getTransform()
     {
-        if (getParent() != null)
-            return transform.copy().apply(parent.getTransform());
-        else
+        if (getParent() == null)
             return transform;
+
+        return new Transform().set(transform).apply(parent.getWorldTransform());
+    }
+
+    /**
+     * Returns the transform of this node combined with the transforms of all its
+     * parents, like getTransform(), without creating a new transform. The combined
+     * transform is reused, so it is only valid until getWorldTransform() is called
+     * again on this node or on any of its children, and should not be kept.
+     *
+     * @return The transform of this node in the scene, valid until the next call
+     */
+    public Transform getWorldTransform()
+    {
+        if (getParent() == null)
+            return transform;
+
+        if (worldTransform == null)
+            worldTransform = new Transform();
+
+        return worldTransform.set(transform).apply(parent.getWorldTransform());
     }
 
     public Transform getLocalTransform()
@@ -252,4 +371,16 @@ public class SceneNode
     {
         return id;
     }
+
+    @FunctionalInterface
+    public static interface IChildAddedCallback
+    {
+        public void invoke(SceneNode child);
+    }
+
+    @FunctionalInterface
+    public static interface IChildRemovedCallback
+    {
+        public void invoke(SceneNode child);
+    }
 }
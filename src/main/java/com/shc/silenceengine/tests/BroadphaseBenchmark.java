@@ -0,0 +1,481 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.collision.broadphase.DynamicTree2D;
+import com.shc.silenceengine.collision.broadphase.DynamicTree3D;
+import com.shc.silenceengine.collision.broadphase.Grid;
+import com.shc.silenceengine.collision.broadphase.Grid3D;
+import com.shc.silenceengine.collision.broadphase.IBroadphaseResolver2D;
+import com.shc.silenceengine.collision.broadphase.IBroadphaseResolver3D;
+import com.shc.silenceengine.collision.broadphase.LooseQuadTree;
+import com.shc.silenceengine.collision.broadphase.Octree;
+import com.shc.silenceengine.collision.broadphase.QuadTree;
+import com.shc.silenceengine.collision.broadphase.SpatialHash2D;
+import com.shc.silenceengine.collision.broadphase.SpatialHash3D;
+import com.shc.silenceengine.collision.broadphase.SweepAndPrune2D;
+import com.shc.silenceengine.collision.colliders.DynamicSceneCollider2D;
+import com.shc.silenceengine.collision.colliders.DynamicSceneCollider3D;
+import com.shc.silenceengine.collision.colliders.GridSceneCollider;
+import com.shc.silenceengine.collision.colliders.GridSceneCollider3D;
+import com.shc.silenceengine.collision.colliders.OctreeSceneCollider;
+import com.shc.silenceengine.collision.colliders.QuadTreeSceneCollider;
+import com.shc.silenceengine.collision.colliders.SceneCollider2D;
+import com.shc.silenceengine.collision.colliders.SceneCollider3D;
+import com.shc.silenceengine.collision.colliders.SpatialHashSceneCollider2D;
+import com.shc.silenceengine.collision.colliders.SpatialHashSceneCollider3D;
+import com.shc.silenceengine.collision.colliders.SweepAndPruneSceneCollider;
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.entity.Entity3D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.geom3d.Cuboid;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.scene.Scene;
+import com.shc.silenceengine.scene.SceneNode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the broadphase resolvers and the scene colliders that use them. Every
+ * resolver is measured for the insertion, the update and the retrieval of the
+ * entities, and for finding all the overlapping pairs. Every collider is measured
+ * for a full checkCollisions() of a frame. The entities are placed with several
+ * distributions, and moved with several motion patterns. The time is reported
+ * along with the bytes allocated by the measured operation, so the garbage made
+ * in a frame can be compared too.
+ * <p>
+ * This benchmark doesn't need a Display, and can be run directly. The entity
+ * counts can be passed as the arguments, the default is 1000 to 200000 entities.
+ * The larger counts take a few minutes with the slower resolvers.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class BroadphaseBenchmark
+{
+    private static final int[] DEFAULT_COUNTS = {1000, 10000, 50000, 200000};
+
+    // The time spent warming up and measuring every operation
+    private static final long WARMUP_TIME  = 200_000_000L;
+    private static final long MEASURE_TIME = 500_000_000L;
+
+    // The number of entities queried in a retrieve, the size of a cell, and the spacing of the entities
+    private static final int   NUM_QUERIES = 1024;
+    private static final int   CELL_SIZE   = 64;
+    private static final float SPACING     = 32;
+
+    // The number of entities in a scene node, since every added Entity2D sorts the children of its parent
+    private static final int GROUP_SIZE = 1024;
+
+    private static final String[] DISTRIBUTIONS = {"Uniform", "Clustered", "Streams"};
+    private static final String[] MOTIONS       = {"Static", "Random", "Stream"};
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    // Keeps the results alive, so that the operations are not optimized away
+    private static int sink;
+
+    public static void main(String[] args)
+    {
+        int[] counts = DEFAULT_COUNTS;
+
+        if (args.length > 0)
+        {
+            counts = new int[args.length];
+
+            for (int i = 0; i < args.length; i++)
+                counts[i] = Integer.parseInt(args[i]);
+        }
+
+        if (getAllocatedBytes() < 0)
+            System.out.println("The allocations can't be measured on this JVM, they are reported as -1");
+
+        for (int count : counts)
+        {
+            for (int distribution = 0; distribution < DISTRIBUTIONS.length; distribution++)
+            {
+                run2D(count, distribution);
+                run3D(count, distribution);
+            }
+        }
+
+        System.out.println("Sink: " + sink);
+    }
+
+    private static void run2D(int count, int distribution)
+    {
+        int size = (int) Math.ceil(Math.sqrt(count) * SPACING);
+
+        String[] names = {"Grid", "QuadTree", "LooseQuadTree", "DynamicTree2D", "SpatialHash2D", "SweepAndPrune2D"};
+
+        List<Supplier<IBroadphaseResolver2D>> resolvers = Arrays.asList(
+                () -> new Grid(size, size, CELL_SIZE, CELL_SIZE),
+                () -> new QuadTree(size, size),
+                () -> new LooseQuadTree(size, size),
+                DynamicTree2D::new,
+                () -> new SpatialHash2D(CELL_SIZE),
+                SweepAndPrune2D::new
+        );
+
+        String[] colliderNames = {"GridSceneCollider", "QuadTreeSceneCollider", "DynamicSceneCollider2D",
+                                  "SpatialHashSceneCollider2D", "SweepAndPruneSceneCollider"};
+
+        List<Supplier<SceneCollider2D>> colliders = Arrays.asList(
+                () -> new GridSceneCollider(size, size, CELL_SIZE, CELL_SIZE),
+                () -> new QuadTreeSceneCollider(size, size),
+                DynamicSceneCollider2D::new,
+                () -> new SpatialHashSceneCollider2D(CELL_SIZE),
+                SweepAndPruneSceneCollider::new
+        );
+
+        printHeader("2D", count, distribution);
+
+        for (int r = 0; r < resolvers.size(); r++)
+        {
+            IBroadphaseResolver2D resolver = resolvers.get(r).get();
+            Entity2D[] entities = createEntities2D(count, size, distribution, 0);
+
+            double[] insert = measure(resolver::clear, () ->
+            {
+                for (Entity2D entity : entities)
+                    resolver.insert(entity);
+            });
+
+            double[] retrieve = measure(null, () ->
+            {
+                for (int i = 0; i < NUM_QUERIES; i++)
+                    sink += resolver.retrieve(entities[(int) ((long) i * count / NUM_QUERIES)]).size();
+            });
+
+            double[] pairs = measure(null, () -> resolver.forEachOverlappingPair((a, b) -> sink++));
+
+            printResult(names[r], "Insert", insert, count, "entity");
+            printResult(names[r], "Retrieve", retrieve, NUM_QUERIES, "query");
+            printResult(names[r], "Pairs", pairs, 1, "frame");
+
+            for (int motion = 1; motion < MOTIONS.length; motion++)
+            {
+                Entity2D[] moving = createEntities2D(count, size, distribution, motion);
+
+                resolver.clear();
+
+                for (Entity2D entity : moving)
+                    resolver.insert(entity);
+
+                double[] update = measure(() -> move2D(moving, size), () ->
+                {
+                    for (Entity2D entity : moving)
+                        resolver.update(entity);
+                });
+
+                printResult(names[r], "Update (" + MOTIONS[motion] + ")", update, count, "entity");
+            }
+        }
+
+        for (int c = 0; c < colliders.size(); c++)
+        {
+            for (int motion = 0; motion < MOTIONS.length; motion++)
+            {
+                Entity2D[] entities = createEntities2D(count, size, distribution, motion);
+                Scene scene = createScene(entities);
+
+                SceneCollider2D collider = colliders.get(c).get();
+                collider.setScene(scene);
+                collider.register(Entity2D.class, Entity2D.class);
+
+                double[] collisions = measure(() -> move2D(entities, size), collider::checkCollisions);
+
+                printResult(colliderNames[c], "Collide (" + MOTIONS[motion] + ")", collisions, 1, "frame");
+            }
+        }
+    }
+
+    private static void run3D(int count, int distribution)
+    {
+        int size = (int) Math.ceil(Math.cbrt(count) * SPACING);
+
+        Vector3 min = new Vector3(0, 0, 0);
+        Vector3 max = new Vector3(size, size, size);
+
+        String[] names = {"Grid3D", "Octree", "DynamicTree3D", "SpatialHash3D"};
+
+        List<Supplier<IBroadphaseResolver3D>> resolvers = Arrays.asList(
+                () -> new Grid3D(min, max, CELL_SIZE),
+                () -> new Octree(min, max),
+                DynamicTree3D::new,
+                () -> new SpatialHash3D(CELL_SIZE)
+        );
+
+        String[] colliderNames = {"GridSceneCollider3D", "OctreeSceneCollider", "DynamicSceneCollider3D",
+                                  "SpatialHashSceneCollider3D"};
+
+        List<Supplier<SceneCollider3D>> colliders = Arrays.asList(
+                () -> new GridSceneCollider3D(min, max, CELL_SIZE),
+                () -> new OctreeSceneCollider(min, max),
+                DynamicSceneCollider3D::new,
+                () -> new SpatialHashSceneCollider3D(CELL_SIZE)
+        );
+
+        printHeader("3D", count, distribution);
+
+        for (int r = 0; r < resolvers.size(); r++)
+        {
+            IBroadphaseResolver3D resolver = resolvers.get(r).get();
+            Entity3D[] entities = createEntities3D(count, size, distribution, 0);
+
+            double[] insert = measure(resolver::clear, () ->
+            {
+                for (Entity3D entity : entities)
+                    resolver.insert(entity);
+            });
+
+            double[] retrieve = measure(null, () ->
+            {
+                for (int i = 0; i < NUM_QUERIES; i++)
+                    sink += resolver.retrieve(entities[(int) ((long) i * count / NUM_QUERIES)]).size();
+            });
+
+            double[] pairs = measure(null, () -> resolver.forEachOverlappingPair((a, b) -> sink++));
+
+            printResult(names[r], "Insert", insert, count, "entity");
+            printResult(names[r], "Retrieve", retrieve, NUM_QUERIES, "query");
+            printResult(names[r], "Pairs", pairs, 1, "frame");
+
+            for (int motion = 1; motion < MOTIONS.length; motion++)
+            {
+                Entity3D[] moving = createEntities3D(count, size, distribution, motion);
+
+                resolver.clear();
+
+                for (Entity3D entity : moving)
+                    resolver.insert(entity);
+
+                double[] update = measure(() -> move3D(moving, size), () ->
+                {
+                    for (Entity3D entity : moving)
+                        resolver.update(entity);
+                });
+
+                printResult(names[r], "Update (" + MOTIONS[motion] + ")", update, count, "entity");
+            }
+        }
+
+        for (int c = 0; c < colliders.size(); c++)
+        {
+            for (int motion = 0; motion < MOTIONS.length; motion++)
+            {
+                Entity3D[] entities = createEntities3D(count, size, distribution, motion);
+                Scene scene = createScene(entities);
+
+                SceneCollider3D collider = colliders.get(c).get();
+                collider.setScene(scene);
+                collider.register(Entity3D.class, Entity3D.class);
+
+                double[] collisions = measure(() -> move3D(entities, size), collider::checkCollisions);
+
+                printResult(colliderNames[c], "Collide (" + MOTIONS[motion] + ")", collisions, 1, "frame");
+            }
+        }
+    }
+
+    // Creates the same entities for the same arguments, so that every resolver gets the same input
+    private static Entity2D[] createEntities2D(int count, int size, int distribution, int motion)
+    {
+        Random random = new Random(count * 31 + distribution);
+        Entity2D[] entities = new Entity2D[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            float width = 8 + random.nextInt(16);
+            float height = 8 + random.nextInt(16);
+
+            Entity2D entity = new Entity2D(new Rectangle(0, 0, width, height));
+            entity.setPosition(new Vector2(getCoordinate(random, size - width, distribution, 0),
+                    getCoordinate(random, size - height, distribution, 1)));
+
+            if (motion == 1)
+                entity.setVelocity(new Vector2(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2));
+            else if (motion == 2)
+                entity.setVelocity(new Vector2(1 + random.nextFloat(), 0));
+
+            entities[i] = entity;
+        }
+
+        return entities;
+    }
+
+    private static Entity3D[] createEntities3D(int count, int size, int distribution, int motion)
+    {
+        Random random = new Random(count * 31 + distribution);
+        Entity3D[] entities = new Entity3D[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            float width = 8 + random.nextInt(16);
+            float height = 8 + random.nextInt(16);
+            float thickness = 8 + random.nextInt(16);
+
+            Entity3D entity = new Entity3D(new Cuboid(new Vector3(), width, height, thickness));
+
+            // The position of an Entity3D is the center of its bounds
+            entity.setPosition(new Vector3(getCoordinate(random, size - width, distribution, 0) + width / 2,
+                    getCoordinate(random, size - height, distribution, 1) + height / 2,
+                    getCoordinate(random, size - thickness, distribution, 2) + thickness / 2));
+
+            if (motion == 1)
+                entity.setVelocity(new Vector3(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2,
+                        random.nextFloat() * 4 - 2));
+            else if (motion == 2)
+                entity.setVelocity(new Vector3(1 + random.nextFloat(), 0, 0));
+
+            entities[i] = entity;
+        }
+
+        return entities;
+    }
+
+    // Returns a coordinate along an axis in [0, size] for a distribution
+    private static float getCoordinate(Random random, float size, int distribution, int axis)
+    {
+        switch (distribution)
+        {
+            case 1:
+                // Gaussian clusters around the points of a coarse lattice
+                float cluster = (random.nextInt(4) + 0.5f) * size / 4;
+                return clamp(cluster + (float) random.nextGaussian() * size / 32, size);
+
+            case 2:
+                // Thin lines along the X axis, like streams of bullets
+                if (axis == 0)
+                    return random.nextFloat() * size;
+
+                float line = (random.nextInt(16) + 0.5f) * size / 16;
+                return clamp(line + random.nextFloat() * 8, size);
+
+            default:
+                return random.nextFloat() * size;
+        }
+    }
+
+    private static float clamp(float value, float size)
+    {
+        return Math.max(0, Math.min(value, size));
+    }
+
+    // Moves the entities by their velocities, and turns them back at the borders of the world
+    private static void move2D(Entity2D[] entities, int size)
+    {
+        for (Entity2D entity : entities)
+        {
+            entity.preUpdate(1);
+
+            Vector2 position = entity.getPosition();
+            Vector2 velocity = entity.getVelocity();
+
+            if (position.x < 0 || position.x + entity.getWidth() > size) velocity.x = -velocity.x;
+            if (position.y < 0 || position.y + entity.getHeight() > size) velocity.y = -velocity.y;
+        }
+    }
+
+    private static void move3D(Entity3D[] entities, int size)
+    {
+        for (Entity3D entity : entities)
+        {
+            entity.preUpdate(1);
+
+            Vector3 position = entity.getPosition();
+            Vector3 velocity = entity.getVelocity();
+
+            if (position.x < 0 || position.x > size) velocity.x = -velocity.x;
+            if (position.y < 0 || position.y > size) velocity.y = -velocity.y;
+            if (position.z < 0 || position.z > size) velocity.z = -velocity.z;
+        }
+    }
+
+    // Adds the entities to a scene in groups. The collider finds the entities in the groups too
+    private static Scene createScene(SceneNode[] entities)
+    {
+        Scene scene = new Scene();
+        SceneNode group = null;
+
+        for (int i = 0; i < entities.length; i++)
+        {
+            if (i % GROUP_SIZE == 0)
+            {
+                group = new SceneNode();
+                scene.addChild(group);
+            }
+
+            group.addChild(entities[i]);
+        }
+
+        return scene;
+    }
+
+    // Returns the average time in nanoseconds and the average bytes allocated by an operation
+    private static double[] measure(Runnable prepare, Runnable operation)
+    {
+        long warmupEnd = System.nanoTime() + WARMUP_TIME;
+
+        do
+        {
+            if (prepare != null)
+                prepare.run();
+
+            operation.run();
+        }
+        while (System.nanoTime() < warmupEnd);
+
+        long time = 0;
+        long bytes = 0;
+        int runs = 0;
+
+        do
+        {
+            if (prepare != null)
+                prepare.run();
+
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+
+            operation.run();
+
+            time += System.nanoTime() - start;
+            bytes += getAllocatedBytes() - allocated;
+            runs++;
+        }
+        while (time < MEASURE_TIME);
+
+        return new double[]{time / (double) runs, getAllocatedBytes() < 0 ? -1 : bytes / (double) runs};
+    }
+
+    // Returns the bytes allocated by the current thread, or -1 if the JVM can't measure them
+    private static long getAllocatedBytes()
+    {
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    private static void printHeader(String dimension, int count, int distribution)
+    {
+        System.out.println();
+        System.out.printf("%s, %d entities, %s%n", dimension, count, DISTRIBUTIONS[distribution]);
+        System.out.printf("%-28s %-18s %14s %16s %16s%n", "Resolver", "Operation", "Time (ns)", "Per", "Bytes / run");
+    }
+
+    // Prints the time per item, and the bytes allocated by a whole run of the operation
+    private static void printResult(String name, String operation, double[] result, int items, String per)
+    {
+        System.out.printf("%-28s %-18s %14.1f %16s %16.0f%n", name, operation, result[0] / items, per, result[1]);
+    }
+}
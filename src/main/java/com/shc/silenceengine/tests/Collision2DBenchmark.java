@@ -0,0 +1,109 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.collision.Collision2D;
+import com.shc.silenceengine.geom2d.Circle;
+import com.shc.silenceengine.geom2d.Polygon;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken by the closed form collision tests of Collision2D for
+ * every pair of shape types, and compares it with the time taken by SAT for the
+ * same pairs. This benchmark doesn't need a Display, and can be run directly.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Collision2DBenchmark
+{
+    private static final int NUM_PAIRS  = 1024;
+    private static final int ITERATIONS = 2000;
+    private static final int WARMUP     = 500;
+
+    private static final String[] SHAPE_NAMES = {"Polygon", "AABB", "Circle"};
+
+    // Keeps the results alive, so that the tests are not optimized away
+    private static int sink;
+
+    public static void main(String[] args)
+    {
+        Random random = new Random(42);
+
+        System.out.printf("%-18s %12s %12s %9s%n", "Pair", "SAT (ns)", "Fast (ns)", "Speedup");
+
+        for (int typeA = 0; typeA < 3; typeA++)
+        {
+            for (int typeB = 0; typeB < 3; typeB++)
+            {
+                Polygon[] as = new Polygon[NUM_PAIRS];
+                Polygon[] bs = new Polygon[NUM_PAIRS];
+
+                for (int i = 0; i < NUM_PAIRS; i++)
+                {
+                    as[i] = createShape(random, typeA);
+                    bs[i] = createShape(random, typeB);
+                }
+
+                double sat = measure(as, bs, false);
+                double fast = measure(as, bs, true);
+
+                System.out.printf("%-18s %12.1f %12.1f %8.1fx%n",
+                        SHAPE_NAMES[typeA] + "-" + SHAPE_NAMES[typeB], sat, fast, sat / fast);
+            }
+        }
+
+        System.out.println("Hits: " + sink);
+    }
+
+    private static Polygon createShape(Random random, int type)
+    {
+        Polygon shape;
+
+        if (type == 2)
+            shape = new Circle(0, 0, 8 + random.nextInt(16));
+        else
+        {
+            shape = new Rectangle(0, 0, 8 + random.nextInt(48), 8 + random.nextInt(48));
+
+            if (type == 0)
+                shape.rotate(1 + random.nextInt(358));
+        }
+
+        shape.setPosition(new Vector2(random.nextInt(100), random.nextInt(100)));
+
+        return shape;
+    }
+
+    // Returns the average time of a single test in nanoseconds
+    private static double measure(Polygon[] as, Polygon[] bs, boolean fast)
+    {
+        Collision2D.Response response = new Collision2D.Response();
+
+        for (int i = 0; i < WARMUP; i++)
+            run(as, bs, fast, response);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++)
+            run(as, bs, fast, response);
+
+        return (System.nanoTime() - start) / (double) (ITERATIONS * NUM_PAIRS);
+    }
+
+    private static void run(Polygon[] as, Polygon[] bs, boolean fast, Collision2D.Response response)
+    {
+        int hits = 0;
+
+        for (int i = 0; i < as.length; i++)
+        {
+            boolean collides = fast ? Collision2D.testCollision(as[i], bs[i], response.clear())
+                                    : Collision2D.testPolygonCollision(as[i], bs[i], response.clear());
+
+            if (collides)
+                hits++;
+        }
+
+        sink += hits;
+    }
+}
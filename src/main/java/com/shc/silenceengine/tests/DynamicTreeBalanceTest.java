@@ -0,0 +1,80 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.collision.broadphase.DynamicTree2D;
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+
+/**
+ * Inserts a large number of sorted boxes into a DynamicTree2D, which is the worst
+ * case for an unbalanced tree, and checks that the height stays logarithmic. It also
+ * checks that a rotated entity, whose bounds don't start at its position, is found
+ * by the tree. This test doesn't need a Display, and can be run directly.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class DynamicTreeBalanceTest
+{
+    private static final int NUM_BOXES = 100000;
+
+    public static void main(String[] args)
+    {
+        DynamicTree2D tree = new DynamicTree2D();
+
+        for (int i = 0; i < NUM_BOXES; i++)
+        {
+            Entity2D box = new Entity2D(new Rectangle(0, 0, 16, 16));
+            box.setPosition(new Vector2(i * 16, 0));
+
+            tree.insert(box);
+        }
+
+        int height = tree.getHeight();
+        int maxHeight = 2 * (int) Math.ceil(Math.log(NUM_BOXES) / Math.log(2));
+
+        System.out.println("Inserted " + NUM_BOXES + " sorted boxes");
+        System.out.println("Height: " + height + " (Allowed: " + maxHeight + ")");
+        System.out.println("Area Ratio: " + tree.getAreaRatio());
+
+        if (height > maxHeight)
+            throw new SilenceException("The height of the DynamicTree2D is not logarithmic: " + height);
+
+        checkRotatedEntity();
+    }
+
+    private static void checkRotatedEntity()
+    {
+        DynamicTree2D tree = new DynamicTree2D();
+
+        // A bar rotated by 90 degrees around its center, its bounds are [60, 140, 100, 20]
+        Entity2D bar = new Entity2D(new Rectangle(0, 0, 20, 100));
+        bar.setPosition(new Vector2(100, 100));
+        bar.rotate(90);
+
+        // A box that only overlaps the rotated bar
+        Entity2D box = new Entity2D(new Rectangle(0, 0, 10, 10));
+        box.setPosition(new Vector2(65, 145));
+
+        tree.insert(bar);
+        tree.insert(box);
+
+        int[] pairs = new int[1];
+        tree.forEachOverlappingPair((a, b) -> pairs[0]++);
+
+        System.out.println("Rotated Bar Bounds: " + bar.getBounds());
+
+        if (pairs[0] != 1)
+            throw new SilenceException("The rotated bar is not paired with the box: " + pairs[0] + " pairs");
+
+        if (!tree.retrieve(box).contains(bar))
+            throw new SilenceException("The rotated bar is not retrieved with the box");
+
+        // Moving the bar must keep it in the tree at its new bounds
+        bar.setPosition(new Vector2(100, 200));
+        tree.move(bar);
+
+        if (tree.retrieve(box).contains(bar))
+            throw new SilenceException("The moved bar is still retrieved with the box");
+    }
+}
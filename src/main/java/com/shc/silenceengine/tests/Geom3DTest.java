@@ -105,7 +105,7 @@ public class Geom3DTest extends Game
     {
         camera.apply();
 
-        boolean intersects = sphere.intersects(cube);
+        boolean intersects = Collision3D.testPolyhedronCollision(sphere, cube, null);
         Collision3D.Response response = Collision3D.getResponse();
 
         if (!intersects)
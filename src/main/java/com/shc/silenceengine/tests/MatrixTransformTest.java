@@ -0,0 +1,125 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.math.Matrix3;
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Quaternion;
+import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.math.Vector4;
+import com.shc.silenceengine.utils.TransformUtils;
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Checks the vectors transformed by the matrices against known results, for a
+ * translation, a rotation and a Transform that combines them. The matrices must
+ * transform the vectors like the shaders do, so random transforms are also checked
+ * against the product that GLSL computes for a matrix uploaded by the Program. The
+ * bulk transforms of the Matrix4 must agree with them. This test doesn't need a
+ * Display, and can be run directly.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class MatrixTransformTest
+{
+    private static final float EPSILON = 0.0001f;
+
+    public static void main(String[] args)
+    {
+        Vector3 point = new Vector3(4, 5, 6);
+
+        // A translation moves the points, but not the directions
+        Matrix4 translation = new Matrix4().translate(1, 2, 3);
+
+        check("Translated point", translation.multiply(point), 5, 7, 9);
+        check("Translated point", point.multiply(translation), 5, 7, 9);
+        check("Translated point", translation.multiply(new Vector4(point, 1)), 5, 7, 9, 1);
+        check("Translated direction", translation.multiply(new Vector4(point, 0)), 4, 5, 6, 0);
+
+        // A rotation of 90 degrees around the z-axis turns the x-axis into the y-axis
+        Matrix4 rotation = new Matrix4(TransformUtils.createRotation(Vector3.AXIS_Z, 90));
+
+        check("Rotated point", rotation.multiply(Vector3.AXIS_X), 0, 1, 0);
+        check("Rotated point", rotation.multiply(point), -5, 4, 6);
+        check("Rotated point", new Quaternion(Vector3.AXIS_Z, 90).multiply(point), -5, 4, 6);
+
+        Matrix3 rotation3 = new Matrix3();
+
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < 3; j++)
+                rotation3.set(i, j, rotation.get(i, j));
+        }
+
+        check("Rotated point (Matrix3)", rotation3.multiply(point), -5, 4, 6);
+        check("Rotated point (Matrix3)", point.multiply(rotation3), -5, 4, 6);
+
+        // The transforms are applied in the order in which they are added to a Transform
+        Matrix4 transform = new Transform().translate(new Vector3(1, 2, 3))
+                                           .rotate(Vector3.AXIS_Z, 90)
+                                           .getMatrix();
+
+        check("Translated and rotated point", transform.multiply(point), -7, 5, 9);
+
+        // The bulk transforms agree with the vectors transformed one at a time
+        float[] points = {point.x, point.y, point.z, 1, 0, 0};
+
+        transform.transformPoints(points, points);
+
+        check("Bulk transformed point", new Vector3(points[0], points[1], points[2]), -7, 5, 9);
+        check("Bulk transformed point", new Vector3(points[3], points[4], points[5]), -2, 2, 3);
+
+        checkShaderProduct();
+
+        System.out.println("The transformed vectors match the expected results");
+    }
+
+    // Checks random transforms against the product of a matrix uploaded with glUniformMatrix4 and a vec4
+    private static void checkShaderProduct()
+    {
+        Random random = new Random(42);
+        FloatBuffer buffer = BufferUtils.createFloatBuffer(16);
+
+        for (int i = 0; i < 1000; i++)
+        {
+            Matrix4 matrix = new Transform().translate(new Vector3(random.nextFloat() * 10, random.nextFloat() * 10, random.nextFloat() * 10))
+                                            .rotate(new Vector3(random.nextFloat(), random.nextFloat(), 1), random.nextFloat() * 360)
+                                            .scale(new Vector3(1 + random.nextFloat(), 1 + random.nextFloat(), 1 + random.nextFloat()))
+                                            .getMatrix();
+
+            // The Program stores the matrix and uploads it without transposing it
+            buffer.clear();
+            matrix.store(buffer).flip();
+
+            Vector4 v = new Vector4(random.nextFloat() * 10, random.nextFloat() * 10, random.nextFloat() * 10, random.nextInt(2));
+            Vector4 expected = new Vector4();
+
+            // GLSL reads the floats as columns, and mat4 * vec4 sums the columns scaled by the vector
+            expected.x = buffer.get(0) * v.x + buffer.get(4) * v.y + buffer.get(8) * v.z + buffer.get(12) * v.w;
+            expected.y = buffer.get(1) * v.x + buffer.get(5) * v.y + buffer.get(9) * v.z + buffer.get(13) * v.w;
+            expected.z = buffer.get(2) * v.x + buffer.get(6) * v.y + buffer.get(10) * v.z + buffer.get(14) * v.w;
+            expected.w = buffer.get(3) * v.x + buffer.get(7) * v.y + buffer.get(11) * v.z + buffer.get(15) * v.w;
+
+            check("Shader product", matrix.multiply(v), expected.x, expected.y, expected.z, expected.w);
+
+            if (v.w == 1)
+                check("Shader product", matrix.multiply(new Vector3(v.x, v.y, v.z)), expected.x, expected.y, expected.z);
+        }
+    }
+
+    private static void check(String name, Vector3 v, float x, float y, float z)
+    {
+        if (Math.abs(v.x - x) > EPSILON || Math.abs(v.y - y) > EPSILON || Math.abs(v.z - z) > EPSILON)
+            throw new SilenceException(name + " is " + v + ", expected [" + x + ", " + y + ", " + z + "]");
+    }
+
+    private static void check(String name, Vector4 v, float x, float y, float z, float w)
+    {
+        if (Math.abs(v.x - x) > EPSILON || Math.abs(v.y - y) > EPSILON ||
+            Math.abs(v.z - z) > EPSILON || Math.abs(v.w - w) > EPSILON)
+            throw new SilenceException(name + " is " + v + ", expected [" + x + ", " + y + ", " + z + ", " + w + "]");
+    }
+}
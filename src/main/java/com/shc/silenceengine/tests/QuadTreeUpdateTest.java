@@ -0,0 +1,122 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.collision.broadphase.QuadTree;
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.entity.Entity2D;
+import com.shc.silenceengine.geom2d.Rectangle;
+import com.shc.silenceengine.math.Vector2;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Moves boxes across the quadrants of a QuadTree and updates them, and checks the
+ * pairs and the nearest entities against a brute force search after every step.
+ * Every overlapping pair must be reported exactly once, and no entity may be paired
+ * with itself. This test doesn't need a Display, and can be run directly.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class QuadTreeUpdateTest
+{
+    private static final int MAP_SIZE  = 1024;
+    private static final int NUM_BOXES = 500;
+    private static final int NUM_STEPS = 200;
+    private static final int K         = 8;
+
+    public static void main(String[] args)
+    {
+        Random random = new Random(42);
+
+        QuadTree tree = new QuadTree(MAP_SIZE, MAP_SIZE);
+        Entity2D[] boxes = new Entity2D[NUM_BOXES];
+
+        for (int i = 0; i < NUM_BOXES; i++)
+        {
+            boxes[i] = new Entity2D(new Rectangle(0, 0, 8 + random.nextInt(32), 8 + random.nextInt(32)));
+            boxes[i].setPosition(new Vector2(random.nextFloat() * MAP_SIZE, random.nextFloat() * MAP_SIZE));
+
+            tree.insert(boxes[i]);
+        }
+
+        Entity2D[] nearest = new Entity2D[K];
+        float[] distances = new float[K];
+
+        for (int step = 0; step < NUM_STEPS; step++)
+        {
+            // Move some of the boxes far enough to change their quadrants
+            for (int i = 0; i < NUM_BOXES / 5; i++)
+            {
+                Entity2D box = boxes[random.nextInt(NUM_BOXES)];
+                box.setPosition(new Vector2(random.nextFloat() * MAP_SIZE, random.nextFloat() * MAP_SIZE));
+
+                tree.update(box);
+            }
+
+            Set<Long> pairs = new HashSet<>();
+
+            tree.forEachOverlappingPair((a, b) ->
+            {
+                if (a == b)
+                    throw new SilenceException("The entity " + a.getID() + " is paired with itself");
+
+                if (!pairs.add(getKey(a, b)))
+                    throw new SilenceException("The pair " + a.getID() + ", " + b.getID() + " is reported twice");
+            });
+
+            for (int i = 0; i < NUM_BOXES; i++)
+            {
+                for (int j = i + 1; j < NUM_BOXES; j++)
+                {
+                    if (overlaps(boxes[i].getBounds(), boxes[j].getBounds()) && !pairs.contains(getKey(boxes[i], boxes[j])))
+                        throw new SilenceException("The overlapping pair " + boxes[i].getID() + ", " + boxes[j].getID() + " is missed");
+                }
+            }
+
+            Vector2 center = new Vector2(random.nextFloat() * MAP_SIZE, random.nextFloat() * MAP_SIZE);
+            int count = tree.nearest(center, K, nearest, distances);
+
+            if (count != K || !Arrays.equals(distances, getNearestDistances(boxes, center)))
+                throw new SilenceException("The nearest entities are wrong at step " + step);
+        }
+
+        System.out.println("Moved and updated " + NUM_BOXES / 5 + " of " + NUM_BOXES + " boxes in " + NUM_STEPS + " steps");
+        System.out.println("The pairs and the nearest entities match the brute force search");
+    }
+
+    private static long getKey(Entity2D a, Entity2D b)
+    {
+        int min = Math.min(a.getID(), b.getID());
+        int max = Math.max(a.getID(), b.getID());
+
+        return ((long) min << 32) | max;
+    }
+
+    private static boolean overlaps(Rectangle r1, Rectangle r2)
+    {
+        return r1.getX() < r2.getX() + r2.getWidth() && r2.getX() < r1.getX() + r1.getWidth() &&
+               r1.getY() < r2.getY() + r2.getHeight() && r2.getY() < r1.getY() + r1.getHeight();
+    }
+
+    // Returns the sorted distances from the point to the bounds of the K nearest boxes
+    private static float[] getNearestDistances(Entity2D[] boxes, Vector2 point)
+    {
+        float[] distances = new float[boxes.length];
+
+        for (int i = 0; i < boxes.length; i++)
+        {
+            Rectangle bounds = boxes[i].getBounds();
+
+            float dx = Math.max(Math.max(bounds.getX() - point.x, point.x - bounds.getX() - bounds.getWidth()), 0);
+            float dy = Math.max(Math.max(bounds.getY() - point.y, point.y - bounds.getY() - bounds.getHeight()), 0);
+
+            distances[i] = (float) Math.sqrt(dx * dx + dy * dy);
+        }
+
+        Arrays.sort(distances);
+
+        return Arrays.copyOf(distances, K);
+    }
+}
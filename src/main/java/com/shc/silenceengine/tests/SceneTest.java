@@ -133,7 +133,7 @@ public class SceneTest extends Game
 
         public void render(float delta, Batcher batcher)
         {
-            batcher.applyTransform(getTransform());
+            batcher.applyTransform(getWorldTransform());
             batcher.begin();
             {
                 batcher.vertex(0, 0.1f);
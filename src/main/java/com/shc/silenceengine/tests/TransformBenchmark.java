@@ -0,0 +1,211 @@
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector3;
+import org.lwjgl.BufferUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Compares transforming vertices one Vector3 at a time through a Matrix4 with
+ * the bulk transforms of the Matrix4, which read packed x, y and z triples from
+ * arrays or buffers. The time is reported along with the bytes allocated by the
+ * measured operation.
+ * <p>
+ * This benchmark doesn't need a Display, and can be run directly. The vertex
+ * counts can be passed as the arguments, the default is 1000 to 1000000 vertices.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TransformBenchmark
+{
+    private static final int[] DEFAULT_COUNTS = {1000, 100000, 1000000};
+
+    // The time spent warming up and measuring every operation
+    private static final long WARMUP_TIME  = 200_000_000L;
+    private static final long MEASURE_TIME = 500_000_000L;
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    // Keeps the results alive, so that the operations are not optimized away
+    private static float sink;
+
+    public static void main(String[] args)
+    {
+        int[] counts = DEFAULT_COUNTS;
+
+        if (args.length > 0)
+        {
+            counts = new int[args.length];
+
+            for (int i = 0; i < args.length; i++)
+                counts[i] = Integer.parseInt(args[i]);
+        }
+
+        if (getAllocatedBytes() < 0)
+            System.out.println("The allocations can't be measured on this JVM, they are reported as -1");
+
+        // A transform like the ones of the entities, that rotates, scales and translates
+        Matrix4 matrix = new Transform().translate(new Vector3(10, 20, 30))
+                                        .rotate(new Vector3(1, 2, 3), 30)
+                                        .scale(new Vector3(2, 2, 2))
+                                        .getMatrix();
+
+        for (int count : counts)
+            run(matrix, count);
+
+        System.out.println("Sink: " + sink);
+    }
+
+    private static void run(Matrix4 matrix, int count)
+    {
+        Random random = new Random(count);
+
+        Vector3[] vectors = new Vector3[count];
+        Vector3[] results = new Vector3[count];
+
+        float[] src = new float[count * 3];
+        float[] dest = new float[count * 3];
+
+        for (int i = 0; i < count; i++)
+        {
+            float x = random.nextFloat() * 100;
+            float y = random.nextFloat() * 100;
+            float z = random.nextFloat() * 100;
+
+            vectors[i] = new Vector3(x, y, z);
+            results[i] = new Vector3();
+
+            src[i * 3] = x;
+            src[i * 3 + 1] = y;
+            src[i * 3 + 2] = z;
+        }
+
+        FloatBuffer heapSrc = FloatBuffer.wrap(src);
+        FloatBuffer heapDest = FloatBuffer.allocate(count * 3);
+
+        FloatBuffer directSrc = BufferUtils.createFloatBuffer(count * 3);
+        FloatBuffer directDest = BufferUtils.createFloatBuffer(count * 3);
+
+        directSrc.put(src).flip();
+
+        System.out.println();
+        System.out.printf("%d vertices%n", count);
+        System.out.printf("%-32s %14s %16s%n", "Operation", "Time (ns)", "Bytes / run");
+
+        double[] perVector = measure(null, () ->
+        {
+            for (int i = 0; i < count; i++)
+                results[i] = matrix.multiply(vectors[i]);
+
+            sink += results[count - 1].x;
+        });
+
+        double[] perVectorDest = measure(null, () ->
+        {
+            for (int i = 0; i < count; i++)
+                matrix.multiply(vectors[i], results[i]);
+
+            sink += results[count - 1].x;
+        });
+
+        double[] points = measure(null, () ->
+        {
+            matrix.transformPoints(src, dest);
+            sink += dest[count * 3 - 1];
+        });
+
+        double[] directions = measure(null, () ->
+        {
+            matrix.transformDirections(src, dest);
+            sink += dest[count * 3 - 1];
+        });
+
+        double[] heapPoints = measure(() ->
+        {
+            heapSrc.clear();
+            heapDest.clear();
+        }, () ->
+        {
+            matrix.transformPoints(heapSrc, heapDest);
+            sink += heapDest.get(count * 3 - 1);
+        });
+
+        double[] directPoints = measure(() ->
+        {
+            directSrc.clear();
+            directDest.clear();
+        }, () ->
+        {
+            matrix.transformPoints(directSrc, directDest);
+            sink += directDest.get(count * 3 - 1);
+        });
+
+        printResult("Per vector, new result", perVector, count);
+        printResult("Per vector, into dest", perVectorDest, count);
+        printResult("Bulk points, array", points, count);
+        printResult("Bulk directions, array", directions, count);
+        printResult("Bulk points, heap buffer", heapPoints, count);
+        printResult("Bulk points, direct buffer", directPoints, count);
+    }
+
+    private static double[] measure(Runnable prepare, Runnable operation)
+    {
+        long warmupEnd = System.nanoTime() + WARMUP_TIME;
+
+        do
+        {
+            if (prepare != null)
+                prepare.run();
+
+            operation.run();
+        }
+        while (System.nanoTime() < warmupEnd);
+
+        long time = 0;
+        long bytes = 0;
+        int runs = 0;
+
+        do
+        {
+            if (prepare != null)
+                prepare.run();
+
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+
+            operation.run();
+
+            time += System.nanoTime() - start;
+            bytes += getAllocatedBytes() - allocated;
+            runs++;
+        }
+        while (time < MEASURE_TIME);
+
+        return new double[]{time / (double) runs, getAllocatedBytes() < 0 ? -1 : bytes / (double) runs};
+    }
+
+    // Returns the bytes allocated by the current thread, or -1 if the JVM can't measure them
+    private static long getAllocatedBytes()
+    {
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+
+    // Prints the time per vertex, and the bytes allocated by a whole run of the operation
+    private static void printResult(String operation, double[] result, int count)
+    {
+        System.out.printf("%-32s %14.2f %16.0f%n", operation, result[0] / count, result[1]);
+    }
+}
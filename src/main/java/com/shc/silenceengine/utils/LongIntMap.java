@@ -0,0 +1,213 @@
+package com.shc.silenceengine.utils;
+
+/**
+ * A hash map from primitive long keys to primitive int values. It uses open
+ * addressing with linear probing, so no objects are created when putting or
+ * removing the entries, unless the map has to grow. Useful for keys that
+ * pack two ints, like a pair of IDs or the coordinates of a cell.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class LongIntMap
+{
+    private long[]    keys;
+    private int[]     values;
+    private boolean[] used;
+
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public LongIntMap()
+    {
+        this(16);
+    }
+
+    /**
+     * Constructs a LongIntMap that can hold the given number of entries before growing.
+     *
+     * @param initialCapacity The expected number of entries
+     */
+    public LongIntMap(int initialCapacity)
+    {
+        int capacity = 16;
+
+        while (capacity * 3 / 4 < initialCapacity)
+            capacity <<= 1;
+
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private int indexOf(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value.
+     *
+     * @param key   The key
+     * @param value The value
+     */
+    public void put(long key, int value)
+    {
+        int index = indexOf(key);
+
+        while (used[index])
+        {
+            if (keys[index] == key)
+            {
+                values[index] = value;
+                return;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > threshold)
+            grow();
+    }
+
+    /**
+     * @param key          The key to look up
+     * @param defaultValue The value to return if the key is not present
+     *
+     * @return The value associated with the key, or the default value.
+     */
+    public int get(long key, int defaultValue)
+    {
+        int index = indexOf(key);
+
+        while (used[index])
+        {
+            if (keys[index] == key)
+                return values[index];
+
+            index = (index + 1) & mask;
+        }
+
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key)
+    {
+        int index = indexOf(key);
+
+        while (used[index])
+        {
+            if (keys[index] == key)
+                return true;
+
+            index = (index + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the entry with the key, if present.
+     *
+     * @param key          The key to remove
+     * @param defaultValue The value to return if the key is not present
+     *
+     * @return The value that was associated with the key, or the default value.
+     */
+    public int remove(long key, int defaultValue)
+    {
+        int index = indexOf(key);
+
+        while (used[index])
+        {
+            if (keys[index] == key)
+            {
+                int value = values[index];
+                shiftBack(index);
+                size--;
+
+                return value;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return defaultValue;
+    }
+
+    // Moves the entries following a removed slot back, so that no probe sequence is broken
+    private void shiftBack(int hole)
+    {
+        int index = (hole + 1) & mask;
+
+        while (used[index])
+        {
+            int home = indexOf(keys[index]);
+
+            // Move the entry if the hole lies cyclically between its home and its current slot
+            if (((index - home) & mask) >= ((index - hole) & mask))
+            {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                hole = index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[hole] = false;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(keys.length << 1);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldUsed[i])
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Removes all the entries, but keeps the allocated storage.
+     */
+    public void clear()
+    {
+        if (size == 0)
+            return;
+
+        for (int i = 0; i < used.length; i++)
+            used[i] = false;
+
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+}
@@ -31,9 +31,14 @@ public final class RenderUtils
     {
         b.begin(Primitive.LINE_LOOP);
         {
-            for (Vector2 vertex : polygon.getVertices())
+            float x = polygon.getPosition().x + position.x;
+            float y = polygon.getPosition().y + position.y;
+
+            for (int i = 0; i < polygon.vertexCount(); i++)
             {
-                b.vertex(vertex.add(polygon.getPosition().add(position)));
+                Vector2 vertex = polygon.getVertex(i);
+
+                b.vertex(vertex.x + x, vertex.y + y);
                 b.color(color);
             }
         }
@@ -54,9 +59,14 @@ public final class RenderUtils
     {
         b.begin(Primitive.TRIANGLE_FAN);
         {
-            for (Vector2 vertex : polygon.getVertices())
+            float x = polygon.getPosition().x + position.x;
+            float y = polygon.getPosition().y + position.y;
+
+            for (int i = 0; i < polygon.vertexCount(); i++)
             {
-                b.vertex(vertex.add(polygon.getPosition().add(position)));
+                Vector2 vertex = polygon.getVertex(i);
+
+                b.vertex(vertex.x + x, vertex.y + y);
                 b.color(color);
             }
         }
@@ -81,6 +91,10 @@ public final class RenderUtils
             Vector3 v2;
             Vector3 v3;
 
+            float x = polyhedron.getPosition().x + position.x;
+            float y = polyhedron.getPosition().y + position.y;
+            float z = polyhedron.getPosition().z + position.z;
+
             // Convert Triangle Strip vertices to Triangles
             for (int v = 0; v < polyhedron.vertexCount() - 2; v++)
             {
@@ -99,19 +113,14 @@ public final class RenderUtils
                     v3 = polyhedron.getVertex(v + 1);
                 }
 
-                // Set the position of the vertices
-                v1 = v1.add(polyhedron.getPosition()).add(position);
-                v2 = v2.add(polyhedron.getPosition()).add(position);
-                v3 = v3.add(polyhedron.getPosition()).add(position);
-
-                // Draw the triangle as a line strip
-                b.vertex(v1);
+                // Draw the triangle as a line strip, at the position of the polyhedron
+                b.vertex(v1.x + x, v1.y + y, v1.z + z);
                 b.color(color);
 
-                b.vertex(v2);
+                b.vertex(v2.x + x, v2.y + y, v2.z + z);
                 b.color(color);
 
-                b.vertex(v3);
+                b.vertex(v3.x + x, v3.y + y, v3.z + z);
                 b.color(color);
             }
         }
@@ -132,9 +141,15 @@ public final class RenderUtils
     {
         b.begin(Primitive.TRIANGLE_STRIP);
         {
-            for (Vector3 vertex : polyhedron.getVertices())
+            float x = polyhedron.getPosition().x + position.x;
+            float y = polyhedron.getPosition().y + position.y;
+            float z = polyhedron.getPosition().z + position.z;
+
+            for (int i = 0; i < polyhedron.vertexCount(); i++)
             {
-                b.vertex(vertex.add(polyhedron.getPosition().add(position)));
+                Vector3 vertex = polyhedron.getVertex(i);
+
+                b.vertex(vertex.x + x, vertex.y + y, vertex.z + z);
                 b.color(color);
             }
         }
@@ -46,19 +46,25 @@ public final class TransformUtils
         float c = (float) Math.cos(Math.toRadians(angle));
         float s = (float) Math.sin(Math.toRadians(angle));
 
-        Vector3 v = axis.normalize();
+        // Normalize the axis without creating a new vector
+        float length = axis.length();
+        float invLength = length == 0 ? 0 : 1 / length;
 
-        result.set(0, 0, v.getX() * v.getX() * (1-c) + c)
-              .set(1, 0, v.getX() * v.getY() * (1-c) - v.getZ() * s)
-              .set(2, 0, v.getX() * v.getZ() * (1-c) + v.getY() * s);
+        float x = axis.x * invLength;
+        float y = axis.y * invLength;
+        float z = axis.z * invLength;
 
-        result.set(0, 1, v.getY() * v.getX() * (1-c) + v.getZ() * s)
-              .set(1, 1, v.getY() * v.getY() * (1-c) + c)
-              .set(2, 1, v.getY() * v.getZ() * (1-c) - v.getX() * s);
+        result.set(0, 0, x * x * (1-c) + c)
+              .set(1, 0, x * y * (1-c) - z * s)
+              .set(2, 0, x * z * (1-c) + y * s);
 
-        result.set(0, 2, v.getX() * v.getZ() * (1-c) - v.getY() * s)
-              .set(1, 2, v.getY() * v.getZ() * (1-c) + v.getX() * s)
-              .set(2, 2, v.getZ() * v.getZ() * (1-c) + c);
+        result.set(0, 1, y * x * (1-c) + z * s)
+              .set(1, 1, y * y * (1-c) + c)
+              .set(2, 1, y * z * (1-c) - x * s);
+
+        result.set(0, 2, x * z * (1-c) - y * s)
+              .set(1, 2, y * z * (1-c) + x * s)
+              .set(2, 2, z * z * (1-c) + c);
 
         return result;
     }
@@ -141,19 +147,28 @@ public final class TransformUtils
 
     public static Matrix4 createRotation(Quaternion q)
     {
-        q = q.normalize();
-
         Matrix4 result = tempMat.initIdentity();
 
-        float x2 = q.x * q.x;
-        float y2 = q.y * q.y;
-        float z2 = q.z * q.z;
-        float xy = q.x * q.y;
-        float xz = q.x * q.z;
-        float yz = q.y * q.z;
-        float wx = q.w * q.x;
-        float wy = q.w * q.y;
-        float wz = q.w * q.z;
+        // Normalize the quaternion without creating a new one
+        float length = q.length();
+
+        if (length == 0)
+            return result;
+
+        float x = q.x / length;
+        float y = q.y / length;
+        float z = q.z / length;
+        float w = q.w / length;
+
+        float x2 = x * x;
+        float y2 = y * y;
+        float z2 = z * z;
+        float xy = x * y;
+        float xz = x * z;
+        float yz = y * z;
+        float wx = w * x;
+        float wy = w * y;
+        float wz = w * z;
 
         result.set(0, 0, 1.0f - 2.0f * (y2 + z2))
               .set(0, 1, 2.0f * (xy - wz))